@@ -20,24 +20,39 @@ import co.cask.cdap.api.annotation.Beta;
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.data.schema.Schema;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 /**
- * Instance of a record structured by a {@link Schema}. Fields are accessible by name.
+ * Instance of a record structured by a {@link Schema}. Fields are accessible by name, or by their position
+ * in the list of fields of the schema. Field values are kept in an array in the order of the schema fields.
  */
 @Beta
 public class StructuredRecord implements Serializable {
-  private final Schema schema;
-  private final Map<String, Object> fields;
 
   private static final long serialVersionUID = -4648752378975451591L;
 
-  private StructuredRecord(Schema schema, Map<String, Object> fields) {
+  // Serialized form is the schema and a map from field name to value, same as when the fields were kept in a map
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("schema", Schema.class),
+    new ObjectStreamField("fields", Map.class)
+  };
+
+  // Not final, as they are set by readObject
+  private Schema schema;
+  private Object[] values;
+
+  private StructuredRecord(Schema schema, Object[] values) {
     this.schema = schema;
-    this.fields = fields;
+    this.values = values;
   }
 
   /**
@@ -58,7 +73,24 @@ public class StructuredRecord implements Serializable {
    */
   @SuppressWarnings("unchecked")
   public <T> T get(String fieldName) {
-    return (T) fields.get(fieldName);
+    int idx = schema.getFieldIndex(fieldName);
+    return idx < 0 ? null : (T) values[idx];
+  }
+
+  /**
+   * Get the value of a field in the record by the position of the field in the schema.
+   *
+   * @param index position of the field in {@link Schema#getFields()}.
+   * @param <T> type of object of the field value.
+   * @return value of the field.
+   * @throws IndexOutOfBoundsException if the index is not a valid field position.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(int index) {
+    if (index < 0 || index >= values.length) {
+      throw new IndexOutOfBoundsException("Invalid field index " + index + " for schema " + schema);
+    }
+    return (T) values[index];
   }
 
   /**
@@ -81,11 +113,13 @@ public class StructuredRecord implements Serializable {
    */
   public static class Builder {
     private final Schema schema;
-    private Map<String, Object> fields;
+    private final List<Schema.Field> fields;
+    private final Object[] values;
 
     private Builder(Schema schema) {
       this.schema = schema;
-      this.fields = new HashMap<>();
+      this.fields = schema.getFields();
+      this.values = new Object[fields.size()];
     }
 
     /**
@@ -98,8 +132,24 @@ public class StructuredRecord implements Serializable {
      *                                   value is given.
      */
     public Builder set(String fieldName, Object value) {
-      validateAndGetField(fieldName, value);
-      fields.put(fieldName, value);
+      int idx = getFieldIndex(fieldName);
+      validateAndGetField(idx, value);
+      values[idx] = value;
+      return this;
+    }
+
+    /**
+     * Set the field at the given position in the schema to the given value.
+     *
+     * @param index Position of the field in {@link Schema#getFields()}.
+     * @param value Value for the field.
+     * @return This builder.
+     * @throws UnexpectedFormatException if the index is not a valid field position, or the field is not nullable
+     *                                   but a null value is given.
+     */
+    public Builder set(int index, Object value) {
+      validateAndGetField(index, value);
+      values[index] = value;
       return this;
     }
 
@@ -114,8 +164,9 @@ public class StructuredRecord implements Serializable {
      *                                   value is given, or the string cannot be converted to the type for the field.
      */
     public Builder convertAndSet(String fieldName, String strVal) throws UnexpectedFormatException {
-      Schema.Field field = validateAndGetField(fieldName, strVal);
-      fields.put(fieldName, convertString(field.getSchema(), strVal));
+      int idx = getFieldIndex(fieldName);
+      Schema.Field field = validateAndGetField(idx, strVal);
+      values[idx] = convertString(field.getSchema(), strVal);
       return this;
     }
 
@@ -126,20 +177,15 @@ public class StructuredRecord implements Serializable {
      * @throws UnexpectedFormatException if there is at least one non-nullable field without a value.
      */
     public StructuredRecord build() throws UnexpectedFormatException {
-      // check that all non-nullable fields have a value.
-      for (Schema.Field field : schema.getFields()) {
-        String fieldName = field.getName();
-        if (!fields.containsKey(fieldName)) {
-          // if the field is not nullable and there is no value set for the field, this is invalid.
-          if (!field.getSchema().isNullable()) {
-            throw new UnexpectedFormatException("Field " + fieldName + " must contain a value.");
-          } else {
-            // otherwise, set the value for the field to null
-            fields.put(fieldName, null);
-          }
+      // check that all non-nullable fields have a value. Since a non-nullable field cannot be set to null,
+      // a null value means that no value was set for the field. Unset nullable fields are left null.
+      for (int i = 0; i < values.length; i++) {
+        Schema.Field field = fields.get(i);
+        if (values[i] == null && !field.getSchema().isNullable()) {
+          throw new UnexpectedFormatException("Field " + field.getName() + " must contain a value.");
         }
       }
-      return new StructuredRecord(schema, fields);
+      return new StructuredRecord(schema, values);
     }
 
     private Object convertString(Schema schema, String strVal) throws UnexpectedFormatException {
@@ -181,13 +227,21 @@ public class StructuredRecord implements Serializable {
       }
     }
 
-    private Schema.Field validateAndGetField(String fieldName, Object val) {
-      Schema.Field field = schema.getField(fieldName);
-      if (field == null) {
+    private int getFieldIndex(String fieldName) {
+      int idx = schema.getFieldIndex(fieldName);
+      if (idx < 0) {
         throw new UnexpectedFormatException("field " + fieldName + " is not in the schema.");
       }
+      return idx;
+    }
+
+    private Schema.Field validateAndGetField(int index, Object val) {
+      if (index < 0 || index >= values.length) {
+        throw new UnexpectedFormatException("field index " + index + " is not in the schema.");
+      }
+      Schema.Field field = fields.get(index);
       if (!field.getSchema().isNullable() && val == null) {
-        throw new UnexpectedFormatException("field " + fieldName + " cannot be set to a null value.");
+        throw new UnexpectedFormatException("field " + field.getName() + " cannot be set to a null value.");
       }
       return field;
     }
@@ -204,12 +258,38 @@ public class StructuredRecord implements Serializable {
 
     StructuredRecord that = (StructuredRecord) o;
 
-    return Objects.equals(schema, that.schema) && Objects.equals(fields, that.fields);
+    return Objects.equals(schema, that.schema) && Arrays.equals(values, that.values);
 
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(schema, fields);
+    return Objects.hash(schema, Arrays.hashCode(values));
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    List<Schema.Field> fields = schema.getFields();
+    Map<String, Object> fieldValues = new HashMap<>();
+    for (int i = 0; i < values.length; i++) {
+      fieldValues.put(fields.get(i).getName(), values[i]);
+    }
+    ObjectOutputStream.PutField putField = out.putFields();
+    putField.put("schema", schema);
+    putField.put("fields", fieldValues);
+    out.writeFields();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField getField = in.readFields();
+    schema = (Schema) getField.get("schema", null);
+    Map<String, Object> fieldValues = (Map<String, Object>) getField.get("fields", null);
+    values = new Object[schema.getFields().size()];
+    for (Map.Entry<String, Object> entry : fieldValues.entrySet()) {
+      int idx = schema.getFieldIndex(entry.getKey());
+      if (idx >= 0) {
+        values[idx] = entry.getValue();
+      }
+    }
   }
 }
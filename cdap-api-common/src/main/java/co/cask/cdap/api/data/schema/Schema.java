@@ -382,6 +382,8 @@ public final class Schema implements Serializable {
   // It can be recomputed on demand (and usually it is not used in the context that serialization is used)
   private transient String schemaString;
   private SchemaHash schemaHash;
+  // Position of each record field by name, computed on demand
+  private transient Map<String, Integer> fieldIndexes;
 
   private Schema(Type type, Set<String> enumValues, Schema componentSchema, Schema keySchema, Schema valueSchema,
                  String recordName, Map<String, Field> fieldMap, List<Schema> unionSchemas) {
@@ -485,6 +487,31 @@ public final class Schema implements Serializable {
     return fieldMap.get(name);
   }
 
+  /**
+   * Returns the position of the record {@link Field} of the given name in the list returned by {@link #getFields()}.
+   *
+   * @param name Name of the field
+   * @return The 0-base index of the field or {@code -1} if there is no such field in this record
+   *         or this is not a {@link Type#RECORD RECORD} schema.
+   */
+  public int getFieldIndex(String name) {
+    if (fields == null) {
+      return -1;
+    }
+    // The follow logic is thread safe, as the map is only published after being fully populated and wrapped as
+    // unmodifiable. It's possible that the map gets built multiple times, but they should yield the same result.
+    Map<String, Integer> indexes = fieldIndexes;
+    if (indexes == null) {
+      Map<String, Integer> map = new HashMap<>();
+      for (int i = 0; i < fields.size(); i++) {
+        map.put(fields.get(i).getName(), i);
+      }
+      fieldIndexes = indexes = Collections.unmodifiableMap(map);
+    }
+    Integer idx = indexes.get(name);
+    return idx == null ? -1 : idx;
+  }
+
   /**
    * @return An immutable {@link List} of schemas inside this union
    *         or {@code null} if this is not a {@link Type#UNION UNION} schema.
@@ -29,6 +29,7 @@ import co.cask.cdap.data2.queue.QueueClientFactory;
 import co.cask.cdap.data2.queue.QueueConsumer;
 import co.cask.cdap.data2.queue.QueueProducer;
 import co.cask.cdap.data2.transaction.TransactionExecutorFactory;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.queue.QueueMetrics;
 import co.cask.cdap.data2.transaction.stream.ForwardingStreamConsumer;
 import co.cask.cdap.data2.transaction.stream.StreamConsumer;
@@ -110,7 +111,13 @@ public final class LineageWriterDataFabricFacade implements DataFabricFacade, Pr
   @Override
   public QueueConsumer createConsumer(QueueName queueName,
                                       ConsumerConfig consumerConfig, int numGroups) throws IOException {
-    QueueConsumer consumer = queueClientFactory.createConsumer(queueName, consumerConfig, numGroups);
+    return createConsumer(queueName, consumerConfig, numGroups, QueueConsumerMetrics.NOOP);
+  }
+
+  @Override
+  public QueueConsumer createConsumer(QueueName queueName, ConsumerConfig consumerConfig, int numGroups,
+                                      QueueConsumerMetrics consumerMetrics) throws IOException {
+    QueueConsumer consumer = queueClientFactory.createConsumer(queueName, consumerConfig, numGroups, consumerMetrics);
     if (consumer instanceof TransactionAware) {
       consumer = new CloseableQueueConsumer(datasetCache, consumer);
       datasetCache.addExtraTransactionAware((TransactionAware) consumer);
@@ -76,7 +76,8 @@ final class DistributedFlowletInstanceUpdater {
       twillController.sendCommand(id, ProgramCommands.SUSPEND).get();
     }
     FlowUtils.reconfigure(consumerQueues.get(flowletId),
-                          FlowUtils.generateConsumerGroupId(programId, flowletId), newInstanceCount,
+                          FlowUtils.generateConsumerGroupId(programId, flowletId),
+                          FlowUtils.getConsumerGroupSize(flowSpec.getFlowlets().get(flowletId), newInstanceCount),
                           streamAdmin, queueAdmin, txExecutorFactory);
     twillController.changeInstances(flowletId, newInstanceCount).get();
     for (String id : flowlets) {
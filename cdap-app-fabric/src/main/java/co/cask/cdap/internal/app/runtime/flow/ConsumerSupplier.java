@@ -20,6 +20,7 @@ import co.cask.cdap.common.queue.QueueName;
 import co.cask.cdap.data2.queue.ConsumerConfig;
 import co.cask.cdap.data2.queue.QueueConsumer;
 import co.cask.cdap.data2.registry.RuntimeUsageRegistry;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.stream.StreamConsumer;
 import co.cask.cdap.internal.app.runtime.DataFabricFacade;
 import co.cask.cdap.proto.Id;
@@ -47,6 +48,7 @@ final class ConsumerSupplier<T> implements Supplier<T>, Closeable {
   private final int numGroups;
   private final RuntimeUsageRegistry runtimeUsageRegistry;
   private final Iterable<? extends Id> owners;
+  private final QueueConsumerMetrics consumerMetrics;
   private ConsumerConfig consumerConfig;
   private Closeable consumer;
 
@@ -61,19 +63,29 @@ final class ConsumerSupplier<T> implements Supplier<T>, Closeable {
                                         RuntimeUsageRegistry runtimeUsageRegistry,
                                         DataFabricFacade dataFabricFacade, QueueName queueName,
                                         ConsumerConfig consumerConfig, int numGroups) {
+    return create(owners, runtimeUsageRegistry, dataFabricFacade, queueName, consumerConfig, numGroups,
+                  QueueConsumerMetrics.NOOP);
+  }
+
+  static <T> ConsumerSupplier<T> create(Iterable<? extends Id> owners,
+                                        RuntimeUsageRegistry runtimeUsageRegistry,
+                                        DataFabricFacade dataFabricFacade, QueueName queueName,
+                                        ConsumerConfig consumerConfig, int numGroups,
+                                        QueueConsumerMetrics consumerMetrics) {
     return new ConsumerSupplier<>(owners, runtimeUsageRegistry, dataFabricFacade,
-                                   queueName, consumerConfig, numGroups);
+                                   queueName, consumerConfig, numGroups, consumerMetrics);
   }
 
   private ConsumerSupplier(Iterable<? extends Id> owners, RuntimeUsageRegistry runtimeUsageRegistry,
                            DataFabricFacade dataFabricFacade, QueueName queueName,
-                           ConsumerConfig consumerConfig, int numGroups) {
+                           ConsumerConfig consumerConfig, int numGroups, QueueConsumerMetrics consumerMetrics) {
     this.owners = owners;
     this.runtimeUsageRegistry = runtimeUsageRegistry;
     this.dataFabricFacade = dataFabricFacade;
     this.queueName = queueName;
     this.numGroups = numGroups;
     this.consumerConfig = consumerConfig;
+    this.consumerMetrics = consumerMetrics;
     open(consumerConfig.getGroupSize());
   }
 
@@ -95,7 +107,8 @@ final class ConsumerSupplier<T> implements Supplier<T>, Closeable {
                                     consumerConfig.getHashKey());
       }
       if (queueName.isQueue()) {
-        QueueConsumer queueConsumer = dataFabricFacade.createConsumer(queueName, config, numGroups);
+        QueueConsumer queueConsumer = dataFabricFacade.createConsumer(queueName, config, numGroups,
+                                                                      consumerMetrics);
         consumerConfig = queueConsumer.getConfig();
         consumer = queueConsumer;
       } else {
@@ -18,7 +18,6 @@ package co.cask.cdap.internal.app.runtime.flow;
 
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.api.flow.flowlet.OutputEmitter;
-import co.cask.cdap.common.io.BinaryEncoder;
 import co.cask.cdap.data2.queue.QueueEntry;
 import co.cask.cdap.data2.queue.QueueProducer;
 import co.cask.cdap.internal.io.DatumWriter;
@@ -26,9 +25,9 @@ import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -41,12 +40,24 @@ public final class DatumOutputEmitter<T> implements OutputEmitter<T> {
   public static final Function<Object, Integer> PARTITION_MAP_TRANSFORMER = new PartitionMapTransformer();
 
   private final Supplier<QueueProducer> producerSupplier;
-  private final byte[] schemaHash;
+  private final QueueEntryFormat.Encoder encoder;
   private final DatumWriter<T> writer;
 
   public DatumOutputEmitter(Supplier<QueueProducer> producerSupplier, Schema schema, DatumWriter<T> writer) {
+    this(producerSupplier, schema, writer, new SchemaCache(ImmutableSet.of(schema), null), null);
+  }
+
+  /**
+   * Creates an emitter that writes queue entries in the format of the given compression.
+   *
+   * @param schemaCache the {@link SchemaCache} of the program for resolving the compact schema id
+   * @param compression the compression to use or {@code null} to use the legacy format
+   * @see QueueEntryFormat
+   */
+  DatumOutputEmitter(Supplier<QueueProducer> producerSupplier, Schema schema, DatumWriter<T> writer,
+                     SchemaCache schemaCache, @Nullable QueueEntryFormat.Compression compression) {
     this.producerSupplier = producerSupplier;
-    this.schemaHash = schema.getSchemaHash().toByteArray();
+    this.encoder = new QueueEntryFormat.Encoder(schema, schemaCache, compression);
     this.writer = writer;
   }
 
@@ -63,11 +74,8 @@ public final class DatumOutputEmitter<T> implements OutputEmitter<T> {
   @Override
   public void emit(T data, Map<String, Object> partitions) {
     try {
-      ByteArrayOutputStream output = new ByteArrayOutputStream();
-      output.write(schemaHash);
-      writer.encode(data, new BinaryEncoder(output));
       producerSupplier.get().enqueue(new QueueEntry(Maps.transformValues(partitions, PARTITION_MAP_TRANSFORMER),
-                                                    output.toByteArray()));
+                                                    encoder.encode(data, writer)));
     } catch (IOException e) {
       throw Throwables.propagate(e);
     }
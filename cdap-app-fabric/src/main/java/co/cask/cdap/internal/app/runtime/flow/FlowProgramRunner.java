@@ -288,7 +288,8 @@ public final class FlowProgramRunner implements ProgramRunner {
 
       // Then reconfigure stream/queue consumers
       FlowUtils.reconfigure(consumerQueues.get(flowletName),
-                            FlowUtils.generateConsumerGroupId(program.getId(), flowletName), newInstanceCount,
+                            FlowUtils.generateConsumerGroupId(program.getId(), flowletName),
+                            FlowUtils.getConsumerGroupSize(flowSpec.getFlowlets().get(flowletName), newInstanceCount),
                             streamAdmin, queueAdmin, txExecutorFactory);
 
       // Then change instance count of current flowlets
@@ -343,7 +344,8 @@ public final class FlowProgramRunner implements ProgramRunner {
 
       // Then reconfigure stream/queue consumers
       FlowUtils.reconfigure(consumerQueues.get(flowletName),
-                            FlowUtils.generateConsumerGroupId(program.getId(), flowletName), newInstanceCount,
+                            FlowUtils.generateConsumerGroupId(program.getId(), flowletName),
+                            FlowUtils.getConsumerGroupSize(flowSpec.getFlowlets().get(flowletName), newInstanceCount),
                             streamAdmin, queueAdmin, txExecutorFactory);
 
       // Next updates instance count for each flowlets
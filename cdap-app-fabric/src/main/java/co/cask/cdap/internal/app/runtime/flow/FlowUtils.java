@@ -23,6 +23,7 @@ import co.cask.cdap.api.annotation.RoundRobin;
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.api.flow.FlowSpecification;
 import co.cask.cdap.api.flow.FlowletDefinition;
+import co.cask.cdap.api.flow.flowlet.FlowletSpecification;
 import co.cask.cdap.api.metrics.MetricDeleteQuery;
 import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.app.program.Program;
@@ -85,6 +86,12 @@ public final class FlowUtils {
 
   private static final Logger LOG = LoggerFactory.getLogger(FlowUtils.class);
 
+  /**
+   * Flowlet property for the number of threads processing events in each flowlet instance. Each thread runs
+   * its own copy of the flowlet, with its own transaction context and queue consumers, hence each of them is a
+   * consumer instance of its own in the consumer group of the flowlet. Defaults to one thread.
+   */
+  public static final String PROCESS_THREADS_PROPERTY = "system.flowlet.process.threads";
 
   /**
    * Generates a queue consumer groupId for the given flowlet in the given program id.
@@ -112,6 +119,33 @@ public final class FlowUtils {
       .putString(flowletId).hash().asLong();
   }
 
+  /**
+   * Returns the number of threads processing events in each instance of the given flowlet.
+   *
+   * @see #PROCESS_THREADS_PROPERTY
+   */
+  public static int getProcessThreads(FlowletSpecification flowletSpec) {
+    String threads = flowletSpec.getProperties().get(PROCESS_THREADS_PROPERTY);
+    if (threads == null) {
+      return 1;
+    }
+    try {
+      int result = Integer.parseInt(threads);
+      Preconditions.checkArgument(result > 0, "Number of process threads must be positive: %s", threads);
+      return result;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid number of process threads for flowlet "
+                                           + flowletSpec.getName() + ": " + threads, e);
+    }
+  }
+
+  /**
+   * Returns the size of the consumer group of the given flowlet when it runs with the given number of instances.
+   */
+  public static int getConsumerGroupSize(FlowletDefinition flowletDef, int instances) {
+    return instances * getProcessThreads(flowletDef.getFlowletSpec());
+  }
+
   /**
    * Creates a {@link ConsumerGroupConfig} by inspecting the given process method.
    */
@@ -273,7 +307,8 @@ public final class FlowUtils {
           long groupId = generateConsumerGroupId(program.getId(), flowletId);
 
           addConsumerGroup(queueSpec, flowletClass, groupId,
-                           flowletDefinition.getInstances(), schemaGenerator, groupConfigs);
+                           getConsumerGroupSize(flowletDefinition, flowletDefinition.getInstances()),
+                           schemaGenerator, groupConfigs);
         } catch (ClassNotFoundException e) {
           // There is no way for not able to load a Flowlet class as it should be verified during deployment.
           throw Throwables.propagate(e);
@@ -21,6 +21,7 @@ import co.cask.cdap.api.flow.flowlet.FailurePolicy;
 import co.cask.cdap.api.flow.flowlet.FailureReason;
 import co.cask.cdap.api.flow.flowlet.Flowlet;
 import co.cask.cdap.api.flow.flowlet.InputContext;
+import co.cask.cdap.api.metrics.MetricCounter;
 import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.app.queue.InputDatum;
 import co.cask.cdap.common.conf.Constants;
@@ -65,6 +66,10 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
   private final Callback txCallback;
   private final LoggingContext loggingContext;
   private final PriorityQueue<FlowletProcessEntry<?>> processQueue;
+  // counters incremented for every process call, resolved once
+  private final MetricCounter attemptReadCounter;
+  private final MetricCounter ticksProcessedCounter;
+  private final MetricCounter eventsProcessedCounter;
 
   private Thread runThread;
   private ExecutorService processExecutor;
@@ -77,6 +82,9 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     this.dataFabricFacade = dataFabricFacade;
     this.txCallback = txCallback;
     this.loggingContext = flowletContext.getLoggingContext();
+    this.attemptReadCounter = flowletContext.getProgramMetrics().getCounter("process.tuples.attempt.read");
+    this.ticksProcessedCounter = flowletContext.getProgramMetrics().getCounter("process.ticks.processed");
+    this.eventsProcessedCounter = flowletContext.getProgramMetrics().getCounter("process.events.processed");
 
     processQueue = new PriorityQueue<>(processSpecifications.size());
     for (ProcessSpecification<?> spec : processSpecifications) {
@@ -95,6 +103,9 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     this.dataFabricFacade = other.dataFabricFacade;
     this.txCallback = other.txCallback;
     this.loggingContext = other.loggingContext;
+    this.attemptReadCounter = other.attemptReadCounter;
+    this.ticksProcessedCounter = other.ticksProcessedCounter;
+    this.eventsProcessedCounter = other.eventsProcessedCounter;
     this.processQueue = new PriorityQueue<>(other.processQueue.size());
     Iterables.addAll(processQueue, other.processQueue);
   }
@@ -214,7 +225,7 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
 
     ProcessMethod<T> processMethod = entry.getProcessSpec().getProcessMethod();
     if (processMethod.needsInput()) {
-      flowletContext.getProgramMetrics().increment("process.tuples.attempt.read", 1);
+      attemptReadCounter.increment(1);
     }
 
     // Begin transaction and dequeue
@@ -393,9 +404,9 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
 
       private void gaugeEventProcessed(QueueName inputQueueName) {
         if (processEntry.isTick()) {
-          flowletContext.getProgramMetrics().increment("process.ticks.processed", processedCount);
+          ticksProcessedCounter.increment(processedCount);
         } else if (inputQueueName == null) {
-          flowletContext.getProgramMetrics().increment("process.events.processed", processedCount);
+          eventsProcessedCounter.increment(processedCount);
         } else {
           queueMetricsCollectors.getUnchecked(inputQueueName.getSimpleName())
             .increment("process.events.processed", processedCount);
@@ -64,6 +64,7 @@ import co.cask.cdap.data2.queue.DequeueStrategy;
 import co.cask.cdap.data2.queue.QueueClientFactory;
 import co.cask.cdap.data2.queue.QueueConsumer;
 import co.cask.cdap.data2.registry.RuntimeUsageRegistry;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.queue.QueueMetrics;
 import co.cask.cdap.data2.transaction.stream.StreamConsumer;
 import co.cask.cdap.internal.app.queue.QueueReaderFactory;
@@ -184,46 +185,82 @@ public final class FlowletProgramRunner implements ProgramRunner {
   @SuppressWarnings("unchecked")
   @Override
   public ProgramController run(Program program, ProgramOptions options) {
-    BasicFlowletContext flowletContext = null;
-    try {
-      // Extract and verify parameters
-      String flowletName = options.getName();
+    // Extract and verify parameters
+    String flowletName = options.getName();
 
-      int instanceId = Integer.parseInt(options.getArguments().getOption(ProgramOptionConstants.INSTANCE_ID, "-1"));
-      Preconditions.checkArgument(instanceId >= 0, "Missing instance Id");
+    int instanceId = Integer.parseInt(options.getArguments().getOption(ProgramOptionConstants.INSTANCE_ID, "-1"));
+    Preconditions.checkArgument(instanceId >= 0, "Missing instance Id");
 
-      int instanceCount = Integer.parseInt(options.getArguments().getOption(ProgramOptionConstants.INSTANCES, "0"));
-      Preconditions.checkArgument(instanceCount > 0, "Invalid or missing instance count");
+    int instanceCount = Integer.parseInt(options.getArguments().getOption(ProgramOptionConstants.INSTANCES, "0"));
+    Preconditions.checkArgument(instanceCount > 0, "Invalid or missing instance count");
 
-      RunId runId = ProgramRunners.getRunId(options);
+    RunId runId = ProgramRunners.getRunId(options);
 
-      ApplicationSpecification appSpec = program.getApplicationSpecification();
-      Preconditions.checkNotNull(appSpec, "Missing application specification.");
+    ApplicationSpecification appSpec = program.getApplicationSpecification();
+    Preconditions.checkNotNull(appSpec, "Missing application specification.");
 
-      ProgramType processorType = program.getType();
-      Preconditions.checkNotNull(processorType, "Missing processor type.");
-      Preconditions.checkArgument(processorType == ProgramType.FLOW, "Only FLOW process type is supported.");
+    ProgramType processorType = program.getType();
+    Preconditions.checkNotNull(processorType, "Missing processor type.");
+    Preconditions.checkArgument(processorType == ProgramType.FLOW, "Only FLOW process type is supported.");
 
-      String processorName = program.getName();
-      Preconditions.checkNotNull(processorName, "Missing processor name.");
+    String processorName = program.getName();
+    Preconditions.checkNotNull(processorName, "Missing processor name.");
 
-      FlowSpecification flowSpec = appSpec.getFlows().get(processorName);
-      FlowletDefinition flowletDef = flowSpec.getFlowlets().get(flowletName);
-      Preconditions.checkNotNull(flowletDef, "Definition missing for flowlet \"%s\"", flowletName);
+    FlowSpecification flowSpec = appSpec.getFlows().get(processorName);
+    FlowletDefinition flowletDef = flowSpec.getFlowlets().get(flowletName);
+    Preconditions.checkNotNull(flowletDef, "Definition missing for flowlet \"%s\"", flowletName);
+
+    Class<?> clz;
+    try {
+      clz = Class.forName(flowletDef.getFlowletSpec().getClassName(), true, program.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      throw Throwables.propagate(e);
+    }
+    Preconditions.checkArgument(Flowlet.class.isAssignableFrom(clz), "%s is not a Flowlet.", clz);
+    Class<? extends Flowlet> flowletClass = (Class<? extends Flowlet>) clz;
+
+    // Setup dataset framework context, if required
+    Id.Program programId = program.getId();
+    Id.Flow.Flowlet flowletId = Id.Flow.Flowlet.from(programId.getApplication(), programId.getId(), flowletName);
+    Id.Run run = new Id.Run(programId, runId.getId());
+    if (dsFramework instanceof ProgramContextAware) {
+      ((ProgramContextAware) dsFramework).initContext(run, flowletId);
+    }
 
-      Class<?> clz = Class.forName(flowletDef.getFlowletSpec().getClassName(), true,
-                                   program.getClassLoader());
-      Preconditions.checkArgument(Flowlet.class.isAssignableFrom(clz), "%s is not a Flowlet.", clz);
+    int threads = FlowUtils.getProcessThreads(flowletDef.getFlowletSpec());
+    if (threads == 1) {
+      return startFlowlet(program, options, flowSpec, flowletDef, flowletClass, run, instanceId, instanceCount);
+    }
 
-      // Setup dataset framework context, if required
-      Id.Program programId = program.getId();
-      Id.Flow.Flowlet flowletId = Id.Flow.Flowlet.from(programId.getApplication(), programId.getId(), flowletName);
-      Id.Run run = new Id.Run(programId, runId.getId());
-      if (dsFramework instanceof ProgramContextAware) {
-        ((ProgramContextAware) dsFramework).initContext(run, flowletId);
+    // Each process thread runs its own copy of the flowlet, which acts as a consumer instance of its own.
+    // All of them share the same program classloader in this container.
+    List<ProgramController> controllers = Lists.newArrayListWithCapacity(threads);
+    try {
+      for (int i = 0; i < threads; i++) {
+        controllers.add(startFlowlet(program, options, flowSpec, flowletDef, flowletClass, run,
+                                     instanceId * threads + i, instanceCount * threads));
       }
+    } catch (RuntimeException e) {
+      for (ProgramController controller : controllers) {
+        controller.stop();
+      }
+      throw e;
+    }
+    return new MultiThreadFlowletProgramController(programId, runId, flowletName, threads, controllers);
+  }
 
-      Class<? extends Flowlet> flowletClass = (Class<? extends Flowlet>) clz;
+  /**
+   * Creates and starts a flowlet of the given consumer instance id.
+   *
+   * @return the {@link FlowletProgramController} for controlling the flowlet
+   */
+  private FlowletProgramController startFlowlet(Program program, ProgramOptions options,
+                                                FlowSpecification flowSpec, FlowletDefinition flowletDef,
+                                                Class<? extends Flowlet> flowletClass, Id.Run run,
+                                                int instanceId, int instanceCount) {
+    BasicFlowletContext flowletContext = null;
+    try {
+      String flowletName = options.getName();
 
       // Creates flowlet context
       flowletContext = new BasicFlowletContext(program, options, flowletName, instanceId, instanceCount,
@@ -235,7 +272,9 @@ public final class FlowletProgramRunner implements ProgramRunner {
       DataFabricFacade dataFabricFacade =
         dataFabricFacadeFactory.create(program, flowletContext.getDatasetCache());
       if (dataFabricFacade instanceof ProgramContextAware) {
-        ((ProgramContextAware) dataFabricFacade).initContext(run, flowletId);
+        Id.Program programId = program.getId();
+        ((ProgramContextAware) dataFabricFacade).initContext(
+          run, Id.Flow.Flowlet.from(programId.getApplication(), programId.getId(), flowletName));
       }
 
       // Creates QueueSpecification
@@ -251,6 +290,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
       Thread.currentThread().setContextClassLoader(FlowletProgramRunner.class.getClassLoader());
 
       // Inject DataSet, OutputEmitter, Metric fields
+      SchemaCache schemaCache = createSchemaCache(program);
       ImmutableList.Builder<ProducerSupplier> queueProducerSupplierBuilder = ImmutableList.builder();
       Reflections.visit(flowlet, flowlet.getClass(),
                         new PropertyFieldSetter(flowletDef.getFlowletSpec().getProperties()),
@@ -259,7 +299,9 @@ public final class FlowletProgramRunner implements ProgramRunner {
                         new OutputEmitterFieldSetter(outputEmitterFactory(flowletContext, flowletName,
                                                                           dataFabricFacade,
                                                                           queueProducerSupplierBuilder,
-                                                                          queueSpecs)));
+                                                                          queueSpecs, schemaCache,
+                                                                          QueueEntryFormat.getCompression(
+                                                                            flowletDef.getFlowletSpec()))));
 
       ImmutableList.Builder<ConsumerSupplier<?>> queueConsumerSupplierBuilder = ImmutableList.builder();
       Collection<ProcessSpecification<?>> processSpecs =
@@ -267,7 +309,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
                                    processMethodFactory(flowlet),
                                    processSpecificationFactory(flowletContext, dataFabricFacade, queueReaderFactory,
                                                                flowletName, queueSpecs, queueConsumerSupplierBuilder,
-                                                               createSchemaCache(program), authenticationContext,
+                                                               schemaCache, authenticationContext,
                                                                authorizationEnforcer),
                                    Lists.<ProcessSpecification<?>>newLinkedList());
       List<ConsumerSupplier<?>> consumerSuppliers = queueConsumerSupplierBuilder.build();
@@ -458,7 +500,9 @@ public final class FlowletProgramRunner implements ProgramRunner {
                                                     final String flowletName,
                                                     final QueueClientFactory queueClientFactory,
                                                     final ImmutableList.Builder<ProducerSupplier> producerBuilder,
-                                                    final Table<Node, String, Set<QueueSpecification>> queueSpecs) {
+                                                    final Table<Node, String, Set<QueueSpecification>> queueSpecs,
+                                                    final SchemaCache schemaCache,
+                                                    @Nullable final QueueEntryFormat.Compression compression) {
     return new OutputEmitterFactory() {
       @Override
       public <T> OutputEmitter<T> create(String outputName, TypeToken<T> type) {
@@ -512,7 +556,8 @@ public final class FlowletProgramRunner implements ProgramRunner {
             }
           });
           producerBuilder.add(producerSupplier);
-          return new DatumOutputEmitter<>(producerSupplier, schema, datumWriterFactory.create(type, schema));
+          return new DatumOutputEmitter<>(producerSupplier, schema, datumWriterFactory.create(type, schema),
+                                          schemaCache, compression);
         } catch (Exception e) {
           throw Throwables.propagate(e);
         }
@@ -574,14 +619,19 @@ public final class FlowletProgramRunner implements ProgramRunner {
 
               } else {
                 int numGroups = getNumGroups(Iterables.concat(queueSpecs.row(entry.getKey()).values()), queueName);
+                String producerName = entry.getKey().getName();
                 Function<ByteBuffer, T> decoder =
-                  wrapInputDecoder(flowletContext, entry.getKey().getName(), // the producer flowlet,
+                  wrapInputDecoder(flowletContext, producerName, // the producer flowlet,
                                    queueName, createInputDatumDecoder(dataType, schema, schemaCache));
 
+                // Backlog metrics are emitted with the same tags as the queue.pending metric
+                QueueConsumerMetrics consumerMetrics = new FlowletQueueConsumerMetrics(
+                  flowletContext.getProducerMetrics(ImmutablePair.of(producerName, queueName.getSimpleName())));
                 ConsumerSupplier<QueueConsumer> consumerSupplier = ConsumerSupplier.create(flowletContext.getOwners(),
                                                                                            runtimeUsageRegistry,
                                                                                            dataFabricFacade, queueName,
-                                                                                           consumerConfig, numGroups);
+                                                                                           consumerConfig, numGroups,
+                                                                                           consumerMetrics);
                 queueConsumerSupplierBuilder.add(consumerSupplier);
                 queueReaders.add(queueReaderFactory.createQueueReader(consumerSupplier, batchSize, decoder));
               }
@@ -601,6 +651,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
   private <T> Function<ByteBuffer, T> createInputDatumDecoder(final TypeToken<T> dataType, final Schema schema,
                                                               final SchemaCache schemaCache) {
     final ReflectionDatumReader<T> datumReader = new ReflectionDatumReader<>(schema, dataType);
+    final QueueEntryFormat.Decoder entryDecoder = new QueueEntryFormat.Decoder(schemaCache);
     final ByteBufferInputStream byteBufferInput = new ByteBufferInputStream(null);
     final BinaryDecoder decoder = new BinaryDecoder(byteBufferInput);
 
@@ -608,10 +659,11 @@ public final class FlowletProgramRunner implements ProgramRunner {
       @Nullable
       @Override
       public T apply(ByteBuffer input) {
-        byteBufferInput.reset(input);
         try {
-          final Schema sourceSchema = schemaCache.get(input);
+          ImmutablePair<Schema, ByteBuffer> entry = entryDecoder.decode(input);
+          final Schema sourceSchema = entry.getFirst();
           Preconditions.checkNotNull(sourceSchema, "Fail to find source schema.");
+          byteBufferInput.reset(entry.getSecond());
           return datumReader.read(decoder, sourceSchema);
         } catch (IOException e) {
           throw Throwables.propagate(e);
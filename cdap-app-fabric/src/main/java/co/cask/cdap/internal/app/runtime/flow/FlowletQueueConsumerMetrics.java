@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link QueueConsumerMetrics} that emits the backlog metrics of a flowlet input queue to the metrics context of
+ * the producer and queue, the same context that the {@code queue.pending} metric is emitted to. The backlog age gauge
+ * is emitted at most once per second. Dequeue latencies are recorded in the {@code queue.dequeue.latency} histogram,
+ * whose percentiles are queried as {@code queue.dequeue.latency:p<percentile>} over any time range.
+ *
+ * Instances of this class are not thread safe, which is fine since a queue consumer is used by a single thread.
+ */
+final class FlowletQueueConsumerMetrics implements QueueConsumerMetrics {
+
+  static final String BACKLOG_AGE = "queue.backlog.age";
+  static final String LATENCY = "queue.dequeue.latency";
+  static final String CLAIM_CONFLICTS = "queue.claim.conflicts";
+
+  private static final long EMIT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final MetricsContext metricsContext;
+  private long lastBacklogEmitTime;
+
+  FlowletQueueConsumerMetrics(MetricsContext metricsContext) {
+    this.metricsContext = metricsContext;
+  }
+
+  @Override
+  public void emitBacklogAge(long ageMillis) {
+    long now = System.currentTimeMillis();
+    // Always emit when caught up, so that the age drops to zero as soon as the backlog is drained
+    if (ageMillis == 0L || now - lastBacklogEmitTime >= EMIT_INTERVAL_MILLIS) {
+      metricsContext.gauge(BACKLOG_AGE, ageMillis);
+      lastBacklogEmitTime = now;
+    }
+  }
+
+  @Override
+  public void emitDequeueLatencies(long[] latencies, int count) {
+    for (int i = 0; i < count; i++) {
+      metricsContext.histogram(LATENCY, latencies[i]);
+    }
+  }
+
+  @Override
+  public void emitClaimConflicts(int count) {
+    metricsContext.increment(CLAIM_CONFLICTS, count);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.app.runtime.ProgramController;
+import co.cask.cdap.internal.app.runtime.AbstractListener;
+import co.cask.cdap.internal.app.runtime.AbstractProgramController;
+import co.cask.cdap.internal.app.runtime.ProgramOptionConstants;
+import co.cask.cdap.proto.Id;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.twill.api.RunId;
+import org.apache.twill.common.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ProgramController} for a flowlet instance that runs multiple process threads. Each thread is a
+ * flowlet with its own {@link FlowletProgramController}, and this class controls all of them as one.
+ */
+final class MultiThreadFlowletProgramController extends AbstractProgramController {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MultiThreadFlowletProgramController.class);
+
+  private final int threads;
+  private final List<ProgramController> controllers;
+
+  /**
+   * Constructs an instance.
+   *
+   * @param threads number of process threads of the flowlet instance
+   * @param controllers the controllers of the flowlet running in each thread
+   */
+  MultiThreadFlowletProgramController(Id.Program programId, RunId runId, String flowletName,
+                                      int threads, List<? extends ProgramController> controllers) {
+    super(programId, runId, flowletName);
+    this.threads = threads;
+    this.controllers = ImmutableList.copyOf(controllers);
+    listenControllers();
+  }
+
+  @Override
+  protected void doSuspend() throws Exception {
+    Futures.allAsList(Iterables.transform(controllers, new Function<ProgramController, ListenableFuture<?>>() {
+      @Override
+      public ListenableFuture<?> apply(ProgramController controller) {
+        return controller.suspend();
+      }
+    })).get();
+  }
+
+  @Override
+  protected void doResume() throws Exception {
+    Futures.allAsList(Iterables.transform(controllers, new Function<ProgramController, ListenableFuture<?>>() {
+      @Override
+      public ListenableFuture<?> apply(ProgramController controller) {
+        return controller.resume();
+      }
+    })).get();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    // Stop all of them even if some failed to stop
+    Futures.successfulAsList(Iterables.transform(controllers, new Function<ProgramController, ListenableFuture<?>>() {
+      @Override
+      public ListenableFuture<?> apply(ProgramController controller) {
+        return controller.stop();
+      }
+    })).get();
+  }
+
+  @Override
+  protected void doCommand(final String name, Object value) throws Exception {
+    if (!ProgramOptionConstants.INSTANCES.equals(name) || !(value instanceof Integer)) {
+      return;
+    }
+    // Each thread is a consumer instance, hence the consumer group size is the number of threads in all instances
+    final int instances = (Integer) value * threads;
+    LOG.info("Change flowlet consumer group size of {} to {}", getComponentName(), instances);
+    Futures.allAsList(Iterables.transform(controllers, new Function<ProgramController, ListenableFuture<?>>() {
+      @Override
+      public ListenableFuture<?> apply(ProgramController controller) {
+        return controller.command(name, instances);
+      }
+    })).get();
+  }
+
+  private void listenControllers() {
+    final AtomicInteger aliveCount = new AtomicInteger();
+    for (ProgramController controller : controllers) {
+      controller.addListener(new AbstractListener() {
+        @Override
+        public void init(State currentState, @Nullable Throwable cause) {
+          if (currentState == State.ALIVE) {
+            alive();
+          } else {
+            super.init(currentState, cause);
+          }
+        }
+
+        @Override
+        public void alive() {
+          // Only alive when all threads are started
+          if (aliveCount.incrementAndGet() == threads) {
+            started();
+          }
+        }
+
+        @Override
+        public void error(Throwable cause) {
+          // Failure of any thread fails the whole flowlet instance. Stopping a controller that is not running
+          // simply gives a failed future, hence it is safe to stop all of them.
+          for (ProgramController controller : controllers) {
+            controller.stop();
+          }
+          MultiThreadFlowletProgramController.this.error(cause);
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.flow.flowlet.FlowletSpecification;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.common.utils.ImmutablePair;
+import co.cask.cdap.internal.io.DatumWriter;
+import com.google.common.primitives.Ints;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.annotation.Nullable;
+
+/**
+ * Defines the layout of the data of queue entries emitted by flowlets. There are two formats:
+ *
+ * <ul>
+ *   <li>Legacy: {@code [schemaHash (16 bytes)][datum]}</li>
+ *   <li>Compact: {@code [marker (1 byte)][schemaId (4 bytes)][datum]}, or
+ *   {@code [marker (1 byte)][schemaId (4 bytes)][datumLength (4 bytes)][deflated datum]} if compressed</li>
+ * </ul>
+ *
+ * The compact format is only used if the producer flowlet has the {@link #COMPRESSION_PROPERTY} set and the
+ * schema has a unique id in the {@link SchemaCache} (see {@link SchemaCache#getSchemaId(Schema)}). Consumers build
+ * their {@link SchemaCache} from the same application specification, hence they can always resolve the id.
+ *
+ * Readers accept both formats, so that the property can be changed without draining the queues. An entry is
+ * taken as legacy if it starts with the hash of a known schema.
+ */
+public final class QueueEntryFormat {
+
+  /**
+   * Name of the flowlet property for enabling the compact format for all outputs of the flowlet. The value is
+   * one of the {@link Compression} names, case insensitive.
+   */
+  public static final String COMPRESSION_PROPERTY = "system.flowlet.queue.compression";
+
+  /**
+   * Compression of the datum in the compact format.
+   */
+  public enum Compression {
+    NONE,
+    DEFLATE
+  }
+
+  // The high four bits identify the compact format and the low four bits are the compression ordinal
+  private static final int MARKER = 0xC0;
+  private static final int MARKER_MASK = 0xF0;
+
+  // Datum smaller than this size is not worth compressing
+  private static final int MIN_COMPRESS_SIZE = 128;
+
+  private QueueEntryFormat() {
+  }
+
+  /**
+   * Returns the {@link Compression} set for the given flowlet.
+   *
+   * @return the {@link Compression} or {@code null} if the legacy format should be used
+   * @see #COMPRESSION_PROPERTY
+   */
+  @Nullable
+  public static Compression getCompression(FlowletSpecification flowletSpec) {
+    String compression = flowletSpec.getProperties().get(COMPRESSION_PROPERTY);
+    if (compression == null) {
+      return null;
+    }
+    try {
+      return Compression.valueOf(compression.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid queue compression for flowlet "
+                                           + flowletSpec.getName() + ": " + compression, e);
+    }
+  }
+
+  /**
+   * Encodes data into queue entries. Instances of this class are not thread safe.
+   */
+  static final class Encoder {
+
+    private final byte[] header;
+    private final Compression compression;
+    private final ByteArrayOutputStream datumOutput;
+    private final Deflater deflater;
+    private byte[] deflateBuffer;
+
+    /**
+     * Creates an {@link Encoder} for the given schema.
+     *
+     * @param compression the compression to use or {@code null} for the legacy format
+     */
+    Encoder(Schema schema, SchemaCache schemaCache, @Nullable Compression compression) {
+      Integer schemaId = compression == null ? null : schemaCache.getSchemaId(schema);
+      if (schemaId == null) {
+        this.header = schema.getSchemaHash().toByteArray();
+        this.compression = Compression.NONE;
+      } else {
+        this.header = new byte[1 + Ints.BYTES];
+        ByteBuffer.wrap(header).put((byte) MARKER).putInt(schemaId);
+        this.compression = compression;
+      }
+      this.datumOutput = new ByteArrayOutputStream();
+      this.deflater = this.compression == Compression.DEFLATE ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    /**
+     * Encodes the given data and returns the queue entry data.
+     */
+    <T> byte[] encode(T data, DatumWriter<T> writer) throws IOException {
+      if (deflater == null) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(header);
+        writer.encode(data, new BinaryEncoder(output));
+        return output.toByteArray();
+      }
+
+      datumOutput.reset();
+      writer.encode(data, new BinaryEncoder(datumOutput));
+      int datumLength = datumOutput.size();
+      byte[] datum = datumOutput.toByteArray();
+
+      if (datumLength >= MIN_COMPRESS_SIZE) {
+        int compressedLength = deflate(datum);
+        // Only use the compressed form if it actually saves space
+        if (compressedLength > 0) {
+          byte[] result = new byte[header.length + Ints.BYTES + compressedLength];
+          ByteBuffer.wrap(result)
+            .put(header)
+            .putInt(datumLength)
+            .put(deflateBuffer, 0, compressedLength);
+          result[0] = (byte) (MARKER | Compression.DEFLATE.ordinal());
+          return result;
+        }
+      }
+
+      byte[] result = new byte[header.length + datumLength];
+      System.arraycopy(header, 0, result, 0, header.length);
+      System.arraycopy(datum, 0, result, header.length, datumLength);
+      result[0] = (byte) (MARKER | Compression.NONE.ordinal());
+      return result;
+    }
+
+    /**
+     * Deflates the given datum into the deflate buffer.
+     *
+     * @return size of the compressed datum or {@code -1} if the compressed datum is not smaller than the datum
+     */
+    private int deflate(byte[] datum) {
+      int maxLength = datum.length - Ints.BYTES - 1;
+      if (deflateBuffer == null || deflateBuffer.length < maxLength) {
+        deflateBuffer = new byte[datum.length];
+      }
+      deflater.reset();
+      deflater.setInput(datum);
+      deflater.finish();
+      int length = deflater.deflate(deflateBuffer, 0, maxLength);
+      return deflater.finished() ? length : -1;
+    }
+  }
+
+  /**
+   * Decodes queue entries of both formats. Instances of this class are not thread safe.
+   */
+  static final class Decoder {
+
+    private final SchemaCache schemaCache;
+    private Inflater inflater;
+
+    Decoder(SchemaCache schemaCache) {
+      this.schemaCache = schemaCache;
+    }
+
+    /**
+     * Decodes the header of the given queue entry data.
+     *
+     * @return a pair of the source {@link Schema} and a {@link ByteBuffer} for reading the datum. The {@link Schema}
+     *         is {@code null} if it is not known.
+     */
+    ImmutablePair<Schema, ByteBuffer> decode(ByteBuffer data) throws IOException {
+      int marker = data.remaining() > 0 ? data.get(data.position()) & 0xff : 0;
+      if ((marker & MARKER_MASK) != MARKER || schemaCache.startsWithKnownHash(data)) {
+        Schema schema = schemaCache.get(data);
+        return ImmutablePair.of(schema, data);
+      }
+
+      data.get();
+      Schema schema = schemaCache.getById(data.getInt());
+      int compression = marker & ~MARKER_MASK;
+      if (compression == Compression.NONE.ordinal()) {
+        return ImmutablePair.of(schema, data);
+      }
+      if (compression != Compression.DEFLATE.ordinal()) {
+        throw new IOException("Unsupported queue entry compression " + compression);
+      }
+      return ImmutablePair.of(schema, inflate(data));
+    }
+
+    private ByteBuffer inflate(ByteBuffer data) throws IOException {
+      byte[] datum = new byte[data.getInt()];
+      if (inflater == null) {
+        inflater = new Inflater();
+      }
+      inflater.reset();
+      if (data.hasArray()) {
+        inflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+      } else {
+        byte[] compressed = new byte[data.remaining()];
+        data.get(compressed);
+        inflater.setInput(compressed);
+      }
+      try {
+        int length = inflater.inflate(datum);
+        if (length != datum.length || !inflater.finished()) {
+          throw new IOException("Corrupted compressed queue entry. Expected " + datum.length
+                                  + " bytes but got " + length);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupted compressed queue entry", e);
+      }
+      return ByteBuffer.wrap(datum);
+    }
+  }
+}
@@ -22,18 +22,27 @@ import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 
 /**
  * Dynamic loading of schema from classloader and caching of known schemas.
  */
 public final class SchemaCache {
 
+  private static final int SCHEMA_HASH_SIZE = 16;
+
   private final LoadingCache<SchemaHash, Schema> cache;
+  private final Set<SchemaHash> knownHashes;
+  private final Map<Integer, Schema> schemaIds;
 
   /**
    * Creates the schema cache with a set of know schemas.
@@ -47,6 +56,8 @@ public final class SchemaCache {
     for (Schema schema : schemas) {
       schemaMap.put(schema.getSchemaHash(), schema);
     }
+    knownHashes = ImmutableSet.copyOf(schemaMap.keySet());
+    schemaIds = createSchemaIds(schemaMap.values());
 
     cache = CacheBuilder.newBuilder().build(new CacheLoader<SchemaHash, Schema>() {
                                                @Override
@@ -78,4 +89,53 @@ public final class SchemaCache {
       return null;
     }
   }
+
+  /**
+   * Returns {@code true} if the given buffer starts with the hash of a known schema. The position of
+   * the buffer is not changed.
+   */
+  public boolean startsWithKnownHash(ByteBuffer buffer) {
+    return buffer.remaining() >= SCHEMA_HASH_SIZE && knownHashes.contains(new SchemaHash(buffer.duplicate()));
+  }
+
+  /**
+   * Returns the compact id of the given schema, which is the first four bytes of the schema hash.
+   *
+   * @return the id or {@code null} if the schema is not known or its id is not unique among the known schemas
+   */
+  @Nullable
+  public Integer getSchemaId(Schema schema) {
+    Integer id = toSchemaId(schema.getSchemaHash());
+    Schema knownSchema = schemaIds.get(id);
+    return schema.equals(knownSchema) ? id : null;
+  }
+
+  /**
+   * Returns the {@link Schema} of the given compact id.
+   *
+   * @return the {@link Schema} or {@code null} if the id is not known
+   * @see #getSchemaId(Schema)
+   */
+  @Nullable
+  public Schema getById(int schemaId) {
+    return schemaIds.get(schemaId);
+  }
+
+  private static Map<Integer, Schema> createSchemaIds(Iterable<Schema> schemas) {
+    Map<Integer, Schema> ids = Maps.newHashMap();
+    Set<Integer> collisions = Sets.newHashSet();
+    for (Schema schema : schemas) {
+      Integer id = toSchemaId(schema.getSchemaHash());
+      if (ids.put(id, schema) != null) {
+        collisions.add(id);
+      }
+    }
+    // Ids that are not unique are not usable, hence schemas having them are always identified by the full hash
+    ids.keySet().removeAll(collisions);
+    return ImmutableMap.copyOf(ids);
+  }
+
+  private static int toSchemaId(SchemaHash hash) {
+    return ByteBuffer.wrap(hash.toByteArray()).getInt();
+  }
 }
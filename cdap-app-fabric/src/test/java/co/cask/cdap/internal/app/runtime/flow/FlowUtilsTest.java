@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.Resources;
+import co.cask.cdap.api.flow.FlowletDefinition;
+import co.cask.cdap.api.flow.flowlet.AbstractFlowlet;
+import co.cask.cdap.api.flow.flowlet.FailurePolicy;
+import co.cask.cdap.api.flow.flowlet.FlowletSpecification;
+import co.cask.cdap.internal.flowlet.DefaultFlowletSpecification;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for {@link FlowUtils}.
+ */
+public class FlowUtilsTest {
+
+  @Test
+  public void testProcessThreads() {
+    // single thread by default
+    Assert.assertEquals(1, FlowUtils.getProcessThreads(createSpec(ImmutableMap.<String, String>of())));
+    Assert.assertEquals(1, FlowUtils.getProcessThreads(createSpec(ImmutableMap.of("other.property", "4"))));
+
+    Assert.assertEquals(1, FlowUtils.getProcessThreads(createSpec(threads("1"))));
+    Assert.assertEquals(4, FlowUtils.getProcessThreads(createSpec(threads("4"))));
+
+    for (String invalid : new String[] { "0", "-2", "four", "", "2.5" }) {
+      try {
+        FlowUtils.getProcessThreads(createSpec(threads(invalid)));
+        Assert.fail("Expected failure for number of threads '" + invalid + "'");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testConsumerGroupSize() {
+    // each process thread is a consumer instance of its own
+    Assert.assertEquals(3, FlowUtils.getConsumerGroupSize(new FlowletDefinition("f", new TestFlowlet(null), 3), 3));
+    Assert.assertEquals(6, FlowUtils.getConsumerGroupSize(new FlowletDefinition("f", new TestFlowlet("2"), 3), 3));
+    Assert.assertEquals(10, FlowUtils.getConsumerGroupSize(new FlowletDefinition("f", new TestFlowlet("2"), 3), 5));
+  }
+
+  private static Map<String, String> threads(String threads) {
+    return ImmutableMap.of(FlowUtils.PROCESS_THREADS_PROPERTY, threads);
+  }
+
+  private static FlowletSpecification createSpec(Map<String, String> properties) {
+    return new DefaultFlowletSpecification("flowlet", "", FailurePolicy.RETRY, ImmutableSet.<String>of(),
+                                           properties, new Resources());
+  }
+
+  /**
+   * A flowlet that sets the number of process threads in its properties.
+   */
+  private static final class TestFlowlet extends AbstractFlowlet {
+
+    private final String threads;
+
+    private TestFlowlet(String threads) {
+      this.threads = threads;
+    }
+
+    @Override
+    protected void configure() {
+      if (threads != null) {
+        setProperties(threads(threads));
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.metrics.MetricCounter;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for {@link FlowletQueueConsumerMetrics}.
+ */
+public class FlowletQueueConsumerMetricsTest {
+
+  @Test
+  public void testDequeueLatencies() {
+    RecordingMetricsContext metricsContext = new RecordingMetricsContext();
+    FlowletQueueConsumerMetrics metrics = new FlowletQueueConsumerMetrics(metricsContext);
+
+    // Each latency is recorded in the histogram, only the first count latencies are used
+    metrics.emitDequeueLatencies(new long[] { 5L, 10L, 20L }, 2);
+    metrics.emitDequeueLatencies(new long[] { 30L }, 1);
+    metrics.emitDequeueLatencies(new long[0], 0);
+    Assert.assertEquals(ImmutableList.of(FlowletQueueConsumerMetrics.LATENCY + "=5",
+                                         FlowletQueueConsumerMetrics.LATENCY + "=10",
+                                         FlowletQueueConsumerMetrics.LATENCY + "=30"), metricsContext.histograms);
+    Assert.assertTrue(metricsContext.gauges.isEmpty());
+  }
+
+  @Test
+  public void testBacklogAge() {
+    RecordingMetricsContext metricsContext = new RecordingMetricsContext();
+    FlowletQueueConsumerMetrics metrics = new FlowletQueueConsumerMetrics(metricsContext);
+
+    // The age is emitted at most once per second, unless the backlog is drained
+    metrics.emitBacklogAge(100L);
+    metrics.emitBacklogAge(200L);
+    metrics.emitBacklogAge(0L);
+    Assert.assertEquals(ImmutableList.of(FlowletQueueConsumerMetrics.BACKLOG_AGE + "=100",
+                                         FlowletQueueConsumerMetrics.BACKLOG_AGE + "=0"), metricsContext.gauges);
+  }
+
+  /**
+   * A {@link MetricsContext} that records the gauges and histogram values emitted to it.
+   */
+  private static final class RecordingMetricsContext implements MetricsContext {
+
+    private final MetricsContext delegate = new NoopMetricsContext();
+    private final List<String> gauges = new ArrayList<>();
+    private final List<String> histograms = new ArrayList<>();
+
+    @Override
+    public MetricsContext childContext(Map<String, String> tags) {
+      return delegate.childContext(tags);
+    }
+
+    @Override
+    public MetricsContext childContext(String tagName, String tagValue) {
+      return delegate.childContext(tagName, tagValue);
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+      return delegate.getTags();
+    }
+
+    @Override
+    public void increment(String metricName, long value) {
+      // no-op
+    }
+
+    @Override
+    public void gauge(String metricName, long value) {
+      gauges.add(metricName + "=" + value);
+    }
+
+    @Override
+    public void histogram(String metricName, long value) {
+      histograms.add(metricName + "=" + value);
+    }
+
+    @Override
+    public MetricCounter getCounter(String metricName) {
+      return delegate.getCounter(metricName);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.app.runtime.ProgramController;
+import co.cask.cdap.common.app.RunIds;
+import co.cask.cdap.common.utils.Tasks;
+import co.cask.cdap.internal.app.runtime.AbstractProgramController;
+import co.cask.cdap.internal.app.runtime.ProgramOptionConstants;
+import co.cask.cdap.proto.Id;
+import co.cask.cdap.proto.ProgramType;
+import com.google.common.collect.ImmutableList;
+import org.apache.twill.api.RunId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link MultiThreadFlowletProgramController}.
+ */
+public class MultiThreadFlowletProgramControllerTest {
+
+  private static final Id.Program PROGRAM_ID = Id.Program.from(Id.Namespace.DEFAULT, "app", ProgramType.FLOW, "flow");
+
+  @Test
+  public void testLifecycle() throws Exception {
+    List<TestController> threads = createThreadControllers(3);
+    MultiThreadFlowletProgramController controller = createController(threads);
+
+    // only alive when all threads are alive
+    threads.get(0).start();
+    threads.get(1).start();
+    TimeUnit.MILLISECONDS.sleep(100);
+    Assert.assertEquals(ProgramController.State.STARTING, controller.getState());
+    threads.get(2).start();
+    waitForState(controller, ProgramController.State.ALIVE);
+
+    controller.suspend().get();
+    Assert.assertEquals(ProgramController.State.SUSPENDED, controller.getState());
+    for (TestController thread : threads) {
+      Assert.assertEquals(ProgramController.State.SUSPENDED, thread.getState());
+      Assert.assertEquals(1, thread.suspended.get());
+    }
+
+    controller.resume().get();
+    Assert.assertEquals(ProgramController.State.ALIVE, controller.getState());
+    for (TestController thread : threads) {
+      Assert.assertEquals(ProgramController.State.ALIVE, thread.getState());
+      Assert.assertEquals(1, thread.resumed.get());
+    }
+
+    // each thread is a consumer instance, hence the instance count is multiplied by the number of threads
+    controller.command(ProgramOptionConstants.INSTANCES, 2).get();
+    for (TestController thread : threads) {
+      Assert.assertEquals(6, thread.instances.get());
+    }
+
+    controller.stop().get();
+    Assert.assertEquals(ProgramController.State.KILLED, controller.getState());
+    for (TestController thread : threads) {
+      Assert.assertEquals(ProgramController.State.KILLED, thread.getState());
+      Assert.assertEquals(1, thread.stopped.get());
+    }
+  }
+
+  @Test
+  public void testStopSuspended() throws Exception {
+    List<TestController> threads = createThreadControllers(2);
+    MultiThreadFlowletProgramController controller = createController(threads);
+    for (TestController thread : threads) {
+      thread.start();
+    }
+    waitForState(controller, ProgramController.State.ALIVE);
+
+    controller.suspend().get();
+    controller.stop().get();
+    for (TestController thread : threads) {
+      Assert.assertEquals(ProgramController.State.KILLED, thread.getState());
+    }
+  }
+
+  @Test
+  public void testStopWithFailure() throws Exception {
+    List<TestController> threads = createThreadControllers(3);
+    threads.get(1).failOnStop = true;
+    MultiThreadFlowletProgramController controller = createController(threads);
+    for (TestController thread : threads) {
+      thread.start();
+    }
+    waitForState(controller, ProgramController.State.ALIVE);
+
+    // the other threads are stopped even if one of them fails to stop
+    controller.stop().get();
+    Assert.assertEquals(ProgramController.State.KILLED, threads.get(0).getState());
+    Assert.assertEquals(ProgramController.State.ERROR, threads.get(1).getState());
+    Assert.assertEquals(ProgramController.State.KILLED, threads.get(2).getState());
+  }
+
+  @Test
+  public void testThreadError() throws Exception {
+    List<TestController> threads = createThreadControllers(3);
+    MultiThreadFlowletProgramController controller = createController(threads);
+    for (TestController thread : threads) {
+      thread.start();
+    }
+    waitForState(controller, ProgramController.State.ALIVE);
+
+    // failure of one thread fails the flowlet instance and stops the other threads
+    threads.get(0).fail(new Exception("Expected"));
+    waitForState(controller, ProgramController.State.ERROR);
+    Assert.assertEquals("Expected", controller.getFailureCause().getMessage());
+    waitForState(threads.get(1), ProgramController.State.KILLED);
+    waitForState(threads.get(2), ProgramController.State.KILLED);
+
+    try {
+      controller.suspend().get();
+      Assert.fail("Expected failure to suspend a failed controller");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  private List<TestController> createThreadControllers(int threads) {
+    RunId runId = RunIds.generate();
+    ImmutableList.Builder<TestController> controllers = ImmutableList.builder();
+    for (int i = 0; i < threads; i++) {
+      controllers.add(new TestController(runId));
+    }
+    return controllers.build();
+  }
+
+  private MultiThreadFlowletProgramController createController(List<TestController> threads) {
+    return new MultiThreadFlowletProgramController(PROGRAM_ID, threads.get(0).getRunId(), "flowlet",
+                                                   threads.size(), threads);
+  }
+
+  private void waitForState(final ProgramController controller,
+                            ProgramController.State state) throws Exception {
+    Tasks.waitFor(state, new Callable<ProgramController.State>() {
+      @Override
+      public ProgramController.State call() throws Exception {
+        return controller.getState();
+      }
+    }, 10, TimeUnit.SECONDS);
+  }
+
+  /**
+   * A {@link ProgramController} for a process thread, which counts the calls it receives.
+   */
+  private static final class TestController extends AbstractProgramController {
+
+    private final AtomicInteger suspended = new AtomicInteger();
+    private final AtomicInteger resumed = new AtomicInteger();
+    private final AtomicInteger stopped = new AtomicInteger();
+    private final AtomicInteger instances = new AtomicInteger();
+    private volatile boolean failOnStop;
+
+    TestController(RunId runId) {
+      super(PROGRAM_ID, runId, "flowlet");
+    }
+
+    void start() {
+      started();
+    }
+
+    void fail(Throwable cause) {
+      error(cause);
+    }
+
+    @Override
+    protected void doSuspend() throws Exception {
+      suspended.incrementAndGet();
+    }
+
+    @Override
+    protected void doResume() throws Exception {
+      resumed.incrementAndGet();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+      stopped.incrementAndGet();
+      if (failOnStop) {
+        throw new Exception("Failed to stop");
+      }
+    }
+
+    @Override
+    protected void doCommand(String name, Object value) throws Exception {
+      if (ProgramOptionConstants.INSTANCES.equals(name)) {
+        instances.set((Integer) value);
+      }
+    }
+  }
+}
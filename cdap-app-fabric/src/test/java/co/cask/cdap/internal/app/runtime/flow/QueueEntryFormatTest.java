@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.utils.ImmutablePair;
+import co.cask.cdap.internal.io.ReflectionDatumReader;
+import co.cask.cdap.internal.io.ReflectionDatumWriter;
+import co.cask.cdap.internal.io.ReflectionSchemaGenerator;
+import co.cask.common.io.ByteBufferInputStream;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test for {@link QueueEntryFormat}.
+ */
+public class QueueEntryFormatTest {
+
+  @Test
+  public void testFormats() throws Exception {
+    Schema stringSchema = new ReflectionSchemaGenerator().generate(String.class);
+    Schema longSchema = new ReflectionSchemaGenerator().generate(Long.class);
+    SchemaCache schemaCache = new SchemaCache(ImmutableList.of(stringSchema, longSchema), null);
+
+    String shortValue = "short";
+    String longValue = Strings.repeat("compressible", 100);
+
+    // Legacy format starts with the schema hash
+    byte[] legacy = encode(stringSchema, schemaCache, null, shortValue);
+    Assert.assertTrue(schemaCache.startsWithKnownHash(ByteBuffer.wrap(legacy)));
+    Assert.assertEquals(shortValue, decode(schemaCache, legacy));
+
+    // Compact format is smaller than the legacy one
+    byte[] compact = encode(stringSchema, schemaCache, QueueEntryFormat.Compression.NONE, shortValue);
+    Assert.assertTrue(compact.length < legacy.length);
+    Assert.assertEquals(shortValue, decode(schemaCache, compact));
+
+    // Small data is not compressed
+    Assert.assertArrayEquals(compact, encode(stringSchema, schemaCache,
+                                             QueueEntryFormat.Compression.DEFLATE, shortValue));
+
+    // Large data is compressed
+    byte[] uncompressed = encode(stringSchema, schemaCache, QueueEntryFormat.Compression.NONE, longValue);
+    byte[] compressed = encode(stringSchema, schemaCache, QueueEntryFormat.Compression.DEFLATE, longValue);
+    Assert.assertTrue(compressed.length < uncompressed.length);
+    Assert.assertEquals(longValue, decode(schemaCache, uncompressed));
+    Assert.assertEquals(longValue, decode(schemaCache, compressed));
+  }
+
+  @Test
+  public void testUnknownSchema() throws Exception {
+    Schema stringSchema = new ReflectionSchemaGenerator().generate(String.class);
+    SchemaCache schemaCache = new SchemaCache(ImmutableList.<Schema>of(), null);
+
+    // Schema without an id always uses the legacy format
+    Assert.assertNull(schemaCache.getSchemaId(stringSchema));
+    byte[] data = encode(stringSchema, schemaCache, QueueEntryFormat.Compression.DEFLATE, "test");
+    Assert.assertArrayEquals(encode(stringSchema, schemaCache, null, "test"), data);
+  }
+
+  private byte[] encode(Schema schema, SchemaCache schemaCache,
+                        QueueEntryFormat.Compression compression, String value) throws Exception {
+    QueueEntryFormat.Encoder encoder = new QueueEntryFormat.Encoder(schema, schemaCache, compression);
+    return encoder.encode(value, new ReflectionDatumWriter<String>(schema));
+  }
+
+  private String decode(SchemaCache schemaCache, byte[] data) throws Exception {
+    ImmutablePair<Schema, ByteBuffer> entry = new QueueEntryFormat.Decoder(schemaCache).decode(ByteBuffer.wrap(data));
+    Assert.assertNotNull(entry.getFirst());
+    ReflectionDatumReader<String> reader = new ReflectionDatumReader<>(entry.getFirst(), TypeToken.of(String.class));
+    return reader.read(new BinaryDecoder(new ByteBufferInputStream(entry.getSecond())), entry.getFirst());
+  }
+}
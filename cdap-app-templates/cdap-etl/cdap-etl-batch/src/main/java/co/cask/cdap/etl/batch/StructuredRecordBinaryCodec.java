@@ -0,0 +1,349 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Binary encoding of {@link StructuredRecord} values, written field by field as directed by the {@link Schema}.
+ * The schema itself is not part of the encoding. Decoded values have the same Java types as the ones produced by
+ * {@link co.cask.cdap.format.StructuredRecordStringConverter}: bytes are decoded as {@code byte[]}, enums as
+ * {@link String}, arrays as {@link List} and maps as {@link Map}.
+ *
+ * Map entries are written in key order whenever the keys are comparable, so that equal records always have the
+ * same encoding, which is required for comparing records in their serialized form.
+ */
+final class StructuredRecordBinaryCodec {
+
+  /**
+   * Writes a value of the given schema.
+   */
+  static void write(DataOutput out, Schema schema, @Nullable Object value) throws IOException {
+    Schema.Type type = schema.getType();
+    if (value == null && type != Schema.Type.NULL && type != Schema.Type.UNION) {
+      throw new IOException("Null value is not allowed for schema " + schema);
+    }
+
+    switch (type) {
+      case NULL:
+        break;
+      case BOOLEAN:
+        out.writeBoolean((Boolean) value);
+        break;
+      case INT:
+        if (!(value instanceof Integer || value instanceof Short || value instanceof Byte)) {
+          // values are not narrowed, as a long may not fit in an int
+          throw new IOException("Expects Integer, Short or Byte for int schema. Got: " + value.getClass());
+        }
+        WritableUtils.writeVInt(out, ((Number) value).intValue());
+        break;
+      case LONG:
+        WritableUtils.writeVLong(out, ((Number) value).longValue());
+        break;
+      case FLOAT:
+        out.writeFloat(((Number) value).floatValue());
+        break;
+      case DOUBLE:
+        out.writeDouble(((Number) value).doubleValue());
+        break;
+      case BYTES:
+        writeBytes(out, value);
+        break;
+      case STRING:
+        Text.writeString(out, (String) value);
+        break;
+      case ENUM:
+        writeEnum(out, schema, value);
+        break;
+      case ARRAY:
+        writeArray(out, schema.getComponentSchema(), value);
+        break;
+      case MAP:
+        writeMap(out, schema.getMapSchema(), value);
+        break;
+      case RECORD:
+        writeRecord(out, schema, value);
+        break;
+      case UNION:
+        int idx = findUnionIndex(schema, value);
+        WritableUtils.writeVInt(out, idx);
+        write(out, schema.getUnionSchema(idx), value);
+        break;
+      default:
+        throw new IOException("Unsupported schema: " + schema);
+    }
+  }
+
+  /**
+   * Reads a value of the given schema.
+   */
+  @Nullable
+  static Object read(DataInput in, Schema schema) throws IOException {
+    switch (schema.getType()) {
+      case NULL:
+        return null;
+      case BOOLEAN:
+        return in.readBoolean();
+      case INT:
+        return WritableUtils.readVInt(in);
+      case LONG:
+        return WritableUtils.readVLong(in);
+      case FLOAT:
+        return in.readFloat();
+      case DOUBLE:
+        return in.readDouble();
+      case BYTES:
+        byte[] bytes = new byte[WritableUtils.readVInt(in)];
+        in.readFully(bytes);
+        return bytes;
+      case STRING:
+        return Text.readString(in);
+      case ENUM:
+        return readEnum(in, schema);
+      case ARRAY:
+        return readArray(in, schema.getComponentSchema());
+      case MAP:
+        return readMap(in, schema.getMapSchema());
+      case RECORD:
+        return readRecord(in, schema);
+      case UNION:
+        return read(in, schema.getUnionSchema(WritableUtils.readVInt(in)));
+    }
+
+    throw new IOException("Unsupported schema: " + schema);
+  }
+
+  private static void writeBytes(DataOutput out, Object value) throws IOException {
+    if (value instanceof ByteBuffer) {
+      ByteBuffer buffer = (ByteBuffer) value;
+      WritableUtils.writeVInt(out, buffer.remaining());
+      if (buffer.hasArray()) {
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      } else {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        out.write(bytes);
+      }
+    } else if (value instanceof byte[]) {
+      byte[] bytes = (byte[]) value;
+      WritableUtils.writeVInt(out, bytes.length);
+      out.write(bytes);
+    } else {
+      throw new IOException("Expects either ByteBuffer or byte[]. Got " + value.getClass());
+    }
+  }
+
+  private static void writeEnum(DataOutput out, Schema schema, Object value) throws IOException {
+    String name = value instanceof Enum ? ((Enum) value).name() : value.toString();
+    int idx = schema.getEnumIndex(name);
+    if (idx < 0) {
+      throw new IOException("Value " + name + " is not valid for enum schema " + schema);
+    }
+    WritableUtils.writeVInt(out, idx);
+  }
+
+  private static String readEnum(DataInput in, Schema schema) throws IOException {
+    int idx = WritableUtils.readVInt(in);
+    String value = schema.getEnumValue(idx);
+    if (value == null) {
+      throw new IOException("Invalid index " + idx + " for enum schema " + schema);
+    }
+    return value;
+  }
+
+  private static void writeArray(DataOutput out, Schema elementSchema, Object value) throws IOException {
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      WritableUtils.writeVInt(out, collection.size());
+      for (Object element : collection) {
+        write(out, elementSchema, element);
+      }
+    } else if (value instanceof Object[]) {
+      Object[] array = (Object[]) value;
+      WritableUtils.writeVInt(out, array.length);
+      for (Object element : array) {
+        write(out, elementSchema, element);
+      }
+    } else {
+      throw new IOException("Expects either Collection or array. Got: " + value.getClass());
+    }
+  }
+
+  private static List<Object> readArray(DataInput in, Schema elementSchema) throws IOException {
+    int size = WritableUtils.readVInt(in);
+    List<Object> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(read(in, elementSchema));
+    }
+    return result;
+  }
+
+  private static void writeMap(DataOutput out, Map.Entry<Schema, Schema> mapSchema,
+                               Object value) throws IOException {
+    if (!(value instanceof Map)) {
+      throw new IOException("Expects Map. Got: " + value.getClass());
+    }
+
+    Map<?, ?> map = (Map<?, ?>) value;
+    WritableUtils.writeVInt(out, map.size());
+    for (Map.Entry<?, ?> entry : getSortedEntries(map)) {
+      write(out, mapSchema.getKey(), entry.getKey());
+      write(out, mapSchema.getValue(), entry.getValue());
+    }
+  }
+
+  private static Map<Object, Object> readMap(DataInput in, Map.Entry<Schema, Schema> mapSchema) throws IOException {
+    int size = WritableUtils.readVInt(in);
+    Map<Object, Object> result = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      Object key = read(in, mapSchema.getKey());
+      result.put(key, read(in, mapSchema.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the entries of the given map in key order, or in iteration order if the keys are not comparable.
+   */
+  private static Collection<? extends Map.Entry<?, ?>> getSortedEntries(Map<?, ?> map) {
+    if (map.size() < 2 || map instanceof SortedMap) {
+      return map.entrySet();
+    }
+    try {
+      return new TreeMap<Object, Object>(map).entrySet();
+    } catch (ClassCastException | NullPointerException e) {
+      // keys are not mutually comparable or contain null
+      return map.entrySet();
+    }
+  }
+
+  private static void writeRecord(DataOutput out, Schema schema, Object value) throws IOException {
+    if (!(value instanceof StructuredRecord)) {
+      throw new IOException("Expects StructuredRecord. Got: " + value.getClass());
+    }
+
+    StructuredRecord record = (StructuredRecord) value;
+    List<Schema.Field> fields = schema.getFields();
+    // field positions can only be used if the record has the same schema
+    boolean sameSchema = schema.equals(record.getSchema());
+    for (int i = 0; i < fields.size(); i++) {
+      Schema.Field field = fields.get(i);
+      write(out, field.getSchema(), sameSchema ? record.get(i) : record.get(field.getName()));
+    }
+  }
+
+  private static StructuredRecord readRecord(DataInput in, Schema schema) throws IOException {
+    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+    List<Schema.Field> fields = schema.getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      builder.set(i, read(in, fields.get(i).getSchema()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Finds the branch of the union schema to use for the given value. The branch is chosen by the Java type of the
+   * value, same as {@link co.cask.cdap.format.StructuredRecordStringConverter} does. For records, a branch with the
+   * same schema as the record is preferred over the first record branch. An int value is written as a long if the
+   * union has no int branch.
+   */
+  private static int findUnionIndex(Schema unionSchema, @Nullable Object value) throws IOException {
+    Schema.Type type = getSchemaType(value);
+    List<Schema> schemas = unionSchema.getUnionSchemas();
+    int candidate = -1;
+    for (int i = 0; i < schemas.size(); i++) {
+      Schema schema = schemas.get(i);
+      if (schema.getType() == type) {
+        if (type != Schema.Type.RECORD || schema.equals(((StructuredRecord) value).getSchema())) {
+          return i;
+        }
+        if (candidate < 0) {
+          candidate = i;
+        }
+      } else if (candidate < 0 && type == Schema.Type.STRING && schema.getType() == Schema.Type.ENUM) {
+        // enum values are decoded as String
+        candidate = i;
+      } else if (candidate < 0 && type == Schema.Type.INT && schema.getType() == Schema.Type.LONG) {
+        candidate = i;
+      }
+    }
+    if (candidate < 0) {
+      throw new IOException("Value type " + type + " not valid in union: " + unionSchema);
+    }
+    return candidate;
+  }
+
+  private static Schema.Type getSchemaType(@Nullable Object value) throws IOException {
+    if (value == null) {
+      return Schema.Type.NULL;
+    }
+    if (value instanceof Boolean) {
+      return Schema.Type.BOOLEAN;
+    }
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return Schema.Type.INT;
+    }
+    if (value instanceof Long) {
+      return Schema.Type.LONG;
+    }
+    if (value instanceof Float) {
+      return Schema.Type.FLOAT;
+    }
+    if (value instanceof Double) {
+      return Schema.Type.DOUBLE;
+    }
+    if (value instanceof String) {
+      return Schema.Type.STRING;
+    }
+    if (value instanceof Enum) {
+      return Schema.Type.ENUM;
+    }
+    if (value instanceof ByteBuffer || value instanceof byte[]) {
+      return Schema.Type.BYTES;
+    }
+    if (value instanceof StructuredRecord) {
+      return Schema.Type.RECORD;
+    }
+    if (value instanceof Collection || value instanceof Object[]) {
+      return Schema.Type.ARRAY;
+    }
+    if (value instanceof Map) {
+      return Schema.Type.MAP;
+    }
+    throw new IOException("Unsupported type found in StructuredRecord: " + value.getClass());
+  }
+
+  private StructuredRecordBinaryCodec() {
+    // no-op
+  }
+}
@@ -19,20 +19,78 @@ package co.cask.cdap.etl.batch;
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
-import co.cask.cdap.format.StructuredRecordStringConverter;
+import co.cask.cdap.api.data.schema.SchemaHash;
+import co.cask.cdap.internal.io.SchemaTypeAdapter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 
 /**
  * Wrapper around a {@link StructuredRecord} so that it can be used as the output key and/or value of a mapper.
- * This is not very performant and must be improved soon (CDAP-5347).
+ *
+ * A record is serialized as a header that identifies its schema, followed by the binary encoding of the record
+ * fields (see {@link StructuredRecordBinaryCodec}). Schemas that are registered for the job through
+ * {@link #setShuffleSchemas(Configuration, Collection)} are referred to by their {@link SchemaHash} only. Any other
+ * schema, such as the schema of a join key created by a plugin at runtime, is written inline along with its hash.
+ *
+ * Serialized records are compared by schema hash first and then by the encoded fields, without deserialization.
+ * The ordering is only meant for grouping equal records and has no meaning beyond that.
  */
-public class StructuredRecordWritable implements WritableComparable<StructuredRecordWritable> {
+public class StructuredRecordWritable implements WritableComparable<StructuredRecordWritable>, Configurable {
+
+  /**
+   * Configuration key for the schemas registered for the shuffle of a job.
+   */
+  public static final String SHUFFLE_SCHEMAS_KEY = "cdap.etl.shuffle.schemas";
+
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(Schema.class, new SchemaTypeAdapter())
+    .create();
+  private static final Type SCHEMA_LIST_TYPE = new TypeToken<List<Schema>>() { }.getType();
+
+  private static final byte SCHEMA_REF = 0;
+  private static final byte SCHEMA_INLINE = 1;
+  private static final int HASH_LENGTH = 16;
+  private static final int MAX_CACHED_SCHEMAS = 1000;
+
+  // schemas registered for the job, by hash. Evicted schemas are registered again from the job configuration.
+  private static final Cache<SchemaHash, Schema> REGISTERED_SCHEMAS =
+    CacheBuilder.newBuilder().maximumSize(MAX_CACHED_SCHEMAS).<SchemaHash, Schema>build();
+  // serialized header for each schema written, either a reference or the inline schema
+  private static final Cache<SchemaHash, byte[]> HEADERS =
+    CacheBuilder.newBuilder().maximumSize(MAX_CACHED_SCHEMAS).<SchemaHash, byte[]>build();
+  // schemas parsed from inline headers, by hash
+  private static final Cache<SchemaHash, Schema> INLINE_SCHEMAS =
+    CacheBuilder.newBuilder().maximumSize(MAX_CACHED_SCHEMAS).<SchemaHash, Schema>build();
+  // the last value of the shuffle schemas configuration that got registered
+  private static volatile String registeredSchemasJson;
+
+  private static final Comparator COMPARATOR = new Comparator();
+
+  static {
+    WritableComparator.define(StructuredRecordWritable.class, COMPARATOR);
+  }
+
   private StructuredRecord record;
+  private Configuration conf;
 
   // required by Hadoop
   @SuppressWarnings("unused")
@@ -51,35 +109,98 @@ public class StructuredRecordWritable implements WritableComparable<StructuredRe
     return record;
   }
 
-  @SuppressWarnings("ConstantConditions")
+  /**
+   * Sets the schemas of the records that go through the shuffle of a job, so that they are serialized as a
+   * reference to the schema instead of the full schema.
+   */
+  public static void setShuffleSchemas(Configuration conf, Collection<Schema> schemas) {
+    List<Schema> shuffleSchemas = new ArrayList<>(schemas.size());
+    for (Schema schema : schemas) {
+      if (schema != null && !shuffleSchemas.contains(schema)) {
+        shuffleSchemas.add(schema);
+      }
+    }
+    conf.set(SHUFFLE_SCHEMAS_KEY, GSON.toJson(shuffleSchemas, SCHEMA_LIST_TYPE));
+  }
+
+  /**
+   * Registers the schemas set through {@link #setShuffleSchemas(Configuration, Collection)} in the given
+   * configuration. This must be called in every task that writes or reads records of those schemas.
+   */
+  public static void registerShuffleSchemas(Configuration conf) {
+    // use the raw value, as this gets called for every instance created by Hadoop
+    String schemasJson = conf.getRaw(SHUFFLE_SCHEMAS_KEY);
+    if (schemasJson == null || schemasJson.equals(registeredSchemasJson)) {
+      return;
+    }
+    registerSchemas(schemasJson);
+  }
+
+  private static void registerSchemas(String schemasJson) {
+    List<Schema> schemas = GSON.fromJson(schemasJson, SCHEMA_LIST_TYPE);
+    for (Schema schema : schemas) {
+      REGISTERED_SCHEMAS.put(schema.getSchemaHash(), schema);
+    }
+    // previously written headers may have the schema inline
+    HEADERS.invalidateAll();
+    registeredSchemasJson = schemasJson;
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
-    String schemaStr = record.getSchema().toString();
-    String recordStr = StructuredRecordStringConverter.toJsonString(record);
-    out.writeInt(schemaStr.length());
-    out.write(Bytes.toBytes(schemaStr));
-    out.writeInt(recordStr.length());
-    out.write(Bytes.toBytes(recordStr));
+    Schema schema = record.getSchema();
+    out.write(getHeader(schema));
+    StructuredRecordBinaryCodec.write(out, schema, record);
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    int schemaLen = in.readInt();
-    byte[] schemaBytes = new byte[schemaLen];
-    in.readFully(schemaBytes, 0, schemaLen);
-    String schemaStr = Bytes.toString(schemaBytes);
-    Schema schema = Schema.parseJson(schemaStr);
+    byte type = in.readByte();
+    byte[] hashBytes = new byte[HASH_LENGTH];
+    in.readFully(hashBytes);
+    SchemaHash hash = new SchemaHash(ByteBuffer.wrap(hashBytes));
+
+    Schema schema;
+    if (type == SCHEMA_REF) {
+      schema = getRegisteredSchema(hash);
+    } else if (type == SCHEMA_INLINE) {
+      byte[] schemaBytes = new byte[WritableUtils.readVInt(in)];
+      in.readFully(schemaBytes);
+      schema = INLINE_SCHEMAS.getIfPresent(hash);
+      if (schema == null) {
+        schema = Schema.parseJson(Bytes.toString(schemaBytes));
+        INLINE_SCHEMAS.put(hash, schema);
+      }
+    } else {
+      throw new IOException("Unknown schema type " + type);
+    }
+    this.record = (StructuredRecord) StructuredRecordBinaryCodec.read(in, schema);
+  }
 
-    int recordLen = in.readInt();
-    byte[] recordBytes = new byte[recordLen];
-    in.readFully(recordBytes, 0, recordLen);
-    String recordStr = Bytes.toString(recordBytes);
-    this.record = StructuredRecordStringConverter.fromJsonString(recordStr, schema);
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    registerShuffleSchemas(conf);
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
   }
 
   @Override
   public int compareTo(StructuredRecordWritable o) {
-    return Integer.compare(hashCode(), o.hashCode());
+    // serialize both, so that the ordering is consistent with the Comparator
+    try {
+      DataOutputBuffer thisBuffer = new DataOutputBuffer();
+      write(thisBuffer);
+      DataOutputBuffer otherBuffer = new DataOutputBuffer();
+      o.write(otherBuffer);
+      return COMPARATOR.compare(thisBuffer.getData(), 0, thisBuffer.getLength(),
+                                otherBuffer.getData(), 0, otherBuffer.getLength());
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to serialize record for comparison", e);
+    }
   }
 
   @Override
@@ -100,4 +221,75 @@ public class StructuredRecordWritable implements WritableComparable<StructuredRe
   public int hashCode() {
     return record != null ? record.hashCode() : 0;
   }
+
+  private Schema getRegisteredSchema(SchemaHash hash) throws IOException {
+    Schema schema = REGISTERED_SCHEMAS.getIfPresent(hash);
+    String schemasJson = conf == null ? null : conf.getRaw(SHUFFLE_SCHEMAS_KEY);
+    if (schema == null && schemasJson != null) {
+      // the schema may have been evicted by the schemas of another job
+      registerSchemas(schemasJson);
+      schema = REGISTERED_SCHEMAS.getIfPresent(hash);
+    }
+    if (schema == null) {
+      throw new IOException("Schema with hash " + hash + " is not registered for the shuffle.");
+    }
+    return schema;
+  }
+
+  private static byte[] getHeader(Schema schema) throws IOException {
+    SchemaHash hash = schema.getSchemaHash();
+    byte[] header = HEADERS.getIfPresent(hash);
+    if (header != null) {
+      return header;
+    }
+
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    boolean registered = REGISTERED_SCHEMAS.getIfPresent(hash) != null;
+    buffer.writeByte(registered ? SCHEMA_REF : SCHEMA_INLINE);
+    buffer.write(hash.toByteArray());
+    if (!registered) {
+      byte[] schemaBytes = Bytes.toBytes(schema.toString());
+      WritableUtils.writeVInt(buffer, schemaBytes.length);
+      buffer.write(schemaBytes);
+    }
+    header = new byte[buffer.getLength()];
+    System.arraycopy(buffer.getData(), 0, header, 0, header.length);
+    HEADERS.put(hash, header);
+    return header;
+  }
+
+  /**
+   * A {@link WritableComparator} that compares serialized {@link StructuredRecordWritable} by schema hash and then
+   * by the encoded fields. Whether the schema is inline or a reference does not affect the result.
+   */
+  public static final class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(StructuredRecordWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      int cmp = compareBytes(b1, s1 + 1, HASH_LENGTH, b2, s2 + 1, HASH_LENGTH);
+      if (cmp != 0) {
+        return cmp;
+      }
+      int fields1 = getFieldsOffset(b1, s1);
+      int fields2 = getFieldsOffset(b2, s2);
+      return compareBytes(b1, fields1, l1 - (fields1 - s1), b2, fields2, l2 - (fields2 - s2));
+    }
+
+    private static int getFieldsOffset(byte[] bytes, int start) {
+      int offset = start + 1 + HASH_LENGTH;
+      if (bytes[start] != SCHEMA_INLINE) {
+        return offset;
+      }
+      try {
+        return offset + WritableUtils.decodeVIntSize(bytes[offset]) + readVInt(bytes, offset);
+      } catch (IOException e) {
+        // should not happen, as the bytes are in memory
+        throw new IllegalArgumentException("Failed to read schema length", e);
+      }
+    }
+  }
 }
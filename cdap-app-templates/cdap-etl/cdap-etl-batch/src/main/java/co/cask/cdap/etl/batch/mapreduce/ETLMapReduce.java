@@ -37,6 +37,7 @@ import co.cask.cdap.etl.api.batch.BatchSourceContext;
 import co.cask.cdap.etl.batch.BatchPhaseSpec;
 import co.cask.cdap.etl.batch.LoggedBatchConfigurable;
 import co.cask.cdap.etl.batch.PipelinePluginInstantiator;
+import co.cask.cdap.etl.batch.StructuredRecordWritable;
 import co.cask.cdap.etl.batch.conversion.WritableConversion;
 import co.cask.cdap.etl.batch.conversion.WritableConversions;
 import co.cask.cdap.etl.common.CompositeFinisher;
@@ -229,7 +230,10 @@ public class ETLMapReduce extends AbstractMapReduce {
                                                                    BatchJoiner.PLUGIN_TYPE);
     if (!reducers.isEmpty()) {
       job.setReducerClass(ETLReducer.class);
-      String reducerName = reducers.iterator().next().getName();
+      StageInfo reducerInfo = reducers.iterator().next();
+      String reducerName = reducerInfo.getName();
+      // records going into the reducer stage are serialized with a reference to their schema
+      StructuredRecordWritable.setShuffleSchemas(hConf, reducerInfo.getInputSchemas().values());
       Class<?> outputKeyClass;
       Class<?> outputValClass;
       if (!phaseSpec.getPhase().getStagesOfType(BatchAggregator.PLUGIN_TYPE).isEmpty()) {
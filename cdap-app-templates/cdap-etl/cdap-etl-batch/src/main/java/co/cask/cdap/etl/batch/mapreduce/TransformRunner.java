@@ -26,6 +26,7 @@ import co.cask.cdap.etl.api.batch.BatchAggregator;
 import co.cask.cdap.etl.api.batch.BatchJoiner;
 import co.cask.cdap.etl.batch.BatchPhaseSpec;
 import co.cask.cdap.etl.batch.PipelinePluginInstantiator;
+import co.cask.cdap.etl.batch.StructuredRecordWritable;
 import co.cask.cdap.etl.batch.TransformExecutorFactory;
 import co.cask.cdap.etl.common.Constants;
 import co.cask.cdap.etl.common.Destroyables;
@@ -75,6 +76,7 @@ public class TransformRunner<KEY, VALUE> {
                          Metrics metrics) throws Exception {
     JobContext jobContext = context.getHadoopContext();
     Configuration hConf = jobContext.getConfiguration();
+    StructuredRecordWritable.registerShuffleSchemas(hConf);
 
     // figure out whether we are writing to a single output or to multiple outputs
     Map<String, String> properties = context.getSpecification().getProperties();
@@ -0,0 +1,288 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.batch.mapreduce.TaggedWritable;
+import co.cask.cdap.format.StructuredRecordStringConverter;
+import co.cask.cdap.test.SlowTests;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares the shuffle cost of {@link StructuredRecordWritable} with the former JSON based serialization for the
+ * map output of a joiner: a join key record and a record tagged with its stage, as written by the mapper, sorted by
+ * join key and read back by the reducer.
+ */
+@Category(SlowTests.class)
+public class StructuredRecordWritableBenchmarkTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StructuredRecordWritableBenchmarkTest.class);
+
+  private static final int RECORDS = 100000;
+  private static final int KEYS = 10000;
+
+  private static final Schema KEY_SCHEMA = Schema.recordOf(
+    "joinkey",
+    Schema.Field.of("customer_id", Schema.of(Schema.Type.LONG)));
+  private static final Schema CUSTOMER_SCHEMA = Schema.recordOf(
+    "customer",
+    Schema.Field.of("customer_id", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("email", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("age", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("active", Schema.of(Schema.Type.BOOLEAN)));
+  private static final Schema PURCHASE_SCHEMA = Schema.recordOf(
+    "purchase",
+    Schema.Field.of("customer_id", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("item", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("price", Schema.of(Schema.Type.DOUBLE)),
+    Schema.Field.of("quantity", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("ts", Schema.of(Schema.Type.LONG)));
+
+  @Test
+  public void testJoinerShuffle() throws IOException {
+    Configuration hConf = new Configuration();
+    // same as ETLMapReduce does for the input schemas of the joiner
+    StructuredRecordWritable.setShuffleSchemas(hConf, ImmutableList.of(CUSTOMER_SCHEMA, PURCHASE_SCHEMA));
+    StructuredRecordWritable.registerShuffleSchemas(hConf);
+
+    List<StructuredRecord> keys = new ArrayList<>(RECORDS);
+    List<StructuredRecord> values = new ArrayList<>(RECORDS);
+    List<String> stages = new ArrayList<>(RECORDS);
+    for (int i = 0; i < RECORDS; i++) {
+      long customerId = i % KEYS;
+      keys.add(StructuredRecord.builder(KEY_SCHEMA).set("customer_id", customerId).build());
+      if (i < KEYS) {
+        stages.add("customers");
+        values.add(StructuredRecord.builder(CUSTOMER_SCHEMA)
+                     .set("customer_id", customerId)
+                     .set("name", "customer" + customerId)
+                     .set("email", i % 3 == 0 ? null : "customer" + customerId + "@example.com")
+                     .set("age", 20 + i % 50)
+                     .set("active", i % 2 == 0)
+                     .build());
+      } else {
+        stages.add("purchases");
+        values.add(StructuredRecord.builder(PURCHASE_SCHEMA)
+                     .set("customer_id", customerId)
+                     .set("item", "item" + (i % 1000))
+                     .set("price", (i % 10000) / 100d)
+                     .set("quantity", 1 + i % 5)
+                     .set("ts", 1451606400000L + i)
+                     .build());
+      }
+    }
+
+    // warm up both
+    shuffle(hConf, keys, values, stages, false);
+    shuffle(hConf, keys, values, stages, true);
+
+    ShuffleStats json = shuffle(hConf, keys, values, stages, false);
+    ShuffleStats binary = shuffle(hConf, keys, values, stages, true);
+    LOG.info("JSON shuffle:   {}", json);
+    LOG.info("Binary shuffle: {}", binary);
+    LOG.info("Binary/JSON ratio: bytes {}, write {}, sort {}, read {}",
+             ratio(binary.bytes, json.bytes), ratio(binary.writeMillis, json.writeMillis),
+             ratio(binary.sortMillis, json.sortMillis), ratio(binary.readMillis, json.readMillis));
+
+    Assert.assertTrue(binary.bytes < json.bytes);
+  }
+
+  private ShuffleStats shuffle(Configuration hConf, List<StructuredRecord> keys, List<StructuredRecord> values,
+                               List<String> stages, boolean binary) throws IOException {
+    ShuffleStats stats = new ShuffleStats();
+    int size = keys.size();
+    final int[] keyStarts = new int[size];
+    final int[] keyEnds = new int[size];
+
+    // map side: serialize join keys and tagged records
+    Stopwatch stopwatch = new Stopwatch().start();
+    DataOutputBuffer output = new DataOutputBuffer();
+    for (int i = 0; i < size; i++) {
+      keyStarts[i] = output.getLength();
+      toWritable(keys.get(i), binary).write(output);
+      keyEnds[i] = output.getLength();
+      new TaggedWritable<>(stages.get(i), toWritable(values.get(i), binary)).write(output);
+    }
+    stats.writeMillis = stopwatch.elapsedMillis();
+    stats.bytes = output.getLength();
+
+    // sort by join key with the comparator Hadoop uses for the map output key
+    final byte[] data = output.getData();
+    final RawComparator<?> comparator =
+      WritableComparator.get(binary ? StructuredRecordWritable.class : JsonStructuredRecordWritable.class);
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    stopwatch = new Stopwatch().start();
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return comparator.compare(data, keyStarts[i1], keyEnds[i1] - keyStarts[i1],
+                                  data, keyStarts[i2], keyEnds[i2] - keyStarts[i2]);
+      }
+    });
+    stats.sortMillis = stopwatch.elapsedMillis();
+
+    // reduce side: deserialize keys and tagged records in sorted order
+    DataInputBuffer input = new DataInputBuffer();
+    stopwatch = new Stopwatch().start();
+    int groups = 0;
+    StructuredRecord lastKey = null;
+    for (Integer idx : order) {
+      input.reset(data, keyStarts[idx], output.getLength() - keyStarts[idx]);
+      StructuredRecord key = readRecord(hConf, input, binary);
+      TaggedWritable<Writable> tagged = new TaggedWritable<>();
+      tagged.setConf(hConf);
+      tagged.readFields(input);
+      StructuredRecord value = binary ? ((StructuredRecordWritable) tagged.getRecord()).get()
+                                      : ((JsonStructuredRecordWritable) tagged.getRecord()).get();
+      Assert.assertEquals(values.get(idx), value);
+      Assert.assertEquals(stages.get(idx), tagged.getStageName());
+      if (!key.equals(lastKey)) {
+        groups++;
+        lastKey = key;
+      }
+    }
+    stats.readMillis = stopwatch.elapsedMillis();
+
+    // equal keys must be sorted next to each other
+    Assert.assertEquals(KEYS, groups);
+    return stats;
+  }
+
+  private static Writable toWritable(StructuredRecord record, boolean binary) {
+    return binary ? new StructuredRecordWritable(record) : new JsonStructuredRecordWritable(record);
+  }
+
+  private static StructuredRecord readRecord(Configuration hConf, DataInput in, boolean binary) throws IOException {
+    if (binary) {
+      StructuredRecordWritable writable = new StructuredRecordWritable();
+      writable.setConf(hConf);
+      writable.readFields(in);
+      return writable.get();
+    }
+    JsonStructuredRecordWritable writable = new JsonStructuredRecordWritable();
+    writable.readFields(in);
+    return writable.get();
+  }
+
+  private static String ratio(long binary, long json) {
+    return json == 0 ? "n/a" : String.format("%.2f", (double) binary / json);
+  }
+
+  /**
+   * Statistics of one shuffle run.
+   */
+  private static final class ShuffleStats {
+    private long bytes;
+    private long writeMillis;
+    private long sortMillis;
+    private long readMillis;
+
+    @Override
+    public String toString() {
+      return "bytes=" + bytes + ", write=" + writeMillis + "ms, sort=" + sortMillis + "ms, read=" + readMillis + "ms";
+    }
+  }
+
+  /**
+   * The JSON based serialization that {@link StructuredRecordWritable} used before, for comparison. Without a raw
+   * comparator, Hadoop deserializes the keys to compare them.
+   */
+  public static final class JsonStructuredRecordWritable implements WritableComparable<JsonStructuredRecordWritable> {
+    private StructuredRecord record;
+
+    @SuppressWarnings("unused")
+    public JsonStructuredRecordWritable() {
+    }
+
+    JsonStructuredRecordWritable(StructuredRecord record) {
+      this.record = record;
+    }
+
+    StructuredRecord get() {
+      return record;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      String schemaStr = record.getSchema().toString();
+      String recordStr = StructuredRecordStringConverter.toJsonString(record);
+      out.writeInt(schemaStr.length());
+      out.write(Bytes.toBytes(schemaStr));
+      out.writeInt(recordStr.length());
+      out.write(Bytes.toBytes(recordStr));
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      byte[] schemaBytes = new byte[in.readInt()];
+      in.readFully(schemaBytes);
+      Schema schema = Schema.parseJson(Bytes.toString(schemaBytes));
+      byte[] recordBytes = new byte[in.readInt()];
+      in.readFully(recordBytes);
+      record = StructuredRecordStringConverter.fromJsonString(Bytes.toString(recordBytes), schema);
+    }
+
+    @Override
+    public int compareTo(JsonStructuredRecordWritable o) {
+      return Integer.compare(hashCode(), o.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      return Objects.equals(record, ((JsonStructuredRecordWritable) o).record);
+    }
+
+    @Override
+    public int hashCode() {
+      return record != null ? record.hashCode() : 0;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link StructuredRecordWritable}.
+ */
+public class StructuredRecordWritableTest {
+
+  private static final Schema INNER_SCHEMA = Schema.recordOf(
+    "inner",
+    Schema.Field.of("x", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("y", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Schema schema = Schema.recordOf(
+      "roundtrip",
+      Schema.Field.of("boolean", Schema.of(Schema.Type.BOOLEAN)),
+      Schema.Field.of("int", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("long", Schema.of(Schema.Type.LONG)),
+      Schema.Field.of("float", Schema.of(Schema.Type.FLOAT)),
+      Schema.Field.of("double", Schema.of(Schema.Type.DOUBLE)),
+      Schema.Field.of("string", Schema.of(Schema.Type.STRING)),
+      Schema.Field.of("bytes", Schema.of(Schema.Type.BYTES)),
+      Schema.Field.of("enum", Schema.enumWith("RED", "GREEN", "BLUE")),
+      Schema.Field.of("array", Schema.arrayOf(Schema.of(Schema.Type.LONG))),
+      Schema.Field.of("map", Schema.mapOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.INT))),
+      Schema.Field.of("record", INNER_SCHEMA),
+      Schema.Field.of("nullable", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+      Schema.Field.of("null", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+      Schema.Field.of("union", Schema.unionOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.INT))));
+
+    StructuredRecord record = StructuredRecord.builder(schema)
+      .set("boolean", true)
+      .set("int", -12345)
+      .set("long", Long.MAX_VALUE)
+      .set("float", 3.14f)
+      .set("double", -2.71828d)
+      .set("string", "héllo")
+      .set("bytes", ByteBuffer.wrap(new byte[] { 1, 2, 3 }))
+      .set("enum", "GREEN")
+      .set("array", ImmutableList.of(1L, -1L, Long.MIN_VALUE))
+      .set("map", ImmutableMap.of("a", 1, "b", 2))
+      .set("record", StructuredRecord.builder(INNER_SCHEMA).set("x", 5).build())
+      .set("nullable", 10L)
+      .set("union", 7)
+      .build();
+
+    StructuredRecord copy = roundTrip(record);
+    Assert.assertEquals(schema, copy.getSchema());
+    Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) copy.get("bytes"));
+    for (Schema.Field field : schema.getFields()) {
+      if (!field.getName().equals("bytes")) {
+        Assert.assertEquals(field.getName(), record.get(field.getName()), copy.get(field.getName()));
+      }
+    }
+  }
+
+  @Test
+  public void testRegisteredSchema() throws IOException {
+    Schema schema = Schema.recordOf(
+      "registered",
+      Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+      Schema.Field.of("name", Schema.of(Schema.Type.STRING)));
+    StructuredRecord record = StructuredRecord.builder(schema).set("id", 1L).set("name", "alice").build();
+
+    // without registration, the schema is part of the serialized record
+    int inlineSize = serialize(record).getLength();
+    Assert.assertTrue(inlineSize > schema.toString().length());
+
+    Configuration conf = new Configuration();
+    StructuredRecordWritable.setShuffleSchemas(conf, ImmutableList.of(schema, INNER_SCHEMA));
+    new StructuredRecordWritable().setConf(conf);
+
+    // with registration, only the schema hash is written
+    int refSize = serialize(record).getLength();
+    Assert.assertTrue(refSize < inlineSize);
+    Assert.assertTrue(refSize < schema.toString().length());
+    Assert.assertEquals(record, roundTrip(record));
+  }
+
+  @Test
+  public void testComparator() throws IOException {
+    Schema schema = Schema.recordOf(
+      "key",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("attributes", Schema.mapOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.STRING))));
+
+    // same entries in different iteration order
+    Map<String, String> attributes1 = new LinkedHashMap<>();
+    attributes1.put("k1", "v1");
+    attributes1.put("k2", "v2");
+    Map<String, String> attributes2 = new LinkedHashMap<>();
+    attributes2.put("k2", "v2");
+    attributes2.put("k1", "v1");
+
+    StructuredRecord record1 = StructuredRecord.builder(schema).set("id", 1).set("attributes", attributes1).build();
+    StructuredRecord record2 = StructuredRecord.builder(schema).set("id", 1).set("attributes", attributes2).build();
+    StructuredRecord record3 = StructuredRecord.builder(schema)
+      .set("id", 2).set("attributes", new HashMap<String, String>()).build();
+
+    DataOutputBuffer inline1 = serialize(record1);
+    DataOutputBuffer inline2 = serialize(record2);
+    DataOutputBuffer inline3 = serialize(record3);
+
+    Assert.assertEquals(0, compare(inline1, inline2));
+    Assert.assertTrue(compare(inline1, inline3) != 0);
+    Assert.assertEquals(-Integer.signum(compare(inline1, inline3)), Integer.signum(compare(inline3, inline1)));
+    Assert.assertEquals(0, new StructuredRecordWritable(record1).compareTo(new StructuredRecordWritable(record2)));
+    Assert.assertEquals(Integer.signum(compare(inline1, inline3)),
+                        Integer.signum(new StructuredRecordWritable(record1)
+                                         .compareTo(new StructuredRecordWritable(record3))));
+
+    // whether the schema is inline or registered does not change the comparison
+    Configuration conf = new Configuration();
+    StructuredRecordWritable.setShuffleSchemas(conf, ImmutableList.of(schema));
+    StructuredRecordWritable.registerShuffleSchemas(conf);
+    DataOutputBuffer ref2 = serialize(record2);
+    DataOutputBuffer ref3 = serialize(record3);
+    Assert.assertTrue(ref2.getLength() < inline2.getLength());
+    Assert.assertEquals(0, compare(inline1, ref2));
+    Assert.assertEquals(Integer.signum(compare(inline1, inline3)), Integer.signum(compare(inline1, ref3)));
+  }
+
+  @Test
+  public void testNullInNonNullableField() throws IOException {
+    Schema schema = Schema.recordOf("nonnullable", Schema.Field.of("list", Schema.arrayOf(Schema.of(Schema.Type.INT))));
+    List<Integer> list = new ArrayList<>();
+    list.add(null);
+    StructuredRecord record = StructuredRecord.builder(schema).set("list", list).build();
+    try {
+      serialize(record);
+      Assert.fail("Expected failure on null array element");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testIntInLongUnion() throws IOException {
+    Schema schema = Schema.recordOf(
+      "widening",
+      Schema.Field.of("nullable", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+      Schema.Field.of("union", Schema.unionOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.LONG))));
+    StructuredRecord record = StructuredRecord.builder(schema).set("nullable", 5).set("union", -7).build();
+
+    // int values are written to the long branch and read back as long
+    StructuredRecord copy = roundTrip(record);
+    Assert.assertEquals(Long.valueOf(5L), copy.<Long>get("nullable"));
+    Assert.assertEquals(Long.valueOf(-7L), copy.<Long>get("union"));
+  }
+
+  @Test
+  public void testLongInIntField() throws IOException {
+    Schema schema = Schema.recordOf("narrowing", Schema.Field.of("int", Schema.of(Schema.Type.INT)));
+    StructuredRecord record = StructuredRecord.builder(schema).set("int", Integer.MAX_VALUE + 1L).build();
+    try {
+      serialize(record);
+      Assert.fail("Expected failure on long value in int field");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static int compare(DataOutputBuffer buffer1, DataOutputBuffer buffer2) {
+    return WritableComparator.get(StructuredRecordWritable.class).compare(
+      buffer1.getData(), 0, buffer1.getLength(), buffer2.getData(), 0, buffer2.getLength());
+  }
+
+  private static DataOutputBuffer serialize(StructuredRecord record) throws IOException {
+    DataOutputBuffer output = new DataOutputBuffer();
+    new StructuredRecordWritable(record).write(output);
+    return output;
+  }
+
+  private static StructuredRecord roundTrip(StructuredRecord record) throws IOException {
+    DataOutputBuffer output = serialize(record);
+    DataInputBuffer input = new DataInputBuffer();
+    input.reset(output.getData(), output.getLength());
+    StructuredRecordWritable writable = new StructuredRecordWritable();
+    writable.readFields(input);
+    Assert.assertEquals(output.getLength(), input.getPosition());
+    return writable.get();
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.cli.command.metrics;
+
+import co.cask.cdap.cli.ArgumentName;
+import co.cask.cdap.cli.CLIConfig;
+import co.cask.cdap.cli.exception.CommandInputError;
+import co.cask.cdap.cli.util.AbstractAuthCommand;
+import co.cask.cdap.cli.util.RowMaker;
+import co.cask.cdap.cli.util.table.Table;
+import co.cask.cdap.client.MetricsClient;
+import co.cask.cdap.proto.MetricQueryResult;
+import co.cask.common.cli.Arguments;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.inject.Inject;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Gets the backlog and latency metrics of all queues of a flow, per producer, queue and consumer flowlet.
+ */
+public class GetFlowQueueMetricsCommand extends AbstractAuthCommand {
+
+  private static final List<String> METRICS = ImmutableList.of(
+    "system.queue.pending",
+    "system.queue.backlog.age",
+    // percentiles of the dequeue latency histogram
+    "system.queue.dequeue.latency:p50",
+    "system.queue.dequeue.latency:p95",
+    "system.queue.dequeue.latency:p99",
+    "system.queue.claim.conflicts"
+  );
+  private static final List<String> GROUP_BY = ImmutableList.of("producer", "queue", "consumer");
+
+  private final MetricsClient client;
+
+  @Inject
+  public GetFlowQueueMetricsCommand(MetricsClient client, CLIConfig cliConfig) {
+    super(cliConfig);
+    this.client = client;
+  }
+
+  @Override
+  public void perform(Arguments arguments, PrintStream output) throws Exception {
+    String[] flowIdParts = arguments.get(ArgumentName.FLOW.toString()).split("\\.");
+    if (flowIdParts.length < 2) {
+      throw new CommandInputError(this);
+    }
+    Map<String, String> tags = ImmutableMap.of("namespace", cliConfig.getCurrentNamespace().getId(),
+                                               "app", flowIdParts[0],
+                                               "flow", flowIdParts[1]);
+    MetricQueryResult result = client.query(tags, METRICS, GROUP_BY, ImmutableMap.of("aggregate", "true"));
+
+    // Collect the latest value of each metric of each producer, queue and consumer
+    Map<List<String>, Map<String, Long>> rows =
+      new TreeMap<List<String>, Map<String, Long>>(Ordering.<String>natural().lexicographical());
+    for (MetricQueryResult.TimeSeries series : result.getSeries()) {
+      List<String> grouping = Lists.newArrayList();
+      for (String tag : GROUP_BY) {
+        String value = series.getGrouping().get(tag);
+        grouping.add(value == null ? "" : value);
+      }
+      Map<String, Long> values = rows.get(grouping);
+      if (values == null) {
+        values = Maps.newHashMap();
+        rows.put(grouping, values);
+      }
+      MetricQueryResult.TimeValue[] data = series.getData();
+      if (data.length > 0) {
+        values.put(series.getMetricName(), data[data.length - 1].getValue());
+      }
+    }
+
+    Table table = Table.builder()
+      .setHeader("producer", "queue", "consumer", "pending", "backlog age (ms)",
+                 "latency p50 (ms)", "latency p95 (ms)", "latency p99 (ms)", "claim conflicts")
+      .setRows(Lists.newArrayList(rows.entrySet()), new RowMaker<Map.Entry<List<String>, Map<String, Long>>>() {
+        @Override
+        public List<?> makeRow(Map.Entry<List<String>, Map<String, Long>> object) {
+          List<Object> row = Lists.<Object>newArrayList(object.getKey());
+          for (String metric : METRICS) {
+            Long value = object.getValue().get(metric);
+            row.add(value == null ? 0L : value);
+          }
+          return row;
+        }
+      }).build();
+    cliConfig.getTableRenderer().render(cliConfig, output, table);
+  }
+
+  @Override
+  public String getPattern() {
+    return String.format("get flow queue metrics <%s>", ArgumentName.FLOW);
+  }
+
+  @Override
+  public String getDescription() {
+    return "Gets the backlog and latency metrics of the queues of a flow, for each producer, queue and consumer.";
+  }
+}
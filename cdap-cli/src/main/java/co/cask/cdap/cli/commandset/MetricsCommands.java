@@ -18,6 +18,7 @@ package co.cask.cdap.cli.commandset;
 
 import co.cask.cdap.cli.Categorized;
 import co.cask.cdap.cli.CommandCategory;
+import co.cask.cdap.cli.command.metrics.GetFlowQueueMetricsCommand;
 import co.cask.cdap.cli.command.metrics.GetMetricCommand;
 import co.cask.cdap.cli.command.metrics.SearchMetricNamesCommand;
 import co.cask.cdap.cli.command.metrics.SearchMetricTagsCommand;
@@ -39,6 +40,7 @@ public class MetricsCommands extends CommandSet<Command> implements Categorized
         .add(injector.getInstance(SearchMetricTagsCommand.class))
         .add(injector.getInstance(SearchMetricNamesCommand.class))
         .add(injector.getInstance(GetMetricCommand.class))
+        .add(injector.getInstance(GetFlowQueueMetricsCommand.class))
         .build());
   }
 
@@ -459,13 +459,29 @@ public final class Constants {
 
     public static final String SERVER_ADDRESS = "metrics.query.bind.address";
     public static final String SERVER_PORT = "metrics.query.bind.port";
+    public static final String QUERY_SCAN_THREADS = "metrics.query.scan.threads";
+    public static final String QUERY_SCAN_SPLITS = "metrics.query.scan.splits";
+    public static final String QUERY_CACHE_SIZE_MB = "metrics.query.cache.size.mb";
+    public static final String QUERY_CACHE_WINDOW_SECONDS = "metrics.query.cache.window.seconds";
+    public static final String QUERY_CACHE_DELAY_SECONDS = "metrics.query.cache.delay.seconds";
+
+    public static final String ROLLUP_ENABLED = "metrics.rollup.enabled";
+    public static final String ROLLUP_INTERVAL_SECONDS = "metrics.rollup.interval.seconds";
+    public static final String ROLLUP_DELAY_SECONDS = "metrics.rollup.delay.seconds";
+    public static final String ROLLUP_META_TABLE = "metrics.rollup.meta.table";
+    public static final String FACT_STATISTICS_TABLE = "metrics.fact.statistics.table";
 
     public static final String KAFKA_TOPIC_PREFIX = "metrics.kafka.topic.prefix";
     public static final String KAFKA_PARTITION_SIZE = "metrics.kafka.partition.size";
     public static final String KAFKA_CONSUMER_PERSIST_THRESHOLD = "metrics.kafka.consumer.persist.threshold";
+    public static final String PROCESSOR_THREADS = "metrics.processor.threads";
+    public static final String KAFKA_PUBLISH_BATCH_SIZE = "metrics.kafka.publish.batch.size";
+    public static final String KAFKA_PUBLISH_COMPRESS = "metrics.kafka.publish.compress";
     public static final String KAFKA_META_TABLE = "metrics.kafka.meta.table";
 
     public static final String DEFAULT_KAFKA_META_TABLE = "metrics.kafka.meta";
+    public static final String DEFAULT_ROLLUP_META_TABLE = "metrics.rollup.meta";
+    public static final String DEFAULT_FACT_STATISTICS_TABLE = "metrics.fact.statistics";
     public static final String DEFAULT_KAFKA_TOPIC_PREFIX = "metrics";
 
     // NOTE: "v2" to avoid conflict with data of older metrics system
@@ -476,6 +492,8 @@ public final class Constants {
 
     public static final int DEFAULT_KAFKA_CONSUMER_PERSIST_THRESHOLD = 100;
     public static final int DEFAULT_KAFKA_PARTITION_SIZE = 1;
+    public static final int DEFAULT_KAFKA_PUBLISH_BATCH_SIZE = 1;
+    public static final boolean DEFAULT_KAFKA_PUBLISH_COMPRESS = false;
 
     /**
      * Metric's dataset related constants.
@@ -518,6 +536,7 @@ public final class Constants {
       public static final String FLOW = "fl";
       public static final String FLOWLET = "flt";
       public static final String FLOWLET_QUEUE = "flq";
+      public static final String QUEUE_SHARD = "qsh";
 
       public static final String MAPREDUCE = "mr";
       public static final String MR_TASK_TYPE = "mrt";
@@ -573,6 +592,14 @@ public final class Constants {
       public static final class Log {
         public static final String PROCESS_DELAY = "log.process.delay";
         public static final String PROCESS_MESSAGES_COUNT = "log.process.message.count";
+        // Suffixed with the partition
+        public static final String SAVER_LAG = "log.saver.lag";
+        public static final String SAVER_BUFFERED_BUCKETS = "log.saver.buffered.buckets";
+        public static final String CLEANUP_PARTITIONS = "log.cleanup.partitions";
+        public static final String CLEANUP_PARTITIONS_PROCESSED = "log.cleanup.partitions.processed";
+        public static final String CLEANUP_FILES_DELETED = "log.cleanup.files.deleted";
+        public static final String CLEANUP_FILES_MERGED = "log.cleanup.files.merged";
+        public static final String CLEANUP_BYTES_RECLAIMED = "log.cleanup.bytes.reclaimed";
       }
     }
 
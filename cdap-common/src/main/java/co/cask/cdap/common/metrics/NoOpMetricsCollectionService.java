@@ -16,6 +16,7 @@
 
 package co.cask.cdap.common.metrics;
 
+import co.cask.cdap.api.metrics.MetricCounter;
 import co.cask.cdap.api.metrics.MetricsCollectionService;
 import co.cask.cdap.api.metrics.MetricsContext;
 import com.google.common.util.concurrent.AbstractIdleService;
@@ -51,6 +52,21 @@ public class NoOpMetricsCollectionService extends AbstractIdleService implements
         // no-op
       }
 
+      @Override
+      public void histogram(String metricName, long value) {
+        // no-op
+      }
+
+      @Override
+      public MetricCounter getCounter(String metricName) {
+        return new MetricCounter() {
+          @Override
+          public void increment(long value) {
+            // no-op
+          }
+        };
+      }
+
       @Override
       public MetricsContext childContext(Map<String, String> tags) {
         return this;
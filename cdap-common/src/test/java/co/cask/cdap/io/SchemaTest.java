@@ -365,6 +365,31 @@ public class SchemaTest {
     }
   }
 
+  @Test
+  public void testFieldIndex() throws Exception {
+    Schema schema = Schema.recordOf(
+      "record",
+      Schema.Field.of("a", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("b", Schema.of(Schema.Type.STRING)),
+      Schema.Field.of("c", Schema.nullableOf(Schema.of(Schema.Type.LONG))));
+
+    Assert.assertEquals(0, schema.getFieldIndex("a"));
+    Assert.assertEquals(1, schema.getFieldIndex("b"));
+    Assert.assertEquals(2, schema.getFieldIndex("c"));
+    Assert.assertEquals(-1, schema.getFieldIndex("d"));
+    Assert.assertEquals(-1, Schema.of(Schema.Type.STRING).getFieldIndex("a"));
+
+    // The index is not serialized, but computed again on demand
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(os)) {
+      oos.writeObject(schema);
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(os.toByteArray()))) {
+      Schema restoredSchema = (Schema) ois.readObject();
+      Assert.assertEquals(1, restoredSchema.getFieldIndex("b"));
+    }
+  }
+
   private void verifyThrowsException(String toParse) {
     try {
       Schema.parseSQL(toParse);
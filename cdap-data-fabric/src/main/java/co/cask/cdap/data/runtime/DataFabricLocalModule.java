@@ -15,16 +15,24 @@
  */
 package co.cask.cdap.data.runtime;
 
+import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.data2.queue.QueueClientFactory;
 import co.cask.cdap.data2.transaction.queue.QueueAdmin;
+import co.cask.cdap.data2.transaction.queue.QueueConstants;
 import co.cask.cdap.data2.transaction.queue.inmemory.InMemoryQueueAdmin;
 import co.cask.cdap.data2.transaction.queue.leveldb.LevelDBAndInMemoryQueueClientFactory;
+import co.cask.cdap.data2.transaction.queue.segmented.SegmentedQueueAdmin;
+import co.cask.cdap.data2.transaction.queue.segmented.SegmentedQueueClientFactory;
 import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.util.Modules;
 
 /**
- * DataFabricLocalModule defines the Local/HyperSQL bindings for the data fabric.
+ * DataFabricLocalModule defines the Local/HyperSQL bindings for the data fabric. Flowlet queues are either kept
+ * in memory or stored in segmented files, based on the {@link QueueConstants.ConfigKeys#LOCAL_QUEUE_ENGINE} setting.
  */
 public class DataFabricLocalModule extends AbstractModule {
 
@@ -34,10 +42,58 @@ public class DataFabricLocalModule extends AbstractModule {
     install(Modules.override(new DataFabricLevelDBModule()).with(new AbstractModule() {
       @Override
       protected void configure() {
-        bind(QueueClientFactory.class).to(LevelDBAndInMemoryQueueClientFactory.class).in(Singleton.class);
-        bind(QueueAdmin.class).to(InMemoryQueueAdmin.class).in(Singleton.class);
+        bind(QueueClientFactory.class).toProvider(QueueClientFactoryProvider.class).in(Singleton.class);
+        bind(QueueAdmin.class).toProvider(QueueAdminProvider.class).in(Singleton.class);
       }
     }));
   }
 
+  private static boolean isSegmentedQueue(CConfiguration cConf) {
+    return QueueConstants.LOCAL_QUEUE_ENGINE_SEGMENTED.equals(
+      cConf.get(QueueConstants.ConfigKeys.LOCAL_QUEUE_ENGINE, QueueConstants.LOCAL_QUEUE_ENGINE_INMEMORY));
+  }
+
+  /**
+   * Provides the {@link QueueClientFactory} of the configured local queue engine.
+   */
+  private static final class QueueClientFactoryProvider implements Provider<QueueClientFactory> {
+    private final Injector injector;
+    private final CConfiguration cConf;
+
+    @Inject
+    QueueClientFactoryProvider(Injector injector, CConfiguration cConf) {
+      this.injector = injector;
+      this.cConf = cConf;
+    }
+
+    @Override
+    public QueueClientFactory get() {
+      if (isSegmentedQueue(cConf)) {
+        return injector.getInstance(SegmentedQueueClientFactory.class);
+      }
+      return injector.getInstance(LevelDBAndInMemoryQueueClientFactory.class);
+    }
+  }
+
+  /**
+   * Provides the {@link QueueAdmin} of the configured local queue engine.
+   */
+  private static final class QueueAdminProvider implements Provider<QueueAdmin> {
+    private final Injector injector;
+    private final CConfiguration cConf;
+
+    @Inject
+    QueueAdminProvider(Injector injector, CConfiguration cConf) {
+      this.injector = injector;
+      this.cConf = cConf;
+    }
+
+    @Override
+    public QueueAdmin get() {
+      if (isSegmentedQueue(cConf)) {
+        return injector.getInstance(SegmentedQueueAdmin.class);
+      }
+      return injector.getInstance(InMemoryQueueAdmin.class);
+    }
+  }
 }
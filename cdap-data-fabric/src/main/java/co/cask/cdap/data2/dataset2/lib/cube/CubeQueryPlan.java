@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
+import com.google.common.base.Objects;
+
+import java.util.List;
+
+/**
+ * The plan of executing a {@link CubeQuery}: the aggregation that is scanned, and the estimated cost of the scan.
+ * The estimates are relative to the time range and the number of measures of the query, and are only meant to compare
+ * the plans of different aggregations.
+ */
+public final class CubeQueryPlan {
+
+  private final String aggregation;
+  private final List<String> dimensionNames;
+  private final long estimatedRows;
+  private final long estimatedSeeks;
+  private final double cost;
+
+  CubeQueryPlan(String aggregation, List<String> dimensionNames,
+                long estimatedRows, long estimatedSeeks, double cost) {
+    this.aggregation = aggregation;
+    this.dimensionNames = dimensionNames;
+    this.estimatedRows = estimatedRows;
+    this.estimatedSeeks = estimatedSeeks;
+    this.cost = cost;
+  }
+
+  /**
+   * Returns the name of the aggregation to scan.
+   */
+  public String getAggregation() {
+    return aggregation;
+  }
+
+  /**
+   * Returns the dimension names of the aggregation, in the order of the row keys.
+   */
+  public List<String> getDimensionNames() {
+    return dimensionNames;
+  }
+
+  /**
+   * Returns the estimated number of rows that match the query, for each time base and measure.
+   */
+  public long getEstimatedRows() {
+    return estimatedRows;
+  }
+
+  /**
+   * Returns the estimated number of seeks the fuzzy row filter performs to skip the rows that do not match,
+   * for each time base and measure.
+   */
+  public long getEstimatedSeeks() {
+    return estimatedSeeks;
+  }
+
+  /**
+   * Returns the estimated cost of the scan.
+   */
+  public double getCost() {
+    return cost;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("aggregation", aggregation)
+      .add("dimensionNames", dimensionNames)
+      .add("estimatedRows", estimatedRows)
+      .add("estimatedSeeks", estimatedSeeks)
+      .add("cost", cost)
+      .toString();
+  }
+}
@@ -23,24 +23,31 @@ import co.cask.cdap.api.dataset.lib.cube.CubeExploreQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeFact;
 import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
 import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import co.cask.cdap.api.dataset.lib.cube.MeasureType;
+import co.cask.cdap.api.dataset.lib.cube.Measurement;
 import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
 import co.cask.cdap.api.dataset.lib.cube.TimeValue;
 import co.cask.cdap.api.dataset.metrics.MeteredDataset;
 import co.cask.cdap.api.metrics.MetricsCollector;
-import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data2.dataset2.lib.timeseries.Fact;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScan;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanResult;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanner;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTableStatistics;
+import co.cask.cdap.data2.dataset2.lib.timeseries.RollupMetaTable;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterators;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
+import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,7 +58,15 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 /**
@@ -63,14 +78,39 @@ public class DefaultCube implements Cube, MeteredDataset {
   private static final DimensionValueComparator DIMENSION_VALUE_COMPARATOR = new DimensionValueComparator();
   // hard-limit on max records to scan
   private static final int MAX_RECORDS_TO_SCAN = 100 * 1000;
+  // all time totals are never rolled up, since their single bucket never closes
+  private static final int TOTALS_RESOLUTION = Integer.MAX_VALUE;
+  // max number of buckets to roll up with a single scan
+  private static final int MAX_BUCKETS_PER_ROLLUP = 60;
+  private static final long KNOWN_GAUGES_REFRESH_MILLIS = 10000;
+  // distinct values assumed for a dimension when planning queries without statistics
+  private static final int DEFAULT_DISTINCT_VALUES = 10;
+  // minimum number of sampled facts of an aggregation to use its statistics for planning queries
+  private static final int MIN_SAMPLED_FACTS = 20;
+  // cost of a seek of the fuzzy row filter, relative to reading a row
+  private static final double SEEK_COST = 4;
 
   private final Map<Integer, FactTable> resolutionToFactTable;
   private final Map<String, ? extends Aggregation> aggregations;
   private final Map<String, AggregationAlias> aggregationAliasMap;
+  private final int finestResolution;
 
   @Nullable
   private MetricsCollector metrics;
 
+  @Nullable
+  private ExecutorService queryExecutor;
+  private int maxQuerySplits = 1;
+
+  @Nullable
+  private TimeSeriesCache queryCache;
+
+  @Nullable
+  private RollupMetaTable rollupMeta;
+  // names of gauges known to be recorded in the rollup meta table, including the ones recorded by other cubes
+  private final Set<String> knownGauges = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private volatile long knownGaugesRefreshTime;
+
   public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
                      Map<String, ? extends Aggregation> aggregations,
                      Map<String, AggregationAlias> aggregationAliasMap) {
@@ -80,6 +120,7 @@ public class DefaultCube implements Cube, MeteredDataset {
       resolutionToFactTable.put(resolution, factTableSupplier.get(resolution, 3600));
     }
     this.aggregationAliasMap = aggregationAliasMap;
+    this.finestResolution = Ints.min(resolutions);
   }
 
   @Override
@@ -113,15 +154,77 @@ public class DefaultCube implements Cube, MeteredDataset {
       }
     }
 
-    for (FactTable table : resolutionToFactTable.values()) {
-      table.add(toWrite);
+    // when rolling up, counters are only written to the rolled up resolutions if they are not rolled up
+    List<Fact> direct = rollupMeta == null ? toWrite : getDirectFacts(toWrite);
+    int added = 0;
+    for (Map.Entry<Integer, FactTable> entry : resolutionToFactTable.entrySet()) {
+      List<Fact> tableFacts = isRolledUp(entry.getKey()) ? direct : toWrite;
+      entry.getValue().add(tableFacts);
+      added += tableFacts.size();
+    }
+    if (queryCache != null && !toWrite.isEmpty()) {
+      // late facts invalidate the cached queries that already consider their time buckets closed
+      long minTs = Long.MAX_VALUE;
+      for (Fact fact : toWrite) {
+        minTs = Math.min(minTs, fact.getTimestamp());
+      }
+      queryCache.invalidate(minTs);
     }
 
     incrementMetric("cube.cubeFact.add.request.count", 1);
     incrementMetric("cube.cubeFact.added.count", facts.size());
     incrementMetric("cube.tsFact.created.count", toWrite.size());
     incrementMetric("cube.tsFact.created.dimValues.count", dimValuesCount);
-    incrementMetric("cube.tsFact.added.count", toWrite.size() * resolutionToFactTable.size());
+    incrementMetric("cube.tsFact.added.count", added);
+  }
+
+  /**
+   * Returns facts with the measurements of the given facts that are written to the rolled up resolutions directly,
+   * recording new gauge names in the rollup meta table. These are the gauges, and the counters that share the name
+   * of a gauge, as the rollup skips all measures with the name of a gauge.
+   */
+  private List<Fact> getDirectFacts(List<Fact> facts) {
+    Set<String> gaugeNames = getKnownGauges();
+    Set<String> newGauges = Sets.newHashSet();
+    for (Fact fact : facts) {
+      for (Measurement measurement : fact.getMeasurements()) {
+        if (MeasureType.GAUGE == measurement.getType() && !gaugeNames.contains(measurement.getName())) {
+          newGauges.add(measurement.getName());
+        }
+      }
+    }
+    if (!newGauges.isEmpty()) {
+      // must be recorded before the gauges are written, so that the rollup never treats them as counters
+      rollupMeta.addGaugeMeasures(newGauges);
+      knownGauges.addAll(newGauges);
+    }
+
+    List<Fact> direct = Lists.newArrayList();
+    for (Fact fact : facts) {
+      List<Measurement> measurements = Lists.newArrayList();
+      for (Measurement measurement : fact.getMeasurements()) {
+        if (MeasureType.GAUGE == measurement.getType() || knownGauges.contains(measurement.getName())) {
+          measurements.add(measurement);
+        }
+      }
+      if (!measurements.isEmpty()) {
+        direct.add(new Fact(fact.getTimestamp(), fact.getDimensionValues(), measurements));
+      }
+    }
+    return direct;
+  }
+
+  /**
+   * Returns the names of the gauges recorded in the rollup meta table, refreshing them periodically to include the
+   * ones recorded through other cubes.
+   */
+  private Set<String> getKnownGauges() {
+    long now = System.currentTimeMillis();
+    if (now - knownGaugesRefreshTime >= KNOWN_GAUGES_REFRESH_MILLIS) {
+      knownGauges.addAll(rollupMeta.getGaugeMeasures());
+      knownGaugesRefreshTime = now;
+    }
+    return knownGauges;
   }
 
   @Override
@@ -171,27 +274,16 @@ public class DefaultCube implements Cube, MeteredDataset {
     }
 
     // 1) find aggregation to query
-    Aggregation agg;
-    String aggName;
-    if (query.getAggregation() != null) {
-      aggName = query.getAggregation();
-      agg = aggregations.get(query.getAggregation());
-      if (agg == null) {
-        incrementMetric("cube.query.request.failure.count", 1);
-        throw new IllegalArgumentException(
-          String.format("Specified aggregation %s is not found in cube aggregations: %s",
-                        query.getAggregation(), aggregations.keySet().toString()));
-      }
-    } else {
-      ImmutablePair<String, Aggregation> aggregation = findAggregation(query);
-      if (aggregation == null) {
-        incrementMetric("cube.query.request.failure.count", 1);
-        throw new IllegalArgumentException("There's no data aggregated for specified dimensions " +
-                                             "to satisfy the query: " + query.toString());
-      }
-      agg = aggregation.getSecond();
-      aggName = aggregation.getFirst();
+    CubeQueryPlan plan;
+    try {
+      plan = plan(query);
+    } catch (IllegalArgumentException e) {
+      incrementMetric("cube.query.request.failure.count", 1);
+      throw e;
     }
+    String aggName = plan.getAggregation();
+    Aggregation agg = aggregations.get(aggName);
+    LOG.trace("Executing query {} with plan {}", query, plan);
 
     // tell how many queries end up querying specific pre-aggregated views and resolutions
     incrementMetric("cube.query.agg." + aggName + ".count", 1);
@@ -209,8 +301,9 @@ public class DefaultCube implements Cube, MeteredDataset {
 
     // 3) execute scan query
     FactTable table = resolutionToFactTable.get(query.getResolution());
-    FactScanner scanner = table.scan(scan);
-    Table<Map<String, String>, String, Map<Long, Long>> resultMap = getTimeSeries(query, scanner);
+    Table<Map<String, String>, String, TimeValueAccumulator> resultMap =
+      queryCache == null || query.getResolution() == TOTALS_RESOLUTION ?
+        getTimeSeries(query, table, scan) : getCachedTimeSeries(query, aggName, table, scan);
 
     incrementMetric("cube.query.request.success.count", 1);
     incrementMetric("cube.query.result.size", resultMap.size());
@@ -238,6 +331,9 @@ public class DefaultCube implements Cube, MeteredDataset {
         factTable.delete(scan);
       }
     }
+    if (queryCache != null) {
+      queryCache.invalidateAll();
+    }
   }
 
   @Override
@@ -303,37 +399,462 @@ public class DefaultCube implements Cube, MeteredDataset {
     }
   }
 
+  /**
+   * Sets the executor for scanning parts of the time range of a query in parallel. By default, queries are
+   * executed with a single scan in the calling thread. Must only be set if the underlying tables support
+   * concurrent scans.
+   *
+   * @param executor executor to run the scans
+   * @param maxSplits maximum number of scans to split a query into
+   */
+  public void setQueryExecutor(ExecutorService executor, int maxSplits) {
+    this.queryExecutor = executor;
+    this.maxQuerySplits = maxSplits;
+  }
+
+  /**
+   * Sets the cache for the time series of recent queries. By default, no queries are cached. Facts added after
+   * their time bucket is considered closed by the cache are only reflected in cached queries if they are added
+   * through this cube.
+   *
+   * @param queryCache cache to use
+   */
+  public void setQueryCache(TimeSeriesCache queryCache) {
+    this.queryCache = queryCache;
+  }
+
+  /**
+   * Enables rolling up counters from the finest resolution into the coarser resolutions. Once enabled, counters
+   * are only written to the finest resolution and to the all time totals, and {@link #rollup(long)} must be called
+   * periodically to aggregate them into the other resolutions. Gauges are still written to all resolutions.
+   * Queries of a rolled up resolution read the counters that are not rolled up yet from the finest resolution.
+   *
+   * The rollup only knows measures by name, hence counters that share the name of a gauge are written to all
+   * resolutions as well. Such counters that were written before the gauge and are not rolled up by then are
+   * only reflected in the finest resolution and the totals. The same applies to counters that are added after their
+   * time bucket has been rolled up, i.e. later than the {@code closedBefore} passed to {@link #rollup(long)}.
+   *
+   * @param rollupMeta table to keep the rollup watermarks and the names of the gauges in
+   */
+  public void enableRollup(RollupMetaTable rollupMeta) {
+    this.rollupMeta = rollupMeta;
+  }
+
+  /**
+   * Rolls up the counters of all closed buckets of the rolled up resolutions, from the next finer resolution, and
+   * advances the rollup watermark of each resolution. Rolled up values are put rather than incremented, so rolling
+   * up a bucket again, e.g. after a failure or by concurrent callers, does not change the result.
+   *
+   * @param closedBefore timestamp in seconds before which no more facts are expected to be added
+   */
+  public void rollup(long closedBefore) {
+    Preconditions.checkState(rollupMeta != null, "Rollup is not enabled");
+    Set<String> gauges = rollupMeta.getGaugeMeasures();
+    int sourceResolution = finestResolution;
+    long sourceWatermark = closedBefore;
+    for (int resolution : Ordering.natural().sortedCopy(resolutionToFactTable.keySet())) {
+      if (!isRolledUp(resolution)) {
+        continue;
+      }
+      // only buckets that are closed and completely rolled up in the source resolution can be rolled up
+      long end = Math.min(closedBefore, sourceWatermark) / resolution * resolution;
+      long watermark = rollupMeta.getWatermark(resolution);
+      if (watermark < 0) {
+        // counters of the previous buckets were written to all resolutions before rollup was enabled
+        watermark = end;
+        rollupMeta.setWatermark(resolution, watermark);
+      }
+      while (watermark < end) {
+        long batchEnd = Math.min(end, watermark + (long) MAX_BUCKETS_PER_ROLLUP * resolution);
+        rollup(resolutionToFactTable.get(sourceResolution), resolutionToFactTable.get(resolution),
+               resolution, watermark, batchEnd, gauges);
+        watermark = batchEnd;
+        rollupMeta.setWatermark(resolution, watermark);
+        incrementMetric("cube.rollup.res." + resolution + ".count", 1);
+      }
+      sourceResolution = resolution;
+      sourceWatermark = watermark;
+    }
+  }
+
+  /**
+   * Rolls up the counters of the source table in the given time range, writing the sums of the buckets
+   * of the given resolution into the target table.
+   */
+  private void rollup(FactTable source, FactTable target, int resolution,
+                      long startTs, long endTs, Set<String> gauges) {
+    for (Aggregation agg : aggregations.values()) {
+      List<DimensionValue> dimensionValues = Lists.newArrayList();
+      for (String dimensionName : agg.getDimensionNames()) {
+        dimensionValues.add(new DimensionValue(dimensionName, null));
+      }
+      // endTs of a scan is inclusive
+      FactScan scan = new FactScan(startTs, endTs - 1, ImmutableList.<String>of(), dimensionValues);
+
+      // {dimension values, measure} -> {bucket -> sum}s
+      Table<List<DimensionValue>, String, TimeValueAccumulator> sums = HashBasedTable.create();
+      FactScanner scanner = source.scan(scan);
+      try {
+        while (scanner.hasNext()) {
+          FactScanResult next = scanner.next();
+          if (gauges.contains(next.getMeasureName())) {
+            continue;
+          }
+          TimeValueAccumulator timeValues = sums.get(next.getDimensionValues(), next.getMeasureName());
+          if (timeValues == null) {
+            timeValues = new TimeValueAccumulator(AggregationFunction.SUM);
+            sums.put(next.getDimensionValues(), next.getMeasureName(), timeValues);
+          }
+          for (TimeValue timeValue : next) {
+            timeValues.add(timeValue.getTimestamp() / resolution * resolution, timeValue.getValue());
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+
+      List<Fact> facts = Lists.newArrayList();
+      for (Table.Cell<List<DimensionValue>, String, TimeValueAccumulator> cell : sums.cellSet()) {
+        TimeValueAccumulator timeValues = cell.getValue();
+        long[] timestamps = new long[timeValues.size()];
+        long[] values = new long[timeValues.size()];
+        timeValues.copySorted(timestamps, values);
+        for (int i = 0; i < timestamps.length; i++) {
+          // written as gauge, so that the bucket is overwritten rather than incremented when rolled up again
+          facts.add(new Fact(timestamps[i], cell.getRowKey(),
+                             new Measurement(cell.getColumnKey(), MeasureType.GAUGE, values[i])));
+        }
+      }
+      target.add(facts);
+      incrementMetric("cube.rollup.tsFact.added.count", facts.size());
+    }
+  }
+
+  private boolean isRolledUp(int resolution) {
+    return rollupMeta != null && resolution != finestResolution && resolution != TOTALS_RESOLUTION;
+  }
+
   private void incrementMetric(String metricName, long value) {
     if (metrics != null) {
       metrics.increment(metricName, value);
     }
   }
 
-  @Nullable
-  private ImmutablePair<String, Aggregation> findAggregation(CubeQuery query) {
-    ImmutablePair<String, Aggregation> currentBest = null;
+  /**
+   * Returns the plan the given query is executed with, without executing it.
+   *
+   * @throws IllegalArgumentException if the cube has no resolution or aggregation to satisfy the query
+   */
+  public CubeQueryPlan explain(CubeQuery query) {
+    if (!resolutionToFactTable.containsKey(query.getResolution())) {
+      throw new IllegalArgumentException("There's no data aggregated for specified resolution to satisfy the query: " +
+                                           query.toString());
+    }
+    return plan(query);
+  }
+
+  private CubeQueryPlan plan(CubeQuery query) {
+    FactTableStatistics statistics = resolutionToFactTable.get(query.getResolution()).getStatistics();
+    if (query.getAggregation() != null) {
+      Aggregation agg = aggregations.get(query.getAggregation());
+      if (agg == null) {
+        throw new IllegalArgumentException(
+          String.format("Specified aggregation %s is not found in cube aggregations: %s",
+                        query.getAggregation(), aggregations.keySet().toString()));
+      }
+      return estimate(query.getAggregation(), agg, query, statistics);
+    }
 
+    CubeQueryPlan currentBest = null;
+    boolean currentBestComplete = false;
     for (Map.Entry<String, ? extends Aggregation> entry : aggregations.entrySet()) {
       Aggregation agg = entry.getValue();
       if (agg.getDimensionNames().containsAll(query.getGroupByDimensions()) &&
         agg.getDimensionNames().containsAll(query.getDimensionValues().keySet())) {
 
-        // todo: choose aggregation smarter than just by number of dimensions :)
-        if (currentBest == null ||
-          currentBest.getSecond().getDimensionNames().size() > agg.getDimensionNames().size()) {
-          currentBest = new ImmutablePair<>(entry.getKey(), agg);
+        // an aggregation that has all the facts matching the query is always preferred, as the others would change
+        // the result of the query
+        boolean complete = isComplete(agg, query);
+        if (currentBestComplete && !complete) {
+          continue;
+        }
+        CubeQueryPlan plan = estimate(entry.getKey(), agg, query, statistics);
+        // of equally expensive aggregations, prefer the one with fewer dimensions
+        if (currentBest == null || (complete && !currentBestComplete) || currentBest.getCost() > plan.getCost() ||
+          (currentBest.getCost() == plan.getCost() &&
+            currentBest.getDimensionNames().size() > plan.getDimensionNames().size())) {
+          currentBest = plan;
+          currentBestComplete = complete;
         }
       }
     }
 
+    if (currentBest == null) {
+      throw new IllegalArgumentException("There's no data aggregated for specified dimensions " +
+                                           "to satisfy the query: " + query.toString());
+    }
     return currentBest;
   }
 
-  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactScanner scanner) {
+  /**
+   * Returns whether the given aggregation has all facts that match the query. Facts without a required dimension of
+   * the aggregation are not added to it, which only matters if the query neither filters nor groups by that dimension.
+   */
+  private boolean isComplete(Aggregation agg, CubeQuery query) {
+    if (!(agg instanceof DefaultAggregation)) {
+      return true;
+    }
+    for (String dimensionName : ((DefaultAggregation) agg).getRequiredDimensions()) {
+      if (query.getDimensionValues().get(dimensionName) == null &&
+        !query.getGroupByDimensions().contains(dimensionName)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Estimates the cost of scanning the given aggregation for the query.
+   *
+   * Within a time base, the rows of an aggregation are sorted by the dimension values in the order of the
+   * aggregation's dimensions. The rows matching the dimension values of the query are contiguous only if those
+   * dimensions come first; otherwise the fuzzy row filter has to seek once for every distinct value of the
+   * preceding dimensions that are not filtered. The number of rows and distinct values are estimated from the
+   * statistics sampled by the {@link FactTable} if there are enough, or assumed to be
+   * {@link #DEFAULT_DISTINCT_VALUES} for each dimension otherwise.
+   */
+  private CubeQueryPlan estimate(String aggName, Aggregation agg, CubeQuery query, FactTableStatistics statistics) {
+    List<String> dimensionNames = agg.getDimensionNames();
+    FactTableStatistics.AggregationStatistics aggStatistics = statistics.get(dimensionNames);
+    if (aggStatistics != null && aggStatistics.getSampledFacts() < MIN_SAMPLED_FACTS) {
+      // too few to tell anything
+      aggStatistics = null;
+    }
+
+    // rows of the aggregation, key ranges the fuzzy row filter seeks to, and combinations of the filtered values
+    double rows = 1;
+    double seeks = 1;
+    double filteredCombinations = 1;
+    int lastFiltered = -1;
+    for (int i = 0; i < dimensionNames.size(); i++) {
+      if (query.getDimensionValues().get(dimensionNames.get(i)) != null) {
+        lastFiltered = i;
+      }
+    }
+    for (int i = 0; i < dimensionNames.size(); i++) {
+      int distinct = aggStatistics == null ? DEFAULT_DISTINCT_VALUES : aggStatistics.getDistinctValues(i);
+      rows *= distinct;
+      if (i > lastFiltered) {
+        continue;
+      }
+      if (query.getDimensionValues().get(dimensionNames.get(i)) == null) {
+        // every value of this dimension is a separate range of rows that may match the filters of later dimensions
+        seeks *= distinct;
+      } else {
+        filteredCombinations *= distinct;
+      }
+    }
+    if (aggStatistics != null) {
+      rows = Math.min(rows, aggStatistics.getEstimatedCombinations());
+    }
+    seeks = Math.min(seeks, rows);
+    double matchingRows = rows / filteredCombinations;
+    double cost = matchingRows + seeks * SEEK_COST;
+    return new CubeQueryPlan(aggName, dimensionNames, (long) Math.ceil(matchingRows), (long) seeks, cost);
+  }
+
+  /**
+   * Queries the time series through the query cache. Only the part of the time range that is not cached is scanned,
+   * and the closed time buckets that were scanned are added to the cache.
+   */
+  private Table<Map<String, String>, String, TimeValueAccumulator> getCachedTimeSeries(CubeQuery query,
+                                                                                      String aggName,
+                                                                                      FactTable table,
+                                                                                      FactScan scan) {
+    int resolution = query.getResolution();
+    long closedEnd = queryCache.getClosedEnd(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()), resolution);
+    long windowStart = queryCache.getWindowStart(closedEnd);
+    // the bucket containing the end of the scan is never cached, since it may not be complete
+    long cacheEnd = Math.min(closedEnd, scan.getEndTs() / resolution * resolution);
+
+    List<Object> key = TimeSeriesCache.getKey(aggName, query);
+    TimeSeriesCache.Entry entry = queryCache.get(key);
+    if (entry == null || entry.getStartTs() > scan.getStartTs() || entry.getEndTs() <= scan.getStartTs()) {
+      incrementMetric("cube.query.cache.miss.count", 1);
+      Table<Map<String, String>, String, TimeValueAccumulator> result = getTimeSeries(query, table, scan);
+      long cacheStart = Math.max(scan.getStartTs(), windowStart);
+      if (cacheStart < cacheEnd) {
+        putCacheEntry(key, TimeSeriesCache.Entry.create(result, cacheStart, cacheEnd));
+      }
+      return result;
+    }
+
+    Table<Map<String, String>, String, TimeValueAccumulator> result = HashBasedTable.create();
+    entry.copyTo(result, scan.getStartTs(), scan.getEndTs(), query.getMeasurements());
+    if (entry.getEndTs() > scan.getEndTs()) {
+      incrementMetric("cube.query.cache.hit.count", 1);
+      return result;
+    }
+
+    incrementMetric("cube.query.cache.partial.count", 1);
+    FactScan uncached = new FactScan(entry.getEndTs(), scan.getEndTs(),
+                                     scan.getMeasureNames(), scan.getDimensionValues());
+    Table<Map<String, String>, String, TimeValueAccumulator> scanned = getTimeSeries(query, table, uncached);
+    long cacheStart = Math.max(entry.getStartTs(), windowStart);
+    if (entry.getEndTs() < cacheEnd && cacheStart < cacheEnd) {
+      putCacheEntry(key, entry.extend(scanned, cacheStart, cacheEnd));
+    }
+    merge(result, scanned);
+    return result;
+  }
+
+  private void putCacheEntry(List<Object> key, TimeSeriesCache.Entry entry) {
+    queryCache.put(key, entry);
+    if (metrics != null) {
+      metrics.gauge("cube.query.cache.size.bytes", queryCache.getSizeBytes());
+    }
+  }
+
+  private Table<Map<String, String>, String, TimeValueAccumulator> getTimeSeries(CubeQuery query,
+                                                                                FactTable table,
+                                                                                FactScan scan) {
+    return isRolledUp(query.getResolution()) ?
+      getRolledUpTimeSeries(query, table, scan) : getTimeSeries(query, table, scan, null);
+  }
+
+  /**
+   * Queries a rolled up resolution. Gauges and the counters before the rollup watermark are read from the table of
+   * the resolution, while the counters that are not rolled up yet are read from the finest resolution table.
+   */
+  private Table<Map<String, String>, String, TimeValueAccumulator> getRolledUpTimeSeries(CubeQuery query,
+                                                                                        FactTable table,
+                                                                                        FactScan scan) {
+    final long watermark = rollupMeta.getWatermark(query.getResolution());
+    if (watermark < 0) {
+      // not rolled up yet: all facts were written to the resolution before rollup was enabled
+      return getTimeSeries(query, table, scan, null);
+    }
+
+    final Set<String> gauges = rollupMeta.getGaugeMeasures();
+    final Predicate<TimeValue> rolledUp = new Predicate<TimeValue>() {
+      @Override
+      public boolean apply(TimeValue timeValue) {
+        return timeValue.getTimestamp() < watermark;
+      }
+    };
+    Table<Map<String, String>, String, TimeValueAccumulator> result =
+      getTimeSeries(query, table, scan, new TimeValueSelector() {
+        @Override
+        public Iterable<TimeValue> select(FactScanResult row) {
+          return gauges.contains(row.getMeasureName()) ? row : Iterables.filter(row, rolledUp);
+        }
+      });
+    if (scan.getEndTs() < watermark) {
+      return result;
+    }
+
+    final int resolution = query.getResolution();
+    final long startTs = scan.getStartTs();
+    FactScan tailScan = new FactScan(Math.max(startTs, watermark), scan.getEndTs(),
+                                     scan.getMeasureNames(), scan.getDimensionValues());
+    incrementMetric("cube.query.rollup.tail.count", 1);
+    merge(result, getTimeSeries(query, resolutionToFactTable.get(finestResolution), tailScan,
+                                new TimeValueSelector() {
+      @Override
+      public Iterable<TimeValue> select(FactScanResult row) {
+        return gauges.contains(row.getMeasureName()) ?
+          ImmutableList.<TimeValue>of() : rollup(row, resolution, startTs);
+      }
+    }));
+    return result;
+  }
+
+  /**
+   * Sums the given time values into buckets of the given resolution, dropping buckets before the given timestamp.
+   */
+  private static List<TimeValue> rollup(Iterable<TimeValue> timeValues, int resolution, long startTs) {
+    TimeValueAccumulator sums = new TimeValueAccumulator(AggregationFunction.SUM);
+    for (TimeValue timeValue : timeValues) {
+      long ts = timeValue.getTimestamp() / resolution * resolution;
+      if (ts >= startTs) {
+        sums.add(ts, timeValue.getValue());
+      }
+    }
+    long[] timestamps = new long[sums.size()];
+    long[] values = new long[sums.size()];
+    sums.copySorted(timestamps, values);
+    List<TimeValue> result = Lists.newArrayListWithCapacity(timestamps.length);
+    for (int i = 0; i < timestamps.length; i++) {
+      result.add(new TimeValue(timestamps[i], values[i]));
+    }
+    return result;
+  }
+
+  private Table<Map<String, String>, String, TimeValueAccumulator> getTimeSeries(final CubeQuery query,
+                                                                                final FactTable table,
+                                                                                FactScan scan,
+                                                                                @Nullable
+                                                                                final TimeValueSelector selector) {
+    // the limit on number of records to scan is shared by all splits
+    final AtomicInteger scanned = new AtomicInteger();
+    List<FactScan> splits = queryExecutor == null ? ImmutableList.of(scan) : table.split(scan, maxQuerySplits);
+    if (splits.size() == 1) {
+      return getTimeSeries(query, table, scan, selector, scanned);
+    }
+
+    incrementMetric("cube.query.scan.splits.count", splits.size());
+    List<Future<Table<Map<String, String>, String, TimeValueAccumulator>>> futures =
+      Lists.newArrayListWithCapacity(splits.size() - 1);
+    try {
+      for (final FactScan split : splits.subList(1, splits.size())) {
+        futures.add(queryExecutor.submit(new Callable<Table<Map<String, String>, String, TimeValueAccumulator>>() {
+          @Override
+          public Table<Map<String, String>, String, TimeValueAccumulator> call() throws Exception {
+            return getTimeSeries(query, table, split, selector, scanned);
+          }
+        }));
+      }
+
+      // the first split is scanned by the calling thread, while the others are scanned by the executor
+      Table<Map<String, String>, String, TimeValueAccumulator> result =
+        getTimeSeries(query, table, splits.get(0), selector, scanned);
+      for (Future<Table<Map<String, String>, String, TimeValueAccumulator>> future : futures) {
+        merge(result, future.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      // no-op for completed scans, stops the remaining scans on failure
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private Table<Map<String, String>, String, TimeValueAccumulator> getTimeSeries(CubeQuery query,
+                                                                                FactTable table,
+                                                                                FactScan scan,
+                                                                                @Nullable TimeValueSelector selector,
+                                                                                AtomicInteger scanned) {
+    FactScanner scanner = table.scan(scan);
+    try {
+      return getTimeSeries(query, scanner, selector, scanned);
+    } finally {
+      scanner.close();
+    }
+  }
+
+  private Table<Map<String, String>, String, TimeValueAccumulator> getTimeSeries(CubeQuery query,
+                                                                                FactScanner scanner,
+                                                                                @Nullable TimeValueSelector selector,
+                                                                                AtomicInteger scanned) {
     // {dimension values, measure} -> {time -> value}s
-    Table<Map<String, String>, String, Map<Long, Long>> result = HashBasedTable.create();
+    Table<Map<String, String>, String, TimeValueAccumulator> result = HashBasedTable.create();
 
-    int count = 0;
     while (scanner.hasNext()) {
       FactScanResult next = scanner.next();
       incrementMetric("cube.query.scan.records.count", 1);
@@ -366,62 +887,67 @@ public class DefaultCube implements Cube, MeteredDataset {
         continue;
       }
 
-      for (TimeValue timeValue : next) {
-        Map<Long, Long> timeValues = result.get(seriesDimensions, next.getMeasureName());
+      TimeValueAccumulator timeValues = null;
+      for (TimeValue timeValue : selector == null ? next : selector.select(next)) {
         if (timeValues == null) {
-          result.put(seriesDimensions, next.getMeasureName(), Maps.<Long, Long>newHashMap());
-        }
-
-        AggregationFunction function = query.getMeasurements().get(next.getMeasureName());
-        if (AggregationFunction.SUM == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value == null ? 0 : value;
-          value += timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.MAX == function) {
-          Long value = result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value != null && value > timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.MIN == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value != null && value < timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.LATEST == function) {
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), timeValue.getValue());
-        } else {
-          // should never happen: developer error
-          throw new RuntimeException("Unknown MeasureType: " + function);
+          timeValues = result.get(seriesDimensions, next.getMeasureName());
+          if (timeValues == null) {
+            AggregationFunction function = query.getMeasurements().get(next.getMeasureName());
+            if (function == null) {
+              // should never happen: developer error
+              throw new RuntimeException("Unknown measure in query: " + next.getMeasureName());
+            }
+            timeValues = new TimeValueAccumulator(function);
+            result.put(seriesDimensions, next.getMeasureName(), timeValues);
+          }
         }
+        timeValues.add(timeValue.getTimestamp(), timeValue.getValue());
       }
-      if (++count >= MAX_RECORDS_TO_SCAN) {
+      if (scanned.incrementAndGet() >= MAX_RECORDS_TO_SCAN) {
         break;
       }
     }
     return result;
   }
 
+  private static void merge(Table<Map<String, String>, String, TimeValueAccumulator> result,
+                            Table<Map<String, String>, String, TimeValueAccumulator> other) {
+    for (Table.Cell<Map<String, String>, String, TimeValueAccumulator> cell : other.cellSet()) {
+      TimeValueAccumulator timeValues = result.get(cell.getRowKey(), cell.getColumnKey());
+      if (timeValues == null) {
+        result.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+      } else {
+        timeValues.addAll(cell.getValue());
+      }
+    }
+  }
+
   private Collection<TimeSeries> convertToQueryResult(CubeQuery query,
                                                       Table<Map<String, String>, String,
-                                                        Map<Long, Long>> resultTable) {
+                                                        TimeValueAccumulator> resultTable) {
 
     List<TimeSeries> result = Lists.newArrayList();
+    // buffers for the sorted time series, shared by all series of the query
+    long[] timestamps = new long[0];
+    long[] values = new long[0];
     // iterating each groupValue dimensions
-    for (Map.Entry<Map<String, String>, Map<String, Map<Long, Long>>> row : resultTable.rowMap().entrySet()) {
+    for (Map.Entry<Map<String, String>, Map<String, TimeValueAccumulator>> row : resultTable.rowMap().entrySet()) {
       // iterating each measure
-      for (Map.Entry<String, Map<Long, Long>> measureEntry : row.getValue().entrySet()) {
+      for (Map.Entry<String, TimeValueAccumulator> measureEntry : row.getValue().entrySet()) {
         // generating time series for a grouping and a measure
-        int count = 0;
-        List<TimeValue> timeValues = Lists.newArrayList();
-        for (Map.Entry<Long, Long> timeValue : measureEntry.getValue().entrySet()) {
-          timeValues.add(new TimeValue(timeValue.getKey(), timeValue.getValue()));
+        TimeValueAccumulator accumulator = measureEntry.getValue();
+        int size = accumulator.size();
+        if (timestamps.length < size) {
+          timestamps = new long[size];
+          values = new long[size];
         }
-        Collections.sort(timeValues);
-        PeekingIterator<TimeValue> timeValueItor = Iterators.peekingIterator(
-          new TimeSeriesInterpolator(timeValues, query.getInterpolator(), query.getResolution()).iterator());
-        List<TimeValue> resultTimeValues = Lists.newArrayList();
-        while (timeValueItor.hasNext()) {
-          TimeValue timeValue = timeValueItor.next();
-          resultTimeValues.add(new TimeValue(timeValue.getTimestamp(), timeValue.getValue()));
+        accumulator.copySorted(timestamps, values);
+
+        int count = 0;
+        List<TimeValue> resultTimeValues = Lists.newArrayListWithCapacity(Math.min(size, query.getLimit()));
+        for (TimeValue timeValue : new TimeSeriesInterpolator(timestamps, values, size,
+                                                              query.getInterpolator(), query.getResolution())) {
+          resultTimeValues.add(timeValue);
           if (++count >= query.getLimit()) {
             break;
           }
@@ -444,6 +970,13 @@ public class DefaultCube implements Cube, MeteredDataset {
     }
   }
 
+  /**
+   * Selects the time values of a scanned row to add to the result of a query.
+   */
+  private interface TimeValueSelector {
+    Iterable<TimeValue> select(FactScanResult row);
+  }
+
   private static final class DimensionValueComparator implements Comparator<DimensionValue> {
     @Override
     public int compare(DimensionValue t1, DimensionValue t2) {
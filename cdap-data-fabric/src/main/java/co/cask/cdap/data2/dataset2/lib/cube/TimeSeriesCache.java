@@ -0,0 +1,317 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Caches the time series of recent {@link CubeQuery}s, so that queries polling a recent time window only need to
+ * scan the part of the time range that is not cached yet. For each query, identified by its aggregation,
+ * resolution, dimension values, group by dimensions and measurements, the closed time buckets of a rolling window
+ * are kept. A bucket is considered closed, that is, not expected to change anymore, a configured delay after it
+ * ends. Entries are evicted in least recently used order to keep the estimated size of the cache within a memory
+ * budget.
+ *
+ * This class is thread safe.
+ */
+public final class TimeSeriesCache {
+
+  // estimated size of a cached data point: a timestamp and a value
+  private static final int BYTES_PER_POINT = 16;
+  // estimated overhead of a cached time series
+  private static final int BYTES_PER_SERIES = 256;
+
+  private final long maxSizeBytes;
+  private final int windowSeconds;
+  private final int delaySeconds;
+  // in access order, for evicting the least recently used entries first
+  private final LinkedHashMap<List<Object>, Entry> entries;
+  private long sizeBytes;
+  // max end of all cached entries, for skipping invalidation without locking
+  private volatile long maxEndTs = Long.MIN_VALUE;
+
+  /**
+   * @param maxSizeBytes memory budget of the cache, in bytes
+   * @param windowSeconds length of the time window to cache for each query, in seconds
+   * @param delaySeconds time in seconds after which a time bucket is considered closed
+   */
+  public TimeSeriesCache(long maxSizeBytes, int windowSeconds, int delaySeconds) {
+    this.maxSizeBytes = maxSizeBytes;
+    this.windowSeconds = windowSeconds;
+    this.delaySeconds = delaySeconds;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the key of the cache entry for the given query, querying the given aggregation.
+   */
+  static List<Object> getKey(String aggregation, CubeQuery query) {
+    return Arrays.<Object>asList(aggregation, query.getResolution(),
+                                 new HashMap<>(query.getDimensionValues()),
+                                 new ArrayList<>(query.getGroupByDimensions()),
+                                 new HashMap<>(query.getMeasurements()));
+  }
+
+  /**
+   * Returns the end (exclusive) of the closed time buckets of the given resolution.
+   *
+   * @param currentTs current time in seconds
+   */
+  long getClosedEnd(long currentTs, int resolution) {
+    return (currentTs - delaySeconds) / resolution * resolution;
+  }
+
+  /**
+   * Returns the start of the time window to cache, given the end of the closed time buckets.
+   */
+  long getWindowStart(long closedEnd) {
+    return closedEnd - windowSeconds;
+  }
+
+  @Nullable
+  synchronized Entry get(List<Object> key) {
+    return entries.get(key);
+  }
+
+  synchronized void put(List<Object> key, Entry entry) {
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      sizeBytes -= previous.sizeBytes;
+    }
+    sizeBytes += entry.sizeBytes;
+    maxEndTs = Math.max(maxEndTs, entry.endTs);
+
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+      sizeBytes -= iterator.next().sizeBytes;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Removes all entries that cache time buckets at or after the given timestamp, e.g. because facts with
+   * that timestamp were added after the buckets were considered closed.
+   */
+  void invalidate(long timestamp) {
+    if (timestamp >= maxEndTs) {
+      return;
+    }
+    synchronized (this) {
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (iterator.hasNext()) {
+        Entry entry = iterator.next();
+        if (entry.endTs > timestamp) {
+          sizeBytes -= entry.sizeBytes;
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  synchronized void invalidateAll() {
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  /**
+   * Returns the number of cached queries.
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the estimated size of the cached time series, in bytes.
+   */
+  synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  /**
+   * Cached time series of a query, containing all time buckets in a time range. Instances are immutable.
+   */
+  static final class Entry {
+    private final long startTs;
+    private final long endTs;
+    private final Table<Map<String, String>, String, Series> series;
+    private final long sizeBytes;
+
+    private Entry(long startTs, long endTs, Table<Map<String, String>, String, Series> series) {
+      this.startTs = startTs;
+      this.endTs = endTs;
+      this.series = series;
+      long size = 0;
+      for (Series s : series.values()) {
+        size += BYTES_PER_SERIES + (long) s.timestamps.length * BYTES_PER_POINT;
+      }
+      this.sizeBytes = size;
+    }
+
+    /**
+     * Creates an entry with the data points of the given time series in the given time range.
+     *
+     * @param startTs start of the time range, inclusive
+     * @param endTs end of the time range, exclusive
+     */
+    static Entry create(Table<Map<String, String>, String, TimeValueAccumulator> timeSeries,
+                        long startTs, long endTs) {
+      Entry empty = new Entry(startTs, startTs, HashBasedTable.<Map<String, String>, String, Series>create());
+      return empty.extend(timeSeries, startTs, endTs);
+    }
+
+    /**
+     * Returns the start of the cached time range, inclusive.
+     */
+    long getStartTs() {
+      return startTs;
+    }
+
+    /**
+     * Returns the end of the cached time range, exclusive.
+     */
+    long getEndTs() {
+      return endTs;
+    }
+
+    /**
+     * Returns a new entry, that appends the data points of the given time series from the end of this entry up to
+     * the given end, and drops the data points before the given start.
+     *
+     * @param timeSeries time series of the time range following this entry
+     * @param newStartTs start of the time range of the new entry, inclusive
+     * @param newEndTs end of the time range of the new entry, exclusive
+     */
+    Entry extend(Table<Map<String, String>, String, TimeValueAccumulator> timeSeries, long newStartTs, long newEndTs) {
+      Table<Map<String, String>, String, Series> result = HashBasedTable.create();
+      for (Table.Cell<Map<String, String>, String, Series> cell : series.cellSet()) {
+        Series slice = cell.getValue().slice(newStartTs, endTs);
+        if (slice != null) {
+          result.put(cell.getRowKey(), cell.getColumnKey(), slice);
+        }
+      }
+      for (Table.Cell<Map<String, String>, String, TimeValueAccumulator> cell : timeSeries.cellSet()) {
+        Series appended = Series.of(cell.getValue(), Math.max(newStartTs, endTs), newEndTs);
+        if (appended == null) {
+          continue;
+        }
+        Series existing = result.get(cell.getRowKey(), cell.getColumnKey());
+        result.put(cell.getRowKey(), cell.getColumnKey(), existing == null ? appended : existing.concat(appended));
+      }
+      return new Entry(newStartTs, newEndTs, result);
+    }
+
+    /**
+     * Adds the cached data points in the given time range to the given time series.
+     *
+     * @param startTs start of the time range, inclusive
+     * @param endTs end of the time range, inclusive
+     * @param functions aggregation functions of the measures
+     */
+    void copyTo(Table<Map<String, String>, String, TimeValueAccumulator> timeSeries,
+                long startTs, long endTs, Map<String, AggregationFunction> functions) {
+      for (Table.Cell<Map<String, String>, String, Series> cell : series.cellSet()) {
+        Series cached = cell.getValue();
+        int idx = lowerBound(cached.timestamps, startTs);
+        if (idx >= cached.timestamps.length || cached.timestamps[idx] > endTs) {
+          continue;
+        }
+        TimeValueAccumulator timeValues = timeSeries.get(cell.getRowKey(), cell.getColumnKey());
+        if (timeValues == null) {
+          timeValues = new TimeValueAccumulator(functions.get(cell.getColumnKey()));
+          timeSeries.put(cell.getRowKey(), cell.getColumnKey(), timeValues);
+        }
+        for (; idx < cached.timestamps.length && cached.timestamps[idx] <= endTs; idx++) {
+          timeValues.add(cached.timestamps[idx], cached.values[idx]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Data points of a cached time series, sorted by timestamp.
+   */
+  private static final class Series {
+    private final long[] timestamps;
+    private final long[] values;
+
+    private Series(long[] timestamps, long[] values) {
+      this.timestamps = timestamps;
+      this.values = values;
+    }
+
+    /**
+     * Returns the data points of the given time series in the time range from start (inclusive) to
+     * end (exclusive), or {@code null} if there are none.
+     */
+    @Nullable
+    static Series of(TimeValueAccumulator timeValues, long startTs, long endTs) {
+      long[] timestamps = new long[timeValues.size()];
+      long[] values = new long[timeValues.size()];
+      timeValues.copySorted(timestamps, values);
+      return new Series(timestamps, values).slice(startTs, endTs);
+    }
+
+    /**
+     * Returns the data points in the time range from start (inclusive) to end (exclusive), or {@code null} if
+     * there are none.
+     */
+    @Nullable
+    Series slice(long startTs, long endTs) {
+      int from = lowerBound(timestamps, startTs);
+      int to = lowerBound(timestamps, endTs);
+      if (from >= to) {
+        return null;
+      }
+      if (from == 0 && to == timestamps.length) {
+        return this;
+      }
+      return new Series(Arrays.copyOfRange(timestamps, from, to), Arrays.copyOfRange(values, from, to));
+    }
+
+    /**
+     * Returns the data points of this series followed by the ones of the given series, which must all be later.
+     */
+    Series concat(Series other) {
+      long[] newTimestamps = Arrays.copyOf(timestamps, timestamps.length + other.timestamps.length);
+      long[] newValues = Arrays.copyOf(values, values.length + other.values.length);
+      System.arraycopy(other.timestamps, 0, newTimestamps, timestamps.length, other.timestamps.length);
+      System.arraycopy(other.values, 0, newValues, values.length, other.values.length);
+      return new Series(newTimestamps, newValues);
+    }
+  }
+
+  /**
+   * Returns the index of the first timestamp that is not less than the given one.
+   */
+  private static int lowerBound(long[] timestamps, long timestamp) {
+    int idx = Arrays.binarySearch(timestamps, timestamp);
+    return idx < 0 ? -idx - 1 : idx;
+  }
+}
@@ -19,11 +19,7 @@ package co.cask.cdap.data2.dataset2.lib.cube;
 import co.cask.cdap.api.dataset.lib.cube.Interpolator;
 import co.cask.cdap.api.dataset.lib.cube.TimeValue;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
 
-import java.util.Collection;
 import java.util.Iterator;
 import javax.annotation.Nullable;
 
@@ -48,13 +44,25 @@ import javax.annotation.Nullable;
  */
 class TimeSeriesInterpolator implements Iterable<TimeValue> {
 
-  private final Collection<TimeValue> timeSeries;
+  private final long[] timestamps;
+  private final long[] values;
+  private final int size;
   @Nullable
   private final Interpolator interpolator;
   private final int resolution;
 
-  TimeSeriesInterpolator(Collection<TimeValue> timeValues, @Nullable Interpolator interpolator, int resolution) {
-    this.timeSeries = ImmutableList.copyOf(timeValues);
+  /**
+   * Creates an instance for the time series given as parallel arrays of timestamps and values.
+   *
+   * @param timestamps timestamps of the data points, sorted in ascending order
+   * @param values values of the data points
+   * @param size number of data points in the arrays
+   */
+  TimeSeriesInterpolator(long[] timestamps, long[] values, int size,
+                         @Nullable Interpolator interpolator, int resolution) {
+    this.timestamps = timestamps;
+    this.values = values;
+    this.size = size;
     this.interpolator = interpolator;
     this.resolution = resolution;
   }
@@ -67,12 +75,15 @@ class TimeSeriesInterpolator implements Iterable<TimeValue> {
   private class InterpolatedAggregatorIterator extends AbstractIterator<TimeValue> {
 
     private long currentTs;
-    BiDirectionalPeekingIterator timeseries;
+    // index of the next data point in the time series
+    private int position;
+    // data points around the current gap, only created when interpolating
+    private TimeValue before;
+    private TimeValue after;
 
     InterpolatedAggregatorIterator() {
-      timeseries = new BiDirectionalPeekingIterator(Iterators.peekingIterator(timeSeries.iterator()));
-      if (timeseries.hasNext()) {
-        currentTs = timeseries.peek().getTimestamp();
+      if (size > 0) {
+        currentTs = timestamps[0];
       }
     }
 
@@ -80,64 +91,29 @@ class TimeSeriesInterpolator implements Iterable<TimeValue> {
     protected TimeValue computeNext() {
       long currentTsValue = 0;
       // no more data points in the timeseries
-      if (!timeseries.hasNext()) {
+      if (position >= size) {
         return endOfData();
       }
 
-      // move the iterator to the next point in this timeseries if this is an actual data point and not interpolated.
-      if (timeseries.peek().getTimestamp() == currentTs) {
-        currentTsValue += timeseries.peek().getValue();
-        timeseries.next();
-      } else if (interpolator != null && timeseries.peekBefore() != null) {
+      // move to the next point in this timeseries if this is an actual data point and not interpolated.
+      if (timestamps[position] == currentTs) {
+        currentTsValue += values[position];
+        position++;
+      } else if (interpolator != null && position > 0) {
         // don't interpolate unless we're in between data points
-        currentTsValue += interpolator.interpolate(timeseries.peekBefore(), timeseries.peek(), currentTs);
+        if (after == null || after.getTimestamp() != timestamps[position]) {
+          before = new TimeValue(timestamps[position - 1], values[position - 1]);
+          after = new TimeValue(timestamps[position], values[position]);
+        }
+        currentTsValue += interpolator.interpolate(before, after, currentTs);
       }
 
       TimeValue output = new TimeValue(currentTs, currentTsValue);
-      if (timeseries.hasNext()) {
+      if (position < size) {
         // increment the currentTs by resolution to get the next data point.
-        currentTs = (interpolator == null) ? timeseries.peek().getTimestamp() : currentTs + resolution;
+        currentTs = (interpolator == null) ? timestamps[position] : currentTs + resolution;
       }
       return output;
     }
-
-    /**
-     * Iterator that allows peeking on the next value and also retrieving the last value, which will be null
-     * if there was no last value.  Used to allow interpolating between two datapoints in a timeseries.
-     */
-    public final class BiDirectionalPeekingIterator implements PeekingIterator<TimeValue> {
-      PeekingIterator<TimeValue> iter;
-      TimeValue lastValue;
-
-      BiDirectionalPeekingIterator(PeekingIterator<TimeValue> iter) {
-        this.iter = iter;
-        this.lastValue = null;
-      }
-
-      @Override
-      public TimeValue peek() {
-        return iter.peek();
-      }
-
-      @Override
-      public boolean hasNext() {
-        return iter.hasNext();
-      }
-
-      @Override
-      public TimeValue next() {
-        lastValue = iter.next();
-        return lastValue;
-      }
-
-      @Override
-      public void remove() {
-        iter.remove();
-      }
-
-      public TimeValue peekBefore() {
-        return lastValue;
-      }
-    }
   }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the values of a time series, aggregating values of the same timestamp with an
+ * {@link AggregationFunction}. Timestamps and values are kept in primitive arrays of an open addressing hash table,
+ * so that no object is allocated per data point.
+ *
+ * Instances of this class are not thread safe.
+ */
+final class TimeValueAccumulator {
+
+  private static final int INITIAL_CAPACITY = 16;
+  // Keep the load factor below 0.5 for short probe sequences
+  private static final int MAX_LOAD_NUMERATOR = 1;
+  private static final int MAX_LOAD_DENOMINATOR = 2;
+
+  private final AggregationFunction function;
+  private long[] timestamps;
+  private long[] values;
+  private boolean[] used;
+  private int size;
+
+  TimeValueAccumulator(AggregationFunction function) {
+    this.function = function;
+    this.timestamps = new long[INITIAL_CAPACITY];
+    this.values = new long[INITIAL_CAPACITY];
+    this.used = new boolean[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Adds a value to this time series. If there is a value for the same timestamp already, the two values
+   * are aggregated with the {@link AggregationFunction} of this accumulator.
+   */
+  void add(long timestamp, long value) {
+    int idx = findSlot(timestamps, used, timestamp);
+    if (!used[idx]) {
+      timestamps[idx] = timestamp;
+      values[idx] = value;
+      used[idx] = true;
+      if (++size * MAX_LOAD_DENOMINATOR > timestamps.length * MAX_LOAD_NUMERATOR) {
+        rehash();
+      }
+      return;
+    }
+
+    switch (function) {
+      case SUM:
+        values[idx] += value;
+        break;
+      case MAX:
+        values[idx] = Math.max(values[idx], value);
+        break;
+      case MIN:
+        values[idx] = Math.min(values[idx], value);
+        break;
+      case LATEST:
+        values[idx] = value;
+        break;
+      default:
+        // should never happen: developer error
+        throw new RuntimeException("Unknown MeasureType: " + function);
+    }
+  }
+
+  /**
+   * Adds all data points of the given time series to this time series.
+   */
+  void addAll(TimeValueAccumulator other) {
+    for (int i = 0; i < other.timestamps.length; i++) {
+      if (other.used[i]) {
+        add(other.timestamps[i], other.values[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of data points in this time series.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Copies all data points of this time series, sorted by timestamp, into the given arrays.
+   *
+   * @param sortedTimestamps array to receive the timestamps; must have at least {@link #size()} elements
+   * @param sortedValues array to receive the values; must have at least {@link #size()} elements
+   */
+  void copySorted(long[] sortedTimestamps, long[] sortedValues) {
+    int count = 0;
+    for (int i = 0; i < timestamps.length; i++) {
+      if (used[i]) {
+        sortedTimestamps[count++] = timestamps[i];
+      }
+    }
+    Arrays.sort(sortedTimestamps, 0, count);
+    for (int i = 0; i < count; i++) {
+      sortedValues[i] = values[findSlot(timestamps, used, sortedTimestamps[i])];
+    }
+  }
+
+  private void rehash() {
+    long[] oldTimestamps = timestamps;
+    long[] oldValues = values;
+    boolean[] oldUsed = used;
+
+    int capacity = oldTimestamps.length * 2;
+    timestamps = new long[capacity];
+    values = new long[capacity];
+    used = new boolean[capacity];
+
+    for (int i = 0; i < oldTimestamps.length; i++) {
+      if (oldUsed[i]) {
+        int idx = findSlot(timestamps, used, oldTimestamps[i]);
+        timestamps[idx] = oldTimestamps[i];
+        values[idx] = oldValues[i];
+        used[idx] = true;
+      }
+    }
+  }
+
+  /**
+   * Finds the slot that contains the given timestamp, or the empty slot to insert it with linear probing.
+   * The capacity of the table is always a power of two.
+   */
+  private static int findSlot(long[] timestamps, boolean[] used, long timestamp) {
+    int mask = timestamps.length - 1;
+    int idx = hash(timestamp) & mask;
+    while (used[idx] && timestamps[idx] != timestamp) {
+      idx = (idx + 1) & mask;
+    }
+    return idx;
+  }
+
+  private static int hash(long timestamp) {
+    // Timestamps are usually multiples of the resolution, hence mix the bits to spread them over the table
+    long h = timestamp * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.data2.dataset2.lib.timeseries;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+/**
+ * A compact in-memory dictionary of the mappings of an {@link EntityTable}, kept off-heap. Records of keys and
+ * values are appended to a direct buffer, and indexed by an open addressing hash table of offsets into that buffer,
+ * which is a direct buffer as well. Hence the dictionary adds no objects per mapping to the heap, no matter how many
+ * entities it holds.
+ *
+ * When adding a mapping would grow the buffers beyond the memory budget, the dictionary is cleared and filled
+ * again on demand, hence all lookups miss until the mappings in use are added again. Records are appended and
+ * never moved, so there is no cheaper way to free space. This is fine as long as the budget holds the entities
+ * in use, which makes resets rare.
+ *
+ * This class is thread safe.
+ */
+final class EntityDictionary {
+
+  private static final int INITIAL_DATA_BYTES = 64 * 1024;
+  private static final int INITIAL_SLOTS = 1024;
+  // size of the record header: key length and value length
+  private static final int HEADER_BYTES = 8;
+
+  private final long maxSizeBytes;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // records of [key length][value length][key][value], appended at the position of the buffer
+  private ByteBuffer data;
+  // offsets of the records plus one, zero for empty slots; the capacity is always a power of two
+  private IntBuffer slots;
+  private int size;
+
+  EntityDictionary(long maxSizeBytes) {
+    this.maxSizeBytes = maxSizeBytes;
+    reset();
+  }
+
+  /**
+   * Returns the value of the given key, or {@code null} if the key is not in the dictionary.
+   */
+  @Nullable
+  byte[] get(byte[] key) {
+    lock.readLock().lock();
+    try {
+      int offset = slots.get(findSlot(key)) - 1;
+      if (offset < 0) {
+        return null;
+      }
+      byte[] value = new byte[data.getInt(offset + 4)];
+      ByteBuffer record = data.duplicate();
+      record.position(offset + HEADER_BYTES + key.length);
+      record.get(value);
+      return value;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Sets the value of the given key, replacing the current value, if any.
+   */
+  void put(byte[] key, byte[] value) {
+    int recordBytes = HEADER_BYTES + key.length + value.length;
+    lock.writeLock().lock();
+    try {
+      // the size after growing the buffers, assuming the key is new
+      long dataBytes = data.remaining() < recordBytes ? getGrownCapacity(recordBytes) : data.capacity();
+      long slotBytes = (long) slots.capacity() * ((size + 1) * 2 > slots.capacity() ? 8 : 4);
+      if (dataBytes + slotBytes > maxSizeBytes) {
+        reset();
+      }
+      if (data.remaining() < recordBytes) {
+        growData(recordBytes);
+      }
+
+      int slot = findSlot(key);
+      boolean exists = slots.get(slot) != 0;
+      // a replaced record stays in the buffer until the dictionary is reset, which is fine as replacing is rare
+      slots.put(slot, data.position() + 1);
+      data.putInt(key.length).putInt(value.length).put(key).put(value);
+      if (!exists && ++size * 2 > slots.capacity()) {
+        rehash();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of keys in the dictionary.
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of bytes allocated off-heap by the dictionary.
+   */
+  long getSizeBytes() {
+    lock.readLock().lock();
+    try {
+      return data.capacity() + (long) slots.capacity() * 4;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void reset() {
+    data = ByteBuffer.allocateDirect(INITIAL_DATA_BYTES);
+    slots = ByteBuffer.allocateDirect(INITIAL_SLOTS * 4).asIntBuffer();
+    size = 0;
+  }
+
+  private int getGrownCapacity(int recordBytes) {
+    return Math.max(data.capacity() * 2, data.position() + recordBytes);
+  }
+
+  private void growData(int recordBytes) {
+    ByteBuffer newData = ByteBuffer.allocateDirect(getGrownCapacity(recordBytes));
+    ByteBuffer records = data.duplicate();
+    records.flip();
+    newData.put(records);
+    data = newData;
+  }
+
+  private void rehash() {
+    IntBuffer oldSlots = slots;
+    slots = ByteBuffer.allocateDirect(oldSlots.capacity() * 2 * 4).asIntBuffer();
+    int mask = slots.capacity() - 1;
+    for (int i = 0; i < oldSlots.capacity(); i++) {
+      int offset = oldSlots.get(i) - 1;
+      if (offset < 0) {
+        continue;
+      }
+      int idx = hash(offset + HEADER_BYTES, data.getInt(offset)) & mask;
+      while (slots.get(idx) != 0) {
+        idx = (idx + 1) & mask;
+      }
+      slots.put(idx, offset + 1);
+    }
+  }
+
+  /**
+   * Finds the slot of the given key, or the empty slot to insert it with linear probing.
+   */
+  private int findSlot(byte[] key) {
+    int mask = slots.capacity() - 1;
+    int idx = hash(key) & mask;
+    int offset;
+    while ((offset = slots.get(idx) - 1) >= 0 && !keyEquals(offset, key)) {
+      idx = (idx + 1) & mask;
+    }
+    return idx;
+  }
+
+  private boolean keyEquals(int offset, byte[] key) {
+    if (data.getInt(offset) != key.length) {
+      return false;
+    }
+    int keyOffset = offset + HEADER_BYTES;
+    for (int i = 0; i < key.length; i++) {
+      if (data.get(keyOffset + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(byte[] key) {
+    int h = 1;
+    for (byte b : key) {
+      h = 31 * h + b;
+    }
+    return mix(h);
+  }
+
+  private int hash(int keyOffset, int keyLength) {
+    int h = 1;
+    for (int i = 0; i < keyLength; i++) {
+      h = 31 * h + data.get(keyOffset + i);
+    }
+    return mix(h);
+  }
+
+  private static int mix(int h) {
+    // spread the bits, as keys of the same type share a long common prefix
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return h;
+  }
+}
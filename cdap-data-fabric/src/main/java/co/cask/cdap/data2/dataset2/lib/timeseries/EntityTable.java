@@ -16,18 +16,17 @@
 package co.cask.cdap.data2.dataset2.lib.timeseries;
 
 import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Scanner;
+import co.cask.cdap.api.metrics.MetricsCollector;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
-import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
 /**
@@ -55,13 +54,22 @@ public final class EntityTable implements Closeable {
   private static final byte[] DOT = { '.' };
   // max number of distinct values of entity of a single type
   private static final long MAX_ID_COUNT = 0x1000000L;
+  // memory budget of each of the in-memory dictionaries of ids and names
+  private static final long DEFAULT_DICTIONARY_BYTES = 32 * 1024 * 1024;
+  // number of dictionary hits to report as a metric at once, to keep the lookups cheap
+  private static final int HITS_PER_REPORT = 1024;
 
   private final MetricsTable table;
-  private final LoadingCache<EntityName, Long> entityCache;
-  private final LoadingCache<EntityId, EntityName> idCache;
+  // maps row keys of entity names to ids
+  private final EntityDictionary idDictionary;
+  // maps row keys of ids to entity names
+  private final EntityDictionary nameDictionary;
   private final long maxId;
   private final int size;
+  private final AtomicLong hits = new AtomicLong();
 
+  @Nullable
+  private MetricsCollector metrics;
 
   /**
    * Creates an EntityTable with max id = 16777215.
@@ -79,26 +87,89 @@ public final class EntityTable implements Closeable {
    * @param maxId Maximum ID (exclusive) that can be generated.
    */
   EntityTable(MetricsTable table, long maxId) {
+    this(table, maxId, DEFAULT_DICTIONARY_BYTES);
+  }
+
+  /**
+   * Creates an EntityTable backed by the given {@link MetricsTable}.
+   *
+   * @param table The storage table
+   * @param maxId Maximum ID (exclusive) that can be generated.
+   * @param dictionaryBytes Memory budget in bytes of each of the in-memory dictionaries of ids and names.
+   */
+  EntityTable(MetricsTable table, long maxId, long dictionaryBytes) {
     Preconditions.checkArgument(table != null, "Table cannot be null.");
     Preconditions.checkArgument(maxId > 0, "maxId must be > 0.");
 
     this.table = table;
-    this.entityCache = CacheBuilder.newBuilder().build(createEntityCacheLoader());
-    this.idCache = CacheBuilder.newBuilder().build(createIdCacheLoader());
+    this.idDictionary = new EntityDictionary(dictionaryBytes);
+    this.nameDictionary = new EntityDictionary(dictionaryBytes);
     this.maxId = maxId;
     this.size = computeSize(maxId);
   }
 
+  /**
+   * Sets {@link MetricsCollector} for reporting the hits, misses and sizes of the in-memory dictionaries.
+   */
+  public void setMetricsCollector(MetricsCollector metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Loads all mappings of the table into memory with a single scan, so that the entities accessed after startup
+   * do not need to be looked up one by one in the table.
+   *
+   * @return number of mappings loaded
+   */
+  public int preload() {
+    int count = 0;
+    Scanner scanner = table.scan(null, null, null);
+    try {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        byte[] id = row.get(ID);
+        if (id != null) {
+          idDictionary.put(row.getRow(), id);
+          count++;
+        }
+        byte[] name = row.get(NAME);
+        if (name != null) {
+          nameDictionary.put(row.getRow(), name);
+          count++;
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+    LOG.debug("Preloaded {} entity mappings.", count);
+    reportSizes();
+    return count;
+  }
+
   /**
    * Returns an unique id for the given name.
-   * @param name The {@link EntityName} to lookup. Can be {@code null}, which is treated as a normal value.
+   * @param name The entity name to lookup. Can be {@code null}, which is treated as a normal value.
    * @return Unique ID, it is guaranteed to be smaller than the maxId passed in constructor.
    */
   public long getId(String type, @Nullable String name) {
     if (name == null) {
       return 0;
     }
-    return entityCache.getUnchecked(new EntityName(type, name)) % maxId;
+    byte[] rowKey = Bytes.toBytes(type + '.' + name);
+    byte[] id = idDictionary.get(rowKey);
+    if (id != null) {
+      recordHit();
+      return Bytes.toLong(id) % maxId;
+    }
+
+    // The table may be shared by concurrent writers, and the underlying table is not thread safe
+    long newId;
+    synchronized (table) {
+      newId = loadId(type, name, rowKey);
+    }
+    idDictionary.put(rowKey, Bytes.toBytes(newId));
+    recordMiss();
+    return newId % maxId;
   }
 
   /**
@@ -113,11 +184,23 @@ public final class EntityTable implements Closeable {
     if (id == 0) {
       return null;
     }
-    try {
-      return idCache.get(new EntityId(id, type)).getName();
-    } catch (ExecutionException e) {
-      throw new IllegalArgumentException(e.getCause());
+    // Lookup the reverse mapping
+    byte[] rowKey = Bytes.concat(Bytes.toBytes(type), DOT, Bytes.toBytes(id));
+    byte[] name = nameDictionary.get(rowKey);
+    if (name != null) {
+      recordHit();
+      return Bytes.toString(name);
+    }
+
+    synchronized (table) {
+      name = table.get(rowKey, NAME);
+    }
+    if (name == null) {
+      throw new IllegalArgumentException("Entity name not found for type " + type + ", id " + id);
     }
+    nameDictionary.put(rowKey, name);
+    recordMiss();
+    return Bytes.toString(name);
   }
 
   /**
@@ -127,80 +210,79 @@ public final class EntityTable implements Closeable {
     return size;
   }
 
-  private CacheLoader<EntityName, Long> createEntityCacheLoader() {
-    return new CacheLoader<EntityName, Long>() {
-      @Override
-      public Long load(EntityName key) throws Exception {
-        byte[] rowKey = Bytes.toBytes(key.getType() + '.' + key.getName());
-
-        byte[] result = table.get(rowKey, ID);
-
-        // Found, return it
-        if (result != null) {
-          return Bytes.toLong(result);
-        }
+  private long loadId(String type, String name, byte[] rowKey) {
+    byte[] result = table.get(rowKey, ID);
 
-        // Not found, generate a new ID
-        byte[] maxIdRowKey = Bytes.toBytes(key.getType() + ".maxId");
-        long newId = table.incrementAndGet(maxIdRowKey, MAX_ID, 1L);
-
-        /* we recycle the id's after reaching max-id to let the id's start from 1 again.
-        this most likely won't happen for any entity other than run-id,
-        Even for run-id - its okay to recycle, as we would have truncated the old data when we reach 16777215 runs,
-        as our max TTL is 30 days currently. The reasoning is the likelihood for running 16777215 programs
-        under 30 days is low. For mapping the id -> name , we use (id % maxId) */
-        if (newId % maxId == 0) {
-          newId = 1L;
-          table.swap(maxIdRowKey, MAX_ID, Bytes.toBytes(maxId), Bytes.toBytes(newId));
-        }
+    // Found, return it
+    if (result != null) {
+      return Bytes.toLong(result);
+    }
 
-        if (key.getName() == null || key.getName().isEmpty()) {
-          LOG.warn("Adding mapping for " + (key.getName() == null ? "null" : "empty") + " name, " +
-                     " with type " + key.getType() + ", new id is " + newId);
-        }
+    // Not found, generate a new ID
+    byte[] maxIdRowKey = Bytes.toBytes(type + ".maxId");
+    long newId = table.incrementAndGet(maxIdRowKey, MAX_ID, 1L);
+
+    /* we recycle the id's after reaching max-id to let the id's start from 1 again.
+    this most likely won't happen for any entity other than run-id,
+    Even for run-id - its okay to recycle, as we would have truncated the old data when we reach 16777215 runs,
+    as our max TTL is 30 days currently. The reasoning is the likelihood for running 16777215 programs
+    under 30 days is low. For mapping the id -> name , we use (id % maxId) */
+    if (newId % maxId == 0) {
+      newId = 1L;
+      table.swap(maxIdRowKey, MAX_ID, Bytes.toBytes(maxId), Bytes.toBytes(newId));
+    }
 
-        // Save the mapping
-        if (table.swap(rowKey, ID, null, Bytes.toBytes(newId))) {
-          // Save the reverse mapping from r.type.id => name as well
-          rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(newId));
-
-          // It is wrong to have forward mapping set when reverse mapping failed to set, always try to overwrite it.
-          byte[] oldName = null;
-          while (!table.swap(rowKey, NAME, oldName, Bytes.toBytes(key.getName()))) {
-            result = table.get(rowKey, NAME);
-            if (result == null) {
-              throw new IllegalStateException("Fail to set reverse mapping from id to name.");
-            }
-            oldName = result;
-          }
-
-          return newId;
-        }
+    if (name.isEmpty()) {
+      LOG.warn("Adding mapping for empty name, with type " + type + ", new id is " + newId);
+    }
 
-        // Get the value if CAS failed.
-        result = table.get(rowKey, ID);
+    // Save the mapping
+    if (table.swap(rowKey, ID, null, Bytes.toBytes(newId))) {
+      // Save the reverse mapping from r.type.id => name as well
+      byte[] reverseRowKey = Bytes.concat(Bytes.toBytes(type), DOT, Bytes.toBytes(newId));
+      byte[] nameBytes = Bytes.toBytes(name);
 
+      // It is wrong to have forward mapping set when reverse mapping failed to set, always try to overwrite it.
+      byte[] oldName = null;
+      while (!table.swap(reverseRowKey, NAME, oldName, nameBytes)) {
+        result = table.get(reverseRowKey, NAME);
         if (result == null) {
-          throw new IllegalStateException("ID not found for " + key);
+          throw new IllegalStateException("Fail to set reverse mapping from id to name.");
         }
-        return Bytes.toLong(result);
+        oldName = result;
       }
-    };
+      nameDictionary.put(reverseRowKey, nameBytes);
+
+      return newId;
+    }
+
+    // Get the value if CAS failed.
+    result = table.get(rowKey, ID);
+
+    if (result == null) {
+      throw new IllegalStateException("ID not found for type " + type + ", name " + name);
+    }
+    return Bytes.toLong(result);
   }
 
-  private CacheLoader<EntityId, EntityName> createIdCacheLoader() {
-    return new CacheLoader<EntityId, EntityName>() {
-      @Override
-      public EntityName load(EntityId key) throws Exception {
-        // Lookup the reverse mapping
-        byte[] rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(key.getId()));
-        byte[] result = table.get(rowKey, NAME);
-        if (result == null) {
-          throw new IllegalArgumentException("Entity name not found for type " + key.getType() + ", id " + key.getId());
-        }
-        return new EntityName(key.getType(), Bytes.toString(result));
-      }
-    };
+  private void recordHit() {
+    if (metrics != null && hits.incrementAndGet() % HITS_PER_REPORT == 0) {
+      metrics.increment("entity.dictionary.hit.count", HITS_PER_REPORT);
+    }
+  }
+
+  private void recordMiss() {
+    if (metrics != null) {
+      metrics.increment("entity.dictionary.miss.count", 1);
+      reportSizes();
+    }
+  }
+
+  private void reportSizes() {
+    if (metrics != null) {
+      metrics.gauge("entity.dictionary.size", idDictionary.size() + nameDictionary.size());
+      metrics.gauge("entity.dictionary.size.bytes", idDictionary.getSizeBytes() + nameDictionary.getSizeBytes());
+    }
   }
 
   static int computeSize() {
@@ -223,100 +305,4 @@ public final class EntityTable implements Closeable {
   public void close() throws IOException {
     table.close();
   }
-
-  /**
-   * Package private class to represent an entity name, which compose of type and name.
-   */
-  private static final class EntityName {
-
-    private final String type;
-    private final String name;
-
-    EntityName(String type, String name) {
-      Preconditions.checkArgument(type != null, "Type cannot be null.");
-      Preconditions.checkArgument(name != null, "Name cannot be null.");
-      this.type = type;
-      this.name = name;
-    }
-
-    String getType() {
-      return type;
-    }
-
-    String getName() {
-      return name;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      }
-      if (o == null || getClass() != o.getClass()) {
-        return false;
-      }
-
-      EntityName other = (EntityName) o;
-      return type.equals(other.type) && name.equals(other.name);
-    }
-
-    @Override
-    public int hashCode() {
-      int result = type.hashCode();
-      result = 31 * result + name.hashCode();
-      return result;
-    }
-
-    @Override
-    public String toString() {
-      return Objects.toStringHelper(this)
-                    .add("type", type)
-                    .add("name", name)
-                    .toString();
-    }
-  }
-
-  /**
-   * Private class to hold both entity ID and the type.
-   */
-  private static final class EntityId {
-
-    private final long id;
-    private final String type;
-
-    EntityId(long id, String type) {
-      Preconditions.checkArgument(type != null, "Type cannot be null.");
-      this.id = id;
-      this.type = type;
-    }
-
-    long getId() {
-      return id;
-    }
-
-    String getType() {
-      return type;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      }
-      if (o == null || getClass() != o.getClass()) {
-        return false;
-      }
-
-      EntityId other = (EntityId) o;
-
-      return id == other.id && type.equals(other.type);
-    }
-
-    @Override
-    public int hashCode() {
-      int result = (int) (id ^ (id >>> 32));
-      result = 31 * result + type.hashCode();
-      return result;
-    }
-  }
 }
@@ -85,6 +85,7 @@ public final class FactTable implements Closeable {
 
   private final String putCountMetric;
   private final String incrementCountMetric;
+  private final FactTableStatistics statistics;
 
   @Nullable
   private MetricsCollector metrics;
@@ -102,6 +103,15 @@ public final class FactTable implements Closeable {
    */
   public FactTable(MetricsTable timeSeriesTable,
                    EntityTable entityTable, int resolution, int rollTime) {
+    this(timeSeriesTable, entityTable, resolution, rollTime, new FactTableStatistics());
+  }
+
+  /**
+   * Creates an instance of {@link FactTable} that records statistics about the facts written in the given
+   * {@link FactTableStatistics}.
+   */
+  public FactTable(MetricsTable timeSeriesTable, EntityTable entityTable, int resolution, int rollTime,
+                   FactTableStatistics statistics) {
     // Two bytes for column name, which is a delta timestamp
     Preconditions.checkArgument(rollTime <= MAX_ROLL_TIME, "Rolltime should be <= " + MAX_ROLL_TIME);
 
@@ -112,10 +122,12 @@ public final class FactTable implements Closeable {
     this.rollTime = rollTime;
     this.putCountMetric = "factTable." + resolution + ".put.count";
     this.incrementCountMetric = "factTable." + resolution + ".increment.count";
+    this.statistics = statistics;
   }
 
   public void setMetricsCollector(MetricsCollector metrics) {
     this.metrics = metrics;
+    this.entityTable.setMetricsCollector(metrics);
   }
 
   public void add(List<Fact> facts) {
@@ -123,6 +135,7 @@ public final class FactTable implements Closeable {
     NavigableMap<byte[], NavigableMap<byte[], byte[]>> gaugesTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     NavigableMap<byte[], NavigableMap<byte[], byte[]>> incrementsTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     for (Fact fact : facts) {
+      statistics.add(fact);
       for (Measurement measurement : fact.getMeasurements()) {
         byte[] rowKey = codec.createRowKey(fact.getDimensionValues(), measurement.getName(), fact.getTimestamp());
         byte[] column = codec.createColumn(fact.getTimestamp());
@@ -144,12 +157,20 @@ public final class FactTable implements Closeable {
     // todo: replace with single call, to be able to optimize rpcs in underlying table
     timeSeriesTable.put(convertedGaugesTable);
     timeSeriesTable.increment(convertedIncrementsTable);
+    statistics.persistIfDue();
     if (metrics != null) {
       metrics.increment(putCountMetric, convertedGaugesTable.size());
       metrics.increment(incrementCountMetric, convertedIncrementsTable.size());
     }
   }
 
+  /**
+   * Returns the statistics about the facts written to this table, to estimate the cost of scans.
+   */
+  public FactTableStatistics getStatistics() {
+    return statistics;
+  }
+
   private class MeasureNameComparator implements Comparator<String> {
     private final Map<String, Long> measureNameToEntityIdMap;
 
@@ -167,6 +188,37 @@ public final class FactTable implements Closeable {
     return new FactScanner(getScanner(scan), codec, scan.getStartTs(), scan.getEndTs(), scan.getMeasureNames());
   }
 
+  /**
+   * Splits the given scan into at most {@code maxSplits} scans of consecutive time ranges. The time ranges are
+   * aligned to the time bases of the row keys, hence every split scans a distinct row key range and the splits
+   * can be executed in parallel. Returns a list with the given scan only if it cannot be split.
+   */
+  public List<FactScan> split(FactScan scan, int maxSplits) {
+    long firstTimeBase = getTimeBase(scan.getStartTs());
+    long lastTimeBase = getTimeBase(scan.getEndTs());
+    long timeBases = (lastTimeBase - firstTimeBase) / rollTime + 1;
+    if (maxSplits <= 1 || timeBases <= 1) {
+      return ImmutableList.of(scan);
+    }
+
+    int splits = (int) Math.min(maxSplits, timeBases);
+    // round up, so that the number of splits is not exceeded
+    long splitInterval = (timeBases + splits - 1) / splits * rollTime;
+    List<FactScan> result = new ArrayList<>(splits);
+    for (long timeBase = firstTimeBase; timeBase <= lastTimeBase; timeBase += splitInterval) {
+      long startTs = Math.max(scan.getStartTs(), timeBase);
+      long endTs = Math.min(scan.getEndTs(), timeBase + splitInterval - 1);
+      result.add(new FactScan(startTs, endTs, scan.getMeasureNames(), scan.getDimensionValues()));
+    }
+    return result;
+  }
+
+  private long getTimeBase(long ts) {
+    // same as the time base in the row key, which is computed from the timestamp rounded to the resolution
+    long roundedTs = ts / resolution * resolution;
+    return roundedTs / rollTime * rollTime;
+  }
+
   private List<String> getSortedMeasures(Collection<String> measures) {
     Map<String, Long> measureToEntityMap = new HashMap<>();
     List<String> measureNames = new ArrayList<>();
@@ -419,6 +471,7 @@ public final class FactTable implements Closeable {
   public void close() throws IOException {
     timeSeriesTable.close();
     entityTable.close();
+    statistics.close();
   }
 
   public static byte[][] getSplits(int aggGroupsCount) {
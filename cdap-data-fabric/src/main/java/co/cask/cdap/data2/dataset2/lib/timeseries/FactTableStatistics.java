@@ -0,0 +1,377 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.timeseries;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Scanner;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Statistics about the facts written to a {@link FactTable}, kept separately for the facts of each list of
+ * dimension names, i.e. for each aggregation. Only a random sample of the facts is recorded, and the number of
+ * distinct values tracked is bounded, hence the statistics are estimates that are only meant to compare the cost
+ * of scans.
+ *
+ * Without a statistics table, the statistics are kept in memory only, so they only cover the facts written through
+ * the same instance. With a statistics table, the statistics of the facts written are persisted periodically, so
+ * that the instances used for querying see the statistics of the instances used for writing. The table can be
+ * shared by the fact tables of all resolutions.
+ *
+ * <h5>Statistics rows</h5>
+ * Row key is the resolution (encoded as int) followed by the dimension names of the aggregation, separated by a zero
+ * character. Columns are {@code sampled} for the number of facts sampled, {@code facts} for the estimated number of
+ * facts, {@code combinations} for the estimated number of distinct combinations of dimension values and
+ * {@code distinct.<i>} for the number of distinct values of the i-th dimension. If multiple instances write facts of
+ * the same aggregation, the statistics persisted last win.
+ */
+public final class FactTableStatistics implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FactTableStatistics.class);
+
+  /**
+   * Default interval for persisting and reloading the statistics of a statistics table.
+   */
+  public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 60000;
+
+  static final int DEFAULT_SAMPLE_INTERVAL = 16;
+  // the maximum number of distinct values tracked for each dimension and for the dimension value combinations
+  static final int MAX_DISTINCT_VALUES = 1024;
+
+  // placeholder for null dimension values, which cannot be added to the sets of distinct values
+  private static final String NULL_VALUE = "\u0000";
+  private static final char NAME_SEPARATOR = '\u0000';
+  private static final byte[] SAMPLED_COLUMN = Bytes.toBytes("sampled");
+  private static final byte[] FACTS_COLUMN = Bytes.toBytes("facts");
+  private static final byte[] COMBINATIONS_COLUMN = Bytes.toBytes("combinations");
+  private static final String DISTINCT_COLUMN_PREFIX = "distinct.";
+
+  private final int sampleInterval;
+  private final ConcurrentMap<List<String>, Sampler> samplers;
+
+  @Nullable
+  private final MetricsTable table;
+  private final byte[] rowPrefix;
+  private final long syncIntervalMillis;
+  // statistics as last loaded from the table, including the ones persisted by other instances
+  private volatile Map<List<String>, AggregationStatistics> persisted;
+  private volatile long loadTime;
+  private volatile long persistTime;
+  private volatile boolean dirty;
+
+  public FactTableStatistics() {
+    this(DEFAULT_SAMPLE_INTERVAL);
+  }
+
+  /**
+   * Creates in-memory statistics that record one in {@code sampleInterval} facts on average.
+   */
+  public FactTableStatistics(int sampleInterval) {
+    this(sampleInterval, null, 0, 0);
+  }
+
+  /**
+   * Creates statistics that are persisted to the given table.
+   *
+   * @param table table to persist the statistics in
+   * @param resolution resolution of the {@link FactTable} in seconds
+   * @param syncIntervalMillis minimum interval between persisting the sampled statistics and between reloading the
+   *                           persisted statistics
+   */
+  public FactTableStatistics(MetricsTable table, int resolution, long syncIntervalMillis) {
+    this(DEFAULT_SAMPLE_INTERVAL, table, resolution, syncIntervalMillis);
+  }
+
+  private FactTableStatistics(int sampleInterval, @Nullable MetricsTable table,
+                              int resolution, long syncIntervalMillis) {
+    this.sampleInterval = sampleInterval;
+    this.samplers = new ConcurrentHashMap<>();
+    this.table = table;
+    this.rowPrefix = Bytes.toBytes(resolution);
+    this.syncIntervalMillis = syncIntervalMillis;
+    this.persisted = Collections.emptyMap();
+  }
+
+  /**
+   * Records the given fact if it is sampled.
+   */
+  void add(Fact fact) {
+    if (sampleInterval > 1 && ThreadLocalRandom.current().nextInt(sampleInterval) != 0) {
+      return;
+    }
+    List<DimensionValue> dimensionValues = fact.getDimensionValues();
+    List<String> dimensionNames = new ArrayList<>(dimensionValues.size());
+    String[] values = new String[dimensionValues.size()];
+    for (int i = 0; i < values.length; i++) {
+      DimensionValue dimensionValue = dimensionValues.get(i);
+      dimensionNames.add(dimensionValue.getName());
+      values[i] = dimensionValue.getValue() == null ? NULL_VALUE : dimensionValue.getValue();
+    }
+
+    Sampler sampler = samplers.get(dimensionNames);
+    if (sampler == null) {
+      sampler = new Sampler(values.length);
+      Sampler existing = samplers.putIfAbsent(dimensionNames, sampler);
+      if (existing != null) {
+        sampler = existing;
+      }
+    }
+    sampler.add(values);
+    dirty = true;
+  }
+
+  /**
+   * Persists the sampled statistics to the statistics table, if there is one and the sync interval has passed
+   * since they were last persisted. Failures are logged only, as the statistics are only used for estimates.
+   */
+  void persistIfDue() {
+    if (table == null || !dirty || System.currentTimeMillis() - persistTime < syncIntervalMillis) {
+      return;
+    }
+    synchronized (this) {
+      persistTime = System.currentTimeMillis();
+      dirty = false;
+      SortedMap<byte[], SortedMap<byte[], Long>> updates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      for (Map.Entry<List<String>, Sampler> entry : samplers.entrySet()) {
+        AggregationStatistics statistics = entry.getValue().getStatistics();
+        SortedMap<byte[], Long> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        columns.put(SAMPLED_COLUMN, statistics.getSampledFacts());
+        columns.put(FACTS_COLUMN, statistics.getEstimatedFacts());
+        columns.put(COMBINATIONS_COLUMN, statistics.getEstimatedCombinations());
+        for (int i = 0; i < entry.getKey().size(); i++) {
+          columns.put(Bytes.toBytes(DISTINCT_COLUMN_PREFIX + i), (long) statistics.getDistinctValues(i));
+        }
+        updates.put(createRowKey(entry.getKey()), columns);
+      }
+      try {
+        table.put(updates);
+      } catch (Exception e) {
+        LOG.warn("Failed to persist fact table statistics", e);
+      }
+    }
+  }
+
+  /**
+   * Returns the statistics of the facts with the given dimension names, or {@code null} if none was sampled yet.
+   * If the statistics are persisted, the ones with more sampled facts are returned among the statistics sampled by
+   * this instance and the ones persisted by any instance.
+   */
+  @Nullable
+  public AggregationStatistics get(List<String> dimensionNames) {
+    Sampler sampler = samplers.get(dimensionNames);
+    AggregationStatistics local = sampler == null ? null : sampler.getStatistics();
+    if (table == null) {
+      return local;
+    }
+    AggregationStatistics stored = getPersisted().get(dimensionNames);
+    if (local == null || (stored != null && stored.getSampledFacts() > local.getSampledFacts())) {
+      return stored;
+    }
+    return local;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (table != null) {
+      table.close();
+    }
+  }
+
+  private Map<List<String>, AggregationStatistics> getPersisted() {
+    if (System.currentTimeMillis() - loadTime < syncIntervalMillis) {
+      return persisted;
+    }
+    synchronized (this) {
+      if (System.currentTimeMillis() - loadTime < syncIntervalMillis) {
+        return persisted;
+      }
+      loadTime = System.currentTimeMillis();
+      try {
+        persisted = load();
+      } catch (Exception e) {
+        LOG.warn("Failed to load fact table statistics", e);
+      }
+      return persisted;
+    }
+  }
+
+  private Map<List<String>, AggregationStatistics> load() {
+    Map<List<String>, AggregationStatistics> result = Maps.newHashMap();
+    Scanner scanner = table.scan(rowPrefix, Bytes.stopKeyForPrefix(rowPrefix), null);
+    try {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        List<String> dimensionNames = parseDimensionNames(row.getRow());
+        Map<byte[], byte[]> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        columns.putAll(row.getColumns());
+        int[] distinctValues = new int[dimensionNames.size()];
+        for (int i = 0; i < distinctValues.length; i++) {
+          distinctValues[i] = (int) getLong(columns, Bytes.toBytes(DISTINCT_COLUMN_PREFIX + i));
+        }
+        result.put(dimensionNames, new AggregationStatistics(getLong(columns, SAMPLED_COLUMN),
+                                                             getLong(columns, FACTS_COLUMN),
+                                                             getLong(columns, COMBINATIONS_COLUMN),
+                                                             distinctValues));
+      }
+    } finally {
+      scanner.close();
+    }
+    return result;
+  }
+
+  private byte[] createRowKey(List<String> dimensionNames) {
+    return Bytes.add(rowPrefix, Bytes.toBytes(Joiner.on(NAME_SEPARATOR).join(dimensionNames)));
+  }
+
+  private List<String> parseDimensionNames(byte[] rowKey) {
+    String names = Bytes.toString(rowKey, rowPrefix.length, rowKey.length - rowPrefix.length);
+    if (names.isEmpty()) {
+      return ImmutableList.of();
+    }
+    return ImmutableList.copyOf(Splitter.on(NAME_SEPARATOR).split(names));
+  }
+
+  private static long getLong(Map<byte[], byte[]> columns, byte[] column) {
+    byte[] value = columns.get(column);
+    return value == null ? 0L : Bytes.toLong(value);
+  }
+
+  /**
+   * Statistics about the facts of a single aggregation.
+   */
+  public static final class AggregationStatistics {
+
+    private final long sampledFacts;
+    private final long estimatedFacts;
+    private final long estimatedCombinations;
+    private final int[] distinctValues;
+
+    private AggregationStatistics(long sampledFacts, long estimatedFacts,
+                                  long estimatedCombinations, int[] distinctValues) {
+      this.sampledFacts = sampledFacts;
+      this.estimatedFacts = estimatedFacts;
+      this.estimatedCombinations = estimatedCombinations;
+      this.distinctValues = distinctValues;
+    }
+
+    /**
+     * Returns the number of facts sampled.
+     */
+    public long getSampledFacts() {
+      return sampledFacts;
+    }
+
+    /**
+     * Returns the estimated number of facts written.
+     */
+    public long getEstimatedFacts() {
+      return estimatedFacts;
+    }
+
+    /**
+     * Returns the number of distinct values seen in the dimension at the given position, at least {@code 1}.
+     */
+    public int getDistinctValues(int dimension) {
+      return Math.max(1, distinctValues[dimension]);
+    }
+
+    /**
+     * Returns the estimated number of distinct combinations of dimension values, which is proportional to the
+     * number of rows of the aggregation.
+     */
+    public long getEstimatedCombinations() {
+      return Math.max(1, estimatedCombinations);
+    }
+  }
+
+  /**
+   * Samples the facts of a single aggregation.
+   */
+  private final class Sampler {
+
+    private final List<Set<String>> distinctValues;
+    private final Set<List<String>> distinctCombinations;
+    private long sampledFacts;
+
+    private Sampler(int dimensions) {
+      this.distinctValues = Lists.newArrayListWithCapacity(dimensions);
+      for (int i = 0; i < dimensions; i++) {
+        distinctValues.add(Sets.<String>newHashSet());
+      }
+      this.distinctCombinations = Sets.newHashSet();
+    }
+
+    private synchronized void add(String[] values) {
+      sampledFacts++;
+      for (int i = 0; i < values.length; i++) {
+        Set<String> distinct = distinctValues.get(i);
+        if (distinct.size() < MAX_DISTINCT_VALUES) {
+          distinct.add(values[i]);
+        }
+      }
+      if (distinctCombinations.size() < MAX_DISTINCT_VALUES) {
+        distinctCombinations.add(Arrays.asList(values));
+      }
+    }
+
+    private synchronized AggregationStatistics getStatistics() {
+      long estimatedFacts = sampledFacts * Math.max(1, sampleInterval);
+      int[] distinct = new int[distinctValues.size()];
+      for (int i = 0; i < distinct.length; i++) {
+        distinct[i] = distinctValues.get(i).size();
+      }
+      return new AggregationStatistics(sampledFacts, estimatedFacts,
+                                       getEstimatedCombinations(estimatedFacts), distinct);
+    }
+
+    private long getEstimatedCombinations(long estimatedFacts) {
+      if (distinctCombinations.size() < MAX_DISTINCT_VALUES) {
+        return distinctCombinations.size();
+      }
+      // too many to track: bounded by the number of facts and the combinations of the distinct values
+      long combinations = 1;
+      for (Set<String> distinct : distinctValues) {
+        int size = distinct.size();
+        combinations = combinations > Long.MAX_VALUE / size ? Long.MAX_VALUE : combinations * size;
+      }
+      return Math.max(distinctCombinations.size(), Math.min(combinations, estimatedFacts));
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.timeseries;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Scanner;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Persists the state of rolling up facts from finer into coarser resolution {@link FactTable}s.
+ *
+ * <h5>Watermark row</h5>
+ * Row key is {@code watermark}, with one column per resolution (encoded as int), storing the timestamp in seconds
+ * up to which (exclusive) the facts of the resolution have been rolled up.
+ *
+ * <h5>Gauges row</h5>
+ * Row key is {@code gauges}, with one column per name of the measures that have been written as gauges. Gauges
+ * are not rolled up, as the latest value of a gauge cannot be computed from the aggregated values of a bucket.
+ */
+public final class RollupMetaTable implements Closeable {
+
+  private static final byte[] WATERMARK_ROW = Bytes.toBytes("watermark");
+  private static final byte[] GAUGES_ROW = Bytes.toBytes("gauges");
+
+  private final MetricsTable table;
+
+  public RollupMetaTable(MetricsTable table) {
+    this.table = table;
+  }
+
+  /**
+   * Returns the timestamp in seconds up to which (exclusive) the facts of the given resolution have been rolled up,
+   * or {@code -1} if the resolution has not been rolled up yet.
+   */
+  public long getWatermark(int resolution) {
+    byte[] value = table.get(WATERMARK_ROW, Bytes.toBytes(resolution));
+    return value == null ? -1L : Bytes.toLong(value);
+  }
+
+  /**
+   * Sets the timestamp in seconds up to which (exclusive) the facts of the given resolution have been rolled up.
+   */
+  public void setWatermark(int resolution, long timestamp) {
+    table.put(ImmutableSortedMap.<byte[], SortedMap<byte[], Long>>orderedBy(Bytes.BYTES_COMPARATOR)
+                .put(WATERMARK_ROW, ImmutableSortedMap.<byte[], Long>orderedBy(Bytes.BYTES_COMPARATOR)
+                  .put(Bytes.toBytes(resolution), timestamp).build())
+                .build());
+  }
+
+  /**
+   * Records the given measure names as names of gauges.
+   */
+  public void addGaugeMeasures(Collection<String> measureNames) {
+    SortedMap<byte[], Long> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    for (String measureName : measureNames) {
+      columns.put(Bytes.toBytes(measureName), 1L);
+    }
+    table.put(ImmutableSortedMap.<byte[], SortedMap<byte[], Long>>orderedBy(Bytes.BYTES_COMPARATOR)
+                .put(GAUGES_ROW, columns).build());
+  }
+
+  /**
+   * Returns the names of all measures that have been written as gauges.
+   */
+  public Set<String> getGaugeMeasures() {
+    Set<String> result = Sets.newHashSet();
+    Scanner scanner = table.scan(GAUGES_ROW, Bytes.stopKeyForPrefix(GAUGES_ROW), null);
+    try {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        if (!Bytes.equals(GAUGES_ROW, row.getRow())) {
+          continue;
+        }
+        for (Map.Entry<byte[], byte[]> column : row.getColumns().entrySet()) {
+          result.add(Bytes.toString(column.getKey()));
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    table.close();
+  }
+}
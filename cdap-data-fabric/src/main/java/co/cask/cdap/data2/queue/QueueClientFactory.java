@@ -16,6 +16,7 @@
 package co.cask.cdap.data2.queue;
 
 import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.queue.QueueMetrics;
 
 import java.io.IOException;
@@ -30,4 +31,7 @@ public interface QueueClientFactory {
   QueueProducer createProducer(QueueName queueName, QueueMetrics queueMetrics) throws IOException;
 
   QueueConsumer createConsumer(QueueName queueName, ConsumerConfig consumerConfig, int numGroups) throws IOException;
+
+  QueueConsumer createConsumer(QueueName queueName, ConsumerConfig consumerConfig, int numGroups,
+                               QueueConsumerMetrics consumerMetrics) throws IOException;
 }
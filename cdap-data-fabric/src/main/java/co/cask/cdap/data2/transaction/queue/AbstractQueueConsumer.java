@@ -85,6 +85,9 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
 
   private byte[] scanStartRow;
   private boolean committed;
+  private QueueConsumerMetricsRecorder metricsRecorder = new QueueConsumerMetricsRecorder(QueueConsumerMetrics.NOOP);
+  // Write pointer of the oldest entry not yet processed by the consumer group as seen by the last scan, or -1
+  private long oldestUnackedWritePointer = -1L;
   protected Transaction transaction;
   protected int commitCount;
 
@@ -119,6 +122,13 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     this.maxDequeueMillis = txTimeout * dequeuePercent / 100;
   }
 
+  /**
+   * Sets the {@link QueueConsumerMetrics} for emitting backlog and latency metrics of this consumer.
+   */
+  public void setConsumerMetrics(QueueConsumerMetrics consumerMetrics) {
+    this.metricsRecorder = new QueueConsumerMetricsRecorder(consumerMetrics);
+  }
+
   @Override
   public QueueName getQueueName() {
     return queueName;
@@ -142,12 +152,14 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     byte[] floorKey = consumingEntries.floorKey(scanStartRow);
     updateStartRow(floorKey == null ? scanStartRow : floorKey);
 
+    metricsRecorder.emitBacklogAge(getOldestUnackedWritePointer());
     return result;
   }
 
   @Override
   public void startTx(Transaction tx) {
     consumingEntries.clear();
+    metricsRecorder.clearLatencies();
     this.transaction = tx;
     this.committed = false;
   }
@@ -173,9 +185,24 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     updateState(consumingEntries.keySet(), stateColumnName, stateContent);
     commitCount += consumingEntries.size();
     committed = true;
+
+    long now = System.currentTimeMillis();
+    for (byte[] rowKey : consumingEntries.keySet()) {
+      long writePointer = getWritePointer(rowKey);
+      metricsRecorder.recordLatency(writePointer, now);
+      if (writePointer == oldestUnackedWritePointer) {
+        // The oldest entry seen by the last scan is processed now, the next scan will find the new oldest one
+        oldestUnackedWritePointer = -1L;
+      }
+    }
     return true;
   }
 
+  @Override
+  public void postTxCommit() {
+    metricsRecorder.emitLatencies();
+  }
+
   @Override
   public boolean rollbackTx() throws Exception {
     if (consumingEntries.isEmpty()) {
@@ -184,6 +211,7 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
 
     // Put the consuming entries back to cache
     entryCache.putAll(consumingEntries);
+    metricsRecorder.clearLatencies();
 
     // If not committed, no need to update HBase.
     if (!committed) {
@@ -202,6 +230,30 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     return true;
   }
 
+  /**
+   * Returns the write pointer of the oldest entry that is not yet processed by any consumer of the group, including
+   * entries claimed by other consumer instances, or {@code -1} if there is none. Entries processed by other
+   * consumers since the last scan are only noticed by the next scan.
+   */
+  private long getOldestUnackedWritePointer() {
+    long oldest = oldestUnackedWritePointer;
+    if (!entryCache.isEmpty()) {
+      oldest = getOlderWritePointer(oldest, getWritePointer(entryCache.firstKey()));
+    }
+    if (!consumingEntries.isEmpty()) {
+      oldest = getOlderWritePointer(oldest, getWritePointer(consumingEntries.firstKey()));
+    }
+    return oldest;
+  }
+
+  private long getOlderWritePointer(long writePointer1, long writePointer2) {
+    return writePointer1 < 0 ? writePointer2 : Math.min(writePointer1, writePointer2);
+  }
+
+  private long getWritePointer(byte[] rowKey) {
+    return QueueEntryRow.getWritePointer(rowKey, queueRowPrefix.length);
+  }
+
   /**
    * Called when the start row is updated.
    */
@@ -219,6 +271,7 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     }
 
     boolean isReachedDequeueTimeLimit = false;
+    int claimConflicts = 0;
     Stopwatch stopwatch = new Stopwatch();
     stopwatch.start();
     while (consumingEntries.size() < maxBatchSize && getEntries(consumingEntries, maxBatchSize, stopwatch)) {
@@ -240,6 +293,7 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
             // If not able to claim it, remove it, and move to next one.
             if (!claimEntry(entry.getRowKey(), claimedStateValue)) {
               iterator.remove();
+              claimConflicts++;
             }
 
             if (stopwatch.elapsedMillis() >= maxDequeueMillis) {
@@ -261,6 +315,10 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
       }
     }
 
+    if (claimConflicts > 0) {
+      metricsRecorder.emitClaimConflicts(claimConflicts);
+    }
+
     // If nothing get dequeued, return the empty result.
     if (consumingEntries.isEmpty()) {
       if (isReachedDequeueTimeLimit) {
@@ -323,6 +381,7 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     try {
       // Try fill up the cache
       boolean firstScannedRow = true;
+      long oldestUnacked = -1L;
       while (entryCache.size() < numRows) {
         ImmutablePair<byte[], Map<byte[], byte[]>> entry = scanner.next();
         if (entry == null) {
@@ -364,6 +423,9 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
         }
 
         byte[] stateBytes = entry.getSecond().get(stateColumnName);
+        if (stateBytes == null || QueueEntryRow.getState(stateBytes) != ConsumerEntryState.PROCESSED) {
+          oldestUnacked = getOlderWritePointer(oldestUnacked, writePointer);
+        }
 
         int counter = Bytes.toInt(rowKey, rowKey.length - 4, Ints.BYTES);
         if (!shouldInclude(writePointer, counter, metaBytes, stateBytes)) {
@@ -377,6 +439,7 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
           break;
         }
       }
+      oldestUnackedWritePointer = oldestUnacked;
     } finally {
       scanner.close();
     }
@@ -28,7 +28,16 @@ public final class QueueConstants {
   public static final class ConfigKeys {
     public static final String QUEUE_TABLE_COPROCESSOR_DIR = "data.queue.table.coprocessor.dir";
     public static final String QUEUE_TABLE_PRESPLITS = "data.queue.table.presplits";
+    public static final String QUEUE_TABLE_REBALANCE_ENABLED = "data.queue.table.rebalance.enabled";
+    public static final String QUEUE_TABLE_REBALANCE_HOT_FACTOR = "data.queue.table.rebalance.hot.factor";
+    public static final String QUEUE_TABLE_REBALANCE_MAX_REGIONS = "data.queue.table.rebalance.max.regions";
+    public static final String QUEUE_TABLE_REBALANCE_MIN_INTERVAL_SECONDS =
+      "data.queue.table.rebalance.min.interval.seconds";
+    public static final String QUEUE_TABLE_REBALANCE_MIN_REQUESTS = "data.queue.table.rebalance.min.requests";
     public static final String DEQUEUE_TX_PERCENT = "data.queue.dequeue.tx.percent";
+    public static final String LOCAL_QUEUE_ENGINE = "data.queue.local.engine";
+    public static final String LOCAL_QUEUE_DIR = "data.queue.local.dir";
+    public static final String LOCAL_QUEUE_SEGMENT_SIZE_MB = "data.queue.local.segment.size.mb";
   }
 
   // This is a hardcoded value for the row key distributor bucket size before CDAP-1946
@@ -37,6 +46,10 @@ public final class QueueConstants {
 
   public static final String DEFAULT_QUEUE_TABLE_COPROCESSOR_DIR = "/queue";
 
+  // Values of the local queue engine configuration
+  public static final String LOCAL_QUEUE_ENGINE_INMEMORY = "inmemory";
+  public static final String LOCAL_QUEUE_ENGINE_SEGMENTED = "segmented";
+
   public static final long MAX_CREATE_TABLE_WAIT = 5000L;    // Maximum wait of 5 seconds for table creation.
 
   // How frequently (in seconds) to update the ConsumerConfigCache data for the HBaseQueueRegionObserver
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue;
+
+/**
+ * Receives backlog and latency measurements of a queue consumer. All values are estimates derived from the
+ * transaction write pointers encoded in the queue entry row keys, hence no extra scan of the queue is needed.
+ */
+public interface QueueConsumerMetrics {
+
+  /**
+   * Emits the age in milliseconds of the oldest entry that is available to the consumer but not yet consumed.
+   * It is {@code 0} if the consumer has caught up with the queue.
+   */
+  void emitBacklogAge(long ageMillis);
+
+  /**
+   * Emits the time in milliseconds between enqueue and the committed dequeue of entries.
+   *
+   * @param latencies array containing the latencies
+   * @param count number of latencies in the array
+   */
+  void emitDequeueLatencies(long[] latencies, int count);
+
+  /**
+   * Emits the number of entries the consumer failed to claim because another consumer of the same group
+   * claimed them first.
+   */
+  void emitClaimConflicts(int count);
+
+  QueueConsumerMetrics NOOP = new QueueConsumerMetrics() {
+    @Override
+    public void emitBacklogAge(long ageMillis) {
+      // no-op
+    }
+
+    @Override
+    public void emitDequeueLatencies(long[] latencies, int count) {
+      // no-op
+    }
+
+    @Override
+    public void emitClaimConflicts(int count) {
+      // no-op
+    }
+  };
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.data2.transaction.queue;
+
+import co.cask.tephra.TxConstants;
+
+import java.util.Arrays;
+
+/**
+ * Derives the backlog age and the dequeue latencies of a queue consumer from the transaction write pointers of
+ * the queue entries, and reports them to a {@link QueueConsumerMetrics}. This is shared by all queue consumer
+ * implementations, which only differ in how they find the entries.
+ *
+ * Instances of this class are not thread safe, which is fine since a queue consumer is used by a single thread.
+ */
+public final class QueueConsumerMetricsRecorder {
+
+  private final QueueConsumerMetrics consumerMetrics;
+  // Enqueue to dequeue latencies of the entries committed by the current transaction
+  private long[] latencies;
+  private int latencyCount;
+
+  public QueueConsumerMetricsRecorder(QueueConsumerMetrics consumerMetrics) {
+    this.consumerMetrics = consumerMetrics;
+    this.latencies = new long[16];
+  }
+
+  /**
+   * Emits the backlog age.
+   *
+   * @param oldestWritePointer write pointer of the oldest entry that is not yet processed by the consumer group,
+   *                           or {@code -1} if there is no such entry
+   */
+  public void emitBacklogAge(long oldestWritePointer) {
+    consumerMetrics.emitBacklogAge(oldestWritePointer < 0 ? 0L
+                                     : getEntryAge(oldestWritePointer, System.currentTimeMillis()));
+  }
+
+  /**
+   * Records the latency of an entry committed by the current transaction.
+   *
+   * @param writePointer the write pointer of the transaction that enqueued the entry
+   * @param now the current time in milliseconds
+   */
+  public void recordLatency(long writePointer, long now) {
+    if (latencyCount == latencies.length) {
+      latencies = Arrays.copyOf(latencies, latencies.length * 2);
+    }
+    latencies[latencyCount++] = getEntryAge(writePointer, now);
+  }
+
+  /**
+   * Discards the latencies recorded so far, for example because the transaction is rolled back.
+   */
+  public void clearLatencies() {
+    latencyCount = 0;
+  }
+
+  /**
+   * Emits the latencies recorded so far and clears them. This should be called after the transaction is committed.
+   */
+  public void emitLatencies() {
+    if (latencyCount > 0) {
+      consumerMetrics.emitDequeueLatencies(latencies, latencyCount);
+      latencyCount = 0;
+    }
+  }
+
+  /**
+   * Emits the number of entries the consumer failed to claim because another consumer claimed them first.
+   */
+  public void emitClaimConflicts(int count) {
+    consumerMetrics.emitClaimConflicts(count);
+  }
+
+  /**
+   * Returns the age of the entry enqueued by the transaction of the given write pointer.
+   */
+  private static long getEntryAge(long writePointer, long now) {
+    return Math.max(0L, now - writePointer / TxConstants.MAX_TX_PER_MS);
+  }
+}
@@ -43,11 +43,13 @@ import co.cask.cdap.proto.id.NamespaceId;
 import co.cask.tephra.TransactionAware;
 import co.cask.tephra.TransactionExecutor;
 import co.cask.tephra.TransactionExecutorFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.apache.hadoop.conf.Configuration;
@@ -68,6 +70,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * admin for queues in hbase.
@@ -90,6 +95,9 @@ public class HBaseQueueAdmin extends AbstractQueueAdmin implements ProgramContex
   private final TransactionExecutorFactory txExecutorFactory;
   private final DatasetFramework datasetFramework;
 
+  // Request counts of the queue table regions as seen by the last sample taken by splitHotRegions
+  private final Map<TableId, RequestCountSample> lastRequestCounts;
+
   private HBaseAdmin admin;
 
   @Inject
@@ -118,6 +126,7 @@ public class HBaseQueueAdmin extends AbstractQueueAdmin implements ProgramContex
     this.txExecutorFactory = txExecutorFactory;
     this.datasetFramework = datasetFramework;
     this.type = type;
+    this.lastRequestCounts = Maps.newHashMap();
   }
 
   @Override
@@ -204,10 +213,112 @@ public class HBaseQueueAdmin extends AbstractQueueAdmin implements ProgramContex
   public QueueConfigurer getQueueConfigurer(QueueName queueName) throws Exception {
     if (!exists(queueName)) {
       create(queueName);
+    } else if (cConf.getBoolean(QueueConstants.ConfigKeys.QUEUE_TABLE_REBALANCE_ENABLED)) {
+      // Queues are configured when the flow starts or when the flowlet instances change,
+      // which is a good time to spread out hot spots before consumers start on the new configuration.
+      Id.Flow flowId = Id.Flow.from(queueName.getFirstComponent(),
+                                    queueName.getSecondComponent(), queueName.getThirdComponent());
+      try {
+        splitHotRegions(flowId);
+      } catch (IOException e) {
+        // Not splitting only affects performance, hence don't fail the queue configuration
+        LOG.warn("Failed to split hot regions of queue table for flow {}", flowId, e);
+      }
     }
     return getConsumerStateStore(queueName);
   }
 
+  /**
+   * Splits the regions of the queue table of the given flow that received a lot more requests than the other
+   * regions since the last sample. A hot region is caused by a skewed distribution of entries across
+   * queue shards, for example with hash partitioning on a skewed key. Region split happens online, hence this can
+   * be called while the flow is running.
+   * <p/>
+   * The request counts are sampled at most once per {@code data.queue.table.rebalance.min.interval.seconds}, hence
+   * the calls made for the other queues of the same flow right after do nothing. No region is split unless the table
+   * received at least {@code data.queue.table.rebalance.min.requests} requests since the last sample.
+   *
+   * @param flowId the flow that owns the queue table
+   * @return number of regions that are requested to split
+   * @throws IOException if failed to collect the region loads or to request a split
+   * @throws InterruptedException if interrupted while requesting a split
+   */
+  public synchronized int splitHotRegions(Id.Flow flowId) throws IOException, InterruptedException {
+    TableId tableId = getDataTableId(flowId);
+    HBaseAdmin hAdmin = getHBaseAdmin();
+    if (!tableUtil.tableExists(hAdmin, tableId)) {
+      return 0;
+    }
+
+    long now = System.currentTimeMillis();
+    RequestCountSample lastSample = lastRequestCounts.get(tableId);
+    long minInterval = TimeUnit.SECONDS.toMillis(
+      cConf.getLong(QueueConstants.ConfigKeys.QUEUE_TABLE_REBALANCE_MIN_INTERVAL_SECONDS));
+    if (lastSample != null && now - lastSample.time < minInterval) {
+      return 0;
+    }
+
+    Map<byte[], Long> requestCounts = tableUtil.getRegionRequestCounts(hAdmin, tableId);
+    lastRequestCounts.put(tableId, new RequestCountSample(now, requestCounts));
+    Map<byte[], Long> hotRegions =
+      getHotRegions(requestCounts, lastSample == null ? null : lastSample.counts,
+                    cConf.getFloat(QueueConstants.ConfigKeys.QUEUE_TABLE_REBALANCE_HOT_FACTOR),
+                    cConf.getLong(QueueConstants.ConfigKeys.QUEUE_TABLE_REBALANCE_MIN_REQUESTS),
+                    cConf.getInt(QueueConstants.ConfigKeys.QUEUE_TABLE_REBALANCE_MAX_REGIONS));
+    for (Map.Entry<byte[], Long> entry : hotRegions.entrySet()) {
+      LOG.info("Splitting hot region {} of queue table {}. Requests since last check: {}",
+               Bytes.toStringBinary(entry.getKey()), tableId, entry.getValue());
+      hAdmin.split(entry.getKey());
+    }
+    return hotRegions.size();
+  }
+
+  /**
+   * Finds the regions that received more than {@code hotFactor} times the average number of requests per region
+   * since the last check. Nothing is returned if the table received less than {@code minRequests} requests since the
+   * last check, as the distribution of so few requests says little about the load of the regions. No more regions
+   * are returned than can be split without exceeding {@code maxRegions}.
+   *
+   * @param requestCounts current request counts, keyed by region name
+   * @param lastCounts request counts of the last check, keyed by region name, or {@code null} if there is none
+   * @param hotFactor how many times the average number of requests makes a region hot
+   * @param minRequests minimum number of requests the table must have received since the last check
+   * @param maxRegions maximum number of regions the table can have after splitting
+   * @return map from the name of each hot region to the number of requests it received since the last check
+   */
+  @VisibleForTesting
+  static Map<byte[], Long> getHotRegions(Map<byte[], Long> requestCounts, @Nullable Map<byte[], Long> lastCounts,
+                                         double hotFactor, long minRequests, int maxRegions) {
+    Map<byte[], Long> hotRegions = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    if (requestCounts.size() < 2 || requestCounts.size() >= maxRegions) {
+      return hotRegions;
+    }
+
+    // Number of requests each region received since the last call
+    Map<byte[], Long> requests = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    long totalRequests = 0L;
+    for (Map.Entry<byte[], Long> entry : requestCounts.entrySet()) {
+      Long lastCount = lastCounts == null ? null : lastCounts.get(entry.getKey());
+      // The count is reset if the region was reopened
+      long count = (lastCount == null || lastCount > entry.getValue()) ? entry.getValue()
+                                                                        : entry.getValue() - lastCount;
+      requests.put(entry.getKey(), count);
+      totalRequests += count;
+    }
+
+    if (totalRequests < minRequests) {
+      return hotRegions;
+    }
+
+    double threshold = hotFactor * totalRequests / requests.size();
+    for (Map.Entry<byte[], Long> entry : requests.entrySet()) {
+      if (entry.getValue() > threshold && requests.size() + hotRegions.size() < maxRegions) {
+        hotRegions.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return hotRegions;
+  }
+
   @Override
   public void dropAllForFlow(Id.Flow flowId) throws Exception {
     // all queues for a flow are in one table
@@ -447,6 +558,19 @@ public class HBaseQueueAdmin extends AbstractQueueAdmin implements ProgramContex
   }
 
   // only used for create & upgrade of data table
+  /**
+   * Request counts of the regions of a queue table, keyed by region name, and the time they were sampled.
+   */
+  private static final class RequestCountSample {
+    private final long time;
+    private final Map<byte[], Long> counts;
+
+    private RequestCountSample(long time, Map<byte[], Long> counts) {
+      this.time = time;
+      this.counts = counts;
+    }
+  }
+
   private final class DatasetAdmin extends AbstractHBaseDataSetAdmin {
     private final Properties properties;
 
@@ -15,6 +15,7 @@
  */
 package co.cask.cdap.data2.transaction.queue.hbase;
 
+import co.cask.cdap.api.metrics.MetricsCollectionService;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.queue.QueueName;
 import co.cask.cdap.data2.metadata.writer.ProgramContextAware;
@@ -29,6 +30,7 @@ import co.cask.cdap.data2.transaction.Transactions;
 import co.cask.cdap.data2.transaction.queue.QueueAdmin;
 import co.cask.cdap.data2.transaction.queue.QueueConstants;
 import co.cask.cdap.data2.transaction.queue.QueueConstants.QueueType;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.queue.QueueMetrics;
 import co.cask.cdap.data2.util.TableId;
 import co.cask.cdap.data2.util.hbase.HBaseTableUtil;
@@ -73,6 +75,7 @@ public class HBaseQueueClientFactory implements QueueClientFactory, ProgramConte
   private final HBaseQueueUtil queueUtil;
   private final HBaseTableUtil hBaseTableUtil;
   private final TransactionExecutorFactory txExecutorFactory;
+  private MetricsCollectionService metricsCollectionService;
 
   @Inject
   public HBaseQueueClientFactory(CConfiguration cConf, Configuration hConf, HBaseTableUtil hBaseTableUtil,
@@ -85,6 +88,13 @@ public class HBaseQueueClientFactory implements QueueClientFactory, ProgramConte
     this.txExecutorFactory = txExecutorFactory;
   }
 
+  @SuppressWarnings("unused")
+  @Inject(optional = true)
+  public void setMetricsCollectionService(MetricsCollectionService metricsCollectionService) {
+    // Optional injection since per shard queue metrics are only emitted if metrics collection is available
+    this.metricsCollectionService = metricsCollectionService;
+  }
+
   @Override
   public void initContext(Id.Run run) {
     queueAdmin.initContext(run);
@@ -126,8 +136,14 @@ public class HBaseQueueClientFactory implements QueueClientFactory, ProgramConte
   }
 
   @Override
-  public QueueConsumer createConsumer(final QueueName queueName,
-                                      final ConsumerConfig consumerConfig, int numGroups) throws IOException {
+  public QueueConsumer createConsumer(QueueName queueName,
+                                      ConsumerConfig consumerConfig, int numGroups) throws IOException {
+    return createConsumer(queueName, consumerConfig, numGroups, QueueConsumerMetrics.NOOP);
+  }
+
+  @Override
+  public QueueConsumer createConsumer(final QueueName queueName, final ConsumerConfig consumerConfig, int numGroups,
+                                      final QueueConsumerMetrics consumerMetrics) throws IOException {
     final HBaseQueueAdmin admin = ensureTableExists(queueName);
     try {
       final long groupId = consumerConfig.getGroupId();
@@ -189,9 +205,13 @@ public class HBaseQueueClientFactory implements QueueClientFactory, ProgramConte
             HBaseQueueStrategy strategy = (state.getPreviousBarrier() == null)
                                           ? new SaltedHBaseQueueStrategy(hBaseTableUtil, distributorBuckets)
                                           : new ShardedHBaseQueueStrategy(hBaseTableUtil, distributorBuckets);
-            consumers.add(queueUtil.getQueueConsumer(cConf, hTable, queueName, state,
-                                                     admin.getConsumerStateStore(queueName),
-                                                     strategy));
+            HBaseQueueConsumer consumer = queueUtil.getQueueConsumer(cConf, hTable, queueName, state,
+                                                                     admin.getConsumerStateStore(queueName),
+                                                                     strategy);
+            consumer.setShardMetrics(QueueShardMetrics.create(metricsCollectionService, queueName,
+                                                              QueueShardMetrics.DEQUEUE_METRIC));
+            consumer.setConsumerMetrics(consumerMetrics);
+            consumers.add(consumer);
           }
           return consumers;
         }
@@ -219,7 +239,9 @@ public class HBaseQueueClientFactory implements QueueClientFactory, ProgramConte
   private HBaseQueueProducer createProducer(HTable hTable, QueueName queueName, QueueMetrics queueMetrics,
                                             HBaseQueueStrategy queueStrategy,
                                             Iterable<? extends ConsumerGroupConfig> groupConfigs) throws IOException {
-    return new HBaseQueueProducer(hTable, queueName, queueMetrics, queueStrategy, groupConfigs);
+    QueueShardMetrics shardMetrics = QueueShardMetrics.create(metricsCollectionService, queueName,
+                                                              QueueShardMetrics.ENQUEUE_METRIC);
+    return new HBaseQueueProducer(hTable, queueName, queueMetrics, shardMetrics, queueStrategy, groupConfigs);
   }
 
   /**
@@ -21,6 +21,7 @@ import co.cask.cdap.common.queue.QueueName;
 import co.cask.cdap.data2.queue.ConsumerConfig;
 import co.cask.cdap.data2.queue.DequeueResult;
 import co.cask.cdap.data2.transaction.queue.AbstractQueueConsumer;
+import co.cask.cdap.data2.transaction.queue.ConsumerEntryState;
 import co.cask.cdap.data2.transaction.queue.QueueEntryRow;
 import co.cask.cdap.data2.transaction.queue.QueueScanner;
 import co.cask.tephra.Transaction;
@@ -47,6 +48,7 @@ abstract class HBaseQueueConsumer extends AbstractQueueConsumer {
   private final HBaseConsumerState state;
   private final HBaseConsumerStateStore stateStore;
   private final HBaseQueueStrategy queueStrategy;
+  private QueueShardMetrics shardMetrics;
   private boolean closed;
   private boolean canConsume;
   private boolean completed;
@@ -68,9 +70,17 @@ abstract class HBaseQueueConsumer extends AbstractQueueConsumer {
     this.state = consumerState;
     this.stateStore = stateStore;
     this.queueStrategy = queueStrategy;
+    this.shardMetrics = QueueShardMetrics.NOOP;
     this.canConsume = false;
   }
 
+  /**
+   * Sets the {@link QueueShardMetrics} for emitting the number of entries consumed from each queue shard.
+   */
+  void setShardMetrics(QueueShardMetrics shardMetrics) {
+    this.shardMetrics = shardMetrics;
+  }
+
   @Override
   public DequeueResult<byte[]> dequeue(int maxBatchSize) throws IOException {
     DequeueResult<byte[]> result = super.dequeue(maxBatchSize);
@@ -98,11 +108,16 @@ abstract class HBaseQueueConsumer extends AbstractQueueConsumer {
     if (rowKeys.isEmpty()) {
       return;
     }
+    // Only count entries that are marked as processed by commitTx, but not the ones reverted to claimed on rollback
+    boolean processed = QueueEntryRow.getState(stateContent) == ConsumerEntryState.PROCESSED;
     List<Put> puts = Lists.newArrayListWithCapacity(rowKeys.size());
     for (byte[] rowKey : rowKeys) {
       Put put = new Put(queueStrategy.getActualRowKey(getConfig(), rowKey));
       put.add(QueueEntryRow.COLUMN_FAMILY, stateColumnName, stateContent);
       puts.add(put);
+      if (processed) {
+        shardMetrics.count(put.getRow());
+      }
     }
     hTable.put(puts);
     hTable.flushCommits();
@@ -156,11 +171,13 @@ abstract class HBaseQueueConsumer extends AbstractQueueConsumer {
   public void startTx(Transaction tx) {
     super.startTx(tx);
     stateStore.startTx(tx);
+    shardMetrics.reset();
     completed = false;
   }
 
   @Override
   public boolean rollbackTx() throws Exception {
+    shardMetrics.reset();
     boolean result = super.rollbackTx();
     return stateStore.rollbackTx() && result;
   }
@@ -172,7 +189,9 @@ abstract class HBaseQueueConsumer extends AbstractQueueConsumer {
 
   @Override
   public void postTxCommit() {
+    super.postTxCommit();
     stateStore.postTxCommit();
+    shardMetrics.emit();
     if (completed) {
       Closeables.closeQuietly(this);
     }
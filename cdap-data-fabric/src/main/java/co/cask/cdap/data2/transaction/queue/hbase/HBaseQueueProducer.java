@@ -47,10 +47,17 @@ public class HBaseQueueProducer extends AbstractQueueProducer implements Closeab
   private final byte[] queueRowPrefix;
   private final HTable hTable;
   private final List<byte[]> rollbackKeys;
+  private final QueueShardMetrics shardMetrics;
 
   public HBaseQueueProducer(HTable hTable, QueueName queueName,
                             QueueMetrics queueMetrics, HBaseQueueStrategy queueStrategy,
                             Iterable<? extends ConsumerGroupConfig> consumerGroupConfigs) {
+    this(hTable, queueName, queueMetrics, QueueShardMetrics.NOOP, queueStrategy, consumerGroupConfigs);
+  }
+
+  HBaseQueueProducer(HTable hTable, QueueName queueName,
+                     QueueMetrics queueMetrics, QueueShardMetrics shardMetrics, HBaseQueueStrategy queueStrategy,
+                     Iterable<? extends ConsumerGroupConfig> consumerGroupConfigs) {
     super(queueMetrics, queueName);
     this.queueStrategy = queueStrategy;
     // Make sure only one config per consumer group
@@ -67,12 +74,20 @@ public class HBaseQueueProducer extends AbstractQueueProducer implements Closeab
     this.queueRowPrefix = QueueEntryRow.getQueueRowPrefix(queueName);
     this.rollbackKeys = Lists.newArrayList();
     this.hTable = hTable;
+    this.shardMetrics = shardMetrics;
   }
 
   @Override
   public void startTx(Transaction tx) {
     super.startTx(tx);
     rollbackKeys.clear();
+    shardMetrics.reset();
+  }
+
+  @Override
+  public void postTxCommit() {
+    super.postTxCommit();
+    shardMetrics.emit();
   }
 
   @Override
@@ -103,6 +118,7 @@ public class HBaseQueueProducer extends AbstractQueueProducer implements Closeab
         put.add(QueueEntryRow.COLUMN_FAMILY, QueueEntryRow.META_COLUMN, metaData);
 
         puts.add(put);
+        shardMetrics.count(rowKey);
 
         bytes += entry.getData().length;
       }
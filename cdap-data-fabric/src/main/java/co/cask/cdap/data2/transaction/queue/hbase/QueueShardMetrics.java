@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.hbase;
+
+import co.cask.cdap.api.metrics.MetricsCollectionService;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.queue.QueueName;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Counts the queue entries written to or consumed from each shard of a HBase queue table and emits the counts
+ * to the metrics system after the transaction is committed. A shard is a distributor bucket, identified by the
+ * salt byte prefixed to the row key, which is the same for both {@link SaltedHBaseQueueStrategy} and
+ * {@link ShardedHBaseQueueStrategy}. It is also what decides which region of the table an entry goes to,
+ * hence a skewed distribution across shards shows up as a hot region.
+ *
+ * Instances of this class are not thread safe, which is fine since producers and consumers are used
+ * by a single thread.
+ */
+final class QueueShardMetrics {
+
+  static final String ENQUEUE_METRIC = "queue.shard.enqueue";
+  static final String DEQUEUE_METRIC = "queue.shard.dequeue";
+
+  static final QueueShardMetrics NOOP = new QueueShardMetrics(null, null);
+
+  // The OneByteSimpleHash used by the row key distributor supports at most 256 buckets
+  private static final int MAX_SHARDS = 256;
+
+  private final MetricsContext queueContext;
+  private final String metricName;
+  private final MetricsContext[] shardContexts;
+  private final int[] counts;
+  private boolean hasCounts;
+
+  /**
+   * Creates an instance for emitting metrics of the given queue. If the {@link MetricsCollectionService}
+   * is not available, a no-op instance is returned.
+   */
+  static QueueShardMetrics create(@Nullable MetricsCollectionService metricsService,
+                                  QueueName queueName, String metricName) {
+    if (metricsService == null) {
+      return NOOP;
+    }
+    MetricsContext context = metricsService.getContext(ImmutableMap.of(
+      Constants.Metrics.Tag.NAMESPACE, queueName.getFirstComponent(),
+      Constants.Metrics.Tag.APP, queueName.getSecondComponent(),
+      Constants.Metrics.Tag.FLOW, queueName.getThirdComponent(),
+      Constants.Metrics.Tag.PRODUCER, queueName.getFourthComponent(),
+      Constants.Metrics.Tag.FLOWLET_QUEUE, queueName.getSimpleName()));
+    return new QueueShardMetrics(context, metricName);
+  }
+
+  private QueueShardMetrics(@Nullable MetricsContext queueContext, @Nullable String metricName) {
+    this.queueContext = queueContext;
+    this.metricName = metricName;
+    this.shardContexts = queueContext == null ? null : new MetricsContext[MAX_SHARDS];
+    this.counts = queueContext == null ? null : new int[MAX_SHARDS];
+  }
+
+  /**
+   * Counts one entry for the shard of the given row key.
+   *
+   * @param actualRowKey the row key as stored in the HBase table, i.e. with the salt prefix
+   */
+  void count(byte[] actualRowKey) {
+    if (counts == null || actualRowKey.length == 0) {
+      return;
+    }
+    counts[actualRowKey[0] & 0xff]++;
+    hasCounts = true;
+  }
+
+  /**
+   * Discards all counts collected so far.
+   */
+  void reset() {
+    if (hasCounts) {
+      Arrays.fill(counts, 0);
+      hasCounts = false;
+    }
+  }
+
+  /**
+   * Emits all counts collected so far and resets them.
+   */
+  void emit() {
+    if (!hasCounts) {
+      return;
+    }
+    for (int shard = 0; shard < counts.length; shard++) {
+      if (counts[shard] > 0) {
+        getShardContext(shard).increment(metricName, counts[shard]);
+      }
+    }
+    reset();
+  }
+
+  private MetricsContext getShardContext(int shard) {
+    MetricsContext context = shardContexts[shard];
+    if (context == null) {
+      context = queueContext.childContext(Constants.Metrics.Tag.QUEUE_SHARD, Integer.toString(shard));
+      shardContexts[shard] = context;
+    }
+    return context;
+  }
+}
@@ -29,7 +29,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -43,9 +45,13 @@ public class InMemoryQueue {
   private static final Logger LOG = LoggerFactory.getLogger(InMemoryQueue.class);
 
   private final ConcurrentNavigableMap<Key, Item> entries = new ConcurrentSkipListMap<>();
+  // For each consumer group, the key up to which all entries are processed by the group. Modified while holding
+  // the lock of the map.
+  private final ConcurrentMap<Long, Key> processedUntil = new ConcurrentHashMap<>();
 
   public void clear() {
     entries.clear();
+    processedUntil.clear();
   }
 
   public int getSize() {
@@ -53,7 +59,14 @@ public class InMemoryQueue {
   }
 
   public void enqueue(long txId, int seqId, QueueEntry entry) {
-    entries.put(new Key(txId, seqId), new Item(entry));
+    Key key = new Key(txId, seqId);
+    entries.put(key, new Item(entry));
+    // a transaction that started earlier than the processed entries may enqueue after they were processed
+    for (Map.Entry<Long, Key> watermark : processedUntil.entrySet()) {
+      if (watermark.getValue().compareTo(key) >= 0) {
+        lowerWatermark(watermark.getKey(), key);
+      }
+    }
   }
 
   public void undoEnqueue(long txId, int seqId) {
@@ -132,6 +145,29 @@ public class InMemoryQueue {
     return keys.isEmpty() ? null : ImmutablePair.of(keys, datas);
   }
 
+  /**
+   * Returns the transaction id of the oldest entry that is visible to the given transaction and not yet processed
+   * by the given consumer group, or {@code -1} if there is none. Entries claimed by any consumer of the group count
+   * as not processed. The search starts after the entries known to be processed by the group, so it only skips
+   * the entries that are processed out of order or not visible to the transaction.
+   */
+  public long getOldestUnprocessed(Transaction tx, long groupId) {
+    Key watermark = processedUntil.get(groupId);
+    Map<Key, Item> unprocessed = watermark == null ? entries : entries.tailMap(watermark, false);
+    for (Map.Entry<Key, Item> entry : unprocessed.entrySet()) {
+      Key key = entry.getKey();
+      if (tx.getReadPointer() < key.txId) {
+        // all subsequent entries are newer than the transaction
+        break;
+      }
+      if (!tx.isInProgress(key.txId)
+        && !ConsumerEntryState.PROCESSED.equals(entry.getValue().getConsumerState(groupId))) {
+        return key.txId;
+      }
+    }
+    return -1L;
+  }
+
   public void ack(List<Key> dequeuedKeys, ConsumerConfig config) {
     if (dequeuedKeys == null) {
       return;
@@ -144,6 +180,7 @@ public class InMemoryQueue {
       }
       item.setConsumerState(config, ConsumerEntryState.PROCESSED);
     }
+    advanceWatermark(config.getGroupId());
   }
 
   public void undoDequeue(List<Key> dequeuedKeys, ConsumerConfig config) {
@@ -157,6 +194,46 @@ public class InMemoryQueue {
         continue;
       }
       item.revokeConsumerState(config, config.getDequeueStrategy() == DequeueStrategy.FIFO);
+      lowerWatermark(config.getGroupId(), key);
+    }
+  }
+
+  /**
+   * Moves the watermark of a consumer group past the entries processed by the group. Each entry is passed once,
+   * unless the watermark gets lowered again.
+   */
+  private void advanceWatermark(long groupId) {
+    synchronized (processedUntil) {
+      Key watermark = processedUntil.get(groupId);
+      Map<Key, Item> unprocessed = watermark == null ? entries : entries.tailMap(watermark, false);
+      Key last = watermark;
+      for (Map.Entry<Key, Item> entry : unprocessed.entrySet()) {
+        if (!ConsumerEntryState.PROCESSED.equals(entry.getValue().getConsumerState(groupId))) {
+          break;
+        }
+        last = entry.getKey();
+      }
+      if (last != null) {
+        processedUntil.put(groupId, last);
+      }
+    }
+  }
+
+  /**
+   * Moves the watermark of a consumer group below the given key, if it is not already.
+   */
+  private void lowerWatermark(long groupId, Key key) {
+    synchronized (processedUntil) {
+      Key watermark = processedUntil.get(groupId);
+      if (watermark == null || watermark.compareTo(key) < 0) {
+        return;
+      }
+      Key lower = entries.lowerKey(key);
+      if (lower == null) {
+        processedUntil.remove(groupId);
+      } else {
+        processedUntil.put(groupId, lower);
+      }
     }
   }
 
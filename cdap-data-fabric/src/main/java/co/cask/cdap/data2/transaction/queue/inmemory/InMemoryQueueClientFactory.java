@@ -21,6 +21,7 @@ import co.cask.cdap.data2.queue.ConsumerConfig;
 import co.cask.cdap.data2.queue.QueueClientFactory;
 import co.cask.cdap.data2.queue.QueueConsumer;
 import co.cask.cdap.data2.queue.QueueProducer;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.queue.QueueMetrics;
 import com.google.inject.Inject;
 
@@ -46,7 +47,15 @@ public class InMemoryQueueClientFactory implements QueueClientFactory {
   @Override
   public QueueConsumer createConsumer(QueueName queueName,
                                        ConsumerConfig consumerConfig, int numGroups) throws IOException {
-    return new InMemoryQueueConsumer(queueName, consumerConfig, numGroups, queueService);
+    return createConsumer(queueName, consumerConfig, numGroups, QueueConsumerMetrics.NOOP);
+  }
+
+  @Override
+  public QueueConsumer createConsumer(QueueName queueName, ConsumerConfig consumerConfig, int numGroups,
+                                      QueueConsumerMetrics consumerMetrics) throws IOException {
+    InMemoryQueueConsumer consumer = new InMemoryQueueConsumer(queueName, consumerConfig, numGroups, queueService);
+    consumer.setConsumerMetrics(consumerMetrics);
+    return consumer;
   }
 
   @Override
@@ -22,6 +22,8 @@ import co.cask.cdap.data2.queue.ConsumerConfig;
 import co.cask.cdap.data2.queue.DequeueResult;
 import co.cask.cdap.data2.queue.DequeueStrategy;
 import co.cask.cdap.data2.queue.QueueConsumer;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetricsRecorder;
 import co.cask.tephra.Transaction;
 import co.cask.tephra.TransactionAware;
 import com.google.common.collect.ImmutableList;
@@ -46,6 +48,7 @@ public class InMemoryQueueConsumer implements QueueConsumer, TransactionAware {
   private List<InMemoryQueue.Key> dequeuedKeys;
   private final InMemoryQueue.ConsumerState state = new InMemoryQueue.ConsumerState();
   private final InMemoryQueueService queueService;
+  private QueueConsumerMetricsRecorder metricsRecorder = new QueueConsumerMetricsRecorder(QueueConsumerMetrics.NOOP);
 
   public InMemoryQueueConsumer(QueueName queueName, ConsumerConfig config,
                                int numGroups, InMemoryQueueService queueService) {
@@ -55,6 +58,13 @@ public class InMemoryQueueConsumer implements QueueConsumer, TransactionAware {
     this.numGroups = numGroups;
   }
 
+  /**
+   * Sets the {@link QueueConsumerMetrics} for emitting backlog and latency metrics of this consumer.
+   */
+  public void setConsumerMetrics(QueueConsumerMetrics consumerMetrics) {
+    this.metricsRecorder = new QueueConsumerMetricsRecorder(consumerMetrics);
+  }
+
   private InMemoryQueue getQueue() {
     return queueService.getQueue(queueName);
   }
@@ -83,6 +93,7 @@ public class InMemoryQueueConsumer implements QueueConsumer, TransactionAware {
   public DequeueResult dequeue(int maxBatchSize) throws IOException {
     ImmutablePair<List<InMemoryQueue.Key>, List<byte[]>> result =
       getQueue().dequeue(currentTx, config, state, maxBatchSize);
+    metricsRecorder.emitBacklogAge(getQueue().getOldestUnprocessed(currentTx, config.getGroupId()));
     if (result == null) {
       return EMPTY_RESULT;
     } else {
@@ -96,6 +107,7 @@ public class InMemoryQueueConsumer implements QueueConsumer, TransactionAware {
     currentTx = tx;
     dequeuedKeys = null;
     committed = false;
+    metricsRecorder.clearLatencies();
   }
 
   @Override
@@ -112,12 +124,19 @@ public class InMemoryQueueConsumer implements QueueConsumer, TransactionAware {
   public boolean commitTx() throws Exception {
     getQueue().ack(dequeuedKeys, config);
     committed = true;
+    if (dequeuedKeys != null) {
+      long now = System.currentTimeMillis();
+      for (InMemoryQueue.Key key : dequeuedKeys) {
+        metricsRecorder.recordLatency(key.txId, now);
+      }
+    }
     return true;
   }
 
   @Override
   public void postTxCommit() {
     getQueue().evict(dequeuedKeys, numGroups);
+    metricsRecorder.emitLatencies();
   }
 
   @Override
@@ -128,6 +147,7 @@ public class InMemoryQueueConsumer implements QueueConsumer, TransactionAware {
       }
     }
     dequeuedKeys = null;
+    metricsRecorder.clearLatencies();
     return true;
   }
 
@@ -20,6 +20,7 @@ import co.cask.cdap.data2.queue.ConsumerConfig;
 import co.cask.cdap.data2.queue.QueueClientFactory;
 import co.cask.cdap.data2.queue.QueueConsumer;
 import co.cask.cdap.data2.queue.QueueProducer;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.queue.QueueMetrics;
 import co.cask.cdap.data2.transaction.queue.inmemory.InMemoryQueueClientFactory;
 import com.google.inject.Inject;
@@ -53,6 +54,12 @@ public final class LevelDBAndInMemoryQueueClientFactory implements QueueClientFa
     return delegate(queueName).createConsumer(queueName, consumerConfig, numGroups);
   }
 
+  @Override
+  public QueueConsumer createConsumer(QueueName queueName, ConsumerConfig consumerConfig, int numGroups,
+                                      QueueConsumerMetrics consumerMetrics) throws IOException {
+    return delegate(queueName).createConsumer(queueName, consumerConfig, numGroups, consumerMetrics);
+  }
+
   @Override
   public QueueProducer createProducer(QueueName queueName, QueueMetrics queueMetrics) throws IOException {
     return delegate(queueName).createProducer(queueName, queueMetrics);
@@ -23,6 +23,7 @@ import co.cask.cdap.data2.queue.ConsumerConfig;
 import co.cask.cdap.data2.queue.QueueClientFactory;
 import co.cask.cdap.data2.queue.QueueConsumer;
 import co.cask.cdap.data2.queue.QueueProducer;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
 import co.cask.cdap.data2.transaction.queue.QueueEvictor;
 import co.cask.cdap.data2.transaction.queue.QueueMetrics;
 import com.google.common.annotations.VisibleForTesting;
@@ -75,13 +76,21 @@ public final class LevelDBQueueClientFactory implements QueueClientFactory {
   @Override
   public QueueConsumer createConsumer(QueueName queueName,
                                       ConsumerConfig consumerConfig, int numGroups) throws IOException {
+    return createConsumer(queueName, consumerConfig, numGroups, QueueConsumerMetrics.NOOP);
+  }
+
+  @Override
+  public QueueConsumer createConsumer(QueueName queueName, ConsumerConfig consumerConfig, int numGroups,
+                                      QueueConsumerMetrics consumerMetrics) throws IOException {
     LevelDBQueueAdmin admin = ensureTableExists(queueName);
     LevelDBTableCore core = new LevelDBTableCore(admin.getActualTableName(queueName), service);
     // only the first consumer of each group runs eviction; and only if the number of consumers is known (> 0).
     QueueEvictor evictor = (numGroups <= 0 || consumerConfig.getInstanceId() != 0)
                             ? QueueEvictor.NOOP : createEvictor(queueName, numGroups, core);
-    return new LevelDBQueueConsumer(cConf, core, getQueueLock(queueName.toString()),
-                                    consumerConfig, queueName, evictor);
+    LevelDBQueueConsumer consumer = new LevelDBQueueConsumer(cConf, core, getQueueLock(queueName.toString()),
+                                                             consumerConfig, queueName, evictor);
+    consumer.setConsumerMetrics(consumerMetrics);
+    return consumer;
   }
 
   @VisibleForTesting
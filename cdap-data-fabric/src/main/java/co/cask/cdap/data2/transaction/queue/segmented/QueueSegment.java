@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import com.google.common.primitives.Ints;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A memory-mapped, append-only file that holds a contiguous range of queue entries. Each record is written as
+ * {@code [type][rowKeyLength][rowKey][metaLength][meta][dataLength][data]} for entries, or
+ * {@code [type][rowKeyLength][rowKey]} for tombstones that undo an entry written by a rolled back transaction.
+ * The unused tail of the file is zero-filled, hence a zero type marks the end of the records.
+ */
+final class QueueSegment implements Closeable {
+
+  static final String FILE_PREFIX = "segment.";
+  static final String FILE_SUFFIX = ".dat";
+
+  private static final byte END = 0;
+  private static final byte ENTRY = 1;
+  private static final byte TOMBSTONE = 2;
+
+  private final long id;
+  private final File file;
+  private final MappedByteBuffer buffer;
+  // Number of entries in this segment that are still referenced by the queue index
+  private final AtomicInteger liveEntries;
+
+  /**
+   * Callback for replaying records of an existing segment.
+   */
+  interface RecordHandler {
+
+    void onEntry(QueueSegment segment, byte[] rowKey, int position);
+
+    void onTombstone(QueueSegment segment, byte[] rowKey);
+  }
+
+  /**
+   * Returns the size in bytes needed to store an entry with the given row key, meta and data in a segment.
+   */
+  static int getEntrySize(byte[] rowKey, byte[] meta, byte[] data) {
+    return 1 + Ints.BYTES * 3 + rowKey.length + meta.length + data.length;
+  }
+
+  /**
+   * Creates a new segment file of the given capacity.
+   */
+  static QueueSegment create(File dir, long id, int capacity) throws IOException {
+    File file = new File(dir, FILE_PREFIX + id + FILE_SUFFIX);
+    if (file.exists()) {
+      throw new IOException("Queue segment file already exists: " + file);
+    }
+    return new QueueSegment(id, file, capacity);
+  }
+
+  /**
+   * Opens an existing segment file and replays all of its records to the given handler.
+   */
+  static QueueSegment open(File file, long id, RecordHandler handler) throws IOException {
+    QueueSegment segment = new QueueSegment(id, file, (int) file.length());
+    segment.replay(handler);
+    return segment;
+  }
+
+  /**
+   * Parses the segment id from a segment file name, or returns {@code -1} if the file is not a segment file.
+   */
+  static long getSegmentId(String fileName) {
+    if (!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(FILE_SUFFIX)) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  private QueueSegment(long id, File file, int capacity) throws IOException {
+    this.id = id;
+    this.file = file;
+    this.liveEntries = new AtomicInteger();
+    try (
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      FileChannel channel = raf.getChannel()
+    ) {
+      // The mapping stays valid after the channel is closed
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+  }
+
+  long getId() {
+    return id;
+  }
+
+  /**
+   * Appends an entry to this segment.
+   *
+   * @return the position of the entry in this segment or {@code -1} if there is not enough space left.
+   */
+  synchronized int append(byte[] rowKey, byte[] meta, byte[] data) {
+    // Always leaves one byte for the END marker
+    if (buffer.remaining() <= getEntrySize(rowKey, meta, data)) {
+      return -1;
+    }
+    int position = buffer.position();
+    // Write the type last so that a partially written record is never replayed
+    buffer.position(position + 1);
+    buffer.putInt(rowKey.length).put(rowKey);
+    buffer.putInt(meta.length).put(meta);
+    buffer.putInt(data.length).put(data);
+    buffer.put(position, ENTRY);
+    liveEntries.incrementAndGet();
+    return position;
+  }
+
+  /**
+   * Appends a tombstone to this segment.
+   *
+   * @return {@code true} if the tombstone is written, {@code false} if there is not enough space left.
+   */
+  synchronized boolean appendTombstone(byte[] rowKey) {
+    if (buffer.remaining() <= 1 + Ints.BYTES + rowKey.length) {
+      return false;
+    }
+    int position = buffer.position();
+    buffer.position(position + 1);
+    buffer.putInt(rowKey.length).put(rowKey);
+    buffer.put(position, TOMBSTONE);
+    return true;
+  }
+
+  /**
+   * Reads the meta and data of the entry at the given position.
+   *
+   * @return a two elements array of meta and data
+   */
+  byte[][] read(int position) {
+    // Use a duplicate so that reads don't interfere with the append position
+    ByteBuffer readBuffer = buffer.duplicate();
+    readBuffer.position(position + 1);
+    skip(readBuffer);
+    return new byte[][] { readBytes(readBuffer), readBytes(readBuffer) };
+  }
+
+  /**
+   * Marks one entry of this segment as removed from the queue index.
+   *
+   * @return {@code true} if there is no more live entry in this segment.
+   */
+  boolean release() {
+    return liveEntries.decrementAndGet() <= 0;
+  }
+
+  boolean hasLiveEntries() {
+    return liveEntries.get() > 0;
+  }
+
+  /**
+   * Flushes all changes of this segment to the file system.
+   */
+  void flush() {
+    buffer.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Nothing to release explicitly. The mapped buffer is unmapped when it is garbage collected.
+  }
+
+  /**
+   * Deletes the segment file.
+   */
+  void delete() throws IOException {
+    close();
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Failed to delete queue segment file " + file);
+    }
+  }
+
+  private void replay(RecordHandler handler) {
+    while (buffer.remaining() > 0) {
+      int position = buffer.position();
+      byte type = buffer.get();
+      if (type == END) {
+        // Reset to the END marker so that new records get appended from there
+        buffer.position(position);
+        break;
+      }
+      byte[] rowKey = readBytes(buffer);
+      if (type == ENTRY) {
+        skip(buffer);
+        skip(buffer);
+        liveEntries.incrementAndGet();
+        handler.onEntry(this, rowKey, position);
+      } else {
+        handler.onTombstone(this, rowKey);
+      }
+    }
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static void skip(ByteBuffer buffer) {
+    int len = buffer.getInt();
+    buffer.position(buffer.position() + len);
+  }
+
+  @Override
+  public String toString() {
+    return "QueueSegment{" +
+      "file=" + file +
+      ", liveEntries=" + liveEntries +
+      '}';
+  }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.common.utils.DirUtils;
+import co.cask.cdap.common.utils.ImmutablePair;
+import co.cask.cdap.data2.transaction.queue.ConsumerEntryState;
+import co.cask.cdap.data2.transaction.queue.QueueEntryRow;
+import co.cask.cdap.data2.transaction.queue.QueueScanner;
+import co.cask.tephra.Transaction;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A queue persisted as a sequence of memory-mapped, append-only {@link QueueSegment} files under one directory.
+ * The row keys, per consumer group states and the location of each entry are kept in an in-memory index.
+ * Committed consumer progress is persisted per group as the first row key that is not yet processed by the group,
+ * and a segment file is deleted as a whole once every entry in it has been evicted.
+ */
+final class SegmentedQueue {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentedQueue.class);
+
+  private static final String OFFSETS_FILE = "group.offsets";
+
+  private final QueueName queueName;
+  private final File dir;
+  private final int segmentSize;
+  private final ConcurrentNavigableMap<byte[], Entry> entries;
+  private final NavigableMap<Long, QueueSegment> segments;
+  // Per consumer group id, the first row key that is not committed processed by the group
+  private final Map<Long, byte[]> groupOffsets;
+
+  // Guarded by this
+  private QueueSegment currentSegment;
+
+  SegmentedQueue(QueueName queueName, File dir, int segmentSize) throws IOException {
+    this.queueName = queueName;
+    this.dir = dir;
+    this.segmentSize = segmentSize;
+    this.entries = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    this.segments = new ConcurrentSkipListMap<>();
+    this.groupOffsets = Maps.newHashMap();
+    recover();
+  }
+
+  QueueName getQueueName() {
+    return queueName;
+  }
+
+  /**
+   * Returns the number of entries in this queue that are not yet evicted.
+   */
+  int getSize() {
+    return entries.size();
+  }
+
+  /**
+   * Appends a queue entry.
+   */
+  synchronized void append(byte[] rowKey, byte[] meta, byte[] data) throws IOException {
+    QueueSegment segment = getCurrentSegment(QueueSegment.getEntrySize(rowKey, meta, data));
+    int position = segment.append(rowKey, meta, data);
+    if (position < 0) {
+      segment = rollSegment(QueueSegment.getEntrySize(rowKey, meta, data));
+      position = segment.append(rowKey, meta, data);
+    }
+    entries.put(rowKey, new Entry(segment, position));
+  }
+
+  /**
+   * Removes the given entries, which were appended by a transaction that is rolled back.
+   */
+  synchronized void remove(Iterable<byte[]> rowKeys) throws IOException {
+    for (byte[] rowKey : rowKeys) {
+      Entry entry = entries.remove(rowKey);
+      if (entry == null) {
+        continue;
+      }
+      QueueSegment segment = getCurrentSegment(0);
+      if (!segment.appendTombstone(rowKey)) {
+        rollSegment(0).appendTombstone(rowKey);
+      }
+      entry.segment.release();
+    }
+    deleteReleasedSegments();
+  }
+
+  /**
+   * Atomically sets the state of an entry if there is no state for the given state column.
+   *
+   * @return {@code true} if the state is set, {@code false} if the entry has a state already or it doesn't exist
+   */
+  boolean claim(byte[] rowKey, byte[] stateColumn, byte[] stateContent) {
+    Entry entry = entries.get(rowKey);
+    return entry != null && entry.putStateIfAbsent(stateColumn, stateContent);
+  }
+
+  /**
+   * Sets the state of the given entries.
+   */
+  void updateState(Set<byte[]> rowKeys, byte[] stateColumn, byte[] stateContent) {
+    for (byte[] rowKey : rowKeys) {
+      Entry entry = entries.get(rowKey);
+      if (entry != null) {
+        entry.putState(stateColumn, stateContent);
+      }
+    }
+  }
+
+  /**
+   * Removes the state of the given entries.
+   */
+  void undoState(Set<byte[]> rowKeys, byte[] stateColumn) {
+    for (byte[] rowKey : rowKeys) {
+      Entry entry = entries.get(rowKey);
+      if (entry != null) {
+        entry.removeState(stateColumn);
+      }
+    }
+  }
+
+  /**
+   * Scans the entries between the given start row (inclusive) and stop row (exclusive). Each row returned contains
+   * the data, meta and all state columns of the entry.
+   */
+  QueueScanner scan(byte[] startRow, byte[] stopRow) {
+    final Iterator<Map.Entry<byte[], Entry>> iterator = entries.subMap(startRow, stopRow).entrySet().iterator();
+    return new QueueScanner() {
+      @Override
+      public ImmutablePair<byte[], Map<byte[], byte[]>> next() throws IOException {
+        if (!iterator.hasNext()) {
+          return null;
+        }
+        Map.Entry<byte[], Entry> next = iterator.next();
+        return new ImmutablePair<>(next.getKey(), next.getValue().getColumns());
+      }
+
+      @Override
+      public void close() throws IOException {
+        // no-op
+      }
+    };
+  }
+
+  /**
+   * Evicts entries from the head of the queue that are processed and committed by at least the given number of
+   * consumer groups, with respect to the given transaction. Segments that no longer contain any entry are deleted
+   * and the committed offset of each consumer group is persisted.
+   *
+   * @return number of entries evicted
+   */
+  synchronized int evict(Transaction transaction, int numGroups) throws IOException {
+    byte[] queueRowPrefix = QueueEntryRow.getQueueRowPrefix(queueName);
+    // Group offsets never go beyond the earliest in progress transaction, since it may still enqueue before that.
+    byte[] offsetLimit = Bytes.add(queueRowPrefix, Bytes.toBytes(Math.min(transaction.getReadPointer() + 1,
+                                                                          transaction.getFirstShortInProgress())));
+    SortedMap<byte[], Entry> candidates = entries.headMap(offsetLimit);
+
+    Map<Long, byte[]> offsets = Maps.newHashMap();
+    Set<Long> groupIds = Sets.newHashSet(groupOffsets.keySet());
+    byte[] firstRow = null;
+    boolean evicting = true;
+    int evicted = 0;
+
+    for (Map.Entry<byte[], Entry> candidate : candidates.entrySet()) {
+      byte[] rowKey = candidate.getKey();
+      Entry entry = candidate.getValue();
+      if (firstRow == null) {
+        firstRow = rowKey;
+      }
+
+      Set<Long> processedGroups = Sets.newHashSet();
+      for (Map.Entry<byte[], byte[]> state : entry.getStates().entrySet()) {
+        long groupId = Bytes.toLong(state.getKey(), QueueEntryRow.STATE_COLUMN_PREFIX.length, Longs.BYTES);
+        // A group seen for the first time has not processed any of the entries before this one
+        if (groupIds.add(groupId) && firstRow != rowKey) {
+          offsets.put(groupId, firstRow);
+        }
+        if (QueueEntryRow.isCommittedProcessed(state.getValue(), transaction)) {
+          processedGroups.add(groupId);
+        }
+      }
+      for (long groupId : groupIds) {
+        if (!processedGroups.contains(groupId) && !offsets.containsKey(groupId)) {
+          offsets.put(groupId, rowKey);
+        }
+      }
+
+      // Only evict a contiguous range from the head, so that whole segments can be dropped in order
+      evicting = evicting && processedGroups.size() >= numGroups;
+      if (evicting) {
+        entries.remove(rowKey);
+        entry.segment.release();
+        evicted++;
+      }
+    }
+
+    // Groups that processed all the candidates are at the offset limit
+    for (long groupId : groupIds) {
+      if (!offsets.containsKey(groupId)) {
+        offsets.put(groupId, offsetLimit);
+      }
+    }
+    if (!offsets.isEmpty()) {
+      groupOffsets.putAll(offsets);
+      saveOffsets();
+    }
+
+    if (evicted > 0) {
+      deleteReleasedSegments();
+      LOG.trace("Evicted {} entries from queue {}", evicted, queueName);
+    } else {
+      LOG.trace("Nothing to evict from queue {}", queueName);
+    }
+    return evicted;
+  }
+
+  /**
+   * Removes all entries and segment files of this queue.
+   */
+  synchronized void clear() throws IOException {
+    entries.clear();
+    groupOffsets.clear();
+    for (QueueSegment segment : segments.values()) {
+      segment.delete();
+    }
+    segments.clear();
+    currentSegment = null;
+    if (dir.exists()) {
+      DirUtils.deleteDirectoryContents(dir);
+    }
+  }
+
+  /**
+   * Flushes the current segment to the file system.
+   */
+  synchronized void flush() {
+    if (currentSegment != null) {
+      currentSegment.flush();
+    }
+  }
+
+  private QueueSegment getCurrentSegment(int size) throws IOException {
+    if (currentSegment == null) {
+      return rollSegment(size);
+    }
+    return currentSegment;
+  }
+
+  private QueueSegment rollSegment(int size) throws IOException {
+    if (currentSegment != null) {
+      currentSegment.flush();
+    }
+    if (!DirUtils.mkdirs(dir)) {
+      throw new IOException("Failed to create directory " + dir + " for queue " + queueName);
+    }
+    long id = segments.isEmpty() ? 0L : segments.lastKey() + 1;
+    // A single entry bigger than the segment size gets a segment of its own
+    currentSegment = QueueSegment.create(dir, id, Math.max(segmentSize, size + 1));
+    segments.put(id, currentSegment);
+    deleteReleasedSegments();
+    return currentSegment;
+  }
+
+  /**
+   * Deletes segments from the head of the queue that no longer have any live entry. Segments are only deleted in
+   * order, so that a tombstone is never deleted before the segment holding the entry it removes.
+   */
+  private void deleteReleasedSegments() throws IOException {
+    Iterator<QueueSegment> iterator = segments.values().iterator();
+    while (iterator.hasNext()) {
+      QueueSegment segment = iterator.next();
+      if (segment == currentSegment || segment.hasLiveEntries()) {
+        break;
+      }
+      iterator.remove();
+      segment.delete();
+      LOG.trace("Deleted segment {} of queue {}", segment, queueName);
+    }
+  }
+
+  /**
+   * Rebuilds the in-memory index from the segment files and the persisted group offsets.
+   */
+  private void recover() throws IOException {
+    if (!dir.isDirectory()) {
+      return;
+    }
+    loadOffsets();
+
+    final NavigableMap<Long, File> segmentFiles = Maps.newTreeMap();
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        long id = QueueSegment.getSegmentId(file.getName());
+        if (id >= 0) {
+          segmentFiles.put(id, file);
+        }
+      }
+    }
+
+    QueueSegment.RecordHandler handler = new QueueSegment.RecordHandler() {
+      @Override
+      public void onEntry(QueueSegment segment, byte[] rowKey, int position) {
+        entries.put(rowKey, new Entry(segment, position));
+      }
+
+      @Override
+      public void onTombstone(QueueSegment segment, byte[] rowKey) {
+        Entry entry = entries.remove(rowKey);
+        if (entry != null) {
+          entry.segment.release();
+        }
+      }
+    };
+    for (Map.Entry<Long, File> segmentFile : segmentFiles.entrySet()) {
+      segments.put(segmentFile.getKey(), QueueSegment.open(segmentFile.getValue(), segmentFile.getKey(), handler));
+    }
+
+    // Entries before the committed offset of a group are processed by that group. Mark them with a PROCESSED
+    // state that is visible to every transaction, so that they will never be dequeued again and can be evicted.
+    for (Map.Entry<Long, byte[]> offset : groupOffsets.entrySet()) {
+      byte[] stateColumn = Bytes.add(QueueEntryRow.STATE_COLUMN_PREFIX, Bytes.toBytes(offset.getKey()));
+      byte[] stateContent = new byte[Longs.BYTES + Ints.BYTES + 1];
+      Bytes.putLong(stateContent, 0, 0L);
+      Bytes.putInt(stateContent, Longs.BYTES, Integer.MAX_VALUE);
+      Bytes.putByte(stateContent, Longs.BYTES + Ints.BYTES, ConsumerEntryState.PROCESSED.getState());
+
+      for (Entry entry : entries.headMap(offset.getValue()).values()) {
+        entry.putState(stateColumn, stateContent);
+      }
+    }
+
+    // Drop segments that are left with no entry. New entries are always appended to a new segment.
+    deleteReleasedSegments();
+    LOG.debug("Recovered {} entries in {} segments for queue {}", entries.size(), segments.size(), queueName);
+  }
+
+  private void loadOffsets() throws IOException {
+    File file = new File(dir, OFFSETS_FILE);
+    if (!file.isFile()) {
+      return;
+    }
+    try (DataInputStream is = new DataInputStream(new FileInputStream(file))) {
+      int size = is.readInt();
+      for (int i = 0; i < size; i++) {
+        long groupId = is.readLong();
+        byte[] rowKey = new byte[is.readInt()];
+        is.readFully(rowKey);
+        groupOffsets.put(groupId, rowKey);
+      }
+    }
+  }
+
+  private void saveOffsets() throws IOException {
+    // Write to a temp file and rename, so that a crash never leaves a partially written offsets file.
+    File tmpFile = new File(dir, OFFSETS_FILE + ".tmp");
+    try (DataOutputStream os = new DataOutputStream(new FileOutputStream(tmpFile))) {
+      os.writeInt(groupOffsets.size());
+      for (Map.Entry<Long, byte[]> offset : groupOffsets.entrySet()) {
+        os.writeLong(offset.getKey());
+        os.writeInt(offset.getValue().length);
+        os.write(offset.getValue());
+      }
+    }
+    Files.move(tmpFile, new File(dir, OFFSETS_FILE));
+  }
+
+  /**
+   * In-memory index entry of a queue entry, which holds the location of the entry and the consumer states.
+   */
+  private static final class Entry {
+    private final QueueSegment segment;
+    private final int position;
+    private final NavigableMap<byte[], byte[]> states;
+
+    Entry(QueueSegment segment, int position) {
+      this.segment = segment;
+      this.position = position;
+      this.states = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    }
+
+    NavigableMap<byte[], byte[]> getStates() {
+      return states;
+    }
+
+    synchronized boolean putStateIfAbsent(byte[] stateColumn, byte[] stateContent) {
+      if (states.containsKey(stateColumn)) {
+        return false;
+      }
+      states.put(stateColumn, stateContent);
+      return true;
+    }
+
+    synchronized void putState(byte[] stateColumn, byte[] stateContent) {
+      states.put(stateColumn, stateContent);
+    }
+
+    synchronized void removeState(byte[] stateColumn) {
+      states.remove(stateColumn);
+    }
+
+    /**
+     * Returns the columns of this entry in the same layout as a queue entry row in a table.
+     */
+    Map<byte[], byte[]> getColumns() {
+      byte[][] metaAndData = segment.read(position);
+      NavigableMap<byte[], byte[]> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      columns.putAll(states);
+      columns.put(QueueEntryRow.META_COLUMN, metaAndData[0]);
+      columns.put(QueueEntryRow.DATA_COLUMN, metaAndData[1]);
+      return columns;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.data2.transaction.queue.NoopQueueConfigurer;
+import co.cask.cdap.data2.transaction.queue.QueueAdmin;
+import co.cask.cdap.data2.transaction.queue.QueueConfigurer;
+import co.cask.cdap.proto.Id;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.Properties;
+
+/**
+ * admin for queues stored in segmented files.
+ */
+@Singleton
+public class SegmentedQueueAdmin implements QueueAdmin {
+
+  private final SegmentedQueueService queueService;
+
+  @Inject
+  public SegmentedQueueAdmin(SegmentedQueueService queueService) {
+    this.queueService = queueService;
+  }
+
+  @Override
+  public boolean exists(QueueName queueName) throws Exception {
+    return queueService.exists(queueName);
+  }
+
+  @Override
+  public void create(QueueName queueName) throws Exception {
+    // it will recover the queue if it is not opened yet
+    queueService.getQueue(queueName);
+  }
+
+  @Override
+  public void create(QueueName queueName, @SuppressWarnings("unused") Properties props) throws Exception {
+    create(queueName);
+  }
+
+  @Override
+  public void truncate(QueueName queueName) throws Exception {
+    queueService.truncate(queueName);
+  }
+
+  @Override
+  public void clearAllForFlow(Id.Flow flowId) throws Exception {
+    queueService.truncateAll(flowId);
+  }
+
+  @Override
+  public QueueConfigurer getQueueConfigurer(QueueName queueName) {
+    return new NoopQueueConfigurer();
+  }
+
+  @Override
+  public void dropAllInNamespace(Id.Namespace namespaceId) throws Exception {
+    queueService.dropAll(namespaceId);
+  }
+
+  @Override
+  public void dropAllForFlow(Id.Flow flowId) throws Exception {
+    queueService.dropAll(flowId);
+  }
+
+  @Override
+  public void upgrade() throws Exception {
+    // No-op
+  }
+}
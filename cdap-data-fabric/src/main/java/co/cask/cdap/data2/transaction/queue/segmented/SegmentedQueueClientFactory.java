@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.data2.queue.ConsumerConfig;
+import co.cask.cdap.data2.queue.QueueClientFactory;
+import co.cask.cdap.data2.queue.QueueConsumer;
+import co.cask.cdap.data2.queue.QueueProducer;
+import co.cask.cdap.data2.transaction.queue.QueueConsumerMetrics;
+import co.cask.cdap.data2.transaction.queue.QueueEvictor;
+import co.cask.cdap.data2.transaction.queue.QueueMetrics;
+import co.cask.cdap.data2.transaction.queue.leveldb.LevelDBQueueClientFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import org.apache.twill.common.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory for queue clients of queues stored in segmented files. Streams are delegated to the LevelDB queue clients.
+ */
+public final class SegmentedQueueClientFactory implements QueueClientFactory {
+  private static final int MAX_EVICTION_THREAD_POOL_SIZE = 10;
+  private static final int EVICTION_THREAD_POOL_KEEP_ALIVE_SECONDS = 60;
+
+  private final CConfiguration cConf;
+  private final SegmentedQueueService queueService;
+  private final LevelDBQueueClientFactory levelDBFactory;
+  private final ExecutorService evictionExecutor;
+
+  @Inject
+  public SegmentedQueueClientFactory(CConfiguration cConf, SegmentedQueueService queueService,
+                                     LevelDBQueueClientFactory levelDBFactory) {
+    this.cConf = cConf;
+    this.queueService = queueService;
+    this.levelDBFactory = levelDBFactory;
+    this.evictionExecutor = createEvictionExecutor();
+  }
+
+  @Override
+  public QueueProducer createProducer(QueueName queueName) throws IOException {
+    return createProducer(queueName, QueueMetrics.NOOP_QUEUE_METRICS);
+  }
+
+  @Override
+  public QueueProducer createProducer(QueueName queueName, QueueMetrics queueMetrics) throws IOException {
+    if (queueName.isStream()) {
+      return levelDBFactory.createProducer(queueName, queueMetrics);
+    }
+    // it will recover the queue if it is not opened yet
+    queueService.getQueue(queueName);
+    return new SegmentedQueueProducer(queueName, queueService, queueMetrics);
+  }
+
+  @Override
+  public QueueConsumer createConsumer(QueueName queueName,
+                                      ConsumerConfig consumerConfig, int numGroups) throws IOException {
+    return createConsumer(queueName, consumerConfig, numGroups, QueueConsumerMetrics.NOOP);
+  }
+
+  @Override
+  public QueueConsumer createConsumer(QueueName queueName, ConsumerConfig consumerConfig, int numGroups,
+                                      QueueConsumerMetrics consumerMetrics) throws IOException {
+    if (queueName.isStream()) {
+      return levelDBFactory.createConsumer(queueName, consumerConfig, numGroups, consumerMetrics);
+    }
+    queueService.getQueue(queueName);
+    // only the first consumer of each group runs eviction; and only if the number of consumers is known (> 0).
+    QueueEvictor evictor = (numGroups <= 0 || consumerConfig.getInstanceId() != 0)
+                            ? QueueEvictor.NOOP : createEvictor(queueName, numGroups);
+    SegmentedQueueConsumer consumer = new SegmentedQueueConsumer(cConf, queueService, consumerConfig,
+                                                                 queueName, evictor);
+    consumer.setConsumerMetrics(consumerMetrics);
+    return consumer;
+  }
+
+  @VisibleForTesting
+  QueueEvictor createEvictor(QueueName queueName, int numGroups) {
+    return new SegmentedQueueEvictor(queueName, queueService, numGroups, evictionExecutor);
+  }
+
+  private ExecutorService createEvictionExecutor() {
+    return new ThreadPoolExecutor(0, MAX_EVICTION_THREAD_POOL_SIZE,
+                                  EVICTION_THREAD_POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                  new SynchronousQueue<Runnable>(),
+                                  Threads.createDaemonThreadFactory("segmented-queue-eviction-%d"),
+                                  new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+}
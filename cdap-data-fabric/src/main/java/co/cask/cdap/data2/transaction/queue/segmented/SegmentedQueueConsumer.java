@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.data2.queue.ConsumerConfig;
+import co.cask.cdap.data2.transaction.queue.AbstractQueueConsumer;
+import co.cask.cdap.data2.transaction.queue.QueueEvictor;
+import co.cask.cdap.data2.transaction.queue.QueueScanner;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Consumer for a queue stored in segmented files. Consumer states are kept in the in-memory index of the queue,
+ * and the committed offset of each consumer group is persisted on eviction.
+ */
+public final class SegmentedQueueConsumer extends AbstractQueueConsumer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentedQueueConsumer.class);
+
+  // How many commits to trigger eviction.
+  private static final int EVICTION_LIMIT = 1000;
+
+  private static final long EVICTION_TIMEOUT_SECONDS = 10;
+
+  private final QueueName queueName;
+  private final SegmentedQueueService queueService;
+  private final QueueEvictor queueEvictor;
+
+  SegmentedQueueConsumer(CConfiguration cConf, SegmentedQueueService queueService,
+                         ConsumerConfig consumerConfig, QueueName queueName, QueueEvictor queueEvictor) {
+    super(cConf, consumerConfig, queueName);
+    this.queueName = queueName;
+    this.queueService = queueService;
+    this.queueEvictor = queueEvictor;
+  }
+
+  @Override
+  public void postTxCommit() {
+    super.postTxCommit();
+    if (commitCount > EVICTION_LIMIT && transaction != null) {
+      // Fire and forget eviction.
+      queueEvictor.evict(transaction);
+      commitCount = 0;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (transaction != null) {
+        // Use whatever last transaction for eviction.
+        // Has to block until eviction is completed
+        Uninterruptibles.getUninterruptibly(queueEvictor.evict(transaction),
+                                            EVICTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+    } catch (ExecutionException e) {
+      LOG.warn("Failed to perform queue eviction.", e.getCause());
+    } catch (TimeoutException e) {
+      LOG.warn("Timeout when performing queue eviction.", e);
+    }
+  }
+
+  @Override
+  protected boolean claimEntry(byte[] rowKey, byte[] stateContent) throws IOException {
+    return getQueue().claim(rowKey, stateColumnName, stateContent);
+  }
+
+  @Override
+  protected void updateState(Set<byte[]> rowKeys, byte[] stateColumnName, byte[] stateContent) throws IOException {
+    getQueue().updateState(rowKeys, stateColumnName, stateContent);
+  }
+
+  @Override
+  protected void undoState(Set<byte[]> rowKeys, byte[] stateColumnName) throws IOException {
+    getQueue().undoState(rowKeys, stateColumnName);
+  }
+
+  @Override
+  protected QueueScanner getScanner(byte[] startRow, byte[] stopRow, int numRows) throws IOException {
+    return getQueue().scan(startRow, stopRow);
+  }
+
+  private SegmentedQueue getQueue() throws IOException {
+    return queueService.getQueue(queueName);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.data2.transaction.queue.QueueEvictor;
+import co.cask.tephra.Transaction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Evictor for a queue stored in segmented files. It evicts entries from the head of the queue and deletes segment
+ * files once all consumer groups have passed them.
+ */
+public class SegmentedQueueEvictor implements QueueEvictor {
+
+  private final QueueName queueName;
+  private final SegmentedQueueService queueService;
+  private final int numGroups;
+  private final Executor executor;
+
+  SegmentedQueueEvictor(QueueName queueName, SegmentedQueueService queueService, int numGroups, Executor executor) {
+    this.queueName = queueName;
+    this.queueService = queueService;
+    this.numGroups = numGroups;
+    this.executor = executor;
+  }
+
+  @Override
+  public ListenableFuture<Integer> evict(final Transaction transaction) {
+    final SettableFuture<Integer> result = SettableFuture.create();
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          result.set(queueService.getQueue(queueName).evict(transaction, numGroups));
+        } catch (Throwable t) {
+          result.setException(t);
+        }
+      }
+    });
+    return result;
+  }
+}
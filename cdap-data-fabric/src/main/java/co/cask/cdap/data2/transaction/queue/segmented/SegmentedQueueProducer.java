@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.data2.queue.QueueEntry;
+import co.cask.cdap.data2.transaction.queue.AbstractQueueProducer;
+import co.cask.cdap.data2.transaction.queue.QueueEntryRow;
+import co.cask.cdap.data2.transaction.queue.QueueMetrics;
+import co.cask.tephra.Transaction;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Producer for a queue stored in segmented files. Entries are appended to the queue segments only when
+ * the transaction commits.
+ */
+public final class SegmentedQueueProducer extends AbstractQueueProducer {
+
+  private final QueueName queueName;
+  private final SegmentedQueueService queueService;
+  private final byte[] queueRowPrefix;
+  private final List<byte[]> appendedRows;
+
+  SegmentedQueueProducer(QueueName queueName, SegmentedQueueService queueService, QueueMetrics queueMetrics) {
+    super(queueMetrics, queueName);
+    this.queueName = queueName;
+    this.queueService = queueService;
+    this.queueRowPrefix = QueueEntryRow.getQueueRowPrefix(queueName);
+    this.appendedRows = Lists.newArrayList();
+  }
+
+  @Override
+  public void startTx(Transaction tx) {
+    super.startTx(tx);
+    appendedRows.clear();
+  }
+
+  @Override
+  protected int persist(Iterable<QueueEntry> entries, Transaction transaction) throws Exception {
+    byte[] rowKeyPrefix = Bytes.add(queueRowPrefix, Bytes.toBytes(transaction.getWritePointer()));
+    int count = 0;
+    int bytes = 0;
+
+    SegmentedQueue queue = queueService.getQueue(queueName);
+    for (QueueEntry entry : entries) {
+      // Row key = queue_name + writePointer + counter
+      byte[] rowKey = Bytes.add(rowKeyPrefix, Bytes.toBytes(count++));
+      queue.append(rowKey, QueueEntry.serializeHashKeys(entry.getHashKeys()), entry.getData());
+      appendedRows.add(rowKey);
+      bytes += entry.getData().length;
+    }
+    return bytes;
+  }
+
+  @Override
+  protected void doRollback() throws Exception {
+    if (!appendedRows.isEmpty()) {
+      queueService.getQueue(queueName).remove(appendedRows);
+    }
+    appendedRows.clear();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.common.utils.DirUtils;
+import co.cask.cdap.data2.transaction.queue.QueueConstants;
+import co.cask.cdap.proto.Id;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maintains all segmented queues in the system. Each queue is stored under
+ * {@code <local.data.dir>/<data.queue.local.dir>/<namespace>/<app>/<flow>/<flowlet>/<output>}.
+ */
+@Singleton
+public final class SegmentedQueueService {
+
+  private final File baseDir;
+  private final int segmentSize;
+  private final ConcurrentMap<QueueName, SegmentedQueue> queues;
+
+  @Inject
+  SegmentedQueueService(CConfiguration cConf) {
+    this.baseDir = new File(cConf.get(Constants.CFG_LOCAL_DATA_DIR),
+                            cConf.get(QueueConstants.ConfigKeys.LOCAL_QUEUE_DIR));
+    int segmentSizeMB = cConf.getInt(QueueConstants.ConfigKeys.LOCAL_QUEUE_SEGMENT_SIZE_MB);
+    Preconditions.checkArgument(segmentSizeMB > 0 && segmentSizeMB < 2048,
+                                "Invalid value for %s", QueueConstants.ConfigKeys.LOCAL_QUEUE_SEGMENT_SIZE_MB);
+    this.segmentSize = segmentSizeMB * 1024 * 1024;
+    this.queues = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Returns the {@link SegmentedQueue} for the given queue name. The queue is recovered from its segment files
+   * if it is not opened yet.
+   */
+  SegmentedQueue getQueue(QueueName queueName) throws IOException {
+    Preconditions.checkArgument(queueName.isQueue(), "'%s' is not a valid name for a queue.", queueName);
+    SegmentedQueue queue = queues.get(queueName);
+    if (queue != null) {
+      return queue;
+    }
+    synchronized (this) {
+      queue = queues.get(queueName);
+      if (queue == null) {
+        queue = new SegmentedQueue(queueName, getQueueDir(queueName), segmentSize);
+        queues.put(queueName, queue);
+      }
+      return queue;
+    }
+  }
+
+  public boolean exists(QueueName queueName) {
+    return queues.containsKey(queueName) || getQueueDir(queueName).isDirectory();
+  }
+
+  public void truncate(QueueName queueName) throws IOException {
+    getQueue(queueName).clear();
+  }
+
+  /**
+   * Removes all entries of all queues of the given flow.
+   */
+  public synchronized void truncateAll(Id.Flow flowId) throws IOException {
+    deleteAll(QueueName.prefixForFlow(flowId), getFlowDir(flowId), false);
+  }
+
+  /**
+   * Drops all queues of the given flow.
+   */
+  public synchronized void dropAll(Id.Flow flowId) throws IOException {
+    deleteAll(QueueName.prefixForFlow(flowId), getFlowDir(flowId), true);
+  }
+
+  /**
+   * Drops all queues in the given namespace.
+   */
+  public synchronized void dropAll(Id.Namespace namespaceId) throws IOException {
+    deleteAll(QueueName.prefixForNamespacedQueue(namespaceId.getId()), new File(baseDir, namespaceId.getId()), true);
+  }
+
+  /**
+   * Flushes all opened queues to the file system.
+   */
+  public void flush() {
+    for (SegmentedQueue queue : queues.values()) {
+      queue.flush();
+    }
+  }
+
+  private void deleteAll(String prefix, File dir, boolean drop) throws IOException {
+    // Clear the opened queues, so that producers and consumers holding them keep working on an empty queue
+    for (SegmentedQueue queue : queues.values()) {
+      if (queue.getQueueName().toString().startsWith(prefix)) {
+        queue.clear();
+        if (drop) {
+          queues.remove(queue.getQueueName());
+        }
+      }
+    }
+    // Delete the queues that are not opened
+    if (dir.isDirectory()) {
+      DirUtils.deleteDirectoryContents(dir);
+    }
+  }
+
+  private File getFlowDir(Id.Flow flowId) {
+    return new File(baseDir, flowId.getNamespaceId() + File.separator
+      + flowId.getApplicationId() + File.separator + flowId.getId());
+  }
+
+  private File getQueueDir(QueueName queueName) {
+    Id.Flow flowId = Id.Flow.from(queueName.getFirstComponent(),
+                                  queueName.getSecondComponent(), queueName.getThirdComponent());
+    return new File(new File(getFlowDir(flowId), queueName.getFourthComponent()), queueName.getSimpleName());
+  }
+}
@@ -73,6 +73,7 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
@@ -783,6 +784,31 @@ public abstract class HBaseTableUtil {
     return datasetStat;
   }
 
+  /**
+   * Collects the number of read and write requests received by each region of the given table since
+   * the region was opened.
+   *
+   * @param admin instance of {@link HBaseAdmin} to communicate with HBase
+   * @param tableId the table to collect the request counts for
+   * @return map from region name to the number of requests
+   * @throws IOException
+   */
+  public Map<byte[], Long> getRegionRequestCounts(HBaseAdmin admin, TableId tableId) throws IOException {
+    TableName tableName = getHTableNameConverter().toTableName(tablePrefix, tableId);
+    Map<byte[], Long> requestCounts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    ClusterStatus clusterStatus = admin.getClusterStatus();
+
+    for (ServerName serverName : clusterStatus.getServers()) {
+      for (RegionLoad regionLoad : clusterStatus.getLoad(serverName).getRegionsLoad().values()) {
+        if (tableName.equals(HRegionInfo.getTable(regionLoad.getName()))) {
+          requestCounts.put(regionLoad.getName(),
+                            regionLoad.getReadRequestsCount() + regionLoad.getWriteRequestsCount());
+        }
+      }
+    }
+    return requestCounts;
+  }
+
   /**
    * Carries information about table stats
    */
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.CubeFact;
+import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
+import co.cask.cdap.api.dataset.lib.cube.MeasureType;
+import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
+import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import co.cask.cdap.test.SlowTests;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures latency and heap usage of {@link DefaultCube#query(CubeQuery)} for queries that return
+ * many long time series at 1 second resolution.
+ */
+@Category(SlowTests.class)
+public class DefaultCubeQueryBenchmarkTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DefaultCubeQueryBenchmarkTest.class);
+
+  private static final int SERIES = 200;
+  private static final int POINTS_PER_SERIES = 3600;
+  private static final int ITERATIONS = 5;
+  private static final long START_TS = 1450000000L;
+
+  @Test
+  public void testQueryLatency() throws Exception {
+    final String name = "benchmarkCube";
+    FactTableSupplier supplier = new FactTableSupplier() {
+      @Override
+      public FactTable get(int resolution, int rollTime) {
+        String entityTableName = "EntityTable-" + name;
+        InMemoryTableService.create(entityTableName);
+        String dataTableName = "DataTable-" + name + "-" + resolution;
+        InMemoryTableService.create(dataTableName);
+        return new FactTable(new InMemoryMetricsTable(dataTableName),
+                             new EntityTable(new InMemoryMetricsTable(entityTableName)),
+                             resolution, rollTime);
+      }
+    };
+    Aggregation aggregation = new DefaultAggregation(ImmutableList.of("series"));
+    DefaultCube cube = new DefaultCube(new int[] {1}, supplier, ImmutableMap.of("agg", aggregation),
+                                       ImmutableMap.<String, AggregationAlias>of());
+
+    List<CubeFact> facts = Lists.newArrayList();
+    for (int ts = 0; ts < POINTS_PER_SERIES; ts++) {
+      for (int series = 0; series < SERIES; series++) {
+        facts.add(new CubeFact(START_TS + ts)
+                    .addDimensionValue("series", "s" + series)
+                    .addMeasurement("metric", MeasureType.COUNTER, ts));
+      }
+      cube.add(facts);
+      facts.clear();
+    }
+
+    CubeQuery query = CubeQuery.builder()
+      .select()
+        .measurement("metric", AggregationFunction.SUM)
+      .from("agg").resolution(1, TimeUnit.SECONDS)
+      .where()
+        .timeRange(START_TS, START_TS + POINTS_PER_SERIES)
+      .groupBy()
+        .dimension("series")
+      .limit(Integer.MAX_VALUE)
+      .build();
+
+    // warm up
+    Assert.assertEquals(SERIES, cube.query(query).size());
+
+    Runtime runtime = Runtime.getRuntime();
+    Stopwatch stopwatch = new Stopwatch();
+    for (int i = 0; i < ITERATIONS; i++) {
+      System.gc();
+      long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+      stopwatch.reset().start();
+      Collection<TimeSeries> result = cube.query(query);
+      stopwatch.stop();
+      long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+      Assert.assertEquals(SERIES, result.size());
+      for (TimeSeries series : result) {
+        Assert.assertEquals(POINTS_PER_SERIES, series.getTimeValues().size());
+      }
+      LOG.info("Query of {} series with {} points each took {} ms, heap grew by {} KB",
+               SERIES, POINTS_PER_SERIES, stopwatch.elapsedMillis(), (usedAfter - usedBefore) / 1024);
+    }
+  }
+}
@@ -16,14 +16,27 @@
 
 package co.cask.cdap.data2.dataset2.lib.cube;
 
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.lib.cube.Cube;
+import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
+import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
 import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTableStatistics;
+import co.cask.cdap.data2.dataset2.lib.timeseries.RollupMetaTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  *
@@ -48,4 +61,204 @@ public class DefaultCubeTest extends AbstractCubeTest {
 
     return new DefaultCube(resolutions, supplier, aggregations, ImmutableMap.<String, AggregationAlias>of());
   }
+
+  @Test
+  public void testRollup() throws Exception {
+    Aggregation agg = new DefaultAggregation(ImmutableList.of("dim1", "dim2"));
+    DefaultCube cube = (DefaultCube) getCube("myRollupCube", new int[] {1, 10, 100, Integer.MAX_VALUE},
+                                             ImmutableMap.of("agg", agg));
+
+    // written to all resolutions, as rollup is not enabled yet
+    writeInc(cube, "metric1", 50, 7, "1", "1");
+
+    InMemoryTableService.create("RollupMeta-myRollupCube");
+    cube.enableRollup(new RollupMetaTable(new InMemoryMetricsTable("RollupMeta-myRollupCube")));
+    // the first rollup only initializes the watermarks
+    cube.rollup(100);
+
+    writeInc(cube, "metric1", 101, 1, "1", "1");
+    writeInc(cube, "metric1", 105, 2, "1", "1");
+    writeInc(cube, "metric1", 115, 3, "1", "1");
+    writeInc(cube, "metric1", 215, 4, "1", "1");
+    writeGauge(cube, "gauge1", 105, 5, "1", "1");
+    writeGauge(cube, "gauge1", 115, 6, "1", "1");
+    // a counter with the name of a gauge is not mistaken for the gauge
+    writeInc(cube, "gauge1", 105, 8, "2", "2");
+    writeInc(cube, "gauge1", 115, 9, "2", "2");
+
+    // not rolled up yet: counters are read from the finest resolution
+    verifyRollup(cube);
+
+    // rolls up [100, 210) into resolution 10 and [100, 200) into resolution 100
+    cube.rollup(212);
+    verifyRollup(cube);
+
+    // rolling up again does not change the results
+    cube.rollup(212);
+    verifyRollup(cube);
+    cube.rollup(1000);
+    verifyRollup(cube);
+  }
+
+  @Test
+  public void testQueryCache() throws Exception {
+    Aggregation agg = new DefaultAggregation(ImmutableList.of("dim1", "dim2"));
+    DefaultCube cube = (DefaultCube) getCube("myCachedCube", new int[] {1, 10}, ImmutableMap.of("agg", agg));
+    TimeSeriesCache cache = new TimeSeriesCache(1024 * 1024, Integer.MAX_VALUE, 0);
+    cube.setQueryCache(cache);
+    Map<String, String> dimValues = ImmutableMap.of("dim1", "1", "dim2", "1");
+
+    writeInc(cube, "metric1", 101, 1, "1", "1");
+    writeInc(cube, "metric1", 205, 2, "1", "1");
+    verifyCountQuery(cube, 0, 300, 10, "metric1", AggregationFunction.SUM, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(100, 1, 200, 2))), null);
+    Assert.assertEquals(1, cache.size());
+
+    // facts in the cached time range invalidate the cache
+    writeInc(cube, "metric1", 155, 3, "1", "1");
+    Assert.assertEquals(0, cache.size());
+    verifyCountQuery(cube, 0, 300, 10, "metric1", AggregationFunction.SUM, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(100, 1, 150, 3, 200, 2))), null);
+
+    // facts after the cached time range are read from the tables, together with the cached data
+    writeInc(cube, "metric1", 350, 4, "1", "1");
+    Assert.assertEquals(1, cache.size());
+    verifyCountQuery(cube, 0, 400, 10, "metric1", AggregationFunction.SUM, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(100, 1, 150, 3, 200, 2, 350, 4))), null);
+    verifyCountQuery(cube, 120, 400, 10, "metric1", AggregationFunction.SUM, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(150, 3, 200, 2, 350, 4))), null);
+  }
+
+  @Test
+  public void testQueryPlan() throws Exception {
+    DefaultCube cube = (DefaultCube) getCube("myPlannedCube", new int[] {1},
+                                             ImmutableMap.of("agg1", new DefaultAggregation(
+                                                               ImmutableList.of("dim2", "dim1", "dim3")),
+                                                             "agg2", new DefaultAggregation(
+                                                               ImmutableList.of("dim4", "dim1", "dim3")),
+                                                             "agg3", new DefaultAggregation(
+                                                               ImmutableList.of("dim1", "dim2", "dim3", "dim4"))));
+
+    // without statistics, the aggregation with the filtered dimensions first is chosen
+    CubeQuery query = buildQuery(null, ImmutableMap.of("dim1", "1", "dim2", "1"), ImmutableList.of("dim3"));
+    Assert.assertEquals("agg1", cube.explain(query).getAggregation());
+    // an aggregation given by the query is always used
+    query = buildQuery("agg3", ImmutableMap.of("dim1", "1", "dim2", "1"), ImmutableList.of("dim3"));
+    Assert.assertEquals("agg3", cube.explain(query).getAggregation());
+    // aggregations that are equally expensive without statistics: the first is chosen
+    query = buildQuery(null, ImmutableMap.of("dim1", "1"), ImmutableList.of("dim3"));
+    CubeQueryPlan plan = cube.explain(query);
+    Assert.assertEquals("agg1", plan.getAggregation());
+    Assert.assertEquals(10, plan.getEstimatedSeeks());
+    Assert.assertEquals(100, plan.getEstimatedRows());
+
+    // dim2 has many more distinct values than dim4, hence filtering dim1 needs much more seeks in agg1
+    for (int i = 0; i < 4000; i++) {
+      writeInc(cube, "metric1", i, 1, String.valueOf(i % 2), String.valueOf(i % 100),
+               String.valueOf(i % 5), String.valueOf(i / 2 % 2));
+    }
+    plan = cube.explain(query);
+    Assert.assertEquals("agg2", plan.getAggregation());
+    Assert.assertEquals(2, plan.getEstimatedSeeks());
+    Assert.assertFalse(cube.query(query).isEmpty());
+
+    try {
+      cube.explain(buildQuery(null, ImmutableMap.of("dim5", "1"), ImmutableList.<String>of()));
+      Assert.fail("Expected no aggregation to satisfy the query");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testQueryPlanWithPersistedStatistics() throws Exception {
+    Map<String, DefaultAggregation> aggregations = ImmutableMap.of(
+      "agg1", new DefaultAggregation(ImmutableList.of("dim2", "dim1", "dim3")),
+      "agg2", new DefaultAggregation(ImmutableList.of("dim4", "dim1", "dim3")));
+    // cubes over the same tables, as used by the metrics processor and the metrics query service
+    DefaultCube writeCube = getCubeWithStatistics("mySharedCube", aggregations);
+    DefaultCube queryCube = getCubeWithStatistics("mySharedCube", aggregations);
+
+    CubeQuery query = buildQuery(null, ImmutableMap.of("dim1", "1"), ImmutableList.of("dim3"));
+    Assert.assertEquals("agg1", queryCube.explain(query).getAggregation());
+
+    // dim2 has many more distinct values than dim4, hence filtering dim1 needs much more seeks in agg1
+    for (int i = 0; i < 4000; i++) {
+      writeInc(writeCube, "metric1", i, 1, String.valueOf(i % 2), String.valueOf(i % 100),
+               String.valueOf(i % 5), String.valueOf(i / 2 % 2));
+    }
+
+    // the query cube has not written any facts, but plans with the statistics persisted by the other cube
+    CubeQueryPlan plan = queryCube.explain(query);
+    Assert.assertEquals("agg2", plan.getAggregation());
+    Assert.assertEquals(2, plan.getEstimatedSeeks());
+    Assert.assertFalse(queryCube.query(query).isEmpty());
+
+    // without persisted statistics, a cube only knows about the facts written through it
+    DefaultCube inMemoryCube = (DefaultCube) getCube("mySharedCube", new int[] {1}, aggregations);
+    Assert.assertEquals("agg1", inMemoryCube.explain(query).getAggregation());
+  }
+
+  private DefaultCube getCubeWithStatistics(final String name, Map<String, ? extends Aggregation> aggregations) {
+    FactTableSupplier supplier = new FactTableSupplier() {
+      @Override
+      public FactTable get(int resolution, int rollTime) {
+        String entityTableName = "EntityTable-" + name;
+        InMemoryTableService.create(entityTableName);
+        String dataTableName = "DataTable-" + name + "-" + resolution;
+        InMemoryTableService.create(dataTableName);
+        String statisticsTableName = "Statistics-" + name;
+        InMemoryTableService.create(statisticsTableName);
+        // persist and reload the statistics right away
+        FactTableStatistics statistics =
+          new FactTableStatistics(new InMemoryMetricsTable(statisticsTableName), resolution, 0);
+        return new FactTable(new InMemoryMetricsTable(dataTableName),
+                             new EntityTable(new InMemoryMetricsTable(entityTableName)),
+                             resolution, rollTime, statistics);
+      }
+    };
+    return new DefaultCube(new int[] {1}, supplier, aggregations, ImmutableMap.<String, AggregationAlias>of());
+  }
+
+  private CubeQuery buildQuery(@Nullable String aggregation, Map<String, String> dimValues, List<String> groupByDims) {
+    return CubeQuery.builder()
+      .select()
+        .measurement("metric1", AggregationFunction.SUM)
+      .from(aggregation).resolution(1, TimeUnit.SECONDS)
+      .where()
+        .dimensions(dimValues)
+        .timeRange(0, 4000)
+      .groupBy()
+        .dimensions(groupByDims)
+      .limit(Integer.MAX_VALUE)
+      .build();
+  }
+
+  private void verifyRollup(Cube cube) throws Exception {
+    Map<String, String> dimValues = ImmutableMap.of("dim1", "1", "dim2", "1");
+    verifyCountQuery(cube, 0, 300, 10, "metric1", AggregationFunction.SUM, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(50, 7, 100, 3, 110, 3, 210, 4))), null);
+    verifyCountQuery(cube, 0, 300, 100, "metric1", AggregationFunction.SUM, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(0, 7, 100, 6, 200, 4))), null);
+    // a query starting within a bucket does not include the bucket
+    verifyCountQuery(cube, 105, 300, 10, "metric1", AggregationFunction.SUM, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("metric1", new HashMap<String, String>(),
+                                                     timeValues(110, 3, 210, 4))), null);
+    verifyCountQuery(cube, 0, 300, 10, "gauge1", AggregationFunction.LATEST, dimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("gauge1", new HashMap<String, String>(),
+                                                     timeValues(100, 5, 110, 6))), null);
+    Map<String, String> counterDimValues = ImmutableMap.of("dim1", "2", "dim2", "2");
+    verifyCountQuery(cube, 0, 300, 10, "gauge1", AggregationFunction.SUM, counterDimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("gauge1", new HashMap<String, String>(),
+                                                     timeValues(100, 8, 110, 9))), null);
+    verifyCountQuery(cube, 0, 300, 100, "gauge1", AggregationFunction.SUM, counterDimValues, new ArrayList<String>(),
+                     ImmutableList.of(new TimeSeries("gauge1", new HashMap<String, String>(),
+                                                     timeValues(100, 17))), null);
+  }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for {@link TimeSeriesCache}.
+ */
+public class TimeSeriesCacheTest {
+
+  private static final Map<String, String> SERIES = ImmutableMap.of("dim1", "1");
+  private static final Map<String, AggregationFunction> FUNCTIONS = ImmutableMap.of("metric1", AggregationFunction.SUM);
+
+  @Test
+  public void testExtendAndCopy() {
+    // cache [10, 40) out of points 0..50
+    TimeSeriesCache.Entry entry = TimeSeriesCache.Entry.create(timeSeries(0, 50), 10, 40);
+    Assert.assertEquals(10, entry.getStartTs());
+    Assert.assertEquals(40, entry.getEndTs());
+    assertPoints(entry, 0, 100, 10, 20, 30);
+
+    // extend with points 40..60 up to 60, dropping points before 20
+    entry = entry.extend(timeSeries(40, 70), 20, 60);
+    Assert.assertEquals(20, entry.getStartTs());
+    Assert.assertEquals(60, entry.getEndTs());
+    assertPoints(entry, 0, 100, 20, 30, 40, 50);
+
+    // end of the copied range is inclusive
+    assertPoints(entry, 25, 40, 30, 40);
+  }
+
+  @Test
+  public void testEviction() {
+    // budget fits two entries of two points each
+    TimeSeriesCache cache = new TimeSeriesCache(2 * (256 + 2 * 16), 3600, 0);
+    List<Object> key1 = ImmutableList.<Object>of("key1");
+    List<Object> key2 = ImmutableList.<Object>of("key2");
+    List<Object> key3 = ImmutableList.<Object>of("key3");
+    cache.put(key1, TimeSeriesCache.Entry.create(timeSeries(0, 20), 0, 20));
+    cache.put(key2, TimeSeriesCache.Entry.create(timeSeries(0, 20), 0, 20));
+    Assert.assertEquals(2, cache.size());
+
+    // key1 is the most recently used entry, hence key2 is evicted
+    Assert.assertNotNull(cache.get(key1));
+    cache.put(key3, TimeSeriesCache.Entry.create(timeSeries(0, 20), 0, 20));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertNotNull(cache.get(key1));
+    Assert.assertNull(cache.get(key2));
+    Assert.assertNotNull(cache.get(key3));
+    Assert.assertEquals(2 * (256 + 2 * 16), cache.getSizeBytes());
+  }
+
+  @Test
+  public void testInvalidate() {
+    TimeSeriesCache cache = new TimeSeriesCache(1024 * 1024, 3600, 0);
+    List<Object> key1 = ImmutableList.<Object>of("key1");
+    List<Object> key2 = ImmutableList.<Object>of("key2");
+    cache.put(key1, TimeSeriesCache.Entry.create(timeSeries(0, 20), 0, 20));
+    cache.put(key2, TimeSeriesCache.Entry.create(timeSeries(0, 40), 0, 40));
+
+    // facts after all cached buckets do not invalidate anything
+    cache.invalidate(40);
+    Assert.assertEquals(2, cache.size());
+
+    cache.invalidate(30);
+    Assert.assertNotNull(cache.get(key1));
+    Assert.assertNull(cache.get(key2));
+
+    cache.invalidateAll();
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.getSizeBytes());
+  }
+
+  @Test
+  public void testClosedEnd() {
+    TimeSeriesCache cache = new TimeSeriesCache(1024 * 1024, 600, 30);
+    Assert.assertEquals(1020, cache.getClosedEnd(1095, 60));
+    Assert.assertEquals(1065, cache.getClosedEnd(1095, 1));
+    Assert.assertEquals(420, cache.getWindowStart(1020));
+  }
+
+  /**
+   * Returns a time series with a point with the value 1 every 10 seconds in the given time range.
+   */
+  private Table<Map<String, String>, String, TimeValueAccumulator> timeSeries(long startTs, long endTs) {
+    TimeValueAccumulator timeValues = new TimeValueAccumulator(AggregationFunction.SUM);
+    for (long ts = startTs; ts < endTs; ts += 10) {
+      timeValues.add(ts, 1);
+    }
+    Table<Map<String, String>, String, TimeValueAccumulator> result = HashBasedTable.create();
+    result.put(SERIES, "metric1", timeValues);
+    return result;
+  }
+
+  private void assertPoints(TimeSeriesCache.Entry entry, long startTs, long endTs, long... expected) {
+    Table<Map<String, String>, String, TimeValueAccumulator> result = HashBasedTable.create();
+    entry.copyTo(result, startTs, endTs, FUNCTIONS);
+    TimeValueAccumulator timeValues = result.get(SERIES, "metric1");
+    Assert.assertNotNull(timeValues);
+    long[] timestamps = new long[timeValues.size()];
+    long[] values = new long[timeValues.size()];
+    timeValues.copySorted(timestamps, values);
+    Assert.assertArrayEquals(expected, timestamps);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Test for {@link TimeValueAccumulator}.
+ */
+public class TimeValueAccumulatorTest {
+
+  @Test
+  public void testAggregation() {
+    Assert.assertArrayEquals(new long[] {7, 2}, aggregate(AggregationFunction.SUM));
+    Assert.assertArrayEquals(new long[] {4, 2}, aggregate(AggregationFunction.MAX));
+    Assert.assertArrayEquals(new long[] {1, 2}, aggregate(AggregationFunction.MIN));
+    Assert.assertArrayEquals(new long[] {2, 2}, aggregate(AggregationFunction.LATEST));
+  }
+
+  @Test
+  public void testSortedAfterRehash() {
+    Random random = new Random(0);
+    Map<Long, Long> expected = new TreeMap<>();
+    TimeValueAccumulator accumulator = new TimeValueAccumulator(AggregationFunction.SUM);
+    for (int i = 0; i < 10000; i++) {
+      // use timestamps of a 60 seconds resolution, with many duplicates
+      long ts = 1450000000L + random.nextInt(2000) * 60;
+      long value = random.nextInt(100);
+      accumulator.add(ts, value);
+      Long current = expected.get(ts);
+      expected.put(ts, current == null ? value : current + value);
+    }
+
+    Assert.assertEquals(expected.size(), accumulator.size());
+    long[] timestamps = new long[accumulator.size()];
+    long[] values = new long[accumulator.size()];
+    accumulator.copySorted(timestamps, values);
+
+    int i = 0;
+    for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+      Assert.assertEquals(entry.getKey().longValue(), timestamps[i]);
+      Assert.assertEquals(entry.getValue().longValue(), values[i]);
+      i++;
+    }
+  }
+
+  private long[] aggregate(AggregationFunction function) {
+    TimeValueAccumulator accumulator = new TimeValueAccumulator(function);
+    accumulator.add(20, 2);
+    accumulator.add(10, 1);
+    accumulator.add(10, 4);
+    accumulator.add(10, 2);
+
+    Assert.assertEquals(2, accumulator.size());
+    long[] timestamps = new long[2];
+    long[] values = new long[2];
+    accumulator.copySorted(timestamps, values);
+    Assert.assertArrayEquals(new long[] {10, 20}, timestamps);
+    // return values sorted by timestamp
+    return values;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.data2.dataset2.lib.timeseries;
+
+import co.cask.cdap.api.common.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for {@link EntityDictionary}.
+ */
+public class EntityDictionaryTest {
+
+  @Test
+  public void testPutAndGet() {
+    EntityDictionary dictionary = new EntityDictionary(64 * 1024 * 1024);
+    Assert.assertNull(dictionary.get(Bytes.toBytes("app.app1")));
+
+    // enough entries to grow the data buffer and to rehash several times
+    for (long i = 0; i < 100000; i++) {
+      dictionary.put(Bytes.toBytes("app.app" + i), Bytes.toBytes(i));
+    }
+    Assert.assertEquals(100000, dictionary.size());
+    for (long i = 0; i < 100000; i++) {
+      Assert.assertArrayEquals(Bytes.toBytes(i), dictionary.get(Bytes.toBytes("app.app" + i)));
+    }
+    Assert.assertNull(dictionary.get(Bytes.toBytes("app.app100000")));
+    // keys that are prefixes of other keys
+    Assert.assertNull(dictionary.get(Bytes.toBytes("app.app")));
+
+    // replace a value with a value of a different length
+    dictionary.put(Bytes.toBytes("app.app1"), Bytes.toBytes("one"));
+    Assert.assertArrayEquals(Bytes.toBytes("one"), dictionary.get(Bytes.toBytes("app.app1")));
+    Assert.assertEquals(100000, dictionary.size());
+  }
+
+  @Test
+  public void testResetWhenFull() {
+    EntityDictionary dictionary = new EntityDictionary(128 * 1024);
+    for (long i = 0; i < 10000; i++) {
+      dictionary.put(Bytes.toBytes("app.app" + i), Bytes.toBytes(i));
+      Assert.assertTrue(dictionary.getSizeBytes() <= 128 * 1024);
+    }
+    // the dictionary was reset, hence only holds the most recent entries
+    Assert.assertTrue(dictionary.size() < 10000);
+    Assert.assertNull(dictionary.get(Bytes.toBytes("app.app0")));
+    Assert.assertArrayEquals(Bytes.toBytes(9999L), dictionary.get(Bytes.toBytes("app.app9999")));
+  }
+}
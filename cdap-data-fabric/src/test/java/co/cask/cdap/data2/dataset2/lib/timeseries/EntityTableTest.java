@@ -74,6 +74,28 @@ public class EntityTableTest {
     }
   }
 
+  @Test
+  public void testPreload() throws Exception {
+    InMemoryTableService.create("testPreload");
+    MetricsTable table = new InMemoryMetricsTable("testPreload");
+
+    EntityTable entityTable = new EntityTable(table);
+    for (int i = 1; i <= 10; i++) {
+      Assert.assertEquals((long) i, entityTable.getId("app", "app" + i));
+    }
+
+    // Another entityTable loads both the forward and the reverse mappings with a single scan
+    entityTable = new EntityTable(table);
+    Assert.assertEquals(20, entityTable.preload());
+    for (int i = 1; i <= 10; i++) {
+      Assert.assertEquals((long) i, entityTable.getId("app", "app" + i));
+      Assert.assertEquals("app" + i, entityTable.getName(i, "app"));
+    }
+    // New entities are still assigned new IDs
+    Assert.assertEquals(11L, entityTable.getId("app", "app11"));
+    Assert.assertEquals("app11", entityTable.getName(11, "app"));
+  }
+
   @Test
   public void testGetName() throws Exception {
     InMemoryTableService.create("testGetName");
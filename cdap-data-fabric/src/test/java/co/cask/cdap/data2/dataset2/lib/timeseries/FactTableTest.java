@@ -35,6 +35,7 @@ import com.google.common.collect.Table;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -562,6 +563,55 @@ public class FactTableTest {
     Assert.assertEquals(3, splitsWithRows.size());
   }
 
+  @Test
+  public void testSplitScan() throws Exception {
+    InMemoryTableService.create("SplitEntityTable");
+    InMemoryTableService.create("SplitDataTable");
+    int resolution = 1;
+    int rollTimebaseInterval = 10;
+
+    FactTable table = new FactTable(new InMemoryMetricsTable("SplitDataTable"),
+                                    new EntityTable(new InMemoryMetricsTable("SplitEntityTable")),
+                                    resolution, rollTimebaseInterval);
+
+    // ts is aligned to the time base
+    long ts = System.currentTimeMillis() / 1000 / rollTimebaseInterval * rollTimebaseInterval;
+    long[] values = new long[100];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i;
+      writeInc(table, "metric1", ts + i, i, "dim1", "value1");
+    }
+
+    // scan spans 10 time bases
+    FactScan scan = new FactScan(ts + 5, ts + 94, "metric1", dimValues("dim1", "value1"));
+    Assert.assertEquals(ImmutableList.of(scan), table.split(scan, 1));
+
+    List<FactScan> splits = table.split(scan, 3);
+    Assert.assertEquals(3, splits.size());
+    // splits are contiguous and aligned to the time bases
+    Assert.assertEquals(ts + 5, splits.get(0).getStartTs());
+    Assert.assertEquals(ts + 39, splits.get(0).getEndTs());
+    Assert.assertEquals(ts + 40, splits.get(1).getStartTs());
+    Assert.assertEquals(ts + 79, splits.get(1).getEndTs());
+    Assert.assertEquals(ts + 80, splits.get(2).getStartTs());
+    Assert.assertEquals(ts + 94, splits.get(2).getEndTs());
+
+    for (FactScan split : splits) {
+      int from = (int) (split.getStartTs() - ts);
+      int to = (int) (split.getEndTs() - ts);
+      Table<String, List<DimensionValue>, List<TimeValue>> expected = HashBasedTable.create();
+      expected.put("metric1", dimValues("dim1", "value1"),
+                   timeValues(split.getStartTs(), resolution, Arrays.copyOfRange(values, from, to + 1)));
+      assertScan(table, expected, split);
+    }
+
+    // no more splits than time bases
+    Assert.assertEquals(10, table.split(scan, 100).size());
+    // scan within a single time base is not split
+    FactScan singleTimeBase = new FactScan(ts + 10, ts + 19, "metric1", dimValues("dim1", "value1"));
+    Assert.assertEquals(ImmutableList.of(singleTimeBase), table.split(singleTimeBase, 3));
+  }
+
   private List<TimeValue> timeValues(long ts, int resolution, long... values) {
     List<TimeValue> timeValues = Lists.newArrayList();
     for (int i = 0; i < values.length; i++) {
@@ -462,6 +462,60 @@ public abstract class QueueTest {
     }
   }
 
+  @Test(timeout = TIMEOUT_MS)
+  public void testBacklogAge() throws Exception {
+    QueueName queueName = QueueName.fromFlowlet(Id.Namespace.DEFAULT.getId(), "app", "flow", "flowlet", "backlog");
+    configureGroups(queueName, ImmutableList.of(new ConsumerGroupConfig(0L, 2, DequeueStrategy.FIFO, null)));
+
+    try (QueueProducer producer = queueClientFactory.createProducer(queueName)) {
+      TransactionContext txContext = createTxContext(producer);
+      txContext.start();
+      producer.enqueue(new QueueEntry(Bytes.toBytes(0)));
+      txContext.finish();
+
+      // The age is derived from the transaction write pointer, which is based on the current time
+      TimeUnit.MILLISECONDS.sleep(500);
+      txContext.start();
+      producer.enqueue(new QueueEntry(Bytes.toBytes(1)));
+      producer.enqueue(new QueueEntry(Bytes.toBytes(2)));
+      txContext.finish();
+    }
+
+    BacklogAgeMetrics metrics1 = new BacklogAgeMetrics();
+    BacklogAgeMetrics metrics2 = new BacklogAgeMetrics();
+    try (
+      QueueConsumer consumer1 = queueClientFactory.createConsumer(
+        queueName, new ConsumerConfig(0L, 0, 2, DequeueStrategy.FIFO, null), 1, metrics1);
+      QueueConsumer consumer2 = queueClientFactory.createConsumer(
+        queueName, new ConsumerConfig(0L, 1, 2, DequeueStrategy.FIFO, null), 1, metrics2)
+    ) {
+      // The first consumer claims the oldest entry
+      TransactionContext txContext1 = createTxContext(consumer1);
+      txContext1.start();
+      Assert.assertEquals(0, Bytes.toInt(consumer1.dequeue().iterator().next()));
+      Assert.assertTrue(metrics1.backlogAge >= 500L);
+
+      // The backlog of the second consumer includes the entry claimed by the first one, as it is not processed yet
+      TransactionContext txContext2 = createTxContext(consumer2);
+      txContext2.start();
+      Assert.assertEquals(1, Bytes.toInt(consumer2.dequeue().iterator().next()));
+      Assert.assertTrue(metrics2.backlogAge >= 500L);
+      txContext2.finish();
+
+      txContext2.start();
+      Assert.assertEquals(2, Bytes.toInt(consumer2.dequeue().iterator().next()));
+      Assert.assertTrue(metrics2.backlogAge >= 500L);
+      txContext2.finish();
+
+      // Once all entries are processed, there is no backlog
+      txContext1.finish();
+      txContext2.start();
+      Assert.assertTrue(consumer2.dequeue().isEmpty());
+      Assert.assertEquals(0L, metrics2.backlogAge);
+      txContext2.finish();
+    }
+  }
+
   @Category(SlowTests.class)
   @Test
   public void testConcurrentEnqueue() throws Exception {
@@ -892,6 +946,29 @@ public abstract class QueueTest {
     // do nothing, HBase test will override this
   }
 
+  /**
+   * A {@link QueueConsumerMetrics} that keeps the last backlog age emitted.
+   */
+  private static final class BacklogAgeMetrics implements QueueConsumerMetrics {
+
+    private long backlogAge = -1L;
+
+    @Override
+    public void emitBacklogAge(long ageMillis) {
+      backlogAge = ageMillis;
+    }
+
+    @Override
+    public void emitDequeueLatencies(long[] latencies, int count) {
+      // no-op
+    }
+
+    @Override
+    public void emitClaimConflicts(int count) {
+      // no-op
+    }
+  }
+
   private TransactionContext createTxContext(Object... txAwares) {
     TransactionAware[] casted = new TransactionAware[txAwares.length];
     for (int i = 0; i < txAwares.length; i++) {
@@ -25,6 +25,7 @@ import co.cask.cdap.common.guice.NamespaceClientUnitTestModule;
 import co.cask.cdap.common.guice.ZKClientModule;
 import co.cask.cdap.common.queue.QueueName;
 import co.cask.cdap.common.utils.Networks;
+import co.cask.cdap.common.utils.Tasks;
 import co.cask.cdap.data.hbase.HBaseTestBase;
 import co.cask.cdap.data.hbase.HBaseTestFactory;
 import co.cask.cdap.data.runtime.DataFabricDistributedModule;
@@ -39,6 +40,7 @@ import co.cask.cdap.data2.queue.DequeueStrategy;
 import co.cask.cdap.data2.queue.QueueClientFactory;
 import co.cask.cdap.data2.queue.QueueConsumer;
 import co.cask.cdap.data2.queue.QueueEntry;
+import co.cask.cdap.data2.queue.QueueProducer;
 import co.cask.cdap.data2.transaction.Transactions;
 import co.cask.cdap.data2.transaction.queue.QueueAdmin;
 import co.cask.cdap.data2.transaction.queue.QueueConfigurer;
@@ -87,6 +89,7 @@ import org.apache.hadoop.hbase.Coprocessor;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableInterface;
@@ -107,6 +110,8 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * HBase queue tests.
@@ -143,6 +148,9 @@ public abstract class HBaseQueueTest extends QueueTest {
     // Test with fewer splits than default (16).
     // Fewer splits make the forceEvict runs faster, which makes all queue tests run faster
     cConf.setInt(QueueConstants.ConfigKeys.QUEUE_TABLE_PRESPLITS, 4);
+    // Sample the region request counts for hot regions at most once a second
+    cConf.setLong(QueueConstants.ConfigKeys.QUEUE_TABLE_REBALANCE_MIN_INTERVAL_SECONDS, 1L);
+    cConf.setLong(QueueConstants.ConfigKeys.QUEUE_TABLE_REBALANCE_MIN_REQUESTS, 500L);
     cConf.setLong(TxConstants.Manager.CFG_TX_TIMEOUT, 100000000L);
 
     injector = Guice.createInjector(
@@ -237,6 +245,61 @@ public abstract class HBaseQueueTest extends QueueTest {
     }
   }
 
+  @Test (timeout = 120000L)
+  public void testSplitHotRegions() throws Exception {
+    final QueueName queueName = QueueName.fromFlowlet(Id.Namespace.DEFAULT.getId(), "app",
+                                                      "hotflow", "flowlet", "out");
+    HBaseQueueAdmin hbaseQueueAdmin = (HBaseQueueAdmin) queueAdmin;
+    configureGroups(queueName, ImmutableList.of(new ConsumerGroupConfig(0L, 1, DequeueStrategy.FIFO, null)));
+
+    // Enqueue entries to all shards, so that every region has data to split on
+    try (final QueueProducer producer = queueClientFactory.createProducer(queueName)) {
+      Transactions.createTransactionExecutor(executorFactory, (TransactionAware) producer)
+        .execute(new TransactionExecutor.Subroutine() {
+          @Override
+          public void apply() throws Exception {
+            for (int i = 0; i < 100; i++) {
+              producer.enqueue(new QueueEntry(Bytes.toBytes(i)));
+            }
+          }
+        });
+    }
+
+    TableId tableId = hbaseQueueAdmin.getDataTableId(queueName);
+    final int regions = cConf.getInt(QueueConstants.ConfigKeys.QUEUE_TABLE_PRESPLITS);
+    try (final HTable hTable = tableUtil.createHTable(hConf, tableId)) {
+      hbaseAdmin.flush(hTable.getTableName());
+      Assert.assertEquals(regions, hbaseAdmin.getTableRegions(hTable.getTableName()).size());
+
+      // Make the first region hot, as with a skewed shard distribution. The request counts of the regions
+      // are reported by the region server periodically, hence keep generating load until it shows.
+      Id.Flow flowId = Id.Flow.from(Id.Namespace.DEFAULT, "app", "hotflow");
+      int splits = 0;
+      while (splits == 0) {
+        for (int i = 0; i < 1000; i++) {
+          hTable.get(new Get(Bytes.add(new byte[] { 0 }, Bytes.toBytes(i))));
+        }
+        TimeUnit.SECONDS.sleep(1);
+        splits = hbaseQueueAdmin.splitHotRegions(flowId);
+      }
+      Assert.assertEquals(1, splits);
+
+      // The region is still hot, but the request counts are not sampled again within the minimum interval,
+      // as it happens when the other queues of the flow are configured.
+      for (int i = 0; i < 1000; i++) {
+        hTable.get(new Get(Bytes.add(new byte[] { 0 }, Bytes.toBytes(i))));
+      }
+      Assert.assertEquals(0, hbaseQueueAdmin.splitHotRegions(flowId));
+
+      Tasks.waitFor(regions + 1, new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return hbaseAdmin.getTableRegions(hTable.getTableName()).size();
+        }
+      }, 60, TimeUnit.SECONDS, 500, TimeUnit.MILLISECONDS);
+    }
+  }
+
   @Test
   public void configTest() throws Exception {
     final QueueName queueName = QueueName.fromFlowlet(Id.Namespace.DEFAULT.getId(),
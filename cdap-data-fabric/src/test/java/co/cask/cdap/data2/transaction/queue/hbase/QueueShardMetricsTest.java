@@ -0,0 +1,224 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.data2.transaction.queue.hbase;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.metrics.MetricCounter;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.metrics.NoOpMetricsCollectionService;
+import co.cask.cdap.common.queue.QueueName;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Unit tests for the hot shard detection, which is the per shard counting done by {@link QueueShardMetrics} and the
+ * region selection done by {@link HBaseQueueAdmin#getHotRegions(Map, Map, double, long, int)}.
+ */
+public class QueueShardMetricsTest {
+
+  @Test
+  public void testShardCounts() {
+    RecordingMetricsCollectionService metricsService = new RecordingMetricsCollectionService();
+    QueueName queueName = QueueName.fromFlowlet("ns", "app", "flow", "flowlet", "out");
+    QueueShardMetrics metrics = QueueShardMetrics.create(metricsService, queueName,
+                                                         QueueShardMetrics.ENQUEUE_METRIC);
+
+    // shards are identified by the first byte of the row key, including the ones above 127
+    for (int i = 0; i < 5; i++) {
+      metrics.count(new byte[] { 1, (byte) i });
+    }
+    metrics.count(new byte[] { (byte) 0xff, 1 });
+    metrics.count(new byte[0]);
+    Assert.assertTrue(metricsService.values.isEmpty());
+
+    // nothing is emitted for counts that got reset, e.g. on transaction rollback
+    metrics.reset();
+    metrics.emit();
+    Assert.assertTrue(metricsService.values.isEmpty());
+
+    metrics.count(new byte[] { 1 });
+    metrics.count(new byte[] { 1 });
+    metrics.count(new byte[] { (byte) 0xff });
+    metrics.emit();
+    Assert.assertEquals(ImmutableMap.of("1", 2L, "255", 1L), metricsService.values);
+
+    // counts are reset after emitting
+    metrics.count(new byte[] { 1 });
+    metrics.emit();
+    metrics.emit();
+    Assert.assertEquals(ImmutableMap.of("1", 3L, "255", 1L), metricsService.values);
+
+    // without metrics service, counting is a no-op
+    QueueShardMetrics noop = QueueShardMetrics.create(null, queueName, QueueShardMetrics.ENQUEUE_METRIC);
+    Assert.assertSame(QueueShardMetrics.NOOP, noop);
+    noop.count(new byte[] { 1 });
+    noop.emit();
+  }
+
+  @Test
+  public void testHotRegions() {
+    byte[] region1 = Bytes.toBytes("region1");
+    byte[] region2 = Bytes.toBytes("region2");
+    byte[] region3 = Bytes.toBytes("region3");
+    byte[] region4 = Bytes.toBytes("region4");
+
+    // average is 400, hence with factor 2 a region is hot with more than 800 requests
+    Map<byte[], Long> counts = requestCounts(region1, 100L, region2, 100L, region3, 100L, region4, 1300L);
+    Assert.assertEquals(ImmutableMap.of(region4, 1300L), HBaseQueueAdmin.getHotRegions(counts, null, 2.0d, 0L, 16));
+    // a region right at the threshold is not hot
+    counts = requestCounts(region1, 200L, region2, 200L, region3, 400L, region4, 800L);
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(counts, null, 2.0d, 0L, 16).isEmpty());
+    // evenly distributed load has no hot region
+    counts = requestCounts(region1, 500L, region2, 510L, region3, 490L, region4, 500L);
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(counts, null, 1.5d, 0L, 16).isEmpty());
+    // a lower factor finds more hot regions
+    counts = requestCounts(region1, 100L, region2, 100L, region3, 900L, region4, 900L);
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(counts, null, 2.0d, 0L, 16).isEmpty());
+    Assert.assertEquals(2, HBaseQueueAdmin.getHotRegions(counts, null, 1.5d, 0L, 16).size());
+  }
+
+  @Test
+  public void testHotRegionsSinceLastCheck() {
+    byte[] region1 = Bytes.toBytes("region1");
+    byte[] region2 = Bytes.toBytes("region2");
+    byte[] region3 = Bytes.toBytes("region3");
+
+    // region1 was hot before the last check, but received the same number of requests as the others since then
+    Map<byte[], Long> lastCounts = requestCounts(region1, 10000L, region2, 100L, region3, 100L);
+    Map<byte[], Long> counts = requestCounts(region1, 10100L, region2, 200L, region3, 200L);
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(counts, lastCounts, 2.0d, 0L, 16).isEmpty());
+
+    // region2 received most requests since the last check
+    counts = requestCounts(region1, 10100L, region2, 1100L, region3, 200L);
+    Assert.assertEquals(ImmutableMap.of(region2, 1000L),
+                        HBaseQueueAdmin.getHotRegions(counts, lastCounts, 2.0d, 0L, 16));
+
+    // region3 was reopened, hence its count restarted from zero and is taken as is
+    counts = requestCounts(region1, 10050L, region2, 150L, region3, 90L);
+    Assert.assertEquals(ImmutableMap.of(region3, 90L),
+                        HBaseQueueAdmin.getHotRegions(counts, lastCounts, 1.2d, 0L, 16));
+  }
+
+  @Test
+  public void testHotRegionsMaxRegions() {
+    byte[] region1 = Bytes.toBytes("region1");
+    byte[] region2 = Bytes.toBytes("region2");
+    byte[] region3 = Bytes.toBytes("region3");
+    byte[] region4 = Bytes.toBytes("region4");
+    Map<byte[], Long> counts = requestCounts(region1, 0L, region2, 0L, region3, 1000L, region4, 1000L);
+
+    Assert.assertEquals(2, HBaseQueueAdmin.getHotRegions(counts, null, 1.5d, 0L, 16).size());
+    // only as many regions are split as the table can grow to the max number of regions
+    Assert.assertEquals(ImmutableMap.of(region3, 1000L),
+                        HBaseQueueAdmin.getHotRegions(counts, null, 1.5d, 0L, 5));
+    // no split if the table already has the max number of regions
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(counts, null, 1.5d, 0L, 4).isEmpty());
+    // no split if there is a single region, since there is nothing to compare with
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(requestCounts(region1, 1000L), null, 1.5d, 0L, 16).isEmpty());
+  }
+
+  @Test
+  public void testHotRegionsMinRequests() {
+    byte[] region1 = Bytes.toBytes("region1");
+    byte[] region2 = Bytes.toBytes("region2");
+    byte[] region3 = Bytes.toBytes("region3");
+
+    // a near idle table is skewed, but has too few requests since the last check to tell a hot region
+    Map<byte[], Long> lastCounts = requestCounts(region1, 10000L, region2, 100L, region3, 100L);
+    Map<byte[], Long> counts = requestCounts(region1, 10010L, region2, 101L, region3, 100L);
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(counts, lastCounts, 2.0d, 1000L, 16).isEmpty());
+    // the requests before the last check don't count towards the minimum
+    Assert.assertTrue(HBaseQueueAdmin.getHotRegions(counts, lastCounts, 2.0d, 12L, 16).isEmpty());
+    Assert.assertEquals(ImmutableMap.of(region1, 10L),
+                        HBaseQueueAdmin.getHotRegions(counts, lastCounts, 2.0d, 11L, 16));
+
+    // with enough requests, the same skew makes a hot region
+    counts = requestCounts(region1, 11000L, region2, 200L, region3, 200L);
+    Assert.assertEquals(ImmutableMap.of(region1, 1000L),
+                        HBaseQueueAdmin.getHotRegions(counts, lastCounts, 2.0d, 1000L, 16));
+  }
+
+  private static Map<byte[], Long> requestCounts(Object...regionCounts) {
+    Map<byte[], Long> counts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    for (int i = 0; i < regionCounts.length; i += 2) {
+      counts.put((byte[]) regionCounts[i], (Long) regionCounts[i + 1]);
+    }
+    return counts;
+  }
+
+  /**
+   * A {@link NoOpMetricsCollectionService} that records the total of the counters by queue shard.
+   */
+  private static final class RecordingMetricsCollectionService extends NoOpMetricsCollectionService {
+
+    private final Map<String, Long> values = new HashMap<>();
+
+    @Override
+    public MetricsContext getContext(final Map<String, String> tags) {
+      final MetricsContext delegate = super.getContext(tags);
+      return new MetricsContext() {
+        @Override
+        public MetricsContext childContext(Map<String, String> childTags) {
+          Map<String, String> allTags = new HashMap<>(tags);
+          allTags.putAll(childTags);
+          return getContext(allTags);
+        }
+
+        @Override
+        public MetricsContext childContext(String tagName, String tagValue) {
+          return childContext(ImmutableMap.of(tagName, tagValue));
+        }
+
+        @Override
+        public void histogram(String metricName, long value) {
+          delegate.histogram(metricName, value);
+        }
+
+        @Override
+        public MetricCounter getCounter(String metricName) {
+          return delegate.getCounter(metricName);
+        }
+
+        @Override
+        public Map<String, String> getTags() {
+          return tags;
+        }
+
+        @Override
+        public void increment(String metricName, long value) {
+          Assert.assertEquals(QueueShardMetrics.ENQUEUE_METRIC, metricName);
+          Assert.assertEquals("flowlet", tags.get(Constants.Metrics.Tag.PRODUCER));
+          String shard = tags.get(Constants.Metrics.Tag.QUEUE_SHARD);
+          Long total = values.get(shard);
+          values.put(shard, total == null ? value : total + value);
+        }
+
+        @Override
+        public void gauge(String metricName, long value) {
+          delegate.gauge(metricName, value);
+        }
+      };
+    }
+  }
+}
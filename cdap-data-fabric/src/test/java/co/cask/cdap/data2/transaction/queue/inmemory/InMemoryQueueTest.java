@@ -15,6 +15,7 @@
  */
 package co.cask.cdap.data2.transaction.queue.inmemory;
 
+import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.common.guice.ConfigModule;
 import co.cask.cdap.common.guice.DiscoveryRuntimeModule;
 import co.cask.cdap.common.guice.NonCustomLocationUnitTestModule;
@@ -25,8 +26,12 @@ import co.cask.cdap.data.runtime.TransactionMetricsModule;
 import co.cask.cdap.data.stream.StreamAdminModules;
 import co.cask.cdap.data.stream.service.InMemoryStreamMetaStore;
 import co.cask.cdap.data.stream.service.StreamMetaStore;
+import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data.view.ViewAdminModules;
+import co.cask.cdap.data2.queue.ConsumerConfig;
+import co.cask.cdap.data2.queue.DequeueStrategy;
 import co.cask.cdap.data2.queue.QueueClientFactory;
+import co.cask.cdap.data2.queue.QueueEntry;
 import co.cask.cdap.data2.transaction.queue.QueueAdmin;
 import co.cask.cdap.data2.transaction.queue.QueueTest;
 import co.cask.cdap.data2.transaction.stream.StreamAdmin;
@@ -34,6 +39,7 @@ import co.cask.cdap.explore.guice.ExploreClientModule;
 import co.cask.cdap.security.auth.context.AuthenticationContextModules;
 import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
 import co.cask.cdap.security.authorization.AuthorizationTestModule;
+import co.cask.tephra.Transaction;
 import co.cask.tephra.TransactionExecutorFactory;
 import co.cask.tephra.TransactionManager;
 import co.cask.tephra.TransactionSystemClient;
@@ -41,7 +47,11 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.util.Modules;
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
 
 /**
  * In-memory queue tests.
@@ -83,4 +93,34 @@ public class InMemoryQueueTest extends QueueTest {
     queueAdmin = injector.getInstance(QueueAdmin.class);
     executorFactory = injector.getInstance(TransactionExecutorFactory.class);
   }
+
+  @Test
+  public void testOldestUnprocessed() {
+    InMemoryQueue queue = new InMemoryQueue();
+    ConsumerConfig config = new ConsumerConfig(0L, 0, 1, DequeueStrategy.FIFO, null);
+    Transaction tx = new Transaction(100L, 101L, new long[0], new long[0], Long.MAX_VALUE);
+    for (long txId = 10L; txId <= 30L; txId += 10L) {
+      queue.enqueue(txId, 0, new QueueEntry(Bytes.toBytes(txId)));
+    }
+    Assert.assertEquals(10L, queue.getOldestUnprocessed(tx, 0L));
+
+    // Processed entries are passed by the watermark of the group only
+    ImmutablePair<List<InMemoryQueue.Key>, List<byte[]>> result =
+      queue.dequeue(tx, config, new InMemoryQueue.ConsumerState(), 2);
+    queue.ack(result.getFirst(), config);
+    Assert.assertEquals(30L, queue.getOldestUnprocessed(tx, 0L));
+    Assert.assertEquals(10L, queue.getOldestUnprocessed(tx, 1L));
+
+    // An entry enqueued late by an earlier transaction lowers the watermark
+    queue.enqueue(15L, 0, new QueueEntry(Bytes.toBytes(15L)));
+    Assert.assertEquals(15L, queue.getOldestUnprocessed(tx, 0L));
+
+    result = queue.dequeue(tx, config, new InMemoryQueue.ConsumerState(), 2);
+    queue.ack(result.getFirst(), config);
+    Assert.assertEquals(-1L, queue.getOldestUnprocessed(tx, 0L));
+
+    // Undoing the dequeue of processed entries lowers the watermark
+    queue.undoDequeue(result.getFirst(), config);
+    Assert.assertEquals(15L, queue.getOldestUnprocessed(tx, 0L));
+  }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.transaction.queue.segmented;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.guice.ConfigModule;
+import co.cask.cdap.common.guice.DiscoveryRuntimeModule;
+import co.cask.cdap.common.guice.NonCustomLocationUnitTestModule;
+import co.cask.cdap.common.queue.QueueName;
+import co.cask.cdap.data.runtime.DataFabricLocalModule;
+import co.cask.cdap.data.runtime.DataSetsModules;
+import co.cask.cdap.data.runtime.TransactionMetricsModule;
+import co.cask.cdap.data2.dataset2.lib.table.leveldb.LevelDBTableService;
+import co.cask.cdap.data2.queue.ConsumerConfig;
+import co.cask.cdap.data2.queue.DequeueResult;
+import co.cask.cdap.data2.queue.DequeueStrategy;
+import co.cask.cdap.data2.queue.QueueClientFactory;
+import co.cask.cdap.data2.queue.QueueConsumer;
+import co.cask.cdap.data2.queue.QueueEntry;
+import co.cask.cdap.data2.queue.QueueProducer;
+import co.cask.cdap.data2.transaction.queue.QueueAdmin;
+import co.cask.cdap.data2.transaction.queue.QueueConstants;
+import co.cask.cdap.data2.transaction.queue.QueueEvictor;
+import co.cask.cdap.data2.transaction.queue.QueueTest;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.security.auth.context.AuthenticationContextModules;
+import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
+import co.cask.cdap.security.authorization.AuthorizationTestModule;
+import co.cask.tephra.Transaction;
+import co.cask.tephra.TransactionAware;
+import co.cask.tephra.TransactionExecutor;
+import co.cask.tephra.TransactionExecutorFactory;
+import co.cask.tephra.TransactionManager;
+import co.cask.tephra.TransactionSystemClient;
+import co.cask.tephra.TxConstants;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for queues stored in segmented files.
+ */
+public class SegmentedQueueTest extends QueueTest {
+
+  @ClassRule
+  public static TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static CConfiguration conf;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    conf = CConfiguration.create();
+    conf.setBoolean(TxConstants.Manager.CFG_DO_PERSIST, false);
+    conf.set(Constants.CFG_LOCAL_DATA_DIR, tmpFolder.newFolder().getAbsolutePath());
+    conf.set(QueueConstants.ConfigKeys.LOCAL_QUEUE_ENGINE, QueueConstants.LOCAL_QUEUE_ENGINE_SEGMENTED);
+    // Use small segments so that tests go through segment rolling and deletion
+    conf.setInt(QueueConstants.ConfigKeys.LOCAL_QUEUE_SEGMENT_SIZE_MB, 1);
+    Injector injector = Guice.createInjector(
+      new ConfigModule(conf),
+      new NonCustomLocationUnitTestModule().getModule(),
+      new DiscoveryRuntimeModule().getStandaloneModules(),
+      new TransactionMetricsModule(),
+      new AuthorizationTestModule(),
+      new AuthorizationEnforcementModule().getInMemoryModules(),
+      new AuthenticationContextModules().getMasterModule(),
+      new DataSetsModules().getStandaloneModules(),
+      new DataFabricLocalModule());
+    // transaction manager is a "service" and must be started
+    transactionManager = injector.getInstance(TransactionManager.class);
+    transactionManager.startAndWait();
+    txSystemClient = injector.getInstance(TransactionSystemClient.class);
+    queueClientFactory = injector.getInstance(QueueClientFactory.class);
+    queueAdmin = injector.getInstance(QueueAdmin.class);
+    executorFactory = injector.getInstance(TransactionExecutorFactory.class);
+    LevelDBTableService.getInstance().clearTables();
+  }
+
+  @Test
+  public void testInjection() throws Exception {
+    Assert.assertTrue(queueClientFactory instanceof SegmentedQueueClientFactory);
+    Assert.assertTrue(queueAdmin instanceof SegmentedQueueAdmin);
+  }
+
+  @Test
+  public void testRecovery() throws Exception {
+    QueueName queueName = QueueName.fromFlowlet(NamespaceId.DEFAULT.getNamespace(),
+                                                "app", "flow", "flowlet", "recovery");
+    ConsumerConfig consumerConfig = new ConsumerConfig(0L, 0, 1, DequeueStrategy.FIFO, null);
+
+    // Enqueue 10 entries and consume the first 5 of them
+    final QueueProducer producer = queueClientFactory.createProducer(queueName);
+    for (int i = 0; i < 10; i++) {
+      final int value = i;
+      executorFactory.createExecutor(ImmutableList.of((TransactionAware) producer))
+        .execute(new TransactionExecutor.Subroutine() {
+          @Override
+          public void apply() throws Exception {
+            producer.enqueue(new QueueEntry(Bytes.toBytes(value)));
+          }
+        });
+    }
+    producer.close();
+
+    final QueueConsumer consumer = queueClientFactory.createConsumer(queueName, consumerConfig, 1);
+    executorFactory.createExecutor(ImmutableList.of((TransactionAware) consumer))
+      .execute(new TransactionExecutor.Subroutine() {
+        @Override
+        public void apply() throws Exception {
+          Assert.assertEquals(5, consumer.dequeue(5).size());
+        }
+      });
+    // Closing the consumer runs eviction, which persists the group offset
+    consumer.close();
+
+    // Reopen the queue from the files through a new queue service
+    SegmentedQueueClientFactory factory = new SegmentedQueueClientFactory(
+      conf, new SegmentedQueueService(conf), null);
+    final QueueConsumer recoveredConsumer = factory.createConsumer(queueName, consumerConfig, 1);
+    executorFactory.createExecutor(ImmutableList.of((TransactionAware) recoveredConsumer))
+      .execute(new TransactionExecutor.Subroutine() {
+        @Override
+        public void apply() throws Exception {
+          DequeueResult<byte[]> result = recoveredConsumer.dequeue(10);
+          Assert.assertEquals(5, result.size());
+          int expected = 5;
+          for (byte[] data : result) {
+            Assert.assertEquals(expected++, Bytes.toInt(data));
+          }
+        }
+      });
+    recoveredConsumer.close();
+  }
+
+  @Override
+  protected void forceEviction(QueueName queueName, int numGroups) throws Exception {
+    QueueEvictor evictor = ((SegmentedQueueClientFactory) queueClientFactory).createEvictor(queueName, numGroups);
+    Transaction tx = txSystemClient.startShort();
+    // There is no change, just to get the latest transaction for eviction
+    txSystemClient.commit(tx);
+    Uninterruptibles.getUninterruptibly(evictor.evict(tx));
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.format;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.format.UnexpectedFormatException;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Tests for {@link StructuredRecord}.
+ */
+public class StructuredRecordTest {
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "record",
+    Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("tags", Schema.nullableOf(Schema.arrayOf(Schema.of(Schema.Type.STRING)))),
+    Schema.Field.of("score", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))));
+
+  @Test
+  public void testFieldAccess() {
+    StructuredRecord record = StructuredRecord.builder(SCHEMA)
+      .set("name", "alice")
+      .set(0, 1)
+      .convertAndSet("score", "2.5")
+      .build();
+
+    Assert.assertEquals(1, record.<Integer>get("id").intValue());
+    Assert.assertEquals("alice", record.get("name"));
+    Assert.assertNull(record.get("tags"));
+    Assert.assertEquals(2.5d, record.<Double>get("score"), 0d);
+    Assert.assertNull(record.get("unknown"));
+
+    for (Schema.Field field : SCHEMA.getFields()) {
+      Assert.assertEquals(record.get(field.getName()), record.get(SCHEMA.getFieldIndex(field.getName())));
+    }
+
+    try {
+      record.get(SCHEMA.getFields().size());
+      Assert.fail("Expected failure on invalid field index");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBuilderValidation() {
+    try {
+      StructuredRecord.builder(SCHEMA).set("unknown", 1);
+      Assert.fail("Expected failure on unknown field");
+    } catch (UnexpectedFormatException e) {
+      // expected
+    }
+    try {
+      StructuredRecord.builder(SCHEMA).set(4, 1);
+      Assert.fail("Expected failure on invalid field index");
+    } catch (UnexpectedFormatException e) {
+      // expected
+    }
+    try {
+      StructuredRecord.builder(SCHEMA).set("name", null);
+      Assert.fail("Expected failure on null value for a non-nullable field");
+    } catch (UnexpectedFormatException e) {
+      // expected
+    }
+    try {
+      StructuredRecord.builder(SCHEMA).set("id", 1).build();
+      Assert.fail("Expected failure on missing non-nullable field");
+    } catch (UnexpectedFormatException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testEqualsAndSerialization() throws Exception {
+    StructuredRecord record1 = StructuredRecord.builder(SCHEMA)
+      .set("id", 1).set("name", "alice").set("tags", ImmutableList.of("a", "b")).build();
+    StructuredRecord record2 = StructuredRecord.builder(SCHEMA)
+      .set("tags", ImmutableList.of("a", "b")).set("name", "alice").set("id", 1).set("score", null).build();
+    Assert.assertEquals(record1, record2);
+    Assert.assertEquals(record1.hashCode(), record2.hashCode());
+    Assert.assertNotEquals(record1, StructuredRecord.builder(SCHEMA).set("id", 2).set("name", "alice").build());
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(os)) {
+      oos.writeObject(record1);
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(os.toByteArray()))) {
+      StructuredRecord restored = (StructuredRecord) ois.readObject();
+      Assert.assertEquals(record1, restored);
+      Assert.assertEquals("alice", restored.get("name"));
+      Assert.assertEquals(ImmutableList.of("a", "b"), restored.get(2));
+    }
+  }
+}
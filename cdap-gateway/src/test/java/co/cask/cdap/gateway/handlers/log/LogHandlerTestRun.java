@@ -17,6 +17,7 @@
 package co.cask.cdap.gateway.handlers.log;
 
 import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.utils.Tasks;
 import co.cask.cdap.gateway.handlers.metrics.MetricsSuiteTestBase;
 import co.cask.cdap.logging.gateway.handlers.FormattedTextLogEvent;
 import co.cask.cdap.logging.gateway.handlers.LogHandler;
@@ -28,6 +29,7 @@ import co.cask.cdap.proto.RunRecord;
 import co.cask.cdap.proto.id.Ids;
 import co.cask.cdap.proto.id.ProgramId;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -44,6 +46,8 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test LogHandler.
@@ -51,6 +55,7 @@ import java.util.List;
 public class LogHandlerTestRun extends MetricsSuiteTestBase {
   private static final Type LIST_LOGLINE_TYPE = new TypeToken<List<LogLine>>() { }.getType();
   private static final Type LIST_LOGDATA_OFFSET_TYPE = new TypeToken<List<LogDataOffset>>() { }.getType();
+  private static final Type LIST_LOG_SEARCH_LINE_TYPE = new TypeToken<List<LogSearchLine>>() { }.getType();
   private static final Gson GSON =
     new GsonBuilder().registerTypeAdapter(LogOffset.class, new LogOffsetAdapter()).create();
 
@@ -266,6 +271,97 @@ public class LogHandlerTestRun extends MetricsSuiteTestBase {
     testNextSystemLogs(Constants.Service.MASTER_SERVICES);
   }
 
+  @Test
+  public void testTail() throws Exception {
+    String namespace = MockLogReader.TEST_NAMESPACE;
+    testTail(getVersionedAPIPath("apps/testApp1/flows/testFlow1/logs/tail", namespace), "text", 1);
+    testTail(getVersionedAPIPath("apps/testApp1/flows/testFlow1/logs/tail?format=json", namespace), "json", 1);
+    // only the ERROR events, which are every other event
+    testTail(getVersionedAPIPath("apps/testApp1/flows/testFlow1/logs/tail?filter=loglevel=ERROR", namespace),
+             "text", 2);
+
+    Id.Program id = Id.Program.from(namespace, "testApp1", ProgramType.FLOW, "testFlow1");
+    RunRecord runRecord = mockLogReader.getRunRecord(id);
+    String runIdTailUrl = String.format("apps/testApp1/flows/testFlow1/runs/%s/logs/tail", runRecord.getPid());
+    testTail(getVersionedAPIPath(runIdTailUrl, namespace), "text", 1);
+
+    testTail(String.format("/%s/system/services/%s/logs/tail",
+                           Constants.Gateway.API_VERSION_3_TOKEN, Constants.Service.APP_FABRIC_HTTP), "text", 1);
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    String namespace = MockLogReader.TEST_NAMESPACE;
+    List<LogSearchLine> lines = search(getVersionedAPIPath("logs/search?q=connection%20refused", namespace));
+    Assert.assertEquals(MockLogSearcher.MAX, lines.size());
+    for (int i = 0; i < lines.size(); i++) {
+      LogSearchLine line = lines.get(i);
+      Assert.assertEquals("search-" + i + " connection refused", line.getLog().getMessage());
+      // the events alternate between a flow and a service run
+      if (i % 2 == 0) {
+        Assert.assertEquals("testApp1", line.getApplication());
+        Assert.assertEquals("testFlow1", line.getProgram());
+        Assert.assertEquals(MockLogSearcher.FLOW_RUN_ID, line.getRunId());
+      } else {
+        Assert.assertEquals("testApp4", line.getApplication());
+        Assert.assertEquals("testService1", line.getProgram());
+        Assert.assertEquals(MockLogSearcher.SERVICE_RUN_ID, line.getRunId());
+      }
+    }
+
+    // max limits the number of events
+    lines = search(getVersionedAPIPath("logs/search?q=refused&max=3", namespace));
+    Assert.assertEquals(3, lines.size());
+    // only the ERROR events, which are every other event
+    lines = search(getVersionedAPIPath("logs/search?q=refused&filter=loglevel=ERROR", namespace));
+    Assert.assertEquals(MockLogSearcher.MAX / 2, lines.size());
+    for (LogSearchLine line : lines) {
+      Assert.assertEquals("ERROR", line.getLog().getLogLevel());
+    }
+
+    // a query without terms is rejected
+    for (String url : ImmutableList.of("logs/search", "logs/search?q=", "logs/search?q=%21%3F")) {
+      HttpResponse response = doGet(getVersionedAPIPath(url, namespace));
+      Assert.assertEquals(HttpResponseStatus.BAD_REQUEST.getCode(), response.getStatusLine().getStatusCode());
+    }
+  }
+
+  private List<LogSearchLine> search(String url) throws Exception {
+    HttpResponse response = doGet(url);
+    Assert.assertEquals(HttpResponseStatus.OK.getCode(), response.getStatusLine().getStatusCode());
+    return GSON.fromJson(EntityUtils.toString(response.getEntity()), LIST_LOG_SEARCH_LINE_TYPE);
+  }
+
+  /**
+   * Verifies the events streamed by a tail endpoint, and that the subscription to the tailer ends with the response.
+   *
+   * @param url the tail endpoint
+   * @param format {@link LogHandler.LogFormatType} of the response
+   * @param step every step-th event of the {@link MockLogTailer} is expected in the response
+   */
+  private void testTail(String url, String format, int step) throws Exception {
+    final MockLogTailer mockLogTailer = (MockLogTailer) logTailer;
+    int cancelled = mockLogTailer.getCancelled();
+
+    HttpResponse response = doGet(url);
+    Assert.assertEquals(HttpResponseStatus.OK.getCode(), response.getStatusLine().getStatusCode());
+    List<String> messages = new ArrayList<>();
+    for (String line : Splitter.on("\n").omitEmptyStrings().split(EntityUtils.toString(response.getEntity()))) {
+      messages.add("json".equals(format) ? GSON.fromJson(line, LogDataOffset.class).getLog().getMessage() : line);
+    }
+    Assert.assertEquals(MockLogTailer.MAX / step, messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      Assert.assertTrue(messages.get(i).contains("tail-" + i * step));
+    }
+
+    Tasks.waitFor(cancelled + 1, new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return mockLogTailer.getCancelled();
+      }
+    }, 10, TimeUnit.SECONDS);
+  }
+
   private void testNext(String appId, String entityType, String entityId, boolean escape, String namespace)
     throws Exception {
     String nextUrl = String.format("apps/%s/%s/%s/logs/next?fromOffset=%s&max=10&escape=%s",
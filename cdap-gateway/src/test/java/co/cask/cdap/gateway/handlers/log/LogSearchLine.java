@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.gateway.handlers.log;
+
+import co.cask.cdap.logging.gateway.handlers.LogData;
+import co.cask.cdap.logging.read.LogOffset;
+
+/**
+ * Test Log object that contains {@link LogData} and {@link LogOffset} of a log search result, along with the program
+ * and run that logged it.
+ */
+class LogSearchLine extends LogDataOffset {
+  private final String application;
+  private final String program;
+  private final String runId;
+
+  LogSearchLine(LogData log, LogOffset offset, String application, String program, String runId) {
+    super(log, offset);
+    this.application = application;
+    this.program = program;
+    this.runId = runId;
+  }
+
+  public String getApplication() {
+    return application;
+  }
+
+  public String getProgram() {
+    return program;
+  }
+
+  public String getRunId() {
+    return runId;
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.gateway.handlers.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.logging.context.FlowletLoggingContext;
+import co.cask.cdap.logging.context.UserServiceLoggingContext;
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.read.Callback;
+import co.cask.cdap.logging.read.LogEvent;
+import co.cask.cdap.logging.read.LogOffset;
+import co.cask.cdap.logging.read.LogSearcher;
+import co.cask.cdap.proto.id.NamespaceId;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mock LogSearcher for testing. Every search finds {@link #MAX} log events of a flowlet and a service run of the
+ * namespace, alternately marked as {@link Level#ERROR} and {@link Level#WARN}, whose message contains the query.
+ */
+public class MockLogSearcher implements LogSearcher {
+
+  public static final int MAX = 10;
+  public static final String FLOW_RUN_ID = "searchFlowRun";
+  public static final String SERVICE_RUN_ID = "searchServiceRun";
+
+  @Override
+  public void search(NamespaceId namespaceId, String query, long fromTimeMs, long toTimeMs, int maxEvents,
+                     Filter filter, Callback callback) {
+    List<LoggingContext> contexts = ImmutableList.<LoggingContext>of(
+      new FlowletLoggingContext(namespaceId.getNamespace(), "testApp1", "testFlow1", "testFlowlet1", FLOW_RUN_ID, "0"),
+      new UserServiceLoggingContext(namespaceId.getNamespace(), "testApp4", "testService1", "test1",
+                                    SERVICE_RUN_ID, "0"));
+    callback.init();
+    for (int i = 0; i < MAX && callback.getCount() < maxEvents; i++) {
+      LoggingContext loggingContext = contexts.get(i % contexts.size());
+      LoggingEvent event =
+        new LoggingEvent("co.cask.Test",
+                         (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME),
+                         i % 2 == 0 ? Level.ERROR : Level.WARN, "search-" + i + " " + query, null, null);
+      Map<String, String> tagMap = Maps.newHashMap();
+      for (Map.Entry<String, LoggingContext.SystemTag> entry : loggingContext.getSystemTagsMap().entrySet()) {
+        tagMap.put(entry.getKey(), entry.getValue().getValue());
+      }
+      event.setMDCPropertyMap(tagMap);
+      if (filter.match(event)) {
+        callback.handle(new LogEvent(event, new LogOffset(LogOffset.INVALID_KAFKA_OFFSET, event.getTimeStamp())));
+      }
+    }
+  }
+}
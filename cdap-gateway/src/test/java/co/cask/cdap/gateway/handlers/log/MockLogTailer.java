@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.gateway.handlers.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.read.Callback;
+import co.cask.cdap.logging.read.LogEvent;
+import co.cask.cdap.logging.read.LogOffset;
+import co.cask.cdap.logging.read.LogTailer;
+import com.google.common.collect.Maps;
+import org.apache.twill.common.Cancellable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mock LogTailer for testing. Each subscription gets {@link #MAX} log events of its logging context from a background
+ * thread, alternately marked as {@link Level#ERROR} and {@link Level#WARN}, after which the callback is closed.
+ */
+public class MockLogTailer implements LogTailer {
+  private static final Logger LOG = LoggerFactory.getLogger(MockLogTailer.class);
+
+  public static final int MAX = 10;
+
+  private final AtomicInteger cancelled = new AtomicInteger();
+
+  @Override
+  public Cancellable tail(final LoggingContext loggingContext, final Filter filter, final Callback callback) {
+    callback.init();
+    final AtomicBoolean active = new AtomicBoolean(true);
+    Thread thread = new Thread("mock-log-tailer") {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < MAX && active.get(); i++) {
+            LoggingEvent event =
+              new LoggingEvent("co.cask.Test",
+                               (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME),
+                               i % 2 == 0 ? Level.ERROR : Level.WARN, "tail-" + i, null, null);
+            Map<String, String> tagMap = Maps.newHashMap();
+            for (Map.Entry<String, LoggingContext.SystemTag> entry : loggingContext.getSystemTagsMap().entrySet()) {
+              tagMap.put(entry.getKey(), entry.getValue().getValue());
+            }
+            event.setMDCPropertyMap(tagMap);
+            if (filter.match(event)) {
+              callback.handle(new LogEvent(event, new LogOffset(i, event.getTimeStamp())));
+            }
+          }
+          if (callback instanceof Flushable) {
+            ((Flushable) callback).flush();
+          }
+        } catch (IOException e) {
+          LOG.debug("Failed to flush tail callback", e);
+        } finally {
+          callback.close();
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        if (active.compareAndSet(true, false)) {
+          cancelled.incrementAndGet();
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the number of subscriptions that were cancelled.
+   */
+  public int getCancelled() {
+    return cancelled.get();
+  }
+}
@@ -36,8 +36,12 @@ import co.cask.cdap.data2.security.UGIProvider;
 import co.cask.cdap.data2.security.UnsupportedUGIProvider;
 import co.cask.cdap.explore.guice.ExploreClientModule;
 import co.cask.cdap.gateway.handlers.log.MockLogReader;
+import co.cask.cdap.gateway.handlers.log.MockLogSearcher;
+import co.cask.cdap.gateway.handlers.log.MockLogTailer;
 import co.cask.cdap.internal.app.store.DefaultStore;
 import co.cask.cdap.logging.read.LogReader;
+import co.cask.cdap.logging.read.LogSearcher;
+import co.cask.cdap.logging.read.LogTailer;
 import co.cask.cdap.metrics.guice.MetricsClientRuntimeModule;
 import co.cask.cdap.metrics.guice.MetricsHandlerModule;
 import co.cask.cdap.metrics.query.MetricsQueryService;
@@ -102,6 +106,7 @@ public abstract class MetricsSuiteTestBase {
 
   protected static MetricStore metricStore;
   protected static LogReader logReader;
+  protected static LogTailer logTailer;
 
   @BeforeClass
   public static void beforeClass() throws Exception {
@@ -158,6 +163,8 @@ public abstract class MetricsSuiteTestBase {
       @Override
       protected void configure() {
         bind(LogReader.class).to(MockLogReader.class).in(Scopes.SINGLETON);
+        bind(LogTailer.class).to(MockLogTailer.class).in(Scopes.SINGLETON);
+        bind(LogSearcher.class).to(MockLogSearcher.class).in(Scopes.SINGLETON);
         bind(Store.class).to(DefaultStore.class);
         bind(UGIProvider.class).to(UnsupportedUGIProvider.class);
       }
@@ -179,6 +186,7 @@ public abstract class MetricsSuiteTestBase {
     collectionService.startAndWait();
 
     logReader = injector.getInstance(LogReader.class);
+    logTailer = injector.getInstance(LogTailer.class);
 
     // initialize the dataset instantiator
     DiscoveryServiceClient discoveryClient = injector.getInstance(DiscoveryServiceClient.class);
@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.api.metrics;
+
+/**
+ * Helper methods for {@link MetricType#HISTOGRAM} metrics.
+ *
+ * A histogram counts values in a fixed set of log-linear buckets: each power of two is split into
+ * {@link #SUB_BUCKETS} buckets of equal width, so that the width of a bucket is at most a quarter of its values.
+ * Since all histograms have the same buckets, they are merged by adding the counts of each bucket.
+ *
+ * A histogram is emitted as one {@link MetricValue} of type {@link MetricType#HISTOGRAM} per non-empty bucket,
+ * whose value encodes both the bucket and its count with {@link #encode(int, long)}.
+ */
+public final class Histograms {
+
+  /**
+   * Number of buckets of a histogram.
+   */
+  public static final int BUCKETS;
+
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values at or above 2^MAX_EXPONENT are counted in the last bucket
+  private static final int MAX_EXPONENT = 36;
+  private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+  // Number of bits of the encoded value used for the bucket
+  private static final int ENCODED_BUCKET_BITS = 8;
+
+  static {
+    BUCKETS = getBucket(MAX_VALUE) + 1;
+  }
+
+  private Histograms() {
+  }
+
+  /**
+   * Returns the bucket of the given value. Negative values are counted as zero.
+   */
+  public static int getBucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(0, value);
+    }
+    long v = Math.min(value, MAX_VALUE);
+    int exponent = 63 - Long.numberOfLeadingZeros(v);
+    int subBucket = (int) (v >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Returns the smallest value counted in the given bucket.
+   */
+  public static long getLowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  /**
+   * Returns the largest value counted in the given bucket.
+   */
+  public static long getUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    if (bucket == BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    return getLowerBound(bucket + 1) - 1;
+  }
+
+  /**
+   * Encodes the count of a bucket into the value of a {@link MetricValue}. Small counts are encoded to small values,
+   * which keeps their variable-length encoding short.
+   */
+  public static long encode(int bucket, long count) {
+    return (count << ENCODED_BUCKET_BITS) | bucket;
+  }
+
+  /**
+   * Returns the bucket of a value encoded with {@link #encode(int, long)}.
+   */
+  public static int decodeBucket(long encoded) {
+    return (int) (encoded & ((1 << ENCODED_BUCKET_BITS) - 1));
+  }
+
+  /**
+   * Returns the count of a value encoded with {@link #encode(int, long)}.
+   */
+  public static long decodeCount(long encoded) {
+    return encoded >>> ENCODED_BUCKET_BITS;
+  }
+
+  /**
+   * Returns the given percentile of a histogram, using the nearest-rank method. The result is the largest value of
+   * the bucket of that rank, except for the last bucket, whose lower bound is returned.
+   *
+   * @param counts counts of the histogram, indexed by bucket
+   * @param percentile percentile to compute, in the range (0, 100]
+   * @return the percentile, or {@code 0} if the histogram is empty
+   */
+  public static long getPercentile(long[] counts, double percentile) {
+    if (percentile <= 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be in the range (0, 100]: " + percentile);
+    }
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0L;
+    }
+
+    long rank = Math.max(1L, (long) Math.ceil(percentile / 100d * total));
+    long seen = 0;
+    int bucket = 0;
+    while (bucket < counts.length - 1) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        break;
+      }
+      bucket++;
+    }
+    return bucket == BUCKETS - 1 ? getLowerBound(bucket) : getUpperBound(bucket);
+  }
+}
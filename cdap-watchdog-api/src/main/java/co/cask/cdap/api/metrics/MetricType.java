@@ -16,9 +16,11 @@
 package co.cask.cdap.api.metrics;
 
 /**
- * MetricType - COUNTER or GAUGE type
+ * MetricType - COUNTER, GAUGE or HISTOGRAM type
  */
 public enum MetricType {
   COUNTER,
-  GAUGE
+  GAUGE,
+  // the value encodes the count of one bucket of a histogram, see Histograms
+  HISTOGRAM
 }
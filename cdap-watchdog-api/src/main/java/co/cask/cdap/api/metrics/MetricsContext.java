@@ -34,6 +34,22 @@ public interface MetricsContext extends MetricsCollector {
    */
   MetricsContext childContext(String tagName, String tagValue);
 
+  /**
+   * Records a value in a histogram metric at the current time, from which percentiles can be queried.
+   * Recording does not allocate memory, hence it can be used on the hot path.
+   * @param metricName Name of the metric.
+   * @param value value to record.
+   */
+  void histogram(String metricName, long value);
+
+  /**
+   * Returns a handle to the given counter metric, which can be kept to increment the metric without looking it up
+   * by name on every increment.
+   * @param metricName Name of the metric.
+   * @return a {@link MetricCounter} for the metric
+   */
+  MetricCounter getCounter(String metricName);
+
   /**
    * @return tags that identify the context.
    */
@@ -25,6 +25,13 @@ import java.util.Map;
  */
 public final class NoopMetricsContext implements MetricsContext {
 
+  private static final MetricCounter NOOP_COUNTER = new MetricCounter() {
+    @Override
+    public void increment(long value) {
+      // no-op
+    }
+  };
+
   private final Map<String, String> tags;
 
   public NoopMetricsContext() {
@@ -59,4 +66,14 @@ public final class NoopMetricsContext implements MetricsContext {
   public void gauge(String metricName, long value) {
     // no-op
   }
+
+  @Override
+  public void histogram(String metricName, long value) {
+    // no-op
+  }
+
+  @Override
+  public MetricCounter getCounter(String metricName) {
+    return NOOP_COUNTER;
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.api.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for {@link Histograms}.
+ */
+public class HistogramsTest {
+
+  @Test
+  public void testBuckets() {
+    // small values have their own buckets
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(i, Histograms.getBucket(i));
+      Assert.assertEquals(i, Histograms.getLowerBound(i));
+      Assert.assertEquals(i, Histograms.getUpperBound(i));
+    }
+    Assert.assertEquals(0, Histograms.getBucket(-5));
+
+    // buckets are contiguous, and each value is within the bounds of its bucket
+    for (int bucket = 1; bucket < Histograms.BUCKETS; bucket++) {
+      Assert.assertEquals(Histograms.getUpperBound(bucket - 1) + 1, Histograms.getLowerBound(bucket));
+    }
+    long[] values = { 4, 5, 7, 8, 9, 100, 1000, 123456789L, (1L << 35) - 1 };
+    for (long value : values) {
+      int bucket = Histograms.getBucket(value);
+      Assert.assertTrue(Histograms.getLowerBound(bucket) <= value);
+      Assert.assertTrue(Histograms.getUpperBound(bucket) >= value);
+      // the width of a bucket is at most a quarter of its lower bound
+      Assert.assertTrue(Histograms.getUpperBound(bucket) - Histograms.getLowerBound(bucket) + 1
+                          <= Math.max(1, Histograms.getLowerBound(bucket) / 4));
+    }
+
+    // large values are counted in the last bucket
+    Assert.assertEquals(Histograms.BUCKETS - 1, Histograms.getBucket(Long.MAX_VALUE));
+    Assert.assertEquals(Histograms.BUCKETS - 1, Histograms.getBucket(1L << 36));
+  }
+
+  @Test
+  public void testEncode() {
+    for (int bucket : new int[] { 0, 1, 17, Histograms.BUCKETS - 1 }) {
+      for (long count : new long[] { 1, 2, 1000, 1L << 40 }) {
+        long encoded = Histograms.encode(bucket, count);
+        Assert.assertEquals(bucket, Histograms.decodeBucket(encoded));
+        Assert.assertEquals(count, Histograms.decodeCount(encoded));
+      }
+    }
+  }
+
+  @Test
+  public void testPercentile() {
+    long[] counts = new long[Histograms.BUCKETS];
+    Assert.assertEquals(0L, Histograms.getPercentile(counts, 99));
+
+    for (int i = 1; i <= 100; i++) {
+      counts[Histograms.getBucket(i)]++;
+    }
+    // values are reported as the upper bound of their bucket
+    Assert.assertEquals(Histograms.getUpperBound(Histograms.getBucket(50)), Histograms.getPercentile(counts, 50));
+    Assert.assertEquals(Histograms.getUpperBound(Histograms.getBucket(95)), Histograms.getPercentile(counts, 95));
+    Assert.assertEquals(Histograms.getUpperBound(Histograms.getBucket(100)), Histograms.getPercentile(counts, 100));
+    Assert.assertEquals(1L, Histograms.getPercentile(counts, 1));
+
+    // merging histograms adds their bucket counts
+    long[] merged = counts.clone();
+    merged[Histograms.getBucket(1000)] += 100;
+    Assert.assertEquals(Histograms.getUpperBound(Histograms.getBucket(100)), Histograms.getPercentile(merged, 50));
+    Assert.assertEquals(Histograms.getUpperBound(Histograms.getBucket(1000)), Histograms.getPercentile(merged, 51));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPercentile() {
+    Histograms.getPercentile(new long[Histograms.BUCKETS], 101);
+  }
+}
@@ -41,11 +41,22 @@ public final class LoggingConfiguration {
   public static final String LOG_SAVER_INACTIVE_FILE_INTERVAL_MS = "log.saver.inactive.file.interval.ms";
   public static final String LOG_SAVER_CHECKPOINT_INTERVAL_MS = "log.saver.checkpoint.interval.ms";
   public static final String LOG_SAVER_TOPIC_WAIT_SLEEP_MS = "log.saver.topic.wait.sleep.ms";
+  public static final String LOG_SAVER_WRITER_THREADS = "log.saver.writer.threads";
   public static final String LOG_RETENTION_DURATION_DAYS = "log.retention.duration.days";
+  public static final String LOG_RETENTION_QUOTA_BYTES = "log.retention.quota.bytes";
   public static final String LOG_MAX_FILE_SIZE_BYTES = "log.max.file.size.bytes";
   public static final String KAFKA_PRODUCER_TYPE = "kafka.producer.type";
   public static final String KAFKA_PROCUDER_BUFFER_MS = "kafka.producer.buffer.ms";
+  public static final String KAFKA_PRODUCER_COMPRESSION_CODEC = "kafka.producer.compression.codec";
+  public static final String LOG_PUBLISH_BUFFER_SIZE = "log.publish.buffer.size";
+  public static final String LOG_PUBLISH_BATCH_SIZE = "log.publish.batch.size";
+  public static final String LOG_PUBLISH_OVERFLOW_POLICY = "log.publish.overflow.policy";
+  public static final String LOG_PUBLISH_OVERFLOW_SAMPLE_RATE = "log.publish.overflow.sample.rate";
+  public static final String LOG_PUBLISH_SERIALIZATION_VERSION = "log.publish.serialization.version";
+  public static final String LOG_PUBLISH_CALLER_DATA = "log.publish.caller.data";
   public static final String LOG_CLEANUP_RUN_INTERVAL_MINS = "log.cleanup.run.interval.mins";
+  public static final String LOG_CLEANUP_THREADS = "log.cleanup.threads";
+  public static final String LOG_CLEANUP_MERGE_FILE_SIZE_BYTES = "log.cleanup.merge.file.size.bytes";
 
   // Constants
   // Table used to store log metadata
@@ -54,15 +65,26 @@ public final class LoggingConfiguration {
   public static final String DEFAULT_LOG_PATTERN = "%d{ISO8601} - %-5p [%t:%c{1}@%L] - %m%n";
   public static final String DEFAULT_KAFKA_PRODUCER_TYPE = "async";
   public static final long DEFAULT_KAFKA_PROCUDER_BUFFER_MS = 1000;
+  public static final String DEFAULT_KAFKA_PRODUCER_COMPRESSION_CODEC = "snappy";
   public static final String DEFAULT_NUM_PARTITIONS = "10";
+  public static final int DEFAULT_LOG_PUBLISH_BUFFER_SIZE = 8192;
+  public static final int DEFAULT_LOG_PUBLISH_BATCH_SIZE = 500;
+  public static final String DEFAULT_LOG_PUBLISH_OVERFLOW_POLICY = "DROP_DEBUG";
+  public static final int DEFAULT_LOG_PUBLISH_OVERFLOW_SAMPLE_RATE = 10;
+  public static final int DEFAULT_LOG_PUBLISH_SERIALIZATION_VERSION = 1;
+  public static final boolean DEFAULT_LOG_PUBLISH_CALLER_DATA = true;
   public static final int DEFAULT_LOG_CLEANUP_RUN_INTERVAL_MINS = 24 * 60;
+  public static final int DEFAULT_LOG_CLEANUP_THREADS = 4;
+  public static final long DEFAULT_LOG_CLEANUP_MERGE_FILE_SIZE_BYTES = 1024 * 1024;
 
   public static final long DEFAULT_LOG_SAVER_EVENT_BUCKET_INTERVAL_MS = 1 * 1000;
   public static final long DEFAULT_LOG_SAVER_MAXIMUM_INMEMORY_EVENT_BUCKETS = 8;
   public static final long DEFAULT_LOG_SAVER_INACTIVE_FILE_INTERVAL_MS = 60 * 60 * 1000;
   public static final long DEFAULT_LOG_SAVER_CHECKPOINT_INTERVAL_MS = 60 * 1000;
   public static final long DEFAULT_LOG_RETENTION_DURATION_DAYS = 30;
+  public static final long DEFAULT_LOG_RETENTION_QUOTA_BYTES = -1;
   public static final long DEFAULT_LOG_SAVER_TOPIC_WAIT_SLEEP_MS = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+  public static final int DEFAULT_LOG_SAVER_WRITER_THREADS = 2;
 
   private LoggingConfiguration() {}
 
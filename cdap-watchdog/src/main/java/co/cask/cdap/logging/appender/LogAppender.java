@@ -17,14 +17,14 @@
 package co.cask.cdap.logging.appender;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import co.cask.cdap.common.logging.LoggingContext;
 import co.cask.cdap.common.logging.LoggingContextAccessor;
 
 /**
- * CDAP log appender interface.
+ * CDAP log appender interface. Appends are not serialized, hence implementations must be thread safe.
  */
-public abstract class LogAppender extends AppenderBase<ILoggingEvent> {
+public abstract class LogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
   public final void append(ILoggingEvent eventObject) {
     LoggingContext loggingContext;
     // If the context is not setup, pickup the context from thread-local.
@@ -154,7 +154,8 @@ public class FileLogAppender extends LogAppender {
   }
 
   @Override
-  protected void append(LogMessage logMessage) {
+  protected synchronized void append(LogMessage logMessage) {
+    // appends are serialized here, as LogAppender does not do it
     try {
       GenericRecord datum = LoggingEvent.encode(logSchema, logMessage.getLoggingEvent(),
                                                 logMessage.getLoggingContext());
@@ -16,51 +16,250 @@
 
 package co.cask.cdap.logging.appender.kafka;
 
+import ch.qos.logback.classic.Level;
+import co.cask.cdap.api.metrics.MetricCounter;
+import co.cask.cdap.api.metrics.MetricsCollectionService;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
 import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.logging.LoggingConfiguration;
 import co.cask.cdap.logging.appender.LogAppender;
 import co.cask.cdap.logging.appender.LogMessage;
+import co.cask.cdap.proto.id.NamespaceId;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Log appender that publishes log messages to Kafka.
+ *
+ * Log messages are put into a {@link RingBuffer} by the logging threads, and serialized and published by a single
+ * publisher thread, which sends all messages taken from the buffer at once with a single Kafka request. If messages
+ * are logged faster than they can be published, the {@link OverflowPolicy} decides which messages are dropped, and
+ * for which the logging thread waits. Messages logged by the publisher thread itself are dropped.
  */
 public final class KafkaLogAppender extends LogAppender {
   private static final Logger LOG = LoggerFactory.getLogger(KafkaLogAppender.class);
 
   private static final String APPENDER_NAME = "KafkaLogAppender";
+  // how long a logging thread waits before checking again for space in a full buffer
+  private static final long FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  // how long the publisher thread waits for messages if it is not woken up
+  private static final long EMPTY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  // how long stop() waits for the buffered messages to be published
+  private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  /**
+   * Decides what happens to log messages if the buffer is filling up faster than the messages can be published.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Logging threads wait for space in the buffer.
+     */
+    BLOCK,
+
+    /**
+     * TRACE and DEBUG messages are dropped once the buffer is three quarters full. Logging threads wait for space in
+     * the buffer for other messages.
+     */
+    DROP_DEBUG,
+
+    /**
+     * Only a sample of the messages below WARN is kept once the buffer is three quarters full, and none once it is
+     * full. Logging threads wait for space in the buffer for other messages.
+     */
+    SAMPLE
+  }
+
   private final SimpleKafkaProducer producer;
   private final LoggingEventSerializer loggingEventSerializer;
+  private final RingBuffer<LogMessage> buffer;
+  private final int batchSize;
+  private final OverflowPolicy overflowPolicy;
+  private final int sampleRate;
+  private final int highWatermark;
+  private final AtomicInteger sampleCount = new AtomicInteger();
 
   private final AtomicBoolean stopped = new AtomicBoolean(false);
+  private volatile Thread publisherThread;
+  private volatile boolean publisherWaiting;
+
+  private MetricCounter droppedCounter;
+  private MetricCounter publishedCounter;
+  private MetricsContext metricsContext;
 
   @Inject
   KafkaLogAppender(CConfiguration cConf) {
+    this(cConf, new SimpleKafkaProducer(cConf));
+  }
+
+  @VisibleForTesting
+  KafkaLogAppender(CConfiguration cConf, SimpleKafkaProducer producer) {
     setName(APPENDER_NAME);
     addInfo("Initializing KafkaLogAppender...");
 
-    this.producer = new SimpleKafkaProducer(cConf);
+    this.producer = producer;
     try {
-      this.loggingEventSerializer = new LoggingEventSerializer();
+      this.loggingEventSerializer = new LoggingEventSerializer(
+        cConf.getInt(LoggingConfiguration.LOG_PUBLISH_SERIALIZATION_VERSION,
+                     LoggingConfiguration.DEFAULT_LOG_PUBLISH_SERIALIZATION_VERSION),
+        cConf.getBoolean(LoggingConfiguration.LOG_PUBLISH_CALLER_DATA,
+                         LoggingConfiguration.DEFAULT_LOG_PUBLISH_CALLER_DATA));
     } catch (IOException e) {
       addError("Error initializing KafkaLogAppender.", e);
       throw Throwables.propagate(e);
     }
+    this.buffer = new RingBuffer<>(cConf.getInt(LoggingConfiguration.LOG_PUBLISH_BUFFER_SIZE,
+                                                LoggingConfiguration.DEFAULT_LOG_PUBLISH_BUFFER_SIZE));
+    this.batchSize = cConf.getInt(LoggingConfiguration.LOG_PUBLISH_BATCH_SIZE,
+                                  LoggingConfiguration.DEFAULT_LOG_PUBLISH_BATCH_SIZE);
+    this.overflowPolicy = OverflowPolicy.valueOf(
+      cConf.get(LoggingConfiguration.LOG_PUBLISH_OVERFLOW_POLICY,
+                LoggingConfiguration.DEFAULT_LOG_PUBLISH_OVERFLOW_POLICY).trim().toUpperCase());
+    this.sampleRate = Math.max(1, cConf.getInt(LoggingConfiguration.LOG_PUBLISH_OVERFLOW_SAMPLE_RATE,
+                                               LoggingConfiguration.DEFAULT_LOG_PUBLISH_OVERFLOW_SAMPLE_RATE));
+    this.highWatermark = buffer.capacity() / 4 * 3;
+    setMetricsContext(new NoopMetricsContext());
     addInfo("Successfully initialized KafkaLogAppender.");
   }
 
+  @SuppressWarnings("unused")
+  @Inject(optional = true)
+  void setMetricsCollectionService(MetricsCollectionService metricsCollectionService) {
+    setMetricsContext(metricsCollectionService.getContext(
+      ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NamespaceId.SYSTEM.getNamespace(),
+                      Constants.Metrics.Tag.COMPONENT, "log.appender")));
+  }
+
+  private void setMetricsContext(MetricsContext metricsContext) {
+    this.metricsContext = metricsContext;
+    this.droppedCounter = metricsContext.getCounter("log.appender.dropped");
+    this.publishedCounter = metricsContext.getCounter("log.appender.published");
+  }
+
+  @Override
+  public void start() {
+    if (isStarted()) {
+      return;
+    }
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        publishMessages();
+      }
+    }, "kafka-log-publisher");
+    thread.setDaemon(true);
+    publisherThread = thread;
+    thread.start();
+    super.start();
+  }
+
   @Override
   protected void append(LogMessage logMessage) {
-    try {
-      byte [] bytes = loggingEventSerializer.toBytes(logMessage.getLoggingEvent(), logMessage.getLoggingContext());
-      producer.publish(logMessage.getLoggingContext().getLogPartition(), bytes);
-    } catch (Throwable t) {
-      LOG.error("Got exception while serializing log event {}.", logMessage.getLoggingEvent(), t);
+    if (Thread.currentThread() == publisherThread) {
+      // the publisher thread would wait for itself if the buffer is full, e.g. if the Kafka client logs while
+      // publishing, hence its own messages are never published
+      droppedCounter.increment(1);
+      return;
+    }
+    if (!admit(logMessage.getLevel())) {
+      droppedCounter.increment(1);
+      return;
+    }
+
+    // the message is serialized by the publisher thread, hence everything that depends on the logging thread
+    // has to be captured now
+    logMessage.prepareForDeferredProcessing();
+    logMessage.getCallerData();
+
+    boolean blocking = overflowPolicy == OverflowPolicy.BLOCK || logMessage.getLevel().isGreaterOrEqual(Level.WARN) ||
+      (overflowPolicy == OverflowPolicy.DROP_DEBUG && logMessage.getLevel().isGreaterOrEqual(Level.INFO));
+    while (!buffer.offer(logMessage)) {
+      if (!blocking || stopped.get()) {
+        droppedCounter.increment(1);
+        return;
+      }
+      wakeupPublisher();
+      LockSupport.parkNanos(FULL_WAIT_NANOS);
+    }
+    if (publisherWaiting) {
+      wakeupPublisher();
+    }
+  }
+
+  /**
+   * Returns whether a message of the given level should be added to the buffer according to the
+   * {@link OverflowPolicy}.
+   */
+  private boolean admit(Level level) {
+    if (overflowPolicy == OverflowPolicy.BLOCK || level.isGreaterOrEqual(Level.WARN)
+      || buffer.size() < highWatermark) {
+      return true;
+    }
+    if (overflowPolicy == OverflowPolicy.DROP_DEBUG) {
+      return level.isGreaterOrEqual(Level.INFO);
+    }
+    return sampleCount.incrementAndGet() % sampleRate == 0;
+  }
+
+  private void wakeupPublisher() {
+    Thread thread = publisherThread;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * Takes messages from the buffer and publishes them, until the appender is stopped and the buffer is empty.
+   */
+  private void publishMessages() {
+    ListMultimap<String, byte[]> messages = ArrayListMultimap.create();
+    long[] timestamps = new long[batchSize];
+    while (true) {
+      int count = 0;
+      LogMessage logMessage;
+      while (count < batchSize && (logMessage = buffer.poll()) != null) {
+        try {
+          messages.put(logMessage.getLoggingContext().getLogPartition(),
+                       loggingEventSerializer.toBytes(logMessage.getLoggingEvent(), logMessage.getLoggingContext()));
+          timestamps[count++] = logMessage.getTimeStamp();
+        } catch (Throwable t) {
+          LOG.error("Got exception while serializing log event {}.", logMessage.getLoggingEvent(), t);
+        }
+      }
+
+      if (count > 0) {
+        producer.publish(messages);
+        messages.clear();
+        publishedCounter.increment(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+          metricsContext.histogram("log.appender.publish.latency", now - timestamps[i]);
+        }
+        continue;
+      }
+
+      if (stopped.get()) {
+        return;
+      }
+      publisherWaiting = true;
+      // check again, to not miss a message added before the flag was set
+      if (buffer.size() == 0) {
+        LockSupport.parkNanos(EMPTY_WAIT_NANOS);
+      }
+      publisherWaiting = false;
     }
   }
 
@@ -71,6 +270,19 @@ public final class KafkaLogAppender extends LogAppender {
     }
 
     super.stop();
+    Thread thread = publisherThread;
+    if (thread != null) {
+      // wait for the buffered messages to be published
+      LockSupport.unpark(thread);
+      try {
+        thread.join(STOP_TIMEOUT_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (thread.isAlive()) {
+        LOG.warn("Stopping KafkaLogAppender before all log messages are published.");
+      }
+    }
     producer.stop();
   }
 }
@@ -18,8 +18,10 @@ package co.cask.cdap.logging.appender.kafka;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.logging.serialize.CompactLoggingEventSerializer;
 import co.cask.cdap.logging.serialize.LogSchema;
 import co.cask.cdap.logging.serialize.LoggingEvent;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import kafka.utils.VerifiableProperties;
 import org.apache.avro.Schema;
@@ -37,13 +39,37 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
- * Avro serializer for ILoggingEvent.
+ * Avro serializer for ILoggingEvent. Events are written either with the {@link LogSchema} Avro schema (version 1)
+ * or with the compact encoding of {@link CompactLoggingEventSerializer} (version 2), and both versions are read.
+ *
+ * Version 2 events start with a {@link #VERSION_2} byte. Version 1 events start with the Avro encoded timestamp,
+ * whose first byte always has the highest bit set for timestamps after the epoch, hence they cannot be mistaken
+ * for version 2 events.
  */
 public final class LoggingEventSerializer {
+  public static final int VERSION_1 = 1;
+  public static final int VERSION_2 = 2;
+
   private final LogSchema logSchema;
+  private final int version;
+  private final boolean includeCallerData;
 
   public LoggingEventSerializer() throws IOException {
+    this(VERSION_1, true);
+  }
+
+  /**
+   * Creates a serializer that writes events with the given version.
+   *
+   * @param version version to serialize events with, either {@link #VERSION_1} or {@link #VERSION_2}
+   * @param includeCallerData whether to serialize the caller data of events; only applies to version 2
+   */
+  public LoggingEventSerializer(int version, boolean includeCallerData) throws IOException {
+    Preconditions.checkArgument(version == VERSION_1 || version == VERSION_2,
+                                "Unsupported log serialization version %s", version);
     this.logSchema = new LogSchema();
+    this.version = version;
+    this.includeCallerData = includeCallerData;
   }
 
   public LoggingEventSerializer(VerifiableProperties props) throws IOException {
@@ -57,6 +83,17 @@ public final class LoggingEventSerializer {
   public byte[] toBytes(ILoggingEvent loggingEvent, LoggingContext loggingContext) {
     ByteArrayOutputStream out = new ByteArrayOutputStream();
     BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+    if (version == VERSION_2) {
+      out.write(VERSION_2);
+      try {
+        CompactLoggingEventSerializer.encode(loggingEvent, loggingContext, includeCallerData, encoder);
+        encoder.flush();
+      } catch (IOException e) {
+        throw Throwables.propagate(e);
+      }
+      return out.toByteArray();
+    }
+
     GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(logSchema.getAvroSchema());
     try {
       writer.write(LoggingEvent.encode(logSchema.getAvroSchema(), loggingEvent, loggingContext), encoder);
@@ -67,10 +104,17 @@ public final class LoggingEventSerializer {
   }
 
   public ILoggingEvent fromBytes(ByteBuffer buffer) {
+    if (isVersion2(buffer)) {
+      return decodeVersion2(buffer);
+    }
     return LoggingEvent.decode(toGenericRecord(buffer));
   }
 
   public GenericRecord toGenericRecord(ByteBuffer buffer) {
+    if (isVersion2(buffer)) {
+      return LoggingEvent.encode(logSchema.getAvroSchema(), decodeVersion2(buffer));
+    }
+
     ByteArrayInputStream in;
     if (buffer.hasArray()) {
       in = new ByteArrayInputStream(buffer.array(), buffer.arrayOffset(), buffer.limit());
@@ -92,4 +136,29 @@ public final class LoggingEventSerializer {
   public ILoggingEvent fromGenericRecord(GenericRecord datum) {
     return LoggingEvent.decode(datum);
   }
+
+  private static boolean isVersion2(ByteBuffer buffer) {
+    return buffer.hasRemaining() && buffer.get(buffer.position()) == VERSION_2;
+  }
+
+  private static ILoggingEvent decodeVersion2(ByteBuffer buffer) {
+    ByteBuffer event = buffer.duplicate();
+    // Skip the version byte
+    event.get();
+    ByteArrayInputStream in;
+    if (event.hasArray()) {
+      in = new ByteArrayInputStream(event.array(), event.arrayOffset() + event.position(), event.remaining());
+    } else {
+      byte[] bytes = new byte[event.remaining()];
+      event.get(bytes);
+      in = new ByteArrayInputStream(bytes);
+    }
+
+    BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(in, null);
+    try {
+      return CompactLoggingEventSerializer.decode(decoder);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.appender.kafka;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer, backed by an array.
+ *
+ * Every slot has a sequence number that tells whether the slot is free for the producer that claimed the position,
+ * or holds an element for the consumer. Producers claim positions with a compare-and-set on the tail, hence an
+ * element is never blocked behind a producer that is descheduled after claiming a slot, other than the element
+ * in that slot.
+ *
+ * @param <T> type of the elements
+ */
+final class RingBuffer<T> {
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<T> elements;
+  private final AtomicLongArray sequences;
+  // next position to be claimed by a producer
+  private final AtomicLong tail = new AtomicLong();
+  // next position to be consumed; only updated by the consumer
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Creates a buffer with the given capacity, rounded up to a power of two.
+   */
+  RingBuffer(int capacity) {
+    Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Invalid capacity %s", capacity);
+    this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.elements = new AtomicReferenceArray<>(this.capacity);
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds an element to the buffer if there is space. May be called by any thread.
+   *
+   * @return {@code true} if the element was added, {@code false} if the buffer is full
+   */
+  boolean offer(T element) {
+    while (true) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long sequence = sequences.get(index);
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          // publishes the element to the consumer
+          sequences.set(index, position + 1);
+          return true;
+        }
+      } else if (sequence < position) {
+        // the slot still holds the element of the previous round
+        return false;
+      }
+      // otherwise another producer claimed the position, retry with the new tail
+    }
+  }
+
+  /**
+   * Removes the oldest element of the buffer. Must only be called by the consumer thread.
+   *
+   * @return the element, or {@code null} if the buffer is empty
+   */
+  @Nullable
+  T poll() {
+    long position = head.get();
+    int index = (int) position & mask;
+    if (sequences.get(index) != position + 1) {
+      return null;
+    }
+    T element = elements.get(index);
+    elements.lazySet(index, null);
+    // frees the slot for the producers of the next round
+    sequences.set(index, position + capacity);
+    head.lazySet(position + 1);
+    return element;
+  }
+
+  /**
+   * Returns the approximate number of elements in the buffer.
+   */
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(capacity, size));
+  }
+
+  int capacity() {
+    return capacity;
+  }
+}
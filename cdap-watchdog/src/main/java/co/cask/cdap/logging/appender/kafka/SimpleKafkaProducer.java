@@ -19,18 +19,22 @@ package co.cask.cdap.logging.appender.kafka;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.logging.LoggingConfiguration;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import kafka.javaapi.producer.Producer;
 import kafka.producer.KeyedMessage;
 import kafka.producer.ProducerConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
  * A Kafka producer that publishes log messages to Kafka brokers.
  */
-public final class SimpleKafkaProducer {
+public class SimpleKafkaProducer {
   private static final Logger LOG = LoggerFactory.getLogger(SimpleKafkaProducer.class);
 
   private final String kafkaTopic;
@@ -46,6 +50,8 @@ public final class SimpleKafkaProducer {
     props.setProperty("request.required.acks", "1");
     props.setProperty("producer.type", cConf.get(LoggingConfiguration.KAFKA_PRODUCER_TYPE,
                        LoggingConfiguration.DEFAULT_KAFKA_PRODUCER_TYPE));
+    props.setProperty("compression.codec", cConf.get(LoggingConfiguration.KAFKA_PRODUCER_COMPRESSION_CODEC,
+                      LoggingConfiguration.DEFAULT_KAFKA_PRODUCER_COMPRESSION_CODEC));
     props.setProperty("queue.buffering.max.ms", cConf.get(LoggingConfiguration.KAFKA_PROCUDER_BUFFER_MS,
                       Long.toString(LoggingConfiguration.DEFAULT_KAFKA_PROCUDER_BUFFER_MS)));
     props.setProperty(LoggingConfiguration.NUM_PARTITIONS, cConf.get(LoggingConfiguration.NUM_PARTITIONS,
@@ -65,6 +71,24 @@ public final class SimpleKafkaProducer {
     }
   }
 
+  /**
+   * Publishes the given messages with a single request, keeping the order of the messages of each key.
+   *
+   * @param messages messages by key
+   */
+  public void publish(Multimap<String, byte[]> messages) {
+    List<KeyedMessage<String, byte[]>> data = Lists.newArrayListWithCapacity(messages.size());
+    for (Map.Entry<String, byte[]> entry : messages.entries()) {
+      data.add(new KeyedMessage<>(kafkaTopic, entry.getKey(), entry.getValue()));
+    }
+    try {
+      producer.send(data);
+    } catch (Throwable t) {
+      LOG.error("Exception when trying to publish {} log messages to kafka with keys {} and topic {}",
+                data.size(), messages.keySet(), kafkaTopic, t);
+    }
+  }
+
   public void stop() {
     producer.close();
   }
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.filter;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Helpers to evaluate a {@link Filter} before log events are fully decoded.
+ *
+ * The timestamp, level and MDC of a log event are stored ahead of the other fields, so a filter that only looks at
+ * them can reject an event without decoding the rest of it. Similarly, the maximum level of a block of events is
+ * enough to tell whether a level filter can match any event in the block.
+ */
+public final class FilterPushdown {
+
+  private FilterPushdown() {
+  }
+
+  /**
+   * Returns a filter that only looks at the level and MDC of events, and matches every event that the given filter
+   * matches. Parts of the given filter that need other fields of the events are dropped.
+   *
+   * @return the pushdown filter, or {@link Filter#EMPTY_FILTER} if no part of the given filter can be pushed down
+   */
+  public static Filter getPushdownFilter(Filter filter) {
+    if (filter instanceof LogLevelExpression || filter instanceof MdcExpression) {
+      return filter;
+    }
+    if (filter instanceof AndFilter) {
+      ImmutableList.Builder<Filter> expressions = ImmutableList.builder();
+      for (Filter expression : ((AndFilter) filter).getExpressions()) {
+        Filter pushdown = getPushdownFilter(expression);
+        if (pushdown != Filter.EMPTY_FILTER) {
+          expressions.add(pushdown);
+        }
+      }
+      List<Filter> pushdowns = expressions.build();
+      if (pushdowns.isEmpty()) {
+        return Filter.EMPTY_FILTER;
+      }
+      return pushdowns.size() == 1 ? pushdowns.get(0) : new AndFilter(pushdowns);
+    }
+    if (filter instanceof OrFilter) {
+      ImmutableList.Builder<Filter> expressions = ImmutableList.builder();
+      for (Filter expression : ((OrFilter) filter).getExpressions()) {
+        Filter pushdown = getPushdownFilter(expression);
+        // If any alternative cannot be pushed down, events cannot be rejected by the other alternatives alone
+        if (pushdown == Filter.EMPTY_FILTER) {
+          return Filter.EMPTY_FILTER;
+        }
+        expressions.add(pushdown);
+      }
+      return new OrFilter(expressions.build());
+    }
+    return Filter.EMPTY_FILTER;
+  }
+
+  /**
+   * Returns {@code false} if the given filter cannot match any event with a level less than or equal to the given
+   * level, {@code true} otherwise.
+   *
+   * @param filter the filter to evaluate
+   * @param maxLevel the integer value of the maximum {@link ch.qos.logback.classic.Level} of the events
+   */
+  public static boolean mayMatch(Filter filter, int maxLevel) {
+    if (filter instanceof LogLevelExpression) {
+      return maxLevel >= ((LogLevelExpression) filter).getLevel().toInt();
+    }
+    if (filter instanceof AndFilter) {
+      for (Filter expression : ((AndFilter) filter).getExpressions()) {
+        if (!mayMatch(expression, maxLevel)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (filter instanceof OrFilter) {
+      for (Filter expression : ((OrFilter) filter).getExpressions()) {
+        if (mayMatch(expression, maxLevel)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return true;
+  }
+}
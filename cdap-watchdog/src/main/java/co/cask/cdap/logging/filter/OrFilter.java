@@ -42,6 +42,10 @@ public class OrFilter implements Filter {
     return false;
   }
 
+  List<? extends Filter> getExpressions() {
+    return expressions;
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.filter;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import co.cask.cdap.logging.write.LogTermIndex;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * Represents an expression that matches log events whose message or exceptions contain all the given terms, as
+ * defined by {@link LogTermIndex}.
+ */
+public class TermFilter implements Filter {
+  private final Set<String> terms;
+
+  public TermFilter(Set<String> terms) {
+    this.terms = ImmutableSet.copyOf(terms);
+  }
+
+  @Override
+  public boolean match(ILoggingEvent event) {
+    return LogTermIndex.getEventTerms(event).containsAll(terms);
+  }
+
+  public Set<String> getTerms() {
+    return terms;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("terms", terms)
+      .toString();
+  }
+}
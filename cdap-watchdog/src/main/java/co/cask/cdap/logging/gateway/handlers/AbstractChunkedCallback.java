@@ -22,11 +22,14 @@ import co.cask.http.ChunkResponder;
 import co.cask.http.HttpResponder;
 import com.google.common.collect.Multimap;
 import com.google.common.io.Closeables;
+import org.apache.twill.common.Cancellable;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -39,7 +42,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * LogReader Callback class that uses {@link ChunkResponder} to send logs back in chunks.
  */
-public abstract class AbstractChunkedCallback implements Callback {
+public abstract class AbstractChunkedCallback implements Callback, Flushable {
   private static final Logger LOG = LoggerFactory.getLogger(AbstractChunkedCallback.class);
 
   private final AtomicBoolean closed = new AtomicBoolean();
@@ -48,6 +51,7 @@ public abstract class AbstractChunkedCallback implements Callback {
   private final CharsetEncoder charsetEncoder = Charset.forName("UTF-8").newEncoder();
   private final AtomicInteger count = new AtomicInteger();
   private ChunkResponder chunkResponder;
+  private volatile Cancellable cancellable;
 
   AbstractChunkedCallback(HttpResponder responder) {
     this.responder = responder;
@@ -58,6 +62,17 @@ public abstract class AbstractChunkedCallback implements Callback {
     chunkResponder = responder.sendChunkStart(HttpResponseStatus.OK, getResponseHeaders());
   }
 
+  /**
+   * Sets the subscription that passes log events to this callback. It is cancelled once the response is closed,
+   * or right away if the response is closed already.
+   */
+  void setCancellable(Cancellable cancellable) {
+    this.cancellable = cancellable;
+    if (closed.get()) {
+      cancellable.cancel();
+    }
+  }
+
   @Override
   public int getCount() {
     return count.get();
@@ -79,10 +94,41 @@ public abstract class AbstractChunkedCallback implements Callback {
 
   @Override
   public final void handle(LogEvent event) {
-    handleEvent(event);
+    try {
+      handleEvent(event);
+    } catch (RuntimeException e) {
+      // The chunk could not be sent, e.g. because the client closed the connection
+      close();
+      throw e;
+    }
     count.incrementAndGet();
   }
 
+  /**
+   * Sends the log events encoded so far to the client. If there is nothing to send, a new line is sent instead, which
+   * keeps idle streaming connections alive and detects clients that went away.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (closed.get()) {
+      return;
+    }
+    try {
+      if (chunkBuffer.position() == 0) {
+        encodeSend(CharBuffer.wrap("\n"), false);
+      }
+      chunkBuffer.flip();
+      ChannelBuffer chunk = ChannelBuffers.copiedBuffer(chunkBuffer);
+      chunkBuffer.clear();
+      chunkResponder.sendChunk(chunk);
+    } catch (IOException e) {
+      // The client closed the connection, so the response is closed as well
+      chunkBuffer.clear();
+      close();
+      throw e;
+    }
+  }
+
   @Override
   public void close() {
     // If closed already, then return
@@ -107,6 +153,10 @@ public abstract class AbstractChunkedCallback implements Callback {
       LOG.debug("Failed to send chunk", e);
     } finally {
       Closeables.closeQuietly(chunkResponder);
+      Cancellable cancellable = this.cancellable;
+      if (cancellable != null) {
+        cancellable.cancel();
+      }
     }
   }
 
@@ -29,23 +29,35 @@ import java.nio.CharBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * LogReader callback that sends JSON objects.
+ * LogReader callback that sends JSON objects, either as a JSON array, or line-delimited with one object per line
+ * for streaming responses.
  */
 public abstract class AbstractJSONCallback extends AbstractChunkedCallback {
   private static final Gson GSON = new Gson();
   private final AtomicBoolean started = new AtomicBoolean();
+  private final boolean lineDelimited;
 
   AbstractJSONCallback(HttpResponder responder) {
+    this(responder, false);
+  }
+
+  AbstractJSONCallback(HttpResponder responder, boolean lineDelimited) {
     super(responder);
+    this.lineDelimited = lineDelimited;
   }
 
   @Override
   protected Multimap<String, String> getResponseHeaders() {
-    return ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+    return ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE,
+                                lineDelimited ? "application/x-ndjson" : "application/json");
   }
 
   @Override
   public void writeFinal() throws IOException {
+    if (lineDelimited) {
+      super.writeFinal();
+      return;
+    }
     // If an object has been sent already, then simply send closing bracket.
     // If nothing has been sent so far, then send '[]' indicating an empty list
     if (started.get()) {
@@ -58,6 +70,10 @@ public abstract class AbstractJSONCallback extends AbstractChunkedCallback {
   @Override
   public void handleEvent(LogEvent logEvent) {
     try {
+      if (lineDelimited) {
+        encodeSend(CharBuffer.wrap(GSON.toJson(encodeSend(logEvent)) + "\n"), false);
+        return;
+      }
       // If it is the first logEvent, send an opening bracket.
       // If it is not the first logEvent, send a , to indicate that it is the next element in the list of JSON objects
       if (started.compareAndSet(false, true)) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.gateway.handlers;
+
+import co.cask.cdap.logging.read.LogOffset;
+
+import javax.annotation.Nullable;
+
+/**
+ * Formatted {@link LogData} event found by a log search, along with the program and run that logged it.
+ */
+public final class FormattedLogSearchEvent extends FormattedLogOffset {
+
+  @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
+  private final LogData log;
+  @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
+  private final String application;
+  @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
+  private final String program;
+  @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
+  private final String runId;
+
+  public FormattedLogSearchEvent(LogData log, LogOffset offset, @Nullable String application,
+                                 @Nullable String program, @Nullable String runId) {
+    super(offset);
+    this.log = log;
+    this.application = application;
+    this.program = program;
+    this.runId = runId;
+  }
+}
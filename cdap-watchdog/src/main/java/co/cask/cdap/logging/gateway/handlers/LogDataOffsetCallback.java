@@ -30,9 +30,16 @@ public class LogDataOffsetCallback extends AbstractJSONCallback {
     super(responder);
   }
 
+  LogDataOffsetCallback(HttpResponder responder, boolean lineDelimited) {
+    super(responder, lineDelimited);
+  }
+
   @Override
   public Object encodeSend(LogEvent logEvent) {
-    ILoggingEvent event = logEvent.getLoggingEvent();
+    return new FormattedLogDataEvent(toLogData(logEvent.getLoggingEvent()), logEvent.getOffset());
+  }
+
+  static LogData toLogData(ILoggingEvent event) {
     StackTraceElement[] stackTraceElements = event.getCallerData();
     String className = "";
     String simpleClassName = "";
@@ -45,9 +52,8 @@ public class LogDataOffsetCallback extends AbstractJSONCallback {
       }
       lineNumber = first.getLineNumber();
     }
-    LogData logData = new LogData(event.getTimeStamp(), event.getLevel().toString(), event.getThreadName(),
-                                  className, simpleClassName, lineNumber, event.getFormattedMessage(),
-                                  ThrowableProxyUtil.asString(event.getThrowableProxy()));
-    return new FormattedLogDataEvent(logData, logEvent.getOffset());
+    return new LogData(event.getTimeStamp(), event.getLevel().toString(), event.getThreadName(),
+                       className, simpleClassName, lineNumber, event.getFormattedMessage(),
+                       ThrowableProxyUtil.asString(event.getThrowableProxy()));
   }
 }
@@ -28,9 +28,13 @@ import co.cask.cdap.logging.gateway.handlers.store.ProgramStore;
 import co.cask.cdap.logging.read.Callback;
 import co.cask.cdap.logging.read.LogOffset;
 import co.cask.cdap.logging.read.LogReader;
+import co.cask.cdap.logging.read.LogSearcher;
+import co.cask.cdap.logging.read.LogTailer;
 import co.cask.cdap.logging.read.ReadRange;
+import co.cask.cdap.logging.write.LogTermIndex;
 import co.cask.cdap.proto.Id;
 import co.cask.cdap.proto.ProgramType;
+import co.cask.cdap.proto.id.NamespaceId;
 import co.cask.http.AbstractHttpHandler;
 import co.cask.http.HttpHandler;
 import co.cask.http.HttpResponder;
@@ -60,6 +64,8 @@ public class LogHandler extends AbstractHttpHandler {
   private final LogReader logReader;
   private final ProgramStore programStore;
   private final String logPattern;
+  private LogTailer logTailer;
+  private LogSearcher logSearcher;
 
   @Inject
   public LogHandler(LogReader logReader, CConfiguration cConfig, ProgramStore programStore) {
@@ -68,6 +74,23 @@ public class LogHandler extends AbstractHttpHandler {
     this.logPattern = cConfig.get(LoggingConfiguration.LOG_PATTERN, LoggingConfiguration.DEFAULT_LOG_PATTERN);
   }
 
+  /**
+   * Sets the {@link LogTailer} to stream live logs with. Live logs are only available if one is bound.
+   */
+  @Inject(optional = true)
+  void setLogTailer(LogTailer logTailer) {
+    this.logTailer = logTailer;
+  }
+
+  /**
+   * Sets the {@link LogSearcher} to search logs across programs and runs with. Log search is only available if one
+   * is bound.
+   */
+  @Inject(optional = true)
+  void setLogSearcher(LogSearcher logSearcher) {
+    this.logSearcher = logSearcher;
+  }
+
   @GET
   @Path("/namespaces/{namespace-id}/apps/{app-id}/{program-type}/{program-id}/logs")
   public void getLogs(HttpRequest request, HttpResponder responder, @PathParam("namespace-id") String namespaceId,
@@ -335,6 +358,108 @@ public class LogHandler extends AbstractHttpHandler {
     }
   }
 
+  @GET
+  @Path("/namespaces/{namespace-id}/apps/{app-id}/{program-type}/{program-id}/logs/tail")
+  public void tail(HttpRequest request, HttpResponder responder, @PathParam("namespace-id") String namespaceId,
+                   @PathParam("app-id") String appId, @PathParam("program-type") String programType,
+                   @PathParam("program-id") String programId,
+                   @QueryParam("escape") @DefaultValue("true") boolean escape,
+                   @QueryParam("filter") @DefaultValue("") String filterStr,
+                   @QueryParam("format") @DefaultValue("text") String format) {
+    LoggingContext loggingContext =
+      LoggingContextHelper.getLoggingContext(namespaceId, appId,
+                                             programId, ProgramType.valueOfCategoryName(programType));
+    doTail(responder, loggingContext, escape, filterStr, format);
+  }
+
+  @GET
+  @Path("/namespaces/{namespace-id}/apps/{app-id}/{program-type}/{program-id}/runs/{run-id}/logs/tail")
+  public void runIdTail(HttpRequest request, HttpResponder responder, @PathParam("namespace-id") String namespaceId,
+                        @PathParam("app-id") String appId, @PathParam("program-type") String programType,
+                        @PathParam("program-id") String programId, @PathParam("run-id") String runId,
+                        @QueryParam("escape") @DefaultValue("true") boolean escape,
+                        @QueryParam("filter") @DefaultValue("") String filterStr,
+                        @QueryParam("format") @DefaultValue("text") String format) {
+    ProgramType type = ProgramType.valueOfCategoryName(programType);
+    RunRecordMeta runRecord = programStore.getRun(Id.Program.from(namespaceId, appId, type, programId), runId);
+    LoggingContext loggingContext = LoggingContextHelper.getLoggingContextWithRunId(namespaceId, appId, programId, type,
+                                                                                    runId, runRecord.getSystemArgs());
+    doTail(responder, loggingContext, escape, filterStr, format);
+  }
+
+  @GET
+  @Path("/system/{component-id}/{service-id}/logs/tail")
+  public void sysTail(HttpRequest request, HttpResponder responder, @PathParam("component-id") String componentId,
+                      @PathParam("service-id") String serviceId,
+                      @QueryParam("escape") @DefaultValue("true") boolean escape,
+                      @QueryParam("filter") @DefaultValue("") String filterStr,
+                      @QueryParam("format") @DefaultValue("text") String format) {
+    LoggingContext loggingContext = LoggingContextHelper.getLoggingContext(Id.Namespace.SYSTEM.getId(), componentId,
+                                                                           serviceId);
+    doTail(responder, loggingContext, escape, filterStr, format);
+  }
+
+  /**
+   * Streams the log events published from now on as a chunked response. The response stays open until the client
+   * closes the connection, which ends the subscription to the {@link LogTailer}.
+   */
+  private void doTail(HttpResponder responder, LoggingContext loggingContext, boolean escape, String filterStr,
+                      String format) {
+    if (logTailer == null) {
+      responder.sendString(HttpResponseStatus.NOT_IMPLEMENTED, "Live logs are not available in this mode.");
+      return;
+    }
+    try {
+      Filter filter = FilterParser.parse(filterStr);
+      AbstractChunkedCallback logCallback = getTailLogsCallback(format, responder, escape);
+      // End the subscription once the response is closed, e.g. because the client went away
+      logCallback.setCancellable(logTailer.tail(loggingContext, filter, logCallback));
+    } catch (SecurityException e) {
+      responder.sendStatus(HttpResponseStatus.UNAUTHORIZED);
+    } catch (IllegalArgumentException e) {
+      responder.sendString(HttpResponseStatus.BAD_REQUEST, e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the log events of all programs and runs in a namespace between the given times, whose message or
+   * exceptions contain all the terms of the query.
+   */
+  @GET
+  @Path("/namespaces/{namespace-id}/logs/search")
+  public void search(HttpRequest request, HttpResponder responder, @PathParam("namespace-id") String namespaceId,
+                     @QueryParam("q") @DefaultValue("") String query,
+                     @QueryParam("start") @DefaultValue("-1") long fromTimeSecsParam,
+                     @QueryParam("stop") @DefaultValue("-1") long toTimeSecsParam,
+                     @QueryParam("max") @DefaultValue("50") int maxEvents,
+                     @QueryParam("filter") @DefaultValue("") String filterStr) {
+    if (logSearcher == null) {
+      responder.sendString(HttpResponseStatus.NOT_IMPLEMENTED, "Log search is not available in this mode.");
+      return;
+    }
+    try {
+      TimeRange timeRange = parseTime(fromTimeSecsParam, toTimeSecsParam, responder);
+      if (timeRange == null) {
+        return;
+      }
+      if (LogTermIndex.getTerms(query).isEmpty()) {
+        responder.sendString(HttpResponseStatus.BAD_REQUEST, "Query parameter 'q' must contain at least one term " +
+          "of letters and digits.");
+        return;
+      }
+
+      Filter filter = FilterParser.parse(filterStr);
+      Callback logCallback = new LogSearchCallback(responder);
+      logSearcher.search(new NamespaceId(namespaceId), query, timeRange.getFromMillis(), timeRange.getToMillis(),
+                         maxEvents, filter, logCallback);
+      logCallback.close();
+    } catch (SecurityException e) {
+      responder.sendStatus(HttpResponseStatus.UNAUTHORIZED);
+    } catch (IllegalArgumentException e) {
+      responder.sendString(HttpResponseStatus.BAD_REQUEST, e.getMessage());
+    }
+  }
+
   private static final class TimeRange {
     private final long fromMillis;
     private final long toMillis;
@@ -393,6 +518,16 @@ public class LogHandler extends AbstractHttpHandler {
     }
   }
 
+  private AbstractChunkedCallback getTailLogsCallback(String format, HttpResponder responder, boolean escape) {
+    LogFormatType formatType = getFormatType(format);
+    switch (formatType) {
+      case JSON:
+        return new LogDataOffsetCallback(responder, true);
+      default:
+        return new TextCallback(responder, logPattern, escape);
+    }
+  }
+
   private static LogFormatType getFormatType(String format) {
     return LogFormatType.valueOf(format.toUpperCase());
   }
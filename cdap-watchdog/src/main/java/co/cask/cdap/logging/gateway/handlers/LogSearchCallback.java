@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.gateway.handlers;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import co.cask.cdap.common.logging.ApplicationLoggingContext;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.logging.context.LoggingContextHelper;
+import co.cask.cdap.logging.read.LogEvent;
+import co.cask.http.HttpResponder;
+
+import java.util.Map;
+
+/**
+ * LogSearcher callback to encode log events found across programs and runs, as {@link FormattedLogSearchEvent}
+ * objects.
+ */
+public class LogSearchCallback extends AbstractJSONCallback {
+
+  LogSearchCallback(HttpResponder responder) {
+    super(responder);
+  }
+
+  @Override
+  public Object encodeSend(LogEvent logEvent) {
+    ILoggingEvent event = logEvent.getLoggingEvent();
+    Map<String, String> mdc = event.getMDCPropertyMap();
+    String application = null;
+    String program = null;
+    String runId = null;
+    if (mdc != null) {
+      runId = mdc.get(ApplicationLoggingContext.TAG_RUN_ID);
+      try {
+        LoggingContext loggingContext = LoggingContextHelper.getLoggingContext(mdc);
+        if (loggingContext != null) {
+          // The log partition is <namespace>:<application>:<program>
+          String[] partition = loggingContext.getLogPartition().split(":");
+          if (partition.length == 3) {
+            application = partition[1];
+            program = partition[2];
+          }
+        }
+      } catch (IllegalArgumentException e) {
+        // The event does not have the tags of a program, leave the program unknown
+      }
+    }
+    return new FormattedLogSearchEvent(LogDataOffsetCallback.toLogData(event), logEvent.getOffset(),
+                                       application, program, runId);
+  }
+}
@@ -21,7 +21,11 @@ import co.cask.cdap.data2.security.RemoteUGIProvider;
 import co.cask.cdap.data2.security.UGIProvider;
 import co.cask.cdap.logging.read.DistributedLogReader;
 import co.cask.cdap.logging.read.FileLogReader;
+import co.cask.cdap.logging.read.FileLogSearcher;
+import co.cask.cdap.logging.read.KafkaLogTailer;
 import co.cask.cdap.logging.read.LogReader;
+import co.cask.cdap.logging.read.LogSearcher;
+import co.cask.cdap.logging.read.LogTailer;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.Scopes;
@@ -37,6 +41,7 @@ public final class LogReaderRuntimeModules extends RuntimeModule {
       @Override
       protected void configure() {
         bind(LogReader.class).to(FileLogReader.class);
+        bind(LogSearcher.class).to(FileLogSearcher.class);
       }
     };
   }
@@ -47,6 +52,7 @@ public final class LogReaderRuntimeModules extends RuntimeModule {
       @Override
       protected void configure() {
         bind(LogReader.class).to(FileLogReader.class);
+        bind(LogSearcher.class).to(FileLogSearcher.class);
       }
     };
   }
@@ -57,6 +63,8 @@ public final class LogReaderRuntimeModules extends RuntimeModule {
       @Override
       protected void configure() {
         bind(LogReader.class).to(DistributedLogReader.class);
+        bind(LogSearcher.class).to(FileLogSearcher.class);
+        bind(LogTailer.class).to(KafkaLogTailer.class);
         bind(UGIProvider.class).to(RemoteUGIProvider.class).in(Scopes.SINGLETON);
       }
     };
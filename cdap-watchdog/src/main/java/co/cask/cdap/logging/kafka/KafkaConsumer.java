@@ -64,6 +64,7 @@ public final class KafkaConsumer implements Closeable {
   private final String topic;
   private final int partition;
   private final int fetchTimeoutMs;
+  private final int minFetchBytes;
   private final String clientName;
 
   // Simple consumer is thread safe
@@ -78,10 +79,26 @@ public final class KafkaConsumer implements Closeable {
    */
   public KafkaConsumer(List<KafkaHost> seedBrokers, String topic, int partition,
                        int fetchTimeoutMs) {
+    this(seedBrokers, topic, partition, fetchTimeoutMs, 0);
+  }
+
+  /**
+   * Creates a KafkaConsumer with initial set of seed brokers, topic and partition. Fetches wait on the broker until
+   * at least minFetchBytes are available or the fetch timeout expires, which allows to wait for new messages
+   * without polling.
+   * @param seedBrokers list of seed brokers
+   * @param topic Kafka topic to subscribe to
+   * @param partition topic partition to subscribe to
+   * @param fetchTimeoutMs timeout for a Kafka fetch call
+   * @param minFetchBytes minimum number of bytes to wait for in a Kafka fetch call
+   */
+  public KafkaConsumer(List<KafkaHost> seedBrokers, String topic, int partition,
+                       int fetchTimeoutMs, int minFetchBytes) {
     this.replicaBrokers = Lists.newArrayList(seedBrokers);
     this.topic = topic;
     this.partition = partition;
     this.fetchTimeoutMs = fetchTimeoutMs;
+    this.minFetchBytes = minFetchBytes;
     this.clientName = String.format("%s_%s_%d", getClass().getName(), topic, partition);
   }
 
@@ -95,6 +112,10 @@ public final class KafkaConsumer implements Closeable {
     ByteBufferMessageSet messageSet = fetchMessageSet(offset);
     int msgCount = 0;
     for (MessageAndOffset msg : messageSet) {
+      // A fetch from the middle of a compressed message set returns the whole set
+      if (msg.offset() < offset) {
+        continue;
+      }
       ++msgCount;
       callback.handle(msg.offset(), msg.message().payload());
     }
@@ -177,6 +198,7 @@ public final class KafkaConsumer implements Closeable {
         .clientId(clientName)
         .addFetch(topic, partition, fetchOffset, BUFFER_SIZE_BYTES)
         .maxWait(fetchTimeoutMs)
+        .minBytes(minFetchBytes)
         .build();
       FetchResponse fetchResponse = consumer.fetch(req);
 
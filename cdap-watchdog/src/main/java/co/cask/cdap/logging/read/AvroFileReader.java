@@ -21,7 +21,10 @@ import co.cask.cdap.common.io.Locations;
 import co.cask.cdap.common.io.SeekableInputStream;
 import co.cask.cdap.data2.security.Impersonator;
 import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.filter.FilterPushdown;
 import co.cask.cdap.logging.serialize.LoggingEvent;
+import co.cask.cdap.logging.serialize.LoggingEventDatumReader;
+import co.cask.cdap.logging.write.LogFileIndex;
 import co.cask.cdap.proto.id.NamespaceId;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
@@ -30,7 +33,6 @@ import com.google.common.collect.Lists;
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.file.SeekableInput;
-import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.twill.filesystem.Location;
 import org.slf4j.Logger;
@@ -39,7 +41,10 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.concurrent.Callable;
 
 /**
@@ -58,17 +63,25 @@ public class AvroFileReader {
   public void readLog(Location file, Filter logFilter, long fromTimeMs, long toTimeMs,
                       int maxEvents, Callback callback, NamespaceId namespaceId, Impersonator impersonator) {
     try {
-      DataFileReader<GenericRecord> dataFileReader = createReader(file, namespaceId, impersonator);
+      LoggingEventDatumReader datumReader = new LoggingEventDatumReader(schema, logFilter);
+      DataFileReader<GenericRecord> dataFileReader = createReader(file, datumReader, namespaceId, impersonator);
       try {
-        ILoggingEvent loggingEvent;
-        GenericRecord datum;
-        if (dataFileReader.hasNext()) {
+        GenericRecord datum = null;
+        List<LogFileIndex.Segment> index = readIndex(file, file.length(), namespaceId, impersonator);
+        Map<Long, Long> skips = getSkippedSegments(index, logFilter);
+        if (!index.isEmpty()) {
+          // Seek directly to the first block that can contain events at or after fromTimeMs
+          long startPosition = getStartPosition(index, fromTimeMs);
+          LOG.trace("Seeking to pos {} using index", startPosition);
+          dataFileReader.seek(startPosition);
+          skipSegments(dataFileReader, skips);
+        } else if (dataFileReader.hasNext()) {
           datum = dataFileReader.next();
-          loggingEvent = LoggingEvent.decode(datum);
+          long timestamp = getTimestamp(datum);
           long prevPrevSyncPos = 0;
           long prevSyncPos = 0;
           // Seek to time fromTimeMs
-          while (loggingEvent.getTimeStamp() < fromTimeMs && dataFileReader.hasNext()) {
+          while (timestamp < fromTimeMs && dataFileReader.hasNext()) {
             // Seek to the next sync point
             long curPos = dataFileReader.tell();
             prevPrevSyncPos = prevSyncPos;
@@ -76,29 +89,97 @@ public class AvroFileReader {
             LOG.trace("Syncing to pos {}", curPos);
             dataFileReader.sync(curPos);
             if (dataFileReader.hasNext()) {
-              loggingEvent = LoggingEvent.decode(dataFileReader.next(datum));
+              datum = dataFileReader.next(datum);
+              timestamp = getTimestamp(datum);
             }
           }
 
           // We're now likely past the record with fromTimeMs, rewind to the previous sync point
           dataFileReader.sync(prevPrevSyncPos);
           LOG.trace("Final sync pos {}", prevPrevSyncPos);
+        }
 
-          // Start reading events from file
-          int count = 0;
-          long prevTimestamp = -1;
-          while (dataFileReader.hasNext()) {
-            loggingEvent = LoggingEvent.decode(dataFileReader.next(datum));
-            if (loggingEvent.getTimeStamp() >= fromTimeMs && logFilter.match(loggingEvent)) {
-              ++count;
-              if ((count > maxEvents || loggingEvent.getTimeStamp() >= toTimeMs)
-                && loggingEvent.getTimeStamp() != prevTimestamp) {
-                break;
-              }
+        // Start reading events from file
+        int count = 0;
+        long prevTimestamp = -1;
+        while (dataFileReader.hasNext()) {
+          datum = dataFileReader.next(datum);
+          if (datumReader.isFiltered()) {
+            // The event is rejected by the filter pushed down to the datum reader, it is not fully decoded
+            prevTimestamp = getTimestamp(datum);
+            skipSegments(dataFileReader, skips);
+            continue;
+          }
+          ILoggingEvent loggingEvent = LoggingEvent.decode(datum);
+          if (loggingEvent.getTimeStamp() >= fromTimeMs && logFilter.match(loggingEvent)) {
+            ++count;
+            if ((count > maxEvents || loggingEvent.getTimeStamp() >= toTimeMs)
+              && loggingEvent.getTimeStamp() != prevTimestamp) {
+              break;
+            }
+            callback.handle(new LogEvent(loggingEvent,
+                                         new LogOffset(LogOffset.INVALID_KAFKA_OFFSET, loggingEvent.getTimeStamp())));
+          }
+          prevTimestamp = loggingEvent.getTimeStamp();
+          skipSegments(dataFileReader, skips);
+        }
+      } finally {
+        try {
+          dataFileReader.close();
+        } catch (IOException e) {
+          LOG.error("Got exception while closing log file {}", file, e);
+        }
+      }
+    } catch (Exception e) {
+      LOG.error("Got exception while reading log file {}", file, e);
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Reads the events in the given ranges of a log file, passing the ones within the time range that match the filter
+   * to the callback.
+   *
+   * @param ranges map from the start to the end sync position of each range to read; a range starting at 0 starts
+   *               with the first block of the file, and a range ending at {@link Long#MAX_VALUE} ends with the file
+   */
+  public void readRanges(Location file, SortedMap<Long, Long> ranges, Filter logFilter, long fromTimeMs,
+                         long toTimeMs, int maxEvents, Callback callback, NamespaceId namespaceId,
+                         Impersonator impersonator) {
+    if (ranges.isEmpty() || maxEvents <= 0) {
+      return;
+    }
+    try {
+      LoggingEventDatumReader datumReader = new LoggingEventDatumReader(schema, logFilter);
+      DataFileReader<GenericRecord> dataFileReader = createReader(file, datumReader, namespaceId, impersonator);
+      try {
+        GenericRecord datum = null;
+        int count = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+          if (range.getKey() == 0) {
+            // Skip the header of the file
+            dataFileReader.sync(0);
+          } else {
+            dataFileReader.seek(range.getKey());
+          }
+          LOG.trace("Reading range from pos {} to pos {}", range.getKey(), range.getValue());
+          long currentSyncPosition = dataFileReader.previousSync();
+          while (currentSyncPosition < range.getValue() && dataFileReader.hasNext()) {
+            datum = dataFileReader.next(datum);
+            currentSyncPosition = dataFileReader.previousSync();
+            // Events rejected by the filter pushed down to the datum reader are not fully decoded
+            if (datumReader.isFiltered()) {
+              continue;
+            }
+            ILoggingEvent loggingEvent = LoggingEvent.decode(datum);
+            if (loggingEvent.getTimeStamp() >= fromTimeMs && loggingEvent.getTimeStamp() < toTimeMs
+              && logFilter.match(loggingEvent)) {
               callback.handle(new LogEvent(loggingEvent,
                                            new LogOffset(LogOffset.INVALID_KAFKA_OFFSET, loggingEvent.getTimeStamp())));
+              if (++count >= maxEvents) {
+                return;
+              }
             }
-            prevTimestamp = loggingEvent.getTimeStamp();
           }
         }
       } finally {
@@ -117,19 +198,25 @@ public class AvroFileReader {
   public Collection<LogEvent> readLogPrev(Location file, Filter logFilter, long fromTimeMs, final int maxEvents,
                                           NamespaceId namespaceId, Impersonator impersonator) {
     try {
-      DataFileReader<GenericRecord> dataFileReader = createReader(file, namespaceId, impersonator);
+      LoggingEventDatumReader datumReader = new LoggingEventDatumReader(schema, logFilter);
+      DataFileReader<GenericRecord> dataFileReader = createReader(file, datumReader, namespaceId, impersonator);
 
       try {
         if (!dataFileReader.hasNext()) {
           return ImmutableList.of();
         }
 
+        long length = file.length();
+        List<LogFileIndex.Segment> index = readIndex(file, length, namespaceId, impersonator);
+        if (!index.isEmpty()) {
+          return readLogPrev(dataFileReader, datumReader, index, logFilter, fromTimeMs, maxEvents);
+        }
+
         List<List<LogEvent>> logSegments = Lists.newArrayList();
         List<LogEvent> logSegment;
         int count = 0;
 
         // Calculate skipLen based on fileLength
-        long length = file.length();
         LOG.trace("Got file length {}", length);
         long skipLen = length / 10;
         if (skipLen > DEFAULT_SKIP_LEN || skipLen <= 0) {
@@ -139,7 +226,7 @@ public class AvroFileReader {
         // For open file, endPosition sync marker is unknown so start from file length and read till the actual eof
         dataFileReader.sync(length);
         long finalSync = dataFileReader.previousSync();
-        logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, -1);
+        logSegment = readToEndSyncPosition(dataFileReader, datumReader, logFilter, fromTimeMs, -1);
 
         if (!logSegment.isEmpty()) {
           logSegments.add(logSegment);
@@ -156,7 +243,7 @@ public class AvroFileReader {
           // Skip to sync position less than current sync position
           startPosition = skipToPosition(dataFileReader, startPosition, endPosition, skipLen);
           currentSync = dataFileReader.previousSync();
-          logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, endPosition);
+          logSegment = readToEndSyncPosition(dataFileReader, datumReader, logFilter, fromTimeMs, endPosition);
 
           if (!logSegment.isEmpty()) {
             logSegments.add(logSegment);
@@ -182,10 +269,115 @@ public class AvroFileReader {
     }
   }
 
+  /**
+   * Reads events at or before fromTimeMs by walking the segments of the index backward, starting with the
+   * unindexed tail of the file. Segments with events only after fromTimeMs, or without events of a level
+   * the filter can match, are skipped without reading.
+   */
+  private Collection<LogEvent> readLogPrev(DataFileReader<GenericRecord> dataFileReader,
+                                           LoggingEventDatumReader datumReader, List<LogFileIndex.Segment> index,
+                                           Filter logFilter, long fromTimeMs, int maxEvents) throws IOException {
+    List<List<LogEvent>> logSegments = Lists.newArrayList();
+
+    // For open file, the part after the last index entry is not indexed yet, read it till the actual eof
+    long tailPosition = index.get(index.size() - 1).getEnd();
+    dataFileReader.seek(tailPosition);
+    List<LogEvent> logSegment = readToEndSyncPosition(dataFileReader, datumReader, logFilter, fromTimeMs, -1);
+    logSegments.add(logSegment);
+    int count = logSegment.size();
+    LOG.trace("Read logevents {} from position {}", count, tailPosition);
+
+    for (int i = index.size() - 1; i >= 0 && count < maxEvents; i--) {
+      LogFileIndex.Segment segment = index.get(i);
+      if (segment.getMinTimestamp() > fromTimeMs || !FilterPushdown.mayMatch(logFilter, segment.getMaxLevel())) {
+        continue;
+      }
+      dataFileReader.seek(segment.getStart());
+      logSegment = readToEndSyncPosition(dataFileReader, datumReader, logFilter, fromTimeMs, segment.getEnd());
+      logSegments.add(logSegment);
+      count += logSegment.size();
+      LOG.trace("Read logevents {} from position {} to endPosition {}", count, segment.getStart(), segment.getEnd());
+    }
+
+    int skip = count >= maxEvents ? count - maxEvents : 0;
+    return Lists.newArrayList(Iterables.skip(Iterables.concat(Lists.reverse(logSegments)), skip));
+  }
+
+  /**
+   * Returns the start position of the first segment that has events at or after the given time. If there is no
+   * such segment, returns the end of the last segment, so that only the unindexed tail of the file gets read.
+   */
+  private long getStartPosition(List<LogFileIndex.Segment> index, long fromTimeMs) {
+    for (LogFileIndex.Segment segment : index) {
+      if (segment.getMaxTimestamp() >= fromTimeMs) {
+        return segment.getStart();
+      }
+    }
+    return index.get(index.size() - 1).getEnd();
+  }
+
+  /**
+   * Returns the runs of consecutive segments that cannot have events matching the filter, based on the maximum
+   * level of the events in them, as a map from the start position to the end position of each run.
+   */
+  private Map<Long, Long> getSkippedSegments(List<LogFileIndex.Segment> index, Filter logFilter) {
+    Map<Long, Long> skips = new HashMap<>();
+    Long runStart = null;
+    for (LogFileIndex.Segment segment : index) {
+      if (FilterPushdown.mayMatch(logFilter, segment.getMaxLevel())) {
+        runStart = null;
+        continue;
+      }
+      if (runStart == null) {
+        runStart = segment.getStart();
+      }
+      skips.put(runStart, segment.getEnd());
+    }
+    return skips;
+  }
+
+  /**
+   * Seeks past the segments that cannot have matching events if the reader is at the start of them.
+   */
+  private void skipSegments(DataFileReader<GenericRecord> dataFileReader, Map<Long, Long> skips) throws IOException {
+    if (skips.isEmpty()) {
+      return;
+    }
+    Long skipTo = skips.get(dataFileReader.previousSync());
+    if (skipTo != null) {
+      LOG.trace("Skipping segments from pos {} to pos {}", dataFileReader.previousSync(), skipTo);
+      dataFileReader.seek(skipTo);
+    }
+  }
+
+  private static long getTimestamp(GenericRecord datum) {
+    return (Long) datum.get("timestamp");
+  }
+
+  /**
+   * Reads the index of the given log file. Returns an empty list if the file has no index or the index cannot be
+   * read, in which case the file is read by scanning through the sync points.
+   */
+  private List<LogFileIndex.Segment> readIndex(final Location file, final long length, NamespaceId namespaceId,
+                                               Impersonator impersonator) {
+    try {
+      return impersonator.doAs(namespaceId, new Callable<List<LogFileIndex.Segment>>() {
+        @Override
+        public List<LogFileIndex.Segment> call() throws Exception {
+          return LogFileIndex.read(file, length);
+        }
+      });
+    } catch (Exception e) {
+      LOG.warn("Failed to read index of log file {}, scanning the file instead", file, e);
+      return ImmutableList.of();
+    }
+  }
+
   /**
    *  Read current block in Avro file from current block sync marker to next block sync marker
    */
-  private List<LogEvent> readToEndSyncPosition(DataFileReader<GenericRecord> dataFileReader, Filter logFilter,
+  private List<LogEvent> readToEndSyncPosition(DataFileReader<GenericRecord> dataFileReader,
+                                               LoggingEventDatumReader datumReader, Filter logFilter,
                                                long fromTimeMs, long endSyncPosition) throws IOException {
 
     List<LogEvent> logSegment = new ArrayList<>();
@@ -195,16 +387,19 @@ public class AvroFileReader {
     // or read until endSyncPosition has reached
     while (dataFileReader.hasNext() && (endSyncPosition == -1 || (currentSyncPosition < endSyncPosition))) {
       datum = dataFileReader.next(datum);
-      ILoggingEvent loggingEvent = LoggingEvent.decode(datum);
 
       // Stop when reached fromTimeMs
-      if (loggingEvent.getTimeStamp() > fromTimeMs) {
+      if (getTimestamp(datum) > fromTimeMs) {
         break;
       }
 
-      if (logFilter.match(loggingEvent)) {
-        logSegment.add(new LogEvent(loggingEvent,
-                                    new LogOffset(LogOffset.INVALID_KAFKA_OFFSET, loggingEvent.getTimeStamp())));
+      // Events rejected by the filter pushed down to the datum reader are not fully decoded
+      if (!datumReader.isFiltered()) {
+        ILoggingEvent loggingEvent = LoggingEvent.decode(datum);
+        if (logFilter.match(loggingEvent)) {
+          logSegment.add(new LogEvent(loggingEvent,
+                                      new LogOffset(LogOffset.INVALID_KAFKA_OFFSET, loggingEvent.getTimeStamp())));
+        }
       }
       currentSyncPosition = dataFileReader.previousSync();
     }
@@ -228,10 +423,10 @@ public class AvroFileReader {
     return startPosition;
   }
 
-  private DataFileReader<GenericRecord> createReader(Location location, NamespaceId namespaceId,
+  private DataFileReader<GenericRecord> createReader(Location location, LoggingEventDatumReader datumReader,
+                                                     NamespaceId namespaceId,
                                                      Impersonator impersonator) throws IOException {
-    return new DataFileReader<>(new LocationSeekableInput(location, namespaceId, impersonator),
-                                new GenericDatumReader<GenericRecord>(schema));
+    return new DataFileReader<>(new LocationSeekableInput(location, namespaceId, impersonator), datumReader);
   }
 
   /**
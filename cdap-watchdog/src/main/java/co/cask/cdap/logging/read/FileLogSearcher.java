@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.read;
+
+import co.cask.cdap.data2.security.Impersonator;
+import co.cask.cdap.logging.filter.AndFilter;
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.filter.TermFilter;
+import co.cask.cdap.logging.serialize.LogSchema;
+import co.cask.cdap.logging.write.FileMetaDataManager;
+import co.cask.cdap.logging.write.LogTermIndex;
+import co.cask.cdap.proto.id.NamespaceId;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import org.apache.avro.Schema;
+import org.apache.twill.filesystem.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Searches the log files of a namespace with their {@link LogTermIndex}. Only the segments of the log files that the
+ * term index points to are read, along with the part of each file that is not indexed yet. Log files written without
+ * a term index are not searched.
+ */
+public class FileLogSearcher implements LogSearcher {
+  private static final Logger LOG = LoggerFactory.getLogger(FileLogSearcher.class);
+
+  private static final Comparator<Map.Entry<Long, Location>> START_TIME_COMPARATOR =
+    new Comparator<Map.Entry<Long, Location>>() {
+      @Override
+      public int compare(Map.Entry<Long, Location> o1, Map.Entry<Long, Location> o2) {
+        return o1.getKey().compareTo(o2.getKey());
+      }
+    };
+
+  private final FileMetaDataManager fileMetaDataManager;
+  private final Schema schema;
+  private final Impersonator impersonator;
+
+  @Inject
+  public FileLogSearcher(FileMetaDataManager fileMetaDataManager, Impersonator impersonator) {
+    try {
+      this.schema = new LogSchema().getAvroSchema();
+    } catch (Exception e) {
+      LOG.error("Got exception", e);
+      throw Throwables.propagate(e);
+    }
+    this.fileMetaDataManager = fileMetaDataManager;
+    this.impersonator = impersonator;
+  }
+
+  @Override
+  public void search(NamespaceId namespaceId, String query, long fromTimeMs, long toTimeMs, int maxEvents,
+                     Filter filter, Callback callback) {
+    Set<String> terms = LogTermIndex.getTerms(query);
+    Preconditions.checkArgument(!terms.isEmpty(), "Search query has no terms: '%s'", query);
+    int[] termHashes = LogTermIndex.hashAll(terms);
+    Filter logFilter = new AndFilter(ImmutableList.of(new TermFilter(terms), filter));
+
+    callback.init();
+    try {
+      List<Map.Entry<Long, Location>> files = getFilesInRange(fileMetaDataManager.listFiles(namespaceId),
+                                                              fromTimeMs, toTimeMs);
+      AvroFileReader avroFileReader = new AvroFileReader(schema);
+      for (Map.Entry<Long, Location> entry : files) {
+        Location file = entry.getValue();
+        long length = file.length();
+        List<LogTermIndex.Entry> index = readTermIndex(file, length, namespaceId);
+        if (index == null) {
+          LOG.trace("Skipping file {} without term index", file);
+          continue;
+        }
+
+        SortedMap<Long, Long> ranges = new TreeMap<>();
+        for (LogTermIndex.Entry segment : index) {
+          if (segment.getMaxTimestamp() >= fromTimeMs && segment.getMinTimestamp() < toTimeMs
+            && segment.mayContainAll(termHashes)) {
+            ranges.put(segment.getStart(), segment.getEnd());
+          }
+        }
+        // The part after the last index entry of an open file is not indexed yet, read it till the actual eof
+        ranges.put(index.isEmpty() ? 0L : index.get(index.size() - 1).getEnd(), Long.MAX_VALUE);
+
+        LOG.trace("Reading {} of {} segments of file {}", ranges.size() - 1, index.size(), file);
+        avroFileReader.readRanges(file, ranges, logFilter, fromTimeMs, toTimeMs, maxEvents - callback.getCount(),
+                                  callback, namespaceId, impersonator);
+        if (callback.getCount() >= maxEvents) {
+          break;
+        }
+      }
+    } catch (Throwable e) {
+      LOG.error("Got exception: ", e);
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Returns the log files of all log partitions that can have events between the given times, ordered by the time
+   * of the first event in them.
+   */
+  private List<Map.Entry<Long, Location>> getFilesInRange(Map<String, NavigableMap<Long, Location>> partitions,
+                                                          long fromTimeMs, long toTimeMs) {
+    List<Map.Entry<Long, Location>> files = new ArrayList<>();
+    for (NavigableMap<Long, Location> sortedFiles : partitions.values()) {
+      if (sortedFiles.isEmpty()) {
+        continue;
+      }
+      // Each file is associated with the time of the first log message in it, hence the file before fromTimeMs
+      // can have events after fromTimeMs.
+      Long start = sortedFiles.floorKey(fromTimeMs);
+      if (start == null) {
+        start = sortedFiles.firstKey();
+      }
+      if (start >= toTimeMs) {
+        continue;
+      }
+      for (Map.Entry<Long, Location> entry : sortedFiles.subMap(start, true, toTimeMs, false).entrySet()) {
+        files.add(Maps.immutableEntry(entry.getKey(), entry.getValue()));
+      }
+    }
+    Collections.sort(files, START_TIME_COMPARATOR);
+    return files;
+  }
+
+  private List<LogTermIndex.Entry> readTermIndex(final Location file, final long length,
+                                                 NamespaceId namespaceId) throws Exception {
+    return impersonator.doAs(namespaceId, new Callable<List<LogTermIndex.Entry>>() {
+      @Override
+      public List<LogTermIndex.Entry> call() throws Exception {
+        return LogTermIndex.read(file, length);
+      }
+    });
+  }
+}
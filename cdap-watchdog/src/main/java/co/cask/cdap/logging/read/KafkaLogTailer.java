@@ -0,0 +1,290 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.read;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.logging.LoggingConfiguration;
+import co.cask.cdap.logging.appender.kafka.LoggingEventSerializer;
+import co.cask.cdap.logging.appender.kafka.StringPartitioner;
+import co.cask.cdap.logging.context.LoggingContextHelper;
+import co.cask.cdap.logging.filter.AndFilter;
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.kafka.KafkaConsumer;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import kafka.common.OffsetOutOfRangeException;
+import org.apache.twill.common.Cancellable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Flushable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails log events stored in Kafka. There is at most one fetch thread per Kafka partition, which long-polls the
+ * broker and decodes each message once for all subscribers of the partition. Every subscriber keeps its own
+ * start offset, so that it only sees the events published after it subscribed.
+ */
+@Singleton
+public class KafkaLogTailer implements LogTailer {
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaLogTailer.class);
+
+  // Maximum time a fetch waits on the broker for new messages
+  private static final int KAFKA_FETCH_WAIT_MS = 500;
+  // Interval to send heartbeats to idle subscribers
+  private static final long HEARTBEAT_INTERVAL_MS = TimeUnit.SECONDS.toMillis(5);
+  // Time to wait before retrying after a failed fetch
+  private static final long FETCH_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+
+  private final List<LoggingConfiguration.KafkaHost> seedBrokers;
+  private final String topic;
+  private final StringPartitioner partitioner;
+  // Guarded by this
+  private final Map<Integer, PartitionFetcher> fetchers = Maps.newHashMap();
+
+  @Inject
+  KafkaLogTailer(CConfiguration cConf, StringPartitioner partitioner) {
+    this.seedBrokers = LoggingConfiguration.getKafkaSeedBrokers(cConf.get(LoggingConfiguration.KAFKA_SEED_BROKERS));
+    Preconditions.checkArgument(!this.seedBrokers.isEmpty(), "Kafka seed brokers list is empty!");
+
+    this.topic = cConf.get(Constants.Logging.KAFKA_TOPIC);
+    Preconditions.checkArgument(!this.topic.isEmpty(), "Kafka topic is empty!");
+
+    this.partitioner = partitioner;
+  }
+
+  @Override
+  public Cancellable tail(LoggingContext loggingContext, Filter filter, Callback callback) {
+    int partition = partitioner.partition(loggingContext.getLogPartition(), -1);
+    Filter logFilter = new AndFilter(ImmutableList.of(LoggingContextHelper.createFilter(loggingContext), filter));
+
+    callback.init();
+    final Subscriber subscriber = new Subscriber(logFilter, callback);
+    final PartitionFetcher fetcher;
+    synchronized (this) {
+      PartitionFetcher existing = fetchers.get(partition);
+      if (existing == null) {
+        existing = new PartitionFetcher(partition);
+        fetchers.put(partition, existing);
+        existing.start();
+      }
+      fetcher = existing;
+      fetcher.addSubscriber(subscriber);
+    }
+    LOG.trace("Tailing logs of {} from Kafka partition {}", loggingContext.getLogPartition(), partition);
+
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        fetcher.removeSubscriber(subscriber);
+        subscriber.close();
+      }
+    };
+  }
+
+  /**
+   * Removes the fetcher of a partition if it has no subscribers left.
+   *
+   * @return {@code true} if the fetcher was removed and should stop
+   */
+  private synchronized boolean removeIfIdle(PartitionFetcher fetcher) {
+    if (!fetcher.subscribers.isEmpty()) {
+      return false;
+    }
+    fetchers.remove(fetcher.partition);
+    return true;
+  }
+
+  /**
+   * Thread that fetches the messages of a Kafka partition and dispatches them to all subscribers of the partition.
+   */
+  private final class PartitionFetcher extends Thread {
+    private final int partition;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final LoggingEventSerializer serializer = new LoggingEventSerializer();
+    // Offset of the next message to fetch, -1 until the fetcher has found the latest offset
+    private volatile long nextOffset = -1L;
+
+    private PartitionFetcher(int partition) {
+      super("log-tailer-partition-" + partition);
+      setDaemon(true);
+      this.partition = partition;
+    }
+
+    // Always called while holding the lock of the tailer
+    private void addSubscriber(Subscriber subscriber) {
+      subscriber.startOffset = nextOffset;
+      subscribers.add(subscriber);
+    }
+
+    private void removeSubscriber(Subscriber subscriber) {
+      subscribers.remove(subscriber);
+    }
+
+    @Override
+    public void run() {
+      KafkaConsumer kafkaConsumer = new KafkaConsumer(seedBrokers, topic, partition, KAFKA_FETCH_WAIT_MS, 1);
+      try {
+        long lastHeartbeat = System.currentTimeMillis();
+        while (!removeIfIdle(this)) {
+          try {
+            if (nextOffset < 0) {
+              nextOffset = kafkaConsumer.fetchOffsetBefore(KafkaConsumer.LATEST_OFFSET);
+            }
+            DispatchCallback dispatchCallback = new DispatchCallback();
+            kafkaConsumer.fetchMessages(nextOffset, dispatchCallback);
+
+            long now = System.currentTimeMillis();
+            if (now - lastHeartbeat >= HEARTBEAT_INTERVAL_MS) {
+              // Flush all subscribers, which sends a heartbeat to those without new events
+              for (Subscriber subscriber : subscribers) {
+                flush(subscriber);
+              }
+              lastHeartbeat = now;
+            } else {
+              for (Subscriber subscriber : dispatchCallback.receivers) {
+                flush(subscriber);
+              }
+            }
+          } catch (OffsetOutOfRangeException e) {
+            LOG.debug("Offset {} is out of range for partition {}, tailing from latest offset", nextOffset, partition);
+            nextOffset = -1L;
+          } catch (Exception e) {
+            LOG.warn("Failed to fetch log events from Kafka partition {}, retrying", partition, e);
+            TimeUnit.MILLISECONDS.sleep(FETCH_RETRY_DELAY_MS);
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.debug("Interrupted while tailing logs of partition {}", partition);
+      } finally {
+        Closeables.closeQuietly(kafkaConsumer);
+      }
+    }
+
+    private void flush(Subscriber subscriber) {
+      if (!subscriber.flush()) {
+        removeSubscriber(subscriber);
+        subscriber.close();
+      }
+    }
+
+    /**
+     * Decodes each message once and passes it to the subscribers whose filter it matches.
+     */
+    private final class DispatchCallback implements co.cask.cdap.logging.kafka.Callback {
+      private final Set<Subscriber> receivers = Sets.newLinkedHashSet();
+
+      @Override
+      public void handle(long offset, ByteBuffer msgBuffer) {
+        nextOffset = offset + 1;
+        ILoggingEvent event = null;
+        LogEvent logEvent = null;
+        for (Subscriber subscriber : subscribers) {
+          if (offset < subscriber.startOffset) {
+            continue;
+          }
+          if (event == null) {
+            event = serializer.fromBytes(msgBuffer);
+            logEvent = new LogEvent(event, new LogOffset(offset, event.getTimeStamp()));
+          }
+          if (!subscriber.filter.match(event)) {
+            continue;
+          }
+          if (!subscriber.handle(logEvent)) {
+            removeSubscriber(subscriber);
+            subscriber.close();
+          } else {
+            receivers.add(subscriber);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A subscriber of a partition, with its own filter and start offset.
+   */
+  private static final class Subscriber {
+    private final Filter filter;
+    private final Callback callback;
+    // Offset of the first event to pass to the callback, -1 to pass all events
+    private volatile long startOffset;
+    private boolean closed;
+
+    private Subscriber(Filter filter, Callback callback) {
+      this.filter = filter;
+      this.callback = callback;
+    }
+
+    /**
+     * Passes an event to the callback.
+     *
+     * @return {@code false} if the callback failed, e.g. because the client went away
+     */
+    synchronized boolean handle(LogEvent event) {
+      if (closed) {
+        return true;
+      }
+      try {
+        callback.handle(event);
+        return true;
+      } catch (Exception e) {
+        LOG.debug("Failed to pass log event to tail subscriber", e);
+        return false;
+      }
+    }
+
+    /**
+     * Flushes the callback if it is {@link Flushable}.
+     *
+     * @return {@code false} if the callback failed, e.g. because the client went away
+     */
+    synchronized boolean flush() {
+      if (closed || !(callback instanceof Flushable)) {
+        return true;
+      }
+      try {
+        ((Flushable) callback).flush();
+        return true;
+      } catch (Exception e) {
+        LOG.debug("Failed to flush tail subscriber", e);
+        return false;
+      }
+    }
+
+    synchronized void close() {
+      if (!closed) {
+        closed = true;
+        callback.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.read;
+
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.proto.id.NamespaceId;
+
+/**
+ * Searches the logs of all programs and runs in a namespace.
+ */
+public interface LogSearcher {
+
+  /**
+   * Passes the log events of a namespace between given times, whose message or exceptions contain all the terms of
+   * the query, to the callback. A term is a sequence of letters and digits, and terms are matched case
+   * insensitively. Events are passed roughly in time order.
+   *
+   * @param namespaceId namespace to search the logs of
+   * @param query text whose terms the events must contain
+   * @param fromTimeMs start time
+   * @param toTimeMs end time
+   * @param maxEvents max log events to return
+   * @param filter filter to select log events
+   * @param callback callback to handle the log events
+   * @throws IllegalArgumentException if the query has no terms
+   */
+  void search(NamespaceId namespaceId, String query, long fromTimeMs, long toTimeMs, int maxEvents, Filter filter,
+              Callback callback);
+}
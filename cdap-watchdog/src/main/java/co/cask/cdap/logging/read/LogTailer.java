@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.read;
+
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.logging.filter.Filter;
+import org.apache.twill.common.Cancellable;
+
+/**
+ * Pushes new log events to subscribers as they are published.
+ */
+public interface LogTailer {
+
+  /**
+   * Subscribes to the log events of a logging context that are published from now on. Events that match the filter
+   * are passed to the callback from a background thread, in the order they were published. If the callback is
+   * {@link java.io.Flushable}, it is flushed after each batch of events, and periodically while no events arrive.
+   * The subscription ends when it is cancelled, or when the callback throws an exception, after which the callback
+   * is closed.
+   *
+   * @param loggingContext context to tail the logs of
+   * @param filter filter for the log events
+   * @param callback callback to pass log events to; it is initialized before this method returns
+   * @return a {@link Cancellable} to end the subscription
+   */
+  Cancellable tail(LoggingContext loggingContext, Filter filter, Callback callback);
+}
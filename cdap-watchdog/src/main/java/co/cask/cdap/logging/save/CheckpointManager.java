@@ -34,7 +34,7 @@ import java.util.Set;
 /**
  * Manages reading/writing of checkpoint information for a topic and partition.
  */
-public final class CheckpointManager {
+public class CheckpointManager {
   private static final Logger LOG = LoggerFactory.getLogger(CheckpointManager.class);
 
   private static final byte [] OFFSET_COLNAME = Bytes.toBytes("nextOffset");
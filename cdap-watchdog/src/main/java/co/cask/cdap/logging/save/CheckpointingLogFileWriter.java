@@ -19,6 +19,7 @@ package co.cask.cdap.logging.save;
 import co.cask.cdap.logging.kafka.KafkaLogEvent;
 import co.cask.cdap.logging.write.AvroFileWriter;
 import co.cask.cdap.logging.write.LogFileWriter;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,28 +27,40 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * LogFileWriter that checkpoints kafka offsets for each partition.
+ *
+ * Events of different logging contexts can be appended concurrently. Appends do not checkpoint, instead
+ * {@link #flush()} is expected to be called periodically. It waits for in-flight appends, flushes all files and then
+ * saves the highest offset appended for each partition, so that many appends are covered by a single checkpoint.
+ *
+ * If the append of a logging context fails, the checkpoint of the partition is held below the offsets of the failed
+ * events until they get appended, so that a checkpoint never covers events that some logging context has not written.
  */
 public class CheckpointingLogFileWriter implements LogFileWriter<KafkaLogEvent> {
   private static final Logger LOG = LoggerFactory.getLogger(CheckpointingLogFileWriter.class);
 
   private final AvroFileWriter avroFileWriter;
   private final CheckpointManager checkpointManager;
-  private final long flushIntervalMs;
 
-  private long lastCheckpointTime = System.currentTimeMillis();
+  // Appends share the lock, flushes hold it exclusively so that no file is written while being flushed
+  private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
   private final Map<Integer, Checkpoint> partitionCheckpointMap = Maps.newHashMap();
+  // Events that failed to append and were not appended since, as next offset to event time, for each partition
+  private final Map<Integer, SortedMap<Long, Long>> pendingEventsMap = Maps.newHashMap();
+  private volatile Map<Integer, Checkpoint> savedCheckpoints = ImmutableMap.of();
 
   private final AtomicBoolean closed = new AtomicBoolean(false);
 
-  public CheckpointingLogFileWriter(AvroFileWriter avroFileWriter, CheckpointManager checkpointManager,
-                                    long flushIntervalMs) {
+  public CheckpointingLogFileWriter(AvroFileWriter avroFileWriter, CheckpointManager checkpointManager) {
     this.avroFileWriter = avroFileWriter;
     this.checkpointManager = checkpointManager;
-    this.flushIntervalMs = flushIntervalMs;
   }
 
   @Override
@@ -56,21 +69,25 @@ public class CheckpointingLogFileWriter implements LogFileWriter<KafkaLogEvent>
       return;
     }
 
-    KafkaLogEvent event = events.get(0);
-    int partition = event.getPartition();
-    Checkpoint maxCheckpoint = partitionCheckpointMap.get(partition);
-    maxCheckpoint = maxCheckpoint == null ? new Checkpoint(-1, -1) : maxCheckpoint;
-
-    for (KafkaLogEvent e : events) {
-      if (e.getNextOffset() > maxCheckpoint.getNextOffset()) {
-        maxCheckpoint = new Checkpoint(e.getNextOffset(), e.getLogEvent().getTimeStamp());
+    flushLock.readLock().lock();
+    try {
+      try {
+        avroFileWriter.append(events);
+      } catch (Exception e) {
+        addPendingEvents(events);
+        throw e;
       }
+      updateCheckpoint(events);
+    } finally {
+      flushLock.readLock().unlock();
     }
+  }
 
-    partitionCheckpointMap.put(partition, maxCheckpoint);
-
-    avroFileWriter.append(events);
-    flush(false);
+  /**
+   * Returns the last checkpoint saved for the given partition, or {@code null} if none was saved by this writer.
+   */
+  public Checkpoint getSavedCheckpoint(int partition) {
+    return savedCheckpoints.get(partition);
   }
 
   @Override
@@ -80,29 +97,93 @@ public class CheckpointingLogFileWriter implements LogFileWriter<KafkaLogEvent>
     }
 
     flush();
-    avroFileWriter.close();
+    flushLock.writeLock().lock();
+    try {
+      avroFileWriter.close();
+    } finally {
+      flushLock.writeLock().unlock();
+    }
   }
 
   @Override
   public void flush() throws IOException {
     try {
-      flush(true);
+      Map<Integer, Checkpoint> checkpoints;
+      flushLock.writeLock().lock();
+      try {
+        avroFileWriter.flush();
+        checkpoints = getCheckpoints();
+      } finally {
+        flushLock.writeLock().unlock();
+      }
+
+      // Save the checkpoint of each partition, appends can proceed meanwhile
+      checkpointManager.saveCheckpoint(checkpoints);
+      savedCheckpoints = checkpoints;
     } catch (Exception e) {
       LOG.error("Got exception: ", e);
       throw new IOException(e);
     }
   }
 
-  private void flush(boolean force) throws Exception {
-    long currentTs = System.currentTimeMillis();
-    if (!force && currentTs - lastCheckpointTime < flushIntervalMs) {
-      return;
+  /**
+   * Returns the checkpoint of each partition, which is the highest offset appended, unless there are events pending
+   * with a lower offset. In that case the checkpoint is set right before the first pending event, so that it gets
+   * processed again after a restart.
+   */
+  private Map<Integer, Checkpoint> getCheckpoints() {
+    synchronized (partitionCheckpointMap) {
+      Map<Integer, Checkpoint> checkpoints = Maps.newHashMap();
+      for (Map.Entry<Integer, Checkpoint> entry : partitionCheckpointMap.entrySet()) {
+        Checkpoint checkpoint = entry.getValue();
+        SortedMap<Long, Long> pendingEvents = pendingEventsMap.get(entry.getKey());
+        if (pendingEvents != null && pendingEvents.firstKey() <= checkpoint.getNextOffset()) {
+          long maxEventTime = checkpoint.getMaxEventTime();
+          for (long eventTime : pendingEvents.values()) {
+            maxEventTime = Math.min(maxEventTime, eventTime - 1);
+          }
+          checkpoint = new Checkpoint(pendingEvents.firstKey() - 1, maxEventTime);
+        }
+        checkpoints.put(entry.getKey(), checkpoint);
+      }
+      return ImmutableMap.copyOf(checkpoints);
     }
+  }
 
-    avroFileWriter.flush();
+  private void addPendingEvents(List<KafkaLogEvent> events) {
+    synchronized (partitionCheckpointMap) {
+      for (KafkaLogEvent e : events) {
+        SortedMap<Long, Long> pendingEvents = pendingEventsMap.get(e.getPartition());
+        if (pendingEvents == null) {
+          pendingEvents = new TreeMap<>();
+          pendingEventsMap.put(e.getPartition(), pendingEvents);
+        }
+        pendingEvents.put(e.getNextOffset(), e.getLogEvent().getTimeStamp());
+      }
+    }
+  }
 
-    // Save the max checkpoint seen for each partition
-    checkpointManager.saveCheckpoint(partitionCheckpointMap);
-    lastCheckpointTime = currentTs;
+  private void updateCheckpoint(List<KafkaLogEvent> events) {
+    int partition = events.get(0).getPartition();
+    synchronized (partitionCheckpointMap) {
+      Checkpoint maxCheckpoint = partitionCheckpointMap.get(partition);
+      maxCheckpoint = maxCheckpoint == null ? new Checkpoint(-1, -1) : maxCheckpoint;
+
+      for (KafkaLogEvent e : events) {
+        if (e.getNextOffset() > maxCheckpoint.getNextOffset()) {
+          maxCheckpoint = new Checkpoint(e.getNextOffset(), e.getLogEvent().getTimeStamp());
+        }
+        removePendingEvent(e);
+      }
+
+      partitionCheckpointMap.put(partition, maxCheckpoint);
+    }
+  }
+
+  private void removePendingEvent(KafkaLogEvent event) {
+    SortedMap<Long, Long> pendingEvents = pendingEventsMap.get(event.getPartition());
+    if (pendingEvents != null && pendingEvents.remove(event.getNextOffset()) != null && pendingEvents.isEmpty()) {
+      pendingEventsMap.remove(event.getPartition());
+    }
   }
 }
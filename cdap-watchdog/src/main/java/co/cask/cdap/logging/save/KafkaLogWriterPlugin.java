@@ -16,6 +16,8 @@
 
 package co.cask.cdap.logging.save;
 
+import co.cask.cdap.api.metrics.MetricsCollectionService;
+import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.RootLocationFactory;
@@ -28,10 +30,13 @@ import co.cask.cdap.logging.kafka.KafkaLogEvent;
 import co.cask.cdap.logging.write.AvroFileWriter;
 import co.cask.cdap.logging.write.FileMetaDataManager;
 import co.cask.cdap.logging.write.LogCleanup;
-import co.cask.cdap.logging.write.LogFileWriter;
+import co.cask.cdap.logging.write.LogFileMerger;
+import co.cask.cdap.logging.write.LogRetentionPolicy;
+import co.cask.cdap.proto.Id;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.PeekingIterator;
@@ -50,11 +55,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Plugin that writes the log data.
+ * Plugin that writes the log data of a Kafka partition. Events of different logging contexts are written
+ * concurrently, and checkpoints are saved periodically apart from the writes.
  */
 public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
   private static final Logger LOG = LoggerFactory.getLogger(KafkaLogWriterPlugin.class);
@@ -64,7 +71,7 @@ public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
   private static final long SLEEP_TIME_MS = 100;
 
   private final String logBaseDir;
-  private final LogFileWriter<KafkaLogEvent> logFileWriter;
+  private final CheckpointingLogFileWriter logFileWriter;
   // Table structure - <event time bucket, log context, event arrival time bucket, log event>
   private final RowSortedTable<Long, String, Map.Entry<Long, List<KafkaLogEvent>>> messageTable;
   private final long eventBucketIntervalMs;
@@ -73,16 +80,20 @@ public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
   private final LoggingEventSerializer serializer;
   private final LogCleanup logCleanup;
   private final CheckpointManager checkpointManager;
+  private final long checkpointIntervalMs;
+  private final int writerThreads;
+  private final MetricsContext metricsContext;
 
   private ListeningScheduledExecutorService scheduledExecutor;
+  private ExecutorService writerExecutor;
   private CountDownLatch countDownLatch;
   private int partition;
 
   @Inject
   KafkaLogWriterPlugin(CConfiguration cConf, FileMetaDataManager fileMetaDataManager,
                        CheckpointManagerFactory checkpointManagerFactory, RootLocationFactory rootLocationFactory,
-                       NamespacedLocationFactory namespacedLocationFactory, Impersonator impersonator)
-    throws Exception {
+                       NamespacedLocationFactory namespacedLocationFactory, Impersonator impersonator,
+                       MetricsCollectionService metricsCollectionService) throws Exception {
 
     this.serializer = new LoggingEventSerializer();
     this.messageTable = TreeBasedTable.create();
@@ -91,11 +102,6 @@ public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
     Preconditions.checkNotNull(this.logBaseDir, "Log base dir cannot be null");
     LOG.debug(String.format("Log base dir is %s", this.logBaseDir));
 
-    long retentionDurationDays = cConf.getLong(LoggingConfiguration.LOG_RETENTION_DURATION_DAYS,
-                                                 LoggingConfiguration.DEFAULT_LOG_RETENTION_DURATION_DAYS);
-    Preconditions.checkArgument(retentionDurationDays > 0,
-                                "Log file retention duration is invalid: %s", retentionDurationDays);
-
     long maxLogFileSizeBytes = cConf.getLong(LoggingConfiguration.LOG_MAX_FILE_SIZE_BYTES, 20 * 1024 * 1024);
     Preconditions.checkArgument(maxLogFileSizeBytes > 0,
                                 "Max log file size is invalid: %s", maxLogFileSizeBytes);
@@ -104,10 +110,15 @@ public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
     Preconditions.checkArgument(syncIntervalBytes > 0,
                                 "Log file sync interval is invalid: %s", syncIntervalBytes);
 
-    long checkpointIntervalMs = cConf.getLong(LoggingConfiguration.LOG_SAVER_CHECKPOINT_INTERVAL_MS,
-                                                LoggingConfiguration.DEFAULT_LOG_SAVER_CHECKPOINT_INTERVAL_MS);
-    Preconditions.checkArgument(checkpointIntervalMs > 0,
-                                "Checkpoint interval is invalid: %s", checkpointIntervalMs);
+    this.checkpointIntervalMs = cConf.getLong(LoggingConfiguration.LOG_SAVER_CHECKPOINT_INTERVAL_MS,
+                                              LoggingConfiguration.DEFAULT_LOG_SAVER_CHECKPOINT_INTERVAL_MS);
+    Preconditions.checkArgument(this.checkpointIntervalMs > 0,
+                                "Checkpoint interval is invalid: %s", this.checkpointIntervalMs);
+
+    this.writerThreads = cConf.getInt(LoggingConfiguration.LOG_SAVER_WRITER_THREADS,
+                                      LoggingConfiguration.DEFAULT_LOG_SAVER_WRITER_THREADS);
+    Preconditions.checkArgument(this.writerThreads > 0,
+                                "Number of writer threads is invalid: %s", this.writerThreads);
 
     long inactiveIntervalMs = cConf.getLong(LoggingConfiguration.LOG_SAVER_INACTIVE_FILE_INTERVAL_MS,
                                               LoggingConfiguration.DEFAULT_LOG_SAVER_INACTIVE_FILE_INTERVAL_MS);
@@ -143,9 +154,21 @@ public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
     checkpointManager = checkpointManagerFactory.create(cConf.get(Constants.Logging.KAFKA_TOPIC),
                                                         CHECKPOINT_ROW_KEY_PREFIX);
 
-    this.logFileWriter = new CheckpointingLogFileWriter(avroFileWriter, checkpointManager, checkpointIntervalMs);
-    long retentionDurationMs = TimeUnit.MILLISECONDS.convert(retentionDurationDays, TimeUnit.DAYS);
-    this.logCleanup = new LogCleanup(fileMetaDataManager, rootLocationFactory, retentionDurationMs, impersonator);
+    this.logFileWriter = new CheckpointingLogFileWriter(avroFileWriter, checkpointManager);
+    this.metricsContext = metricsCollectionService.getContext(
+      ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, Id.Namespace.SYSTEM.getId(),
+                      Constants.Metrics.Tag.COMPONENT, Constants.Service.LOGSAVER));
+
+    int cleanupThreads = cConf.getInt(LoggingConfiguration.LOG_CLEANUP_THREADS,
+                                      LoggingConfiguration.DEFAULT_LOG_CLEANUP_THREADS);
+    Preconditions.checkArgument(cleanupThreads > 0, "Number of log cleanup threads is invalid: %s", cleanupThreads);
+    long mergeFileSizeBytes = cConf.getLong(LoggingConfiguration.LOG_CLEANUP_MERGE_FILE_SIZE_BYTES,
+                                            LoggingConfiguration.DEFAULT_LOG_CLEANUP_MERGE_FILE_SIZE_BYTES);
+    LogFileMerger logFileMerger = mergeFileSizeBytes <= 0 ? null :
+      new LogFileMerger(avroFileWriter, fileMetaDataManager, mergeFileSizeBytes, maxLogFileSizeBytes,
+                        inactiveIntervalMs);
+    this.logCleanup = new LogCleanup(fileMetaDataManager, rootLocationFactory, LogRetentionPolicy.create(cConf),
+                                     impersonator, cleanupThreads, metricsContext, logFileMerger);
   }
 
   @Override
@@ -154,21 +177,54 @@ public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
     Checkpoint checkpoint = checkpointManager.getCheckpoint(partition);
     super.init(checkpoint);
 
+    // One thread for the log writer and one for checkpointing.
     // We schedule clean up task if partition is zero, so that only one cleanup task gets scheduled
     if (partition == 0) {
-      scheduledExecutor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(2,
+      scheduledExecutor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(3,
         Threads.createDaemonThreadFactory("log-saver-log-processor-" + partition)));
       LOG.info("Scheduling cleanup task");
       scheduledExecutor.scheduleAtFixedRate(logCleanup, 10, logCleanupIntervalMins, TimeUnit.MINUTES);
     } else {
-      scheduledExecutor = MoreExecutors.listeningDecorator(Executors.newSingleThreadScheduledExecutor(
+      scheduledExecutor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(2,
         Threads.createDaemonThreadFactory("log-saver-log-processor-" + partition)));
     }
+    writerExecutor = Executors.newFixedThreadPool(writerThreads,
+                                                  Threads.createDaemonThreadFactory("log-saver-writer-" + partition
+                                                                                      + "-%d"));
 
     countDownLatch = new CountDownLatch(1);
-    LogWriter logWriter = new LogWriter(logFileWriter, messageTable,
-                                        eventBucketIntervalMs, maxNumberOfBucketsInTable, countDownLatch);
+    LogWriter logWriter = new LogWriter(logFileWriter, messageTable, eventBucketIntervalMs,
+                                        maxNumberOfBucketsInTable, countDownLatch, writerExecutor);
     scheduledExecutor.execute(logWriter);
+    scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        checkpoint();
+      }
+    }, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Flushes the log files and saves the checkpoint, then emits the lag of the partition.
+   */
+  private void checkpoint() {
+    try {
+      logFileWriter.flush();
+    } catch (Throwable t) {
+      LOG.warn("Failed to checkpoint partition {}, will retry in {} ms", partition, checkpointIntervalMs, t);
+    }
+
+    // Lag of the partition is the time since the newest event covered by the checkpoint
+    Checkpoint checkpoint = logFileWriter.getSavedCheckpoint(partition);
+    if (checkpoint != null && checkpoint.getMaxEventTime() >= 0) {
+      metricsContext.gauge(Constants.Metrics.Name.Log.SAVER_LAG + "." + partition,
+                           System.currentTimeMillis() - checkpoint.getMaxEventTime());
+    }
+    int numBuckets;
+    synchronized (messageTable) {
+      numBuckets = messageTable.rowKeySet().size();
+    }
+    metricsContext.gauge(Constants.Metrics.Name.Log.SAVER_BUFFERED_BUCKETS + "." + partition, numBuckets);
   }
 
   @Override
@@ -255,6 +311,14 @@ public class KafkaLogWriterPlugin extends AbstractKafkaLogProcessor {
         }
       }
 
+      // Log writer has stopped, no more writes will be submitted
+      if (writerExecutor != null) {
+        writerExecutor.shutdown();
+        if (!writerExecutor.awaitTermination(5, TimeUnit.MINUTES)) {
+          writerExecutor.shutdownNow();
+        }
+      }
+
       logFileWriter.flush();
       logFileWriter.close();
 
@@ -18,6 +18,7 @@ package co.cask.cdap.logging.save;
 
 import co.cask.cdap.logging.kafka.KafkaLogEvent;
 import co.cask.cdap.logging.write.LogFileWriter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.RowSortedTable;
@@ -26,16 +27,22 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Persists bucketized logs stored by {@link KafkaMessageCallback}.
+ * Persists bucketized logs stored by {@link KafkaMessageCallback}. Events of different logging contexts are sorted
+ * and written concurrently with the given executor.
  */
 public class LogWriter implements Runnable {
   private static final Logger LOG = LoggerFactory.getLogger(LogWriter.class);
@@ -47,17 +54,20 @@ public class LogWriter implements Runnable {
   private final long maxNumberOfBucketsInTable;
   private final CountDownLatch stopLatch;
   private final ExponentialBackoff exponentialBackoff;
+  private final ExecutorService writerExecutor;
 
   private final ListMultimap<String, KafkaLogEvent> writeListMap = ArrayListMultimap.create();
 
   public LogWriter(LogFileWriter<KafkaLogEvent> logFileWriter,
                    RowSortedTable<Long, String, Entry<Long, List<KafkaLogEvent>>> messageTable,
-                   long eventBucketIntervalMs, long maxNumberOfBucketsInTable, final CountDownLatch stopLatch) {
+                   long eventBucketIntervalMs, long maxNumberOfBucketsInTable, final CountDownLatch stopLatch,
+                   ExecutorService writerExecutor) {
     this.logFileWriter = logFileWriter;
     this.messageTable = messageTable;
     this.eventBucketIntervalMs = eventBucketIntervalMs;
     this.maxNumberOfBucketsInTable = maxNumberOfBucketsInTable;
     this.stopLatch = stopLatch;
+    this.writerExecutor = writerExecutor;
     this.exponentialBackoff =
       new ExponentialBackoff(1, 60,
                              new ExponentialBackoff.BackoffHandler() {
@@ -120,15 +130,7 @@ public class LogWriter implements Runnable {
           LOG.trace("Waiting for events, sleeping for {} ns", sleepTimeNanos);
         }
 
-        for (Iterator<Entry<String, Collection<KafkaLogEvent>>> it = writeListMap.asMap().entrySet().iterator();
-             it.hasNext(); ) {
-          Entry<String, Collection<KafkaLogEvent>> mapEntry = it.next();
-          List<KafkaLogEvent> list = (List<KafkaLogEvent>) mapEntry.getValue();
-          Collections.sort(list);
-          logFileWriter.append(list);
-          // Remove successfully written message
-          it.remove();
-        }
+        writeEvents();
 
         // Reset backoff after a successful save
         exponentialBackoff.reset();
@@ -142,4 +144,42 @@ public class LogWriter implements Runnable {
       }
     }
   }
+
+  /**
+   * Writes the events of each logging context in parallel, and waits for all writes to complete. Events of logging
+   * contexts that were written successfully are removed from the write list, the others are retried on the next run.
+   */
+  private void writeEvents() throws Exception {
+    Map<String, Future<?>> futures = new HashMap<>();
+    for (Entry<String, Collection<KafkaLogEvent>> mapEntry : writeListMap.asMap().entrySet()) {
+      final List<KafkaLogEvent> list = (List<KafkaLogEvent>) mapEntry.getValue();
+      futures.put(mapEntry.getKey(), writerExecutor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Collections.sort(list);
+          logFileWriter.append(list);
+          return null;
+        }
+      }));
+    }
+
+    Throwable failure = null;
+    for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+      try {
+        entry.getValue().get();
+        // Remove successfully written message
+        writeListMap.removeAll(entry.getKey());
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        } else {
+          failure.addSuppressed(e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      Throwables.propagateIfPossible(failure, Exception.class);
+      throw Throwables.propagate(failure);
+    }
+  }
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.serialize;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ClassPackagingData;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyVO;
+import co.cask.cdap.common.logging.LoggingContext;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.Encoder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Serializer for the compact encoding of ILoggingEvent. Unlike the {@link LogSchema} encoding, every string and
+ * stack frame is written only once per event and referred to by index after that, so that repeated class names,
+ * file names and frames shared by causes and caller data take a few bytes each. Caller data can be left out.
+ *
+ * Strings and frames are written as an int tag: 0 for {@code null}, 1 for a new value that follows, or the index
+ * of an earlier value plus 2.
+ */
+public final class CompactLoggingEventSerializer {
+  private static final int NULL_TAG = 0;
+  private static final int NEW_TAG = 1;
+  private static final int REFERENCE_OFFSET = 2;
+
+  private CompactLoggingEventSerializer() {}
+
+  /**
+   * Encodes a logging event.
+   *
+   * @param event event to encode
+   * @param loggingContext logging context of the event, whose tags are added to the MDC
+   * @param includeCallerData whether to encode the caller data of the event
+   * @param encoder encoder to write to
+   */
+  public static void encode(ILoggingEvent event, LoggingContext loggingContext, boolean includeCallerData,
+                            Encoder encoder) throws IOException {
+    event.prepareForDeferredProcessing();
+
+    EventWriter writer = new EventWriter(encoder);
+    encoder.writeLong(event.getTimeStamp());
+    encoder.writeInt(event.getLevel() == null ? Level.ERROR_INT : event.getLevel().toInt());
+    writer.writeMap(LoggingEvent.generateContextMdc(loggingContext, event.getMDCPropertyMap()));
+    writer.writeString(event.getThreadName());
+    writer.writeString(event.getLoggerName());
+    writer.writeString(event.getMessage());
+    // Refers to the message if no arguments were formatted into it
+    writer.writeString(event.getFormattedMessage());
+
+    Object[] arguments = event.getArgumentArray();
+    encoder.writeInt(arguments == null ? -1 : arguments.length);
+    if (arguments != null) {
+      for (Object argument : arguments) {
+        writer.writeString(argument == null ? null : argument.toString());
+      }
+    }
+
+    LoggerContextVO loggerContext = event.getLoggerContextVO();
+    encoder.writeBoolean(loggerContext != null);
+    if (loggerContext != null) {
+      writer.writeString(loggerContext.getName());
+      writer.writeMap(LoggingEvent.encodeMdcMap(loggerContext.getPropertyMap()));
+      encoder.writeLong(loggerContext.getBirthTime());
+    }
+
+    writer.writeThrowable(ThrowableProxyVO.build(event.getThrowableProxy()));
+
+    // Only look at the caller data if it is needed, since logback computes it on demand
+    StackTraceElement[] callerData = includeCallerData && event.hasCallerData() ? event.getCallerData() : null;
+    writer.writeFrames(callerData);
+  }
+
+  /**
+   * Decodes a logging event encoded with {@link #encode}.
+   */
+  public static ILoggingEvent decode(Decoder decoder) throws IOException {
+    EventReader reader = new EventReader(decoder);
+    long timestamp = decoder.readLong();
+    int level = decoder.readInt();
+    Map<String, String> mdc = LoggingEvent.decodeMdcMap(reader.readMap());
+    String threadName = reader.readString();
+    String loggerName = reader.readString();
+    String message = reader.readString();
+    String formattedMessage = reader.readString();
+
+    String[] arguments = null;
+    int argumentCount = decoder.readInt();
+    if (argumentCount >= 0) {
+      arguments = new String[argumentCount];
+      for (int i = 0; i < argumentCount; i++) {
+        arguments[i] = reader.readString();
+      }
+    }
+
+    LoggerContextVO loggerContext = null;
+    if (decoder.readBoolean()) {
+      String name = reader.readString();
+      Map<String, String> propertyMap = LoggingEvent.decodeMdcMap(reader.readMap());
+      loggerContext = new LoggerContextVO(name, propertyMap, decoder.readLong());
+    }
+
+    IThrowableProxy throwableProxy = reader.readThrowable();
+    StackTraceElement[] callerData = reader.readFrames();
+
+    return new LoggingEvent(timestamp, level, mdc, threadName, loggerName, message, formattedMessage, arguments,
+                            loggerContext, throwableProxy, callerData);
+  }
+
+  /**
+   * Writes the values of one event, interning strings and stack frames.
+   */
+  private static final class EventWriter {
+    private final Encoder encoder;
+    private final Map<String, Integer> strings = Maps.newHashMap();
+    private final Map<StackTraceElement, Integer> frames = Maps.newHashMap();
+
+    private EventWriter(Encoder encoder) {
+      this.encoder = encoder;
+    }
+
+    void writeString(@Nullable String value) throws IOException {
+      if (value == null) {
+        encoder.writeInt(NULL_TAG);
+        return;
+      }
+      Integer index = strings.get(value);
+      if (index != null) {
+        encoder.writeInt(index + REFERENCE_OFFSET);
+        return;
+      }
+      strings.put(value, strings.size());
+      encoder.writeInt(NEW_TAG);
+      encoder.writeString(value);
+    }
+
+    void writeMap(@Nullable Map<String, String> map) throws IOException {
+      encoder.writeInt(map == null ? -1 : map.size());
+      if (map != null) {
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+          writeString(entry.getKey());
+          writeString(entry.getValue());
+        }
+      }
+    }
+
+    void writeFrame(@Nullable StackTraceElement frame) throws IOException {
+      if (frame == null) {
+        encoder.writeInt(NULL_TAG);
+        return;
+      }
+      Integer index = frames.get(frame);
+      if (index != null) {
+        encoder.writeInt(index + REFERENCE_OFFSET);
+        return;
+      }
+      frames.put(frame, frames.size());
+      encoder.writeInt(NEW_TAG);
+      writeString(frame.getClassName());
+      writeString(frame.getMethodName());
+      writeString(frame.getFileName());
+      encoder.writeInt(frame.getLineNumber());
+    }
+
+    void writeFrames(@Nullable StackTraceElement[] frameArray) throws IOException {
+      encoder.writeInt(frameArray == null ? -1 : frameArray.length);
+      if (frameArray != null) {
+        for (StackTraceElement frame : frameArray) {
+          writeFrame(frame);
+        }
+      }
+    }
+
+    void writeThrowable(@Nullable IThrowableProxy throwableProxy) throws IOException {
+      encoder.writeBoolean(throwableProxy != null);
+      if (throwableProxy == null) {
+        return;
+      }
+      writeString(throwableProxy.getClassName());
+      writeString(throwableProxy.getMessage());
+      encoder.writeInt(throwableProxy.getCommonFrames());
+
+      StackTraceElementProxy[] proxies = throwableProxy.getStackTraceElementProxyArray();
+      encoder.writeInt(proxies == null ? -1 : proxies.length);
+      if (proxies != null) {
+        for (StackTraceElementProxy proxy : proxies) {
+          writeFrame(proxy.getStackTraceElement());
+          ClassPackagingData packagingData = proxy.getClassPackagingData();
+          encoder.writeBoolean(packagingData != null);
+          if (packagingData != null) {
+            writeString(packagingData.getCodeLocation());
+            writeString(packagingData.getVersion());
+            encoder.writeBoolean(packagingData.isExact());
+          }
+        }
+      }
+
+      writeThrowable(throwableProxy.getCause());
+
+      IThrowableProxy[] suppressed = throwableProxy.getSuppressed();
+      encoder.writeInt(suppressed == null ? -1 : suppressed.length);
+      if (suppressed != null) {
+        for (IThrowableProxy proxy : suppressed) {
+          writeThrowable(proxy);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the values of one event written by {@link EventWriter}.
+   */
+  private static final class EventReader {
+    private final Decoder decoder;
+    private final List<String> strings = Lists.newArrayList();
+    private final List<StackTraceElement> frames = Lists.newArrayList();
+
+    private EventReader(Decoder decoder) {
+      this.decoder = decoder;
+    }
+
+    @Nullable
+    String readString() throws IOException {
+      int tag = decoder.readInt();
+      if (tag == NULL_TAG) {
+        return null;
+      }
+      if (tag != NEW_TAG) {
+        return strings.get(tag - REFERENCE_OFFSET);
+      }
+      String value = decoder.readString();
+      strings.add(value);
+      return value;
+    }
+
+    @Nullable
+    Map<String, String> readMap() throws IOException {
+      int size = decoder.readInt();
+      if (size < 0) {
+        return null;
+      }
+      Map<String, String> map = Maps.newHashMapWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        String key = readString();
+        map.put(key, readString());
+      }
+      return map;
+    }
+
+    @Nullable
+    StackTraceElement readFrame() throws IOException {
+      int tag = decoder.readInt();
+      if (tag == NULL_TAG) {
+        return null;
+      }
+      if (tag != NEW_TAG) {
+        return frames.get(tag - REFERENCE_OFFSET);
+      }
+      String className = readString();
+      String methodName = readString();
+      String fileName = readString();
+      StackTraceElement frame = new StackTraceElement(className, methodName, fileName, decoder.readInt());
+      frames.add(frame);
+      return frame;
+    }
+
+    @Nullable
+    StackTraceElement[] readFrames() throws IOException {
+      int size = decoder.readInt();
+      if (size < 0) {
+        return null;
+      }
+      StackTraceElement[] frameArray = new StackTraceElement[size];
+      for (int i = 0; i < size; i++) {
+        frameArray[i] = readFrame();
+      }
+      return frameArray;
+    }
+
+    @Nullable
+    IThrowableProxy readThrowable() throws IOException {
+      if (!decoder.readBoolean()) {
+        return null;
+      }
+      String className = readString();
+      String message = readString();
+      int commonFrames = decoder.readInt();
+
+      StackTraceElementProxy[] proxies = null;
+      int proxyCount = decoder.readInt();
+      if (proxyCount >= 0) {
+        proxies = new StackTraceElementProxy[proxyCount];
+        for (int i = 0; i < proxyCount; i++) {
+          proxies[i] = new StackTraceElementProxy(readFrame());
+          if (decoder.readBoolean()) {
+            String codeLocation = readString();
+            String version = readString();
+            proxies[i].setClassPackagingData(new ClassPackagingData(codeLocation, version, decoder.readBoolean()));
+          }
+        }
+      }
+
+      IThrowableProxy cause = readThrowable();
+
+      IThrowableProxy[] suppressed = null;
+      int suppressedCount = decoder.readInt();
+      if (suppressedCount >= 0) {
+        suppressed = new IThrowableProxy[suppressedCount];
+        for (int i = 0; i < suppressedCount; i++) {
+          suppressed[i] = readThrowable();
+        }
+      }
+      return new ThrowableProxyImpl(cause, className, commonFrames, message, proxies, suppressed);
+    }
+  }
+}
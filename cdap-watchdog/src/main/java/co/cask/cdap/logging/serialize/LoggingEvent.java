@@ -68,6 +68,34 @@ public final class LoggingEvent implements ILoggingEvent {
 
   private LoggingEvent() {}
 
+  /**
+   * Creates an event that only has the fields stored at the start of a serialized event, for filtering events
+   * before the other fields are decoded.
+   */
+  LoggingEvent(long timestamp, int level, Map<String, String> mdc) {
+    this.timestamp = timestamp;
+    this.level = level;
+    this.mdc = mdc;
+  }
+
+  /**
+   * Creates an event from the fields of a compact serialized event.
+   */
+  LoggingEvent(long timestamp, int level, Map<String, String> mdc, String threadName, String loggerName,
+               String message, String formattedMessage, String[] argumentArray, LoggerContextVO loggerContextVO,
+               IThrowableProxy throwableProxy, StackTraceElement[] callerData) {
+    this(timestamp, level, mdc);
+    this.threadName = threadName;
+    this.loggerName = loggerName;
+    this.message = message;
+    this.formattedMessage = formattedMessage;
+    this.argumentArray = argumentArray;
+    this.loggerContextVO = loggerContextVO;
+    this.throwableProxy = throwableProxy;
+    this.callerData = callerData;
+    this.hasCallerData = callerData != null;
+  }
+
   public LoggingEvent(ILoggingEvent loggingEvent) {
     this.threadName = loggingEvent.getThreadName();
     this.level = loggingEvent.getLevel() == null ? Level.ERROR_INT : loggingEvent.getLevel().toInt();
@@ -175,6 +203,26 @@ public final class LoggingEvent implements ILoggingEvent {
     event.prepareForDeferredProcessing();
 
     LoggingEvent loggingEvent = new LoggingEvent(event);
+    return encode(schema, loggingEvent, generateContextMdc(loggingContext, loggingEvent.getMDCPropertyMap()));
+  }
+
+  /**
+   * Encodes an event whose MDC already contains the tags of its logging context, such as a decoded event.
+   */
+  public static GenericRecord encode(Schema schema, ILoggingEvent event) {
+    LoggingEvent loggingEvent = event instanceof LoggingEvent ? (LoggingEvent) event : new LoggingEvent(event);
+    Map<String, String> mdc = null;
+    if (loggingEvent.mdc != null) {
+      mdc = Maps.newHashMapWithExpectedSize(loggingEvent.mdc.size());
+      for (Map.Entry<String, String> entry : loggingEvent.mdc.entrySet()) {
+        // AVRO does not allow null map keys.
+        mdc.put(entry.getKey() == null ? MDC_NULL_KEY : entry.getKey(), entry.getValue());
+      }
+    }
+    return encode(schema, loggingEvent, mdc);
+  }
+
+  private static GenericRecord encode(Schema schema, LoggingEvent loggingEvent, Map<String, String> mdc) {
     GenericRecord datum = new GenericData.Record(schema);
     datum.put("threadName", loggingEvent.threadName);
     datum.put("level", loggingEvent.level);
@@ -200,7 +248,7 @@ public final class LoggingEvent implements ILoggingEvent {
     }
     datum.put("hasCallerData", loggingEvent.hasCallerData);
     //datum.put("marker", marker);
-    datum.put("mdc", generateContextMdc(loggingContext, loggingEvent.getMDCPropertyMap()));
+    datum.put("mdc", mdc);
     datum.put("timestamp", loggingEvent.timestamp);
     return datum;
   }
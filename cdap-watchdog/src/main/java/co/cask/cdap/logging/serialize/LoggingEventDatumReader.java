@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.serialize;
+
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.filter.FilterPushdown;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DatumReader} of serialized logging events that pushes a {@link Filter} down into decoding.
+ *
+ * The timestamp, level and MDC are the first fields of a logging event record. They are decoded first and checked
+ * against the part of the filter that only depends on them, see {@link FilterPushdown#getPushdownFilter(Filter)}.
+ * For an event that does not match, the remaining fields are skipped without being materialized, and the returned
+ * record only has the timestamp, level and MDC set. {@link #isFiltered()} tells whether the last record read was
+ * filtered that way. Records that pass are fully decoded, and still need to be checked against the complete filter.
+ */
+public final class LoggingEventDatumReader implements DatumReader<GenericRecord> {
+
+  private static final List<String> HEADER_FIELDS = ImmutableList.of("timestamp", "level", "mdc");
+
+  private final Schema readerSchema;
+  private final Filter filter;
+  private Schema schema;
+  // Reads complete records if the filter cannot be pushed down
+  private DatumReader<GenericRecord> recordReader;
+  // Readers of the fields after the header fields
+  private List<DatumReader<Object>> fieldReaders;
+  private boolean filtered;
+
+  public LoggingEventDatumReader(Schema readerSchema, Filter filter) {
+    this.readerSchema = readerSchema;
+    this.filter = FilterPushdown.getPushdownFilter(filter);
+  }
+
+  @Override
+  public void setSchema(Schema schema) {
+    this.schema = schema;
+    this.filtered = false;
+
+    if (filter == Filter.EMPTY_FILTER || !hasHeaderFields(schema)) {
+      recordReader = new GenericDatumReader<>(schema, readerSchema);
+      fieldReaders = null;
+      return;
+    }
+
+    recordReader = null;
+    List<Schema.Field> fields = schema.getFields();
+    ImmutableList.Builder<DatumReader<Object>> readers = ImmutableList.builder();
+    for (Schema.Field field : fields.subList(HEADER_FIELDS.size(), fields.size())) {
+      readers.add(new GenericDatumReader<>(field.schema()));
+    }
+    fieldReaders = readers.build();
+  }
+
+  @Override
+  public GenericRecord read(GenericRecord reuse, Decoder in) throws IOException {
+    if (recordReader != null) {
+      return recordReader.read(reuse, in);
+    }
+
+    long timestamp = in.readLong();
+    int level = in.readInt();
+    Map<String, String> mdc = readMdc(in);
+
+    GenericRecord record = new GenericData.Record(schema);
+    record.put(0, timestamp);
+    record.put(1, level);
+    record.put(2, mdc);
+
+    filtered = !filter.match(new LoggingEvent(timestamp, level, LoggingEvent.decodeMdcMap(mdc)));
+
+    List<Schema.Field> fields = schema.getFields();
+    for (int i = 0; i < fieldReaders.size(); i++) {
+      Schema.Field field = fields.get(HEADER_FIELDS.size() + i);
+      if (filtered) {
+        GenericDatumReader.skip(field.schema(), in);
+      } else {
+        record.put(field.pos(), fieldReaders.get(i).read(null, in));
+      }
+    }
+    return record;
+  }
+
+  /**
+   * Returns {@code true} if the last record read did not match the filter, in which case only its timestamp, level
+   * and MDC fields are set.
+   */
+  public boolean isFiltered() {
+    return filtered;
+  }
+
+  /**
+   * Returns whether the given schema starts with the header fields, with the same schemas as in the reader schema.
+   */
+  private boolean hasHeaderFields(Schema schema) {
+    List<Schema.Field> fields = schema.getFields();
+    if (fields.size() < HEADER_FIELDS.size()) {
+      return false;
+    }
+    for (int i = 0; i < HEADER_FIELDS.size(); i++) {
+      Schema.Field field = fields.get(i);
+      Schema.Field readerField = readerSchema.getField(HEADER_FIELDS.get(i));
+      if (!field.name().equals(HEADER_FIELDS.get(i)) || readerField == null
+        || !field.schema().equals(readerField.schema())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the MDC, which is a union of null and a map of nullable strings.
+   */
+  private Map<String, String> readMdc(Decoder in) throws IOException {
+    if (in.readIndex() == 0) {
+      in.readNull();
+      return null;
+    }
+    Map<String, String> mdc = Maps.newHashMap();
+    for (long size = in.readMapStart(); size != 0; size = in.mapNext()) {
+      for (long i = 0; i < size; i++) {
+        String key = in.readString();
+        String value = null;
+        if (in.readIndex() == 0) {
+          in.readNull();
+        } else {
+          value = in.readString();
+        }
+        mdc.put(key, value);
+      }
+    }
+    return mdc;
+  }
+}
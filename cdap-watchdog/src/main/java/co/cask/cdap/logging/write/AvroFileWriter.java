@@ -16,6 +16,7 @@
 
 package co.cask.cdap.logging.write;
 
+import ch.qos.logback.classic.spi.ILoggingEvent;
 import co.cask.cdap.common.logging.LoggingContext;
 import co.cask.cdap.common.namespace.NamespacedLocationFactory;
 import co.cask.cdap.data2.security.Impersonator;
@@ -45,9 +46,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Helper class that manages writing of KafkaLogEvent to Avro files. The events are written into appropriate files
- * based on the LoggingContext of the event. The files are also rotated based on size. This class is not thread-safe.
+ * based on the LoggingContext of the event. The files are also rotated based on size.
+ *
+ * Events of different logging contexts can be appended concurrently, as long as events of the same logging context
+ * are appended by one thread at a time. {@link #flush()} and {@link #close()} must not be called concurrently with
+ * appends.
  */
-public final class AvroFileWriter implements Closeable, Flushable {
+public class AvroFileWriter implements Closeable, Flushable {
   private static final Logger LOG = LoggerFactory.getLogger(AvroFileWriter.class);
 
   private final FileMetaDataManager fileMetaDataManager;
@@ -80,7 +85,7 @@ public final class AvroFileWriter implements Closeable, Flushable {
     this.logBaseDir = logBaseDir;
     this.schema = schema;
     this.syncIntervalBytes = syncIntervalBytes;
-    this.fileMap = Maps.newHashMap();
+    this.fileMap = Maps.newConcurrentMap();
     this.maxFileSize = maxFileSize;
     this.inactiveIntervalMs = inactiveIntervalMs;
     this.impersonator = impersonator;
@@ -199,6 +204,16 @@ public final class AvroFileWriter implements Closeable, Flushable {
     return avroFile;
   }
 
+  /**
+   * Creates and opens a log file at the given location, which is not tracked by this writer. The caller is
+   * responsible for closing the file and for its meta data.
+   */
+  AvroFile openFile(Location location) throws IOException {
+    AvroFile avroFile = new AvroFile(location);
+    avroFile.open();
+    return avroFile;
+  }
+
   private Location createLocation(LoggingContext loggingContext, long timestamp)
     throws IOException {
     String date = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
@@ -253,6 +268,14 @@ public final class AvroFileWriter implements Closeable, Flushable {
         if (avroFile.getLocation().exists()) {
           avroFile.getLocation().delete();
         }
+        Location indexLocation = LogFileIndex.getIndexLocation(avroFile.getLocation());
+        if (indexLocation.exists()) {
+          indexLocation.delete();
+        }
+        Location termIndexLocation = LogTermIndex.getIndexLocation(avroFile.getLocation());
+        if (termIndexLocation.exists()) {
+          termIndexLocation.delete();
+        }
       }
     } catch (IOException e) {
       LOG.error("Error while closing and deleting file {}", avroFile.getLocation(), e);
@@ -264,11 +287,22 @@ public final class AvroFileWriter implements Closeable, Flushable {
    *
    * Since there is no way to check the state of the underlying file on an exception,
    * all methods of this class assume that the file state is bad on any exception and close the file.
+   *
+   * Along with the Avro file, a {@link LogFileIndex} and a {@link LogTermIndex} are written. On each flush, the blocks
+   * written since the last index entry are recorded in a new entry of both indexes once they span at least the sync
+   * interval bytes.
    */
   public class AvroFile implements Closeable {
     private final Location location;
     private FSDataOutputStream outputStream;
     private DataFileWriter<GenericRecord> dataFileWriter;
+    private FSDataOutputStream indexOutputStream;
+    private FSDataOutputStream termIndexOutputStream;
+    private final LogTermIndex.Builder segmentTerms = new LogTermIndex.Builder();
+    private long segmentStart;
+    private long segmentMinTs = Long.MAX_VALUE;
+    private long segmentMaxTs = Long.MIN_VALUE;
+    private int segmentMaxLevel = Integer.MIN_VALUE;
     private long lastModifiedTs;
     private boolean isOpen = false;
 
@@ -288,6 +322,12 @@ public final class AvroFileWriter implements Closeable, Flushable {
         this.dataFileWriter = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema));
         this.dataFileWriter.create(schema, this.outputStream);
         this.dataFileWriter.setSyncInterval(syncIntervalBytes);
+        // The first block starts right after the header
+        this.segmentStart = this.dataFileWriter.sync();
+        Location indexLocation = LogFileIndex.getIndexLocation(location);
+        this.indexOutputStream = new FSDataOutputStream(indexLocation.getOutputStream(), null);
+        Location termIndexLocation = LogTermIndex.getIndexLocation(location);
+        this.termIndexOutputStream = new FSDataOutputStream(termIndexLocation.getOutputStream(), null);
         this.lastModifiedTs = System.currentTimeMillis();
       } catch (Exception e) {
         close();
@@ -305,8 +345,19 @@ public final class AvroFileWriter implements Closeable, Flushable {
     }
 
     public void append(LogWriteEvent event) throws IOException {
+      append(event.getGenericRecord(), event.getLogEvent());
+    }
+
+    /**
+     * Appends a record of the log schema, which is the encoded form of the given event.
+     */
+    void append(GenericRecord record, ILoggingEvent event) throws IOException {
       try {
-        dataFileWriter.append(event.getGenericRecord());
+        dataFileWriter.append(record);
+        segmentMinTs = Math.min(segmentMinTs, event.getTimeStamp());
+        segmentMaxTs = Math.max(segmentMaxTs, event.getTimeStamp());
+        segmentTerms.add(event);
+        segmentMaxLevel = Math.max(segmentMaxLevel, (Integer) record.get("level"));
         lastModifiedTs = System.currentTimeMillis();
       } catch (Exception e) {
         close();
@@ -329,8 +380,11 @@ public final class AvroFileWriter implements Closeable, Flushable {
 
     public void flush() throws IOException {
       try {
+        updateIndex(false);
         dataFileWriter.flush();
         outputStream.hflush();
+        indexOutputStream.hflush();
+        termIndexOutputStream.hflush();
       } catch (Exception e) {
         close();
         throw new IOException("Exception while flushing file " + location, e);
@@ -339,8 +393,11 @@ public final class AvroFileWriter implements Closeable, Flushable {
 
     public void sync() throws IOException {
       try {
+        updateIndex(false);
         dataFileWriter.flush();
         outputStream.hsync();
+        indexOutputStream.hsync();
+        termIndexOutputStream.hsync();
       } catch (Exception e) {
         close();
         throw new IOException("Exception while syncing file " + location, e);
@@ -358,13 +415,53 @@ public final class AvroFileWriter implements Closeable, Flushable {
 
       try {
         if (dataFileWriter != null) {
-          dataFileWriter.close();
+          try {
+            if (indexOutputStream != null && termIndexOutputStream != null) {
+              updateIndex(true);
+            }
+          } finally {
+            dataFileWriter.close();
+          }
         }
       } finally {
-        if (outputStream != null) {
-          outputStream.close();
+        try {
+          if (outputStream != null) {
+            outputStream.close();
+          }
+        } finally {
+          try {
+            if (indexOutputStream != null) {
+              indexOutputStream.close();
+            }
+          } finally {
+            if (termIndexOutputStream != null) {
+              termIndexOutputStream.close();
+            }
+          }
         }
       }
     }
+
+    /**
+     * Ends the current Avro block and adds an index entry for the blocks written since the last entry, if they are
+     * large enough or if force is true. The index entries are written to the index streams, but not flushed.
+     */
+    private void updateIndex(boolean force) throws IOException {
+      if (segmentMinTs > segmentMaxTs) {
+        // Nothing appended since the last entry
+        return;
+      }
+      long position = dataFileWriter.sync();
+      if (force || position - segmentStart >= syncIntervalBytes) {
+        LogFileIndex.write(indexOutputStream, new LogFileIndex.Segment(segmentStart, position, segmentMinTs,
+                                                                       segmentMaxTs, segmentMaxLevel));
+        LogTermIndex.write(termIndexOutputStream, segmentTerms.build(segmentStart, position, segmentMinTs,
+                                                                     segmentMaxTs));
+        segmentStart = position;
+        segmentMinTs = Long.MAX_VALUE;
+        segmentMaxTs = Long.MIN_VALUE;
+        segmentMaxLevel = Integer.MIN_VALUE;
+      }
+    }
   }
 }
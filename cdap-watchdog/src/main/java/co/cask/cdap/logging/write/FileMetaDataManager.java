@@ -36,12 +36,14 @@ import co.cask.tephra.TransactionExecutor;
 import co.cask.tephra.TransactionExecutorFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.inject.Inject;
 import org.apache.twill.filesystem.Location;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.SortedMap;
@@ -151,6 +153,132 @@ public final class FileMetaDataManager {
     });
   }
 
+  /**
+   * Returns the log files of all log partitions of a namespace.
+   * @param namespaceId namespace to list the log files of.
+   * @return map from log partition to a sorted map containing key as start time, and value as log file.
+   */
+  public Map<String, NavigableMap<Long, Location>> listFiles(final NamespaceId namespaceId) throws Exception {
+    return execute(new TransactionExecutor.Function<Table, Map<String, NavigableMap<Long, Location>>>() {
+      @Override
+      public Map<String, NavigableMap<Long, Location>> apply(Table table) throws Exception {
+        // Log partitions of a namespace start with the namespace followed by a colon
+        final Map<String, NavigableMap<Long, URI>> uris = new TreeMap<>();
+        try (Scanner scanner = table.scan(getRowKey(namespaceId.getNamespace() + ":"),
+                                          getRowKey(namespaceId.getNamespace() + ";"))) {
+          Row row;
+          while ((row = scanner.next()) != null) {
+            NavigableMap<Long, URI> partitionFiles = new TreeMap<>();
+            for (Map.Entry<byte[], byte[]> entry : row.getColumns().entrySet()) {
+              partitionFiles.put(Bytes.toLong(entry.getKey()), new URI(Bytes.toString(entry.getValue())));
+            }
+            uris.put(getLogPartition(row.getRow()), partitionFiles);
+          }
+        }
+
+        final Map<String, NavigableMap<Long, Location>> files = new TreeMap<>();
+        impersonator.doAs(namespaceId, new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (Map.Entry<String, NavigableMap<Long, URI>> partition : uris.entrySet()) {
+              NavigableMap<Long, Location> partitionFiles = new TreeMap<>();
+              for (Map.Entry<Long, URI> entry : partition.getValue().entrySet()) {
+                // the location can be any location from on the filesystem for custom mapped namespaces
+                partitionFiles.put(entry.getKey(), rootLocationFactory.create(entry.getValue()));
+              }
+              files.put(partition.getKey(), partitionFiles);
+            }
+            return null;
+          }
+        });
+        return files;
+      }
+    });
+  }
+
+  /**
+   * Returns the log files of all log partitions, read in a single scan.
+   * @return map from log partition to a sorted map containing key as start time, and value as log file URI.
+   */
+  public Map<String, NavigableMap<Long, URI>> listAllFiles() throws Exception {
+    return execute(new TransactionExecutor.Function<Table, Map<String, NavigableMap<Long, URI>>>() {
+      @Override
+      public Map<String, NavigableMap<Long, URI>> apply(Table table) throws Exception {
+        Map<String, NavigableMap<Long, URI>> files = new TreeMap<>();
+        try (Scanner scanner = table.scan(ROW_KEY_PREFIX, ROW_KEY_PREFIX_END)) {
+          Row row;
+          while ((row = scanner.next()) != null) {
+            NavigableMap<Long, URI> partitionFiles = new TreeMap<>();
+            for (Map.Entry<byte[], byte[]> entry : row.getColumns().entrySet()) {
+              partitionFiles.put(Bytes.toLong(entry.getKey()), new URI(Bytes.toString(entry.getValue())));
+            }
+            files.put(getLogPartition(row.getRow()), partitionFiles);
+          }
+        }
+        return files;
+      }
+    });
+  }
+
+  /**
+   * Deletes the meta data of log files in a single transaction.
+   * @param files map from log partition to the start times of the files to delete the meta data of.
+   */
+  public void deleteMetaData(final Multimap<String, Long> files) throws Exception {
+    if (files.isEmpty()) {
+      return;
+    }
+    execute(new TransactionExecutor.Procedure<Table>() {
+      @Override
+      public void apply(Table table) throws Exception {
+        for (Map.Entry<String, Collection<Long>> entry : files.asMap().entrySet()) {
+          byte[][] columns = new byte[entry.getValue().size()][];
+          int i = 0;
+          for (long startTime : entry.getValue()) {
+            columns[i++] = Bytes.toBytes(startTime);
+          }
+          table.delete(getRowKey(entry.getKey()), columns);
+        }
+      }
+    });
+  }
+
+  /**
+   * Replaces the meta data of log files with the meta data of the file they were merged into, in a single
+   * transaction.
+   * @param logPartition partition of the log files.
+   * @param startTimeMs start log time of the merged file.
+   * @param location merged file.
+   * @param mergedStartTimes start times of the files that were merged.
+   */
+  void replaceMetaData(final String logPartition, final long startTimeMs, final Location location,
+                       final Collection<Long> mergedStartTimes) throws Exception {
+    execute(new TransactionExecutor.Procedure<Table>() {
+      @Override
+      public void apply(Table table) throws Exception {
+        byte[] rowKey = getRowKey(logPartition);
+        for (long startTime : mergedStartTimes) {
+          if (startTime != startTimeMs) {
+            table.delete(rowKey, Bytes.toBytes(startTime));
+          }
+        }
+        table.put(rowKey, Bytes.toBytes(startTimeMs), Bytes.toBytes(location.toURI().toString()));
+      }
+    });
+  }
+
+  /**
+   * Returns the namespaced log base dir of a namespace, without the root dir prefixed.
+   */
+  String getNamespacedLogBaseDir(final NamespaceId namespaceId) throws Exception {
+    return impersonator.doAs(namespaceId, new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return LoggingContextHelper.getNamespacedBaseDir(namespacedLocationFactory, logBaseDir, namespaceId);
+      }
+    });
+  }
+
   /**
    * Deletes meta data until a given time, while keeping the latest meta data even if less than tillTime.
    * @param tillTime time till the meta data will be deleted.
@@ -251,7 +379,13 @@ public final class FileMetaDataManager {
   }
 
   private NamespaceId getNamespaceId(byte[] rowKey) {
-    String logPartition = getLogPartition(rowKey);
+    return getNamespaceId(getLogPartition(rowKey));
+  }
+
+  /**
+   * Returns the namespace of a log partition.
+   */
+  static NamespaceId getNamespaceId(String logPartition) {
     Preconditions.checkArgument(logPartition != null, "Log partition cannot be null");
     String [] partitions = logPartition.split(":");
     Preconditions.checkArgument(partitions.length == 3,
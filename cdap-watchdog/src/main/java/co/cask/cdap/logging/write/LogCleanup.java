@@ -16,87 +16,149 @@
 
 package co.cask.cdap.logging.write;
 
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
+import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.Locations;
 import co.cask.cdap.common.io.RootLocationFactory;
 import co.cask.cdap.data2.security.Impersonator;
 import co.cask.cdap.proto.id.NamespaceId;
-import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.SetMultimap;
+import org.apache.twill.common.Threads;
 import org.apache.twill.filesystem.Location;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
- * Handles log file retention.
+ * Handles log file retention. Each run deletes the log files that are past the retention of their log partition,
+ * then the oldest log files of partitions and namespaces that exceed their byte quota, and then merges small log
+ * files that are no longer written to. The files of different log partitions are processed in parallel, and the
+ * meta data of all deleted files is removed in a single transaction at the end.
+ *
+ * The newest file of a log partition may still be written to, hence it is only deleted by retention, never to
+ * satisfy a quota.
  */
 public final class LogCleanup implements Runnable {
   private static final Logger LOG = LoggerFactory.getLogger(LogCleanup.class);
 
   private final FileMetaDataManager fileMetaDataManager;
   private final RootLocationFactory rootLocationFactory;
-  private final long retentionDurationMs;
+  private final LogRetentionPolicy retentionPolicy;
   private final Impersonator impersonator;
+  private final int threads;
+  private final MetricsContext metricsContext;
+  private final LogFileMerger logFileMerger;
 
   // this class takes a root location factory because for custom mapped namespaces the namespace is mapped to a
   // location from the root of system and the logs are generated in the custom mapped location. To clean up  these
   // locations we need to work with root based location factory
   public LogCleanup(FileMetaDataManager fileMetaDataManager, RootLocationFactory rootLocationFactory,
                     long retentionDurationMs, Impersonator impersonator) {
+    this(fileMetaDataManager, rootLocationFactory, new LogRetentionPolicy(retentionDurationMs), impersonator, 1,
+         new NoopMetricsContext(), null);
+  }
+
+  /**
+   * Creates a log cleanup.
+   *
+   * @param retentionPolicy retention durations and quotas of the log files
+   * @param threads number of threads to process log partitions with
+   * @param metricsContext context to emit the progress of each run to
+   * @param logFileMerger merger for small log files, or {@code null} to not merge log files
+   */
+  public LogCleanup(FileMetaDataManager fileMetaDataManager, RootLocationFactory rootLocationFactory,
+                    LogRetentionPolicy retentionPolicy, Impersonator impersonator, int threads,
+                    MetricsContext metricsContext, @Nullable LogFileMerger logFileMerger) {
     this.fileMetaDataManager = fileMetaDataManager;
     this.rootLocationFactory = rootLocationFactory;
-    this.retentionDurationMs = retentionDurationMs;
+    this.retentionPolicy = retentionPolicy;
     this.impersonator = impersonator;
-
-    LOG.debug("Log retention duration = {} ms", retentionDurationMs);
+    this.threads = threads;
+    this.metricsContext = metricsContext;
+    this.logFileMerger = logFileMerger;
   }
 
   @Override
   public void run() {
     LOG.info("Running log cleanup...");
+    long startTime = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+                                                            Threads.createDaemonThreadFactory("log-cleanup-%d"));
     try {
-      long tillTime = System.currentTimeMillis() - retentionDurationMs;
-      final SetMultimap<String, Location> parentDirs = HashMultimap.create();
-      final Map<String, NamespaceId> namespacedLogBaseDirMap = new HashMap<>();
-      fileMetaDataManager.cleanMetaData(tillTime,
-                                        new FileMetaDataManager.DeleteCallback() {
-                                          @Override
-                                          public void handle(NamespaceId namespaceId, final Location location,
-                                                             final String namespacedLogBaseDir) {
-                                            try {
-                                              impersonator.doAs(namespaceId, new Callable<Void>() {
-                                                @Override
-                                                public Void call() throws Exception {
-                                                  if (location.exists()) {
-                                                    LOG.info("Deleting log file {}", location);
-                                                    location.delete();
-                                                    parentDirs.put(namespacedLogBaseDir, getParent(location));
-                                                  }
-                                                  return null;
-                                                }
-                                              });
-                                              namespacedLogBaseDirMap.put(namespacedLogBaseDir, namespaceId);
-                                            } catch (Exception e) {
-                                              LOG.error("Got exception when deleting path {}", location, e);
-                                              throw Throwables.propagate(e);
-                                            }
-                                          }
-                                        });
+      Map<String, NavigableMap<Long, URI>> allFiles = fileMetaDataManager.listAllFiles();
+      metricsContext.gauge(Constants.Metrics.Name.Log.CLEANUP_PARTITIONS, allFiles.size());
+
+      // Look up the files of all partitions in parallel
+      List<Future<PartitionFiles>> lookups = new ArrayList<>();
+      for (final Map.Entry<String, NavigableMap<Long, URI>> entry : allFiles.entrySet()) {
+        lookups.add(executor.submit(new Callable<PartitionFiles>() {
+          @Override
+          public PartitionFiles call() throws Exception {
+            return lookupFiles(entry.getKey(), entry.getValue());
+          }
+        }));
+      }
+      Map<String, PartitionFiles> partitions = Maps.newHashMap();
+      for (PartitionFiles partitionFiles : getAll(lookups)) {
+        partitionFiles.expire(retentionPolicy, startTime);
+        partitions.put(partitionFiles.logPartition, partitionFiles);
+      }
+      expireNamespaces(partitions.values());
+
+      // Delete the files in parallel, then their meta data in a single transaction
+      final SetMultimap<NamespaceId, Location> parentDirs = HashMultimap.create();
+      List<Future<PartitionFiles>> deletions = new ArrayList<>();
+      for (final PartitionFiles partitionFiles : partitions.values()) {
+        deletions.add(executor.submit(new Callable<PartitionFiles>() {
+          @Override
+          public PartitionFiles call() throws Exception {
+            deleteFiles(partitionFiles, parentDirs);
+            metricsContext.increment(Constants.Metrics.Name.Log.CLEANUP_PARTITIONS_PROCESSED, 1);
+            return partitionFiles;
+          }
+        }));
+      }
+      Multimap<String, Long> deletedFiles = ArrayListMultimap.create();
+      for (PartitionFiles partitionFiles : getAll(deletions)) {
+        deletedFiles.putAll(partitionFiles.logPartition, partitionFiles.deleted);
+      }
+      fileMetaDataManager.deleteMetaData(deletedFiles);
+
+      if (logFileMerger != null) {
+        mergeFiles(executor, partitions.values(), parentDirs);
+      }
+
       // Delete any empty parent dirs
-      for (final String namespacedLogBaseDir : parentDirs.keySet()) {
+      for (final NamespaceId namespaceId : parentDirs.keySet()) {
+        final String namespacedLogBaseDir = fileMetaDataManager.getNamespacedLogBaseDir(namespaceId);
         // this ensures that we only do doAs which will make an RPC call only once for a namespace
-        NamespaceId namespaceId = namespacedLogBaseDirMap.get(namespacedLogBaseDir);
         impersonator.doAs(namespaceId, new Callable<Void>() {
           @Override
           public Void call() throws Exception {
-            Set<Location> locations = parentDirs.get(namespacedLogBaseDir);
+            Set<Location> locations = parentDirs.get(namespaceId);
             for (Location location : locations) {
               deleteEmptyDir(namespacedLogBaseDir, location);
             }
@@ -104,8 +166,188 @@ public final class LogCleanup implements Runnable {
           }
         });
       }
+      LOG.info("Log cleanup deleted {} files in {} ms", deletedFiles.size(), System.currentTimeMillis() - startTime);
     } catch (Throwable e) {
       LOG.error("Got exception when cleaning up. Will try again later.", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Looks up the log files of a partition. Files that do not exist anymore are marked as deleted, so that their
+   * meta data is removed.
+   */
+  private PartitionFiles lookupFiles(final String logPartition, final NavigableMap<Long, URI> files) throws Exception {
+    final PartitionFiles partitionFiles = new PartitionFiles(logPartition,
+                                                             FileMetaDataManager.getNamespaceId(logPartition));
+    impersonator.doAs(partitionFiles.namespaceId, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (Map.Entry<Long, URI> entry : files.entrySet()) {
+          // the location can be any location from on the filesystem for custom mapped namespaces
+          Location location = rootLocationFactory.create(entry.getValue());
+          if (!location.exists()) {
+            LOG.warn("Log file {} does not exist, but metadata is present", location);
+            partitionFiles.deleted.add(entry.getKey());
+          } else {
+            long length = location.length();
+            long lastModified = location.lastModified();
+            if (LogFileMerger.isMergedFile(location)) {
+              // A merged file is newer than its events, hence it expires with its newest event
+              long lastEventTime = LogFileMerger.getLastEventTime(location, length);
+              if (lastEventTime >= 0) {
+                lastModified = Math.min(lastModified, lastEventTime);
+              }
+            }
+            partitionFiles.files.add(new LogFile(logPartition, entry.getKey(), location, length, lastModified));
+          }
+        }
+        return null;
+      }
+    });
+    return partitionFiles;
+  }
+
+  /**
+   * Marks the oldest files of namespaces that exceed their quota for deletion.
+   */
+  private void expireNamespaces(Collection<PartitionFiles> partitions) {
+    Multimap<String, PartitionFiles> namespacePartitions = ArrayListMultimap.create();
+    for (PartitionFiles partitionFiles : partitions) {
+      namespacePartitions.put(partitionFiles.namespaceId.getNamespace(), partitionFiles);
+    }
+
+    for (Map.Entry<String, Collection<PartitionFiles>> entry : namespacePartitions.asMap().entrySet()) {
+      long quota = retentionPolicy.getNamespaceQuotaBytes(entry.getKey());
+      if (quota < 0) {
+        continue;
+      }
+      long totalBytes = 0;
+      List<LogFile> candidates = new ArrayList<>();
+      Map<String, PartitionFiles> partitionsByName = Maps.newHashMap();
+      for (PartitionFiles partitionFiles : entry.getValue()) {
+        totalBytes += partitionFiles.getBytes();
+        partitionsByName.put(partitionFiles.logPartition, partitionFiles);
+        if (!partitionFiles.files.isEmpty()) {
+          candidates.addAll(partitionFiles.files.subList(0, partitionFiles.files.size() - 1));
+        }
+      }
+      if (totalBytes <= quota) {
+        continue;
+      }
+      Collections.sort(candidates, new Comparator<LogFile>() {
+        @Override
+        public int compare(LogFile file1, LogFile file2) {
+          return Long.compare(file1.lastModified, file2.lastModified);
+        }
+      });
+      for (LogFile file : candidates) {
+        if (totalBytes <= quota) {
+          break;
+        }
+        PartitionFiles partitionFiles = partitionsByName.get(file.logPartition);
+        partitionFiles.files.remove(file);
+        partitionFiles.toDelete.add(file);
+        totalBytes -= file.length;
+      }
+      LOG.debug("Log files of namespace {} exceed the quota of {} bytes", entry.getKey(), quota);
+    }
+  }
+
+  /**
+   * Deletes the files of a partition that are marked for deletion, along with their index.
+   */
+  private void deleteFiles(final PartitionFiles partitionFiles,
+                           final SetMultimap<NamespaceId, Location> parentDirs) throws Exception {
+    if (partitionFiles.toDelete.isEmpty()) {
+      return;
+    }
+    impersonator.doAs(partitionFiles.namespaceId, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (LogFile file : partitionFiles.toDelete) {
+          try {
+            LOG.info("Deleting log file {}", file.location);
+            deleteLogFile(file.location);
+            partitionFiles.deleted.add(file.startTime);
+            metricsContext.increment(Constants.Metrics.Name.Log.CLEANUP_FILES_DELETED, 1);
+            metricsContext.increment(Constants.Metrics.Name.Log.CLEANUP_BYTES_RECLAIMED, file.length);
+            synchronized (parentDirs) {
+              parentDirs.put(partitionFiles.namespaceId, getParent(file.location));
+            }
+          } catch (IOException e) {
+            // The meta data is kept, so that the file is deleted by the next run
+            LOG.error("Got exception when deleting path {}", file.location, e);
+          }
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Merges the small files of all partitions in parallel.
+   */
+  private void mergeFiles(ExecutorService executor, Collection<PartitionFiles> partitions,
+                          final SetMultimap<NamespaceId, Location> parentDirs) throws Exception {
+    List<Future<List<Location>>> merges = new ArrayList<>();
+    for (final PartitionFiles partitionFiles : partitions) {
+      if (partitionFiles.files.size() < 2) {
+        continue;
+      }
+      merges.add(executor.submit(new Callable<List<Location>>() {
+        @Override
+        public List<Location> call() throws Exception {
+          return impersonator.doAs(partitionFiles.namespaceId, new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() throws Exception {
+              List<Location> merged = logFileMerger.merge(partitionFiles.logPartition, partitionFiles.files);
+              synchronized (parentDirs) {
+                for (Location location : merged) {
+                  parentDirs.put(partitionFiles.namespaceId, getParent(location));
+                }
+              }
+              return merged;
+            }
+          });
+        }
+      }));
+    }
+    for (List<Location> merged : getAll(merges)) {
+      metricsContext.increment(Constants.Metrics.Name.Log.CLEANUP_FILES_MERGED, merged.size());
+    }
+  }
+
+  /**
+   * Returns the results of all futures that completed successfully, and logs the failures.
+   */
+  private static <T> List<T> getAll(List<Future<T>> futures) throws InterruptedException {
+    List<T> results = Lists.newArrayListWithCapacity(futures.size());
+    for (Future<T> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        LOG.error("Got exception when cleaning up log partition. Will try again later.", e.getCause());
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Deletes a log file along with its indexes.
+   */
+  static void deleteLogFile(Location location) throws IOException {
+    if (location.exists()) {
+      location.delete();
+    }
+    Location indexLocation = LogFileIndex.getIndexLocation(location);
+    if (indexLocation.exists()) {
+      indexLocation.delete();
+    }
+    Location termIndexLocation = LogTermIndex.getIndexLocation(location);
+    if (termIndexLocation.exists()) {
+      termIndexLocation.delete();
     }
   }
 
@@ -156,4 +398,91 @@ public final class LogCleanup implements Runnable {
       LOG.error("Got exception while deleting dir {}", dirToDelete, e);
     }
   }
+
+  /**
+   * A log file with its meta data and status. The last modified time of a merged file is the time of its newest
+   * event.
+   */
+  static final class LogFile {
+    private final String logPartition;
+    private final long startTime;
+    private final Location location;
+    private final long length;
+    private final long lastModified;
+
+    LogFile(String logPartition, long startTime, Location location, long length, long lastModified) {
+      this.logPartition = logPartition;
+      this.startTime = startTime;
+      this.location = location;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    long getStartTime() {
+      return startTime;
+    }
+
+    Location getLocation() {
+      return location;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  /**
+   * The log files of a log partition.
+   */
+  private static final class PartitionFiles {
+    private final String logPartition;
+    private final NamespaceId namespaceId;
+    // Existing files that are kept, sorted by start time
+    private final List<LogFile> files = new ArrayList<>();
+    private final List<LogFile> toDelete = new ArrayList<>();
+    // Start times of the files whose meta data can be deleted
+    private final List<Long> deleted = new ArrayList<>();
+
+    private PartitionFiles(String logPartition, NamespaceId namespaceId) {
+      this.logPartition = logPartition;
+      this.namespaceId = namespaceId;
+    }
+
+    /**
+     * Marks the files past the retention, and then the oldest files exceeding the quota, for deletion.
+     */
+    void expire(LogRetentionPolicy retentionPolicy, long currentTime) {
+      long tillTime = currentTime - retentionPolicy.getRetentionMs(logPartition);
+      Iterator<LogFile> iterator = files.iterator();
+      while (iterator.hasNext()) {
+        LogFile file = iterator.next();
+        // Delete if file last modified time is less than tillTime
+        if (file.lastModified < tillTime) {
+          toDelete.add(file);
+          iterator.remove();
+        }
+      }
+
+      long quota = retentionPolicy.getQuotaBytes(logPartition);
+      long bytes = getBytes();
+      // Never delete the newest file for the quota
+      while (quota >= 0 && bytes > quota && files.size() > 1) {
+        LogFile file = files.remove(0);
+        toDelete.add(file);
+        bytes -= file.length;
+      }
+    }
+
+    long getBytes() {
+      long bytes = 0;
+      for (LogFile file : files) {
+        bytes += file.length;
+      }
+      return bytes;
+    }
+  }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.write;
+
+import co.cask.cdap.common.io.Locations;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import org.apache.twill.filesystem.Location;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A sparse index that maps time ranges of a log file to the positions of the Avro blocks containing them.
+ * The index is stored next to the log file, with the {@link #SUFFIX} appended to the log file name. It is a sequence of
+ * fixed size entries, each describing a segment of consecutive blocks by its start and end sync positions, the
+ * minimum and maximum timestamp and the maximum level of the events in it. Segments are appended in file order as
+ * the log file is written, hence the last part of a log file that is still open may not be covered by the index.
+ */
+public final class LogFileIndex {
+
+  public static final String SUFFIX = ".idx";
+
+  private static final int ENTRY_SIZE = (4 * Long.SIZE + Integer.SIZE) / Byte.SIZE;
+
+  private LogFileIndex() {
+  }
+
+  /**
+   * Returns the location of the index of the given log file.
+   */
+  public static Location getIndexLocation(Location logFile) throws IOException {
+    return Locations.getParent(logFile).append(logFile.getName() + SUFFIX);
+  }
+
+  /**
+   * Writes an index entry for the given segment.
+   */
+  static void write(DataOutput output, Segment segment) throws IOException {
+    output.writeLong(segment.getStart());
+    output.writeLong(segment.getEnd());
+    output.writeLong(segment.getMinTimestamp());
+    output.writeLong(segment.getMaxTimestamp());
+    output.writeInt(segment.getMaxLevel());
+  }
+
+  /**
+   * Reads the index of the given log file.
+   *
+   * @param logFile location of the log file
+   * @param fileLength the length of the log file, segments beyond it are ignored
+   * @return the list of segments in file order, or an empty list if the log file has no index
+   */
+  public static List<Segment> read(Location logFile, long fileLength) throws IOException {
+    Location indexLocation = getIndexLocation(logFile);
+    if (!indexLocation.exists()) {
+      return ImmutableList.of();
+    }
+
+    ImmutableList.Builder<Segment> segments = ImmutableList.builder();
+    long entries = indexLocation.length() / ENTRY_SIZE;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(indexLocation.getInputStream()))) {
+      // A partially written entry at the end of the index is ignored
+      for (long i = 0; i < entries; i++) {
+        Segment segment = new Segment(input.readLong(), input.readLong(), input.readLong(), input.readLong(),
+                                      input.readInt());
+        if (segment.getEnd() > fileLength) {
+          break;
+        }
+        segments.add(segment);
+      }
+    } catch (EOFException e) {
+      // The index is being written concurrently, use the entries read so far
+    }
+    return segments.build();
+  }
+
+  /**
+   * A segment of a log file, starting and ending at sync positions of the Avro file.
+   */
+  public static final class Segment {
+    private final long start;
+    private final long end;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final int maxLevel;
+
+    Segment(long start, long end, long minTimestamp, long maxTimestamp, int maxLevel) {
+      this.start = start;
+      this.end = end;
+      this.minTimestamp = minTimestamp;
+      this.maxTimestamp = maxTimestamp;
+      this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Returns the sync position of the first block in this segment.
+     */
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * Returns the sync position right after the last block in this segment.
+     */
+    public long getEnd() {
+      return end;
+    }
+
+    public long getMinTimestamp() {
+      return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+      return maxTimestamp;
+    }
+
+    /**
+     * Returns the integer value of the highest {@link ch.qos.logback.classic.Level} of the events in this segment.
+     */
+    public int getMaxLevel() {
+      return maxLevel;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("start", start)
+        .add("end", end)
+        .add("minTimestamp", minTimestamp)
+        .add("maxTimestamp", maxTimestamp)
+        .add("maxLevel", maxLevel)
+        .toString();
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.write;
+
+import co.cask.cdap.common.io.Locations;
+import co.cask.cdap.logging.serialize.LoggingEvent;
+import com.google.common.io.Closeables;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.twill.filesystem.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Merges consecutive small log files of a log partition into larger ones, to reduce the number of files the
+ * NameNode has to keep track of. Only files that are no longer written to are merged, which are the files that
+ * are not the newest of their partition and that were not modified for the inactive file interval. Merged files
+ * are not merged again, and they expire with their newest event rather than their modification time, so that
+ * merging does not extend the retention of the events.
+ *
+ * A merged file is written before the meta data is replaced, so it is left behind without meta data if the merge
+ * fails or is interrupted in between. Such files are deleted by the next merge of the partition.
+ */
+public final class LogFileMerger {
+  private static final Logger LOG = LoggerFactory.getLogger(LogFileMerger.class);
+  private static final Pattern MERGED_FILE_NAME = Pattern.compile("\\d+-\\d+\\.avro");
+
+  private final AvroFileWriter avroFileWriter;
+  private final FileMetaDataManager fileMetaDataManager;
+  private final long smallFileBytes;
+  private final long maxFileBytes;
+  private final long inactiveIntervalMs;
+
+  /**
+   * Creates a log file merger.
+   *
+   * @param avroFileWriter writer to create the merged files with
+   * @param fileMetaDataManager used to replace the meta data of the merged files
+   * @param smallFileBytes files smaller than this are merged
+   * @param maxFileBytes maximum size of a merged file
+   * @param inactiveIntervalMs files that were modified more recently than this are not merged
+   */
+  public LogFileMerger(AvroFileWriter avroFileWriter, FileMetaDataManager fileMetaDataManager, long smallFileBytes,
+                       long maxFileBytes, long inactiveIntervalMs) {
+    this.avroFileWriter = avroFileWriter;
+    this.fileMetaDataManager = fileMetaDataManager;
+    this.smallFileBytes = smallFileBytes;
+    this.maxFileBytes = maxFileBytes;
+    this.inactiveIntervalMs = inactiveIntervalMs;
+  }
+
+  /**
+   * Merges the small files of a log partition.
+   *
+   * @param logPartition the log partition
+   * @param files the files of the partition, sorted by start time
+   * @return locations of the files that were merged and deleted
+   */
+  List<Location> merge(String logPartition, List<LogCleanup.LogFile> files) throws Exception {
+    long inactiveTime = System.currentTimeMillis() - inactiveIntervalMs;
+    deleteUnreferencedFiles(files, inactiveTime);
+
+    List<Location> merged = new ArrayList<>();
+    List<LogCleanup.LogFile> group = new ArrayList<>();
+    long groupBytes = 0;
+    // The newest file may still be written to
+    for (LogCleanup.LogFile file : files.subList(0, files.size() - 1)) {
+      boolean small = !isMergedFile(file.getLocation())
+        && file.getLength() < smallFileBytes && file.getLastModified() < inactiveTime;
+      if (!small || groupBytes + file.getLength() > maxFileBytes) {
+        merged.addAll(mergeGroup(logPartition, group));
+        group.clear();
+        groupBytes = 0;
+      }
+      if (small) {
+        group.add(file);
+        groupBytes += file.getLength();
+      }
+    }
+    merged.addAll(mergeGroup(logPartition, group));
+    return merged;
+  }
+
+  /**
+   * Returns whether the given log file was created by merging log files.
+   */
+  static boolean isMergedFile(Location location) {
+    return MERGED_FILE_NAME.matcher(location.getName()).matches();
+  }
+
+  /**
+   * Returns the timestamp of the newest event in a log file according to its index, or {@code -1} if the file has
+   * no index.
+   */
+  static long getLastEventTime(Location location, long length) throws IOException {
+    long lastEventTime = -1L;
+    for (LogFileIndex.Segment segment : LogFileIndex.read(location, length)) {
+      lastEventTime = Math.max(lastEventTime, segment.getMaxTimestamp());
+    }
+    return lastEventTime;
+  }
+
+  /**
+   * Deletes the merged files in the directories of the given files that are not referenced by meta data. Only files
+   * that were not modified since the given time are deleted, so that a merge in progress is not affected.
+   */
+  private void deleteUnreferencedFiles(List<LogCleanup.LogFile> files, long inactiveTime) {
+    Set<String> referenced = new HashSet<>();
+    Map<String, Location> dirs = new HashMap<>();
+    for (LogCleanup.LogFile file : files) {
+      referenced.add(file.getLocation().toURI().getPath());
+      Location dir = Locations.getParent(file.getLocation());
+      if (dir != null) {
+        dirs.put(dir.toURI().getPath(), dir);
+      }
+    }
+
+    for (Location dir : dirs.values()) {
+      try {
+        for (Location location : dir.list()) {
+          if (isMergedFile(location) && !referenced.contains(location.toURI().getPath())
+            && location.lastModified() < inactiveTime) {
+            LOG.warn("Deleting merged log file {} that is not referenced by meta data", location);
+            LogCleanup.deleteLogFile(location);
+          }
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to delete unreferenced merged log files in {}", dir, e);
+      }
+    }
+  }
+
+  /**
+   * Merges a group of consecutive files into a new file in the directory of the first file, which replaces the
+   * files in the meta data.
+   */
+  private List<Location> mergeGroup(String logPartition, List<LogCleanup.LogFile> group) throws Exception {
+    if (group.size() < 2) {
+      return new ArrayList<>();
+    }
+
+    LogCleanup.LogFile first = group.get(0);
+    Location location = Locations.getParent(first.getLocation())
+      .append(String.format("%s-%s.avro", first.getStartTime(), System.currentTimeMillis()));
+    AvroFileWriter.AvroFile avroFile = avroFileWriter.openFile(location);
+    try {
+      for (LogCleanup.LogFile file : group) {
+        try (DataFileStream<GenericRecord> dataFileStream =
+               new DataFileStream<>(file.getLocation().getInputStream(), new GenericDatumReader<GenericRecord>())) {
+          GenericRecord record = null;
+          while (dataFileStream.hasNext()) {
+            record = dataFileStream.next(record);
+            avroFile.append(record, LoggingEvent.decode(record));
+          }
+        }
+      }
+      avroFile.close();
+    } catch (Exception e) {
+      Closeables.closeQuietly(avroFile);
+      LogCleanup.deleteLogFile(location);
+      throw new IOException("Exception while merging log files into " + location, e);
+    }
+
+    List<Long> startTimes = new ArrayList<>();
+    List<Location> merged = new ArrayList<>();
+    for (LogCleanup.LogFile file : group) {
+      startTimes.add(file.getStartTime());
+      merged.add(file.getLocation());
+    }
+    fileMetaDataManager.replaceMetaData(logPartition, first.getStartTime(), location, startTimes);
+
+    for (Location mergedLocation : merged) {
+      try {
+        LogCleanup.deleteLogFile(mergedLocation);
+      } catch (IOException e) {
+        // The file is not referenced by meta data anymore, nothing more can be done
+        LOG.warn("Failed to delete merged log file {}", mergedLocation, e);
+      }
+    }
+    LOG.info("Merged {} log files of {} into {}", group.size(), logPartition, location);
+    return merged;
+  }
+}
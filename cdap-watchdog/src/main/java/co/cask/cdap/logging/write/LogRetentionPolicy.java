@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.write;
+
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.logging.LoggingConfiguration;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retention duration and byte quotas of log files. Both can be overridden for a namespace, by suffixing the
+ * configuration key with {@code .<namespace>}, and for a program or service, by suffixing it with
+ * {@code .<namespace>.<entity>.<sub-entity>}, which is the log partition with dots instead of colons.
+ *
+ * The retention applies to each log partition. The quota of a log partition limits the bytes of its log files,
+ * while the quota of a namespace limits the bytes of the log files of all partitions in the namespace.
+ * A negative quota means no limit.
+ */
+public final class LogRetentionPolicy {
+  private static final long UNLIMITED = -1L;
+
+  private final long defaultRetentionMs;
+  private final long defaultNamespaceQuotaBytes;
+  private final Map<String, Long> retentionMs;
+  private final Map<String, Long> quotaBytes;
+
+  /**
+   * Creates a policy with the given retention for all log files and no quotas.
+   */
+  public LogRetentionPolicy(long retentionDurationMs) {
+    this(retentionDurationMs, UNLIMITED, ImmutableMap.<String, Long>of(), ImmutableMap.<String, Long>of());
+  }
+
+  private LogRetentionPolicy(long defaultRetentionMs, long defaultNamespaceQuotaBytes,
+                             Map<String, Long> retentionMs, Map<String, Long> quotaBytes) {
+    this.defaultRetentionMs = defaultRetentionMs;
+    this.defaultNamespaceQuotaBytes = defaultNamespaceQuotaBytes;
+    this.retentionMs = retentionMs;
+    this.quotaBytes = quotaBytes;
+  }
+
+  /**
+   * Creates the policy from the logging configuration.
+   */
+  public static LogRetentionPolicy create(CConfiguration cConf) {
+    long retentionDays = cConf.getLong(LoggingConfiguration.LOG_RETENTION_DURATION_DAYS,
+                                       LoggingConfiguration.DEFAULT_LOG_RETENTION_DURATION_DAYS);
+    Preconditions.checkArgument(retentionDays > 0, "Log file retention duration is invalid: %s", retentionDays);
+
+    String retentionPrefix = LoggingConfiguration.LOG_RETENTION_DURATION_DAYS + ".";
+    String quotaPrefix = LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES + ".";
+    ImmutableMap.Builder<String, Long> retentionMs = ImmutableMap.builder();
+    ImmutableMap.Builder<String, Long> quotaBytes = ImmutableMap.builder();
+    for (Map.Entry<String, String> entry : cConf) {
+      String key = entry.getKey();
+      if (key.startsWith(retentionPrefix)) {
+        long days = Long.parseLong(entry.getValue().trim());
+        Preconditions.checkArgument(days > 0, "Log file retention duration of %s is invalid: %s", key, days);
+        retentionMs.put(key.substring(retentionPrefix.length()), TimeUnit.DAYS.toMillis(days));
+      } else if (key.startsWith(quotaPrefix)) {
+        quotaBytes.put(key.substring(quotaPrefix.length()), Long.parseLong(entry.getValue().trim()));
+      }
+    }
+    return new LogRetentionPolicy(TimeUnit.DAYS.toMillis(retentionDays),
+                                  cConf.getLong(LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES,
+                                                LoggingConfiguration.DEFAULT_LOG_RETENTION_QUOTA_BYTES),
+                                  retentionMs.build(), quotaBytes.build());
+  }
+
+  /**
+   * Returns the retention duration of the log files of a log partition, in milliseconds.
+   */
+  public long getRetentionMs(String logPartition) {
+    Long retention = retentionMs.get(getScope(logPartition));
+    if (retention == null) {
+      retention = retentionMs.get(getNamespace(logPartition));
+    }
+    return retention == null ? defaultRetentionMs : retention;
+  }
+
+  /**
+   * Returns the maximum number of bytes of the log files of a log partition, or a negative value for no limit.
+   */
+  public long getQuotaBytes(String logPartition) {
+    Long quota = quotaBytes.get(getScope(logPartition));
+    return quota == null ? UNLIMITED : quota;
+  }
+
+  /**
+   * Returns the maximum number of bytes of the log files in a namespace, or a negative value for no limit.
+   */
+  public long getNamespaceQuotaBytes(String namespace) {
+    Long quota = quotaBytes.get(namespace);
+    return quota == null ? defaultNamespaceQuotaBytes : quota;
+  }
+
+  private static String getScope(String logPartition) {
+    return logPartition.replace(':', '.');
+  }
+
+  static String getNamespace(String logPartition) {
+    int idx = logPartition.indexOf(':');
+    return idx < 0 ? logPartition : logPartition.substring(0, idx);
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.write;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import co.cask.cdap.common.io.Locations;
+import co.cask.cdap.common.logging.ApplicationLoggingContext;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.apache.twill.filesystem.Location;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A block level inverted index of the terms in the messages and exceptions of a log file, used to search logs
+ * without reading the log files through.
+ *
+ * The index is stored next to the log file, with the {@link #SUFFIX} appended to the log file name. It has one entry
+ * for each segment of the {@link LogFileIndex}, which holds the time range of the segment, the ids of the runs that
+ * logged in it and the sorted hashes of the terms of its events. A term is a lower cased sequence of letters and
+ * digits, hence a class name like {@code java.io.IOException} is indexed as the terms {@code java}, {@code io} and
+ * {@code ioexception}. Entries are length prefixed and appended in file order as the log file is written.
+ */
+public final class LogTermIndex {
+
+  public static final String SUFFIX = ".terms";
+
+  private static final int MIN_TERM_LENGTH = 2;
+  private static final int MAX_TERM_LENGTH = 64;
+
+  private LogTermIndex() {
+  }
+
+  /**
+   * Returns the location of the term index of the given log file.
+   */
+  public static Location getIndexLocation(Location logFile) throws IOException {
+    return Locations.getParent(logFile).append(logFile.getName() + SUFFIX);
+  }
+
+  /**
+   * Returns the terms of a text.
+   */
+  public static Set<String> getTerms(String text) {
+    Set<String> terms = new HashSet<>();
+    addTerms(text, terms);
+    return terms;
+  }
+
+  /**
+   * Returns the terms of the formatted message and of the class names and messages of the exceptions of an event.
+   */
+  public static Set<String> getEventTerms(ILoggingEvent event) {
+    Set<String> terms = new HashSet<>();
+    addTerms(event.getFormattedMessage(), terms);
+    IThrowableProxy throwable = event.getThrowableProxy();
+    // Bound the depth of the cause chain, as it is not guaranteed to be acyclic
+    for (int depth = 0; throwable != null && depth < 16; depth++) {
+      addTerms(throwable.getClassName(), terms);
+      addTerms(throwable.getMessage(), terms);
+      throwable = throwable.getCause();
+    }
+    return terms;
+  }
+
+  /**
+   * Returns the hash of a term as stored in the index.
+   */
+  public static int hash(String term) {
+    // Mix the bits of the String hash, which are poorly distributed for short strings
+    int h = term.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the sorted, distinct hashes of the given terms.
+   */
+  public static int[] hashAll(Collection<String> terms) {
+    int[] hashes = new int[terms.size()];
+    int i = 0;
+    for (String term : terms) {
+      hashes[i++] = hash(term);
+    }
+    return sortDistinct(hashes, hashes.length);
+  }
+
+  /**
+   * Returns the given number of leading elements of an array, sorted and without duplicates.
+   */
+  static int[] sortDistinct(int[] values, int length) {
+    Arrays.sort(values, 0, length);
+    int distinct = 0;
+    for (int i = 0; i < length; i++) {
+      if (distinct == 0 || values[i] != values[distinct - 1]) {
+        values[distinct++] = values[i];
+      }
+    }
+    return Arrays.copyOf(values, distinct);
+  }
+
+  /**
+   * Writes an index entry.
+   */
+  static void write(DataOutput output, Entry entry) throws IOException {
+    ByteArrayDataOutput bytes = ByteStreams.newDataOutput();
+    bytes.writeLong(entry.getStart());
+    bytes.writeLong(entry.getEnd());
+    bytes.writeLong(entry.getMinTimestamp());
+    bytes.writeLong(entry.getMaxTimestamp());
+    bytes.writeInt(entry.getRunIds().size());
+    for (String runId : entry.getRunIds()) {
+      bytes.writeUTF(runId);
+    }
+    bytes.writeInt(entry.termHashes.length);
+    for (int hash : entry.termHashes) {
+      bytes.writeInt(hash);
+    }
+    byte[] data = bytes.toByteArray();
+    // Write the entry in one call, so that a concurrent reader sees either none or all of it in most cases
+    ByteArrayDataOutput prefixed = ByteStreams.newDataOutput(data.length + Integer.SIZE / Byte.SIZE);
+    prefixed.writeInt(data.length);
+    prefixed.write(data);
+    output.write(prefixed.toByteArray());
+  }
+
+  /**
+   * Reads the term index of the given log file.
+   *
+   * @param logFile location of the log file
+   * @param fileLength the length of the log file, entries beyond it are ignored
+   * @return the list of entries in file order, or {@code null} if the log file has no term index
+   */
+  public static List<Entry> read(Location logFile, long fileLength) throws IOException {
+    Location indexLocation = getIndexLocation(logFile);
+    if (!indexLocation.exists()) {
+      return null;
+    }
+
+    ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(indexLocation.getInputStream()))) {
+      while (true) {
+        byte[] data = new byte[input.readInt()];
+        input.readFully(data);
+        Entry entry = readEntry(ByteStreams.newDataInput(data));
+        if (entry.getEnd() > fileLength) {
+          break;
+        }
+        entries.add(entry);
+      }
+    } catch (EOFException e) {
+      // End of the index, or an entry that is being written concurrently, use the entries read so far
+    }
+    return entries.build();
+  }
+
+  private static Entry readEntry(DataInput input) throws IOException {
+    long start = input.readLong();
+    long end = input.readLong();
+    long minTimestamp = input.readLong();
+    long maxTimestamp = input.readLong();
+    int runCount = input.readInt();
+    ImmutableSet.Builder<String> runIds = ImmutableSet.builder();
+    for (int i = 0; i < runCount; i++) {
+      runIds.add(input.readUTF());
+    }
+    int[] termHashes = new int[input.readInt()];
+    for (int i = 0; i < termHashes.length; i++) {
+      termHashes[i] = input.readInt();
+    }
+    return new Entry(start, end, minTimestamp, maxTimestamp, runIds.build(), termHashes);
+  }
+
+  private static void addTerms(String text, Set<String> terms) {
+    if (text == null) {
+      return;
+    }
+    int length = text.length();
+    int start = -1;
+    for (int i = 0; i <= length; i++) {
+      boolean termChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+      if (termChar && start < 0) {
+        start = i;
+      } else if (!termChar && start >= 0) {
+        if (i - start >= MIN_TERM_LENGTH) {
+          terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase());
+        }
+        start = -1;
+      }
+    }
+  }
+
+  /**
+   * Accumulates the terms and runs of the events of a segment as it is written.
+   */
+  static final class Builder {
+    private final Set<String> runIds = new HashSet<>();
+    private int[] termHashes = new int[256];
+    private int termCount;
+
+    void add(ILoggingEvent event) {
+      Map<String, String> mdc = event.getMDCPropertyMap();
+      String runId = mdc == null ? null : mdc.get(ApplicationLoggingContext.TAG_RUN_ID);
+      if (runId != null) {
+        runIds.add(runId);
+      }
+      Set<String> terms = getEventTerms(event);
+      if (termCount + terms.size() > termHashes.length) {
+        // Drop the duplicates before growing
+        termHashes = sortDistinct(termHashes, termCount);
+        termCount = termHashes.length;
+        termHashes = Arrays.copyOf(termHashes, Math.max(termHashes.length, termCount + terms.size()) * 2);
+      }
+      for (String term : terms) {
+        termHashes[termCount++] = hash(term);
+      }
+    }
+
+    Entry build(long start, long end, long minTimestamp, long maxTimestamp) {
+      Entry entry = new Entry(start, end, minTimestamp, maxTimestamp, ImmutableSet.copyOf(runIds),
+                              sortDistinct(termHashes, termCount));
+      runIds.clear();
+      termCount = 0;
+      return entry;
+    }
+  }
+
+  /**
+   * An entry of the term index, for a segment of a log file starting and ending at sync positions of the Avro file.
+   */
+  public static final class Entry {
+    private final long start;
+    private final long end;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final Set<String> runIds;
+    private final int[] termHashes;
+
+    Entry(long start, long end, long minTimestamp, long maxTimestamp, Set<String> runIds, int[] termHashes) {
+      this.start = start;
+      this.end = end;
+      this.minTimestamp = minTimestamp;
+      this.maxTimestamp = maxTimestamp;
+      this.runIds = runIds;
+      this.termHashes = termHashes;
+    }
+
+    /**
+     * Returns the sync position of the first block in this segment.
+     */
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * Returns the sync position right after the last block in this segment.
+     */
+    public long getEnd() {
+      return end;
+    }
+
+    public long getMinTimestamp() {
+      return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+      return maxTimestamp;
+    }
+
+    /**
+     * Returns the ids of the runs that logged events in this segment.
+     */
+    public Set<String> getRunIds() {
+      return runIds;
+    }
+
+    /**
+     * Returns {@code true} if this segment may have events with all the terms of the given hashes. As only the hashes
+     * of terms are kept, it can return {@code true} for a segment without such events.
+     *
+     * @param sortedHashes the sorted hashes of the terms, as returned by {@link #hashAll(Collection)}
+     */
+    public boolean mayContainAll(int[] sortedHashes) {
+      for (int hash : sortedHashes) {
+        if (Arrays.binarySearch(termHashes, hash) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("start", start)
+        .add("end", end)
+        .add("minTimestamp", minTimestamp)
+        .add("maxTimestamp", maxTimestamp)
+        .add("runIds", runIds)
+        .add("terms", termHashes.length)
+        .toString();
+    }
+  }
+}
@@ -15,19 +15,18 @@
  */
 package co.cask.cdap.metrics.collect;
 
+import co.cask.cdap.api.metrics.MetricCounter;
 import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsCollectionService;
 import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.common.conf.Constants;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import org.apache.twill.common.Threads;
 import org.slf4j.Logger;
@@ -36,13 +35,19 @@ import org.slf4j.LoggerFactory;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Base class for {@link MetricsCollectionService} which collect metrics through a set of cached
+ * Base class for {@link MetricsCollectionService} which collect metrics through a set of
  * {@link AggregatedMetricsEmitter}.
+ *
+ * Each {@link MetricsContext} holds the emitters of its metrics, hence recording a metric does not need to look up
+ * the context by its tags, and a {@link MetricCounter} handle does not need any lookup at all. Publishing sweeps the
+ * emitters of all active contexts. Contexts without metrics for a while are no longer swept, until they are used again.
  */
 public abstract class AggregatedMetricsCollectionService extends AbstractScheduledService
                                                          implements MetricsCollectionService {
@@ -50,34 +55,17 @@ public abstract class AggregatedMetricsCollectionService extends AbstractSchedul
   private static final Logger LOG = LoggerFactory.getLogger(AggregatedMetricsCollectionService.class);
   private static final long CACHE_EXPIRE_MINUTES = 1;
 
-  private final LoadingCache<Map<String, String>, MetricsContext> collectors;
-  private final LoadingCache<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> emitters;
+  // contexts by tags
+  private final ConcurrentMap<Map<String, String>, MetricsContextImpl> contexts;
+  // contexts swept when publishing. A context may still be used after it expired from contexts, hence this is
+  // maintained separately.
+  private final Set<MetricsContextImpl> activeContexts;
 
   private ScheduledExecutorService executorService;
 
   public AggregatedMetricsCollectionService() {
-    this.collectors = CacheBuilder.newBuilder()
-      .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
-      .build(createCollectorLoader());
-
-    this.emitters = CacheBuilder.newBuilder()
-      // NOTE : we don't need to have removalListener to  emit metrics, as we have expireAfterAccess set for a minute,
-      // emitters.get() is used to increment/gauge and that would reset the access time,
-      // and since runOneIteration() emits all the metrics for the scheduled duration (every 1 second)
-      // there wont be any loss of emitter entries.
-      .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
-      .build(new CacheLoader<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>() {
-        @Override
-        public LoadingCache<String, AggregatedMetricsEmitter> load(Map<String, String> tags) throws Exception {
-          return CacheBuilder.newBuilder().expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES).
-            build(new CacheLoader<String, AggregatedMetricsEmitter>() {
-              @Override
-              public AggregatedMetricsEmitter load(String metricName) throws Exception {
-                return new AggregatedMetricsEmitter(metricName);
-              }
-            });
-        }
-      });
+    this.contexts = Maps.newConcurrentMap();
+    this.activeContexts = Sets.newSetFromMap(Maps.<MetricsContextImpl, Boolean>newConcurrentMap());
   }
 
   /**
@@ -129,7 +117,17 @@ public abstract class AggregatedMetricsCollectionService extends AbstractSchedul
 
   @Override
   public final MetricsContext getContext(final Map<String, String> tags) {
-    return collectors.getUnchecked(tags);
+    MetricsContextImpl context = contexts.get(tags);
+    if (context != null) {
+      return context;
+    }
+    context = new MetricsContextImpl(tags);
+    MetricsContextImpl existing = contexts.putIfAbsent(context.getTags(), context);
+    if (existing != null) {
+      return existing;
+    }
+    activeContexts.add(context);
+    return context;
   }
 
   @Override
@@ -145,25 +143,16 @@ public abstract class AggregatedMetricsCollectionService extends AbstractSchedul
   }
 
   private Iterator<MetricValues> getMetrics(final long timestamp) {
-    // NOTE : emitters.asMap does not reset the access time in cache,
-    // so it's the preferred way to access the cache entries. as we access and emit metrics every second.
-    final Iterator<Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>> iterator =
-      emitters.asMap().entrySet().iterator();
+    final Iterator<MetricsContextImpl> iterator = activeContexts.iterator();
     return new AbstractIterator<MetricValues>() {
       @Override
       protected MetricValues computeNext() {
         while (iterator.hasNext()) {
-          Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> entry = iterator.next();
-          Map<String, AggregatedMetricsEmitter> metricEmitters = entry.getValue().asMap();
-          // +1 because we add extra metric about how many metric values did we emit in this context (see below)
-          List<MetricValue> metricValues = Lists.newArrayListWithCapacity(metricEmitters.size() + 1);
-          for (Map.Entry<String, AggregatedMetricsEmitter> emitterEntry : metricEmitters.entrySet()) {
-            MetricValue metricValue = emitterEntry.getValue().emit();
-            // skip increment by 0
-            if (metricValue.getType() == MetricType.COUNTER && metricValue.getValue() == 0) {
-              continue;
-            }
-            metricValues.add(metricValue);
+          MetricsContextImpl context = iterator.next();
+          List<MetricValue> metricValues = context.emit(timestamp);
+          if (metricValues.isEmpty() && context.expireIfIdle(timestamp)) {
+            // emit again, to include the metrics recorded while expiring the context
+            metricValues = context.emit(timestamp);
           }
 
           if (metricValues.isEmpty()) {
@@ -175,45 +164,63 @@ public abstract class AggregatedMetricsCollectionService extends AbstractSchedul
           metricValues.add(new MetricValue("metrics.emitted.count", MetricType.COUNTER, metricValues.size() + 1));
 
           LOG.trace("Emit metric {}", metricValues);
-          return new MetricValues(entry.getKey(), timestamp, metricValues);
+          return new MetricValues(context.getTags(), timestamp, metricValues);
         }
         return endOfData();
       }
     };
   }
 
-  private CacheLoader<Map<String, String>, MetricsContext> createCollectorLoader() {
-    return new CacheLoader<Map<String, String>, MetricsContext>() {
-      @Override
-      public MetricsContext load(final Map<String, String> collectorKey) throws Exception {
-        return new MetricsContextImpl(collectorKey);
-      }
-    };
-  }
-
   private final class MetricsContextImpl implements MetricsContext {
 
     private final Map<String, String> tags;
+    private final ConcurrentMap<String, AggregatedMetricsEmitter> emitters;
+    // timestamp in seconds of the last publishing with metrics of this context
+    private volatile long lastActiveTs;
+    // whether this context is no longer swept when publishing
+    private volatile boolean expired;
 
     private MetricsContextImpl(final Map<String, String> tags) {
       this.tags = ImmutableMap.copyOf(tags);
+      this.emitters = Maps.newConcurrentMap();
+      this.lastActiveTs = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
     }
 
     @Override
     public void increment(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).increment(value);
+      getEmitter(metricName).increment(value);
+      touch();
     }
 
     @Override
     public void gauge(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).gauge(value);
+      getEmitter(metricName).gauge(value);
+      touch();
+    }
+
+    @Override
+    public void histogram(String metricName, long value) {
+      getEmitter(metricName).histogram(value);
+      touch();
+    }
+
+    @Override
+    public MetricCounter getCounter(String metricName) {
+      final AggregatedMetricsEmitter emitter = getEmitter(metricName);
+      return new MetricCounter() {
+        @Override
+        public void increment(long value) {
+          emitter.increment(value);
+          touch();
+        }
+      };
     }
 
     @Override
     public MetricsContext childContext(String tagName, String tagValue) {
       ImmutableMap<String, String> allTags = ImmutableMap.<String, String>builder()
         .putAll(tags).put(tagName, tagValue).build();
-      return collectors.getUnchecked(allTags);
+      return getContext(allTags);
     }
 
     @Override
@@ -230,7 +237,74 @@ public abstract class AggregatedMetricsCollectionService extends AbstractSchedul
       Map<String, String> allTags = Maps.newHashMap();
       allTags.putAll(this.tags);
       allTags.putAll(tags);
-      return collectors.getUnchecked(allTags);
+      return getContext(allTags);
+    }
+
+    private AggregatedMetricsEmitter getEmitter(String metricName) {
+      AggregatedMetricsEmitter emitter = emitters.get(metricName);
+      if (emitter == null) {
+        emitter = new AggregatedMetricsEmitter(metricName);
+        AggregatedMetricsEmitter existing = emitters.putIfAbsent(metricName, emitter);
+        if (existing != null) {
+          emitter = existing;
+        }
+      }
+      return emitter;
+    }
+
+    /**
+     * Makes sure that this context is swept when publishing, after a metric was recorded.
+     */
+    private void touch() {
+      if (expired) {
+        reactivate();
+      }
+    }
+
+    private synchronized void reactivate() {
+      if (!expired) {
+        return;
+      }
+      expired = false;
+      lastActiveTs = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+      activeContexts.add(this);
+      contexts.putIfAbsent(tags, this);
+    }
+
+    /**
+     * Stops sweeping this context if there were no metrics for it for a while.
+     *
+     * @return {@code true} if the context expired
+     */
+    private synchronized boolean expireIfIdle(long timestamp) {
+      if (timestamp - lastActiveTs < TimeUnit.MINUTES.toSeconds(CACHE_EXPIRE_MINUTES)) {
+        return false;
+      }
+      expired = true;
+      activeContexts.remove(this);
+      contexts.remove(tags, this);
+      return true;
+    }
+
+    /**
+     * Emits the metrics recorded since the last call.
+     */
+    private List<MetricValue> emit(long timestamp) {
+      // +1 because we add extra metric about how many metric values did we emit in this context
+      List<MetricValue> metricValues = Lists.newArrayListWithCapacity(emitters.size() + 1);
+      for (AggregatedMetricsEmitter emitter : emitters.values()) {
+        MetricValue metricValue = emitter.emit();
+        emitter.emitHistogram(metricValues);
+        // skip increment by 0
+        if (metricValue.getType() == MetricType.COUNTER && metricValue.getValue() == 0) {
+          continue;
+        }
+        metricValues.add(metricValue);
+      }
+      if (!metricValues.isEmpty()) {
+        lastActiveTs = timestamp;
+      }
+      return metricValues;
     }
   }
 }
@@ -15,13 +15,17 @@
  */
 package co.cask.cdap.metrics.collect;
 
+import co.cask.cdap.api.metrics.Histograms;
 import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * {@link MetricsEmitter} that aggregates  values for a metric
@@ -31,10 +35,14 @@ final class AggregatedMetricsEmitter implements MetricsEmitter {
   private static final Logger LOG = LoggerFactory.getLogger(AggregatedMetricsEmitter.class);
 
   private final String name;
-  // metric value
+  // sum of increments, striped to avoid contention between threads incrementing the same metric
+  private final StripedCounter counter;
+  // gauge value
   private final AtomicLong value;
   // specifies if the metric type is gauge or counter
   private final AtomicBoolean gaugeUsed;
+  // bucket counts of the histogram, only created when a histogram value is recorded
+  private final AtomicReference<AtomicLongArray> histogram;
 
   AggregatedMetricsEmitter(String name) {
     if (name == null || name.isEmpty()) {
@@ -42,25 +50,61 @@ final class AggregatedMetricsEmitter implements MetricsEmitter {
     }
 
     this.name = name;
+    this.counter = new StripedCounter();
     this.value = new AtomicLong();
     this.gaugeUsed = new AtomicBoolean(false);
+    this.histogram = new AtomicReference<>();
   }
 
   void increment(long value) {
-    this.value.addAndGet(value);
+    counter.add(value);
   }
 
 
   @Override
   public MetricValue emit() {
     // todo CDAP-2195 - potential race condition , reseting value and type has to be done together
-    long value = this.value.getAndSet(0);
-    MetricType type = gaugeUsed.getAndSet(false) ? MetricType.GAUGE : MetricType.COUNTER;
-    return new MetricValue(name, type, value);
+    long count = counter.sumThenReset();
+    if (gaugeUsed.getAndSet(false)) {
+      // increments after the last gauge add to the gauge value
+      return new MetricValue(name, MetricType.GAUGE, value.getAndSet(0) + count);
+    }
+    return new MetricValue(name, MetricType.COUNTER, count);
   }
 
   public void gauge(long value) {
+    // a gauge overrides all increments before it
+    counter.sumThenReset();
     this.value.set(value);
     this.gaugeUsed.set(true);
   }
+
+  void histogram(long value) {
+    AtomicLongArray counts = histogram.get();
+    if (counts == null) {
+      histogram.compareAndSet(null, new AtomicLongArray(Histograms.BUCKETS));
+      counts = histogram.get();
+    }
+    counts.incrementAndGet(Histograms.getBucket(value));
+  }
+
+  /**
+   * Emits the non-empty buckets of the histogram recorded since the last call, if any,
+   * as {@link MetricType#HISTOGRAM} values.
+   *
+   * @param values collection to add the emitted values to
+   */
+  void emitHistogram(Collection<MetricValue> values) {
+    AtomicLongArray counts = histogram.get();
+    if (counts == null) {
+      return;
+    }
+    for (int bucket = 0; bucket < counts.length(); bucket++) {
+      // avoid a write for empty buckets
+      if (counts.get(bucket) != 0) {
+        long count = counts.getAndSet(bucket, 0);
+        values.add(new MetricValue(name, MetricType.HISTOGRAM, Histograms.encode(bucket, count)));
+      }
+    }
+  }
 }
@@ -16,10 +16,13 @@
 package co.cask.cdap.metrics.collect;
 
 import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.io.BinaryEncoder;
 import co.cask.cdap.common.io.Encoder;
 import co.cask.cdap.internal.io.DatumWriter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
@@ -33,10 +36,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A {@link AggregatedMetricsCollectionService} that publish {@link co.cask.cdap.api.metrics.MetricValues} to kafka.
  * The partition is determined by the metric context.
+ *
+ * If the batch size is larger than one, the records of the same partition are published together as a single
+ * message encoded with {@link MetricsBatchCodec}. Otherwise each record is published as a separate message, encoded
+ * with the given {@link DatumWriter}. Batching must only be enabled once all metrics processors can decode batches.
  */
 @Singleton
 public class KafkaMetricsCollectionService extends AggregatedMetricsCollectionService {
@@ -46,24 +55,53 @@ public class KafkaMetricsCollectionService extends AggregatedMetricsCollectionSe
   private final String topicPrefix;
   private final KafkaPublisher.Ack ack;
   private final DatumWriter<MetricValues> recordWriter;
+  private final int partitionSize;
+  private final int batchSize;
+  private final boolean compress;
   private final ByteArrayOutputStream encoderOutputStream;
   private final Encoder encoder;
 
   private KafkaPublisher publisher;
 
   @Inject
-  public KafkaMetricsCollectionService(KafkaClient kafkaClient,
+  public KafkaMetricsCollectionService(KafkaClient kafkaClient, CConfiguration cConf,
                                        @Named(Constants.Metrics.KAFKA_TOPIC_PREFIX) String topicPrefix,
                                        DatumWriter<MetricValues> recordWriter) {
-    this(kafkaClient, topicPrefix, KafkaPublisher.Ack.FIRE_AND_FORGET, recordWriter);
+    this(kafkaClient, topicPrefix, KafkaPublisher.Ack.FIRE_AND_FORGET, recordWriter,
+         cConf.getInt(Constants.Metrics.KAFKA_PARTITION_SIZE, Constants.Metrics.DEFAULT_KAFKA_PARTITION_SIZE),
+         cConf.getInt(Constants.Metrics.KAFKA_PUBLISH_BATCH_SIZE, Constants.Metrics.DEFAULT_KAFKA_PUBLISH_BATCH_SIZE),
+         cConf.getBoolean(Constants.Metrics.KAFKA_PUBLISH_COMPRESS, Constants.Metrics.DEFAULT_KAFKA_PUBLISH_COMPRESS));
   }
 
+  /**
+   * Creates a service that publishes each record as a separate message.
+   */
   public KafkaMetricsCollectionService(KafkaClient kafkaClient, String topicPrefix,
                                        KafkaPublisher.Ack ack, DatumWriter<MetricValues> recordWriter) {
+    this(kafkaClient, topicPrefix, ack, recordWriter, 1, 1, false);
+  }
+
+  /**
+   * Creates a service.
+   *
+   * @param kafkaClient client to publish with
+   * @param topicPrefix topic to publish to
+   * @param ack the ack mode of publishing
+   * @param recordWriter writer to encode records that are not batched
+   * @param partitionSize number of partitions of the topic, to group the records of a batch by partition
+   * @param batchSize maximum number of records in a single message; {@code 1} to publish each record separately
+   * @param compress whether to compress the body of batched messages
+   */
+  public KafkaMetricsCollectionService(KafkaClient kafkaClient, String topicPrefix,
+                                       KafkaPublisher.Ack ack, DatumWriter<MetricValues> recordWriter,
+                                       int partitionSize, int batchSize, boolean compress) {
     this.kafkaClient = kafkaClient;
     this.topicPrefix = topicPrefix;
     this.ack = ack;
     this.recordWriter = recordWriter;
+    this.partitionSize = Math.max(1, partitionSize);
+    this.batchSize = batchSize;
+    this.compress = compress;
 
     // Parent guarantees the publish method would not get called concurrently, hence safe to reuse the same instances.
     this.encoderOutputStream = new ByteArrayOutputStream(1024);
@@ -85,15 +123,44 @@ public class KafkaMetricsCollectionService extends AggregatedMetricsCollectionSe
     encoderOutputStream.reset();
 
     KafkaPublisher.Preparer preparer = publisher.prepare(topicPrefix);
-    while (metrics.hasNext()) {
-      // Encode each MetricRecord into bytes and make it an individual kafka message in a message set.
-      MetricValues value = metrics.next();
-      publishMetric(preparer, value);
+    if (batchSize > 1) {
+      publishBatches(preparer, metrics);
+    } else {
+      while (metrics.hasNext()) {
+        // Encode each MetricRecord into bytes and make it an individual kafka message in a message set.
+        MetricValues value = metrics.next();
+        publishMetric(preparer, value);
+      }
     }
 
     preparer.send();
   }
 
+  private void publishBatches(KafkaPublisher.Preparer preparer, Iterator<MetricValues> metrics) throws IOException {
+    // Group the records by partition, so that the records of the same context still go to the same partition
+    Map<Integer, List<MetricValues>> batches = Maps.newHashMap();
+    while (metrics.hasNext()) {
+      MetricValues value = metrics.next();
+      // The key is smaller than the number of partitions, hence it is also the partition the message is published to
+      int partition = (getPartitionKey(value) & Integer.MAX_VALUE) % partitionSize;
+      List<MetricValues> batch = batches.get(partition);
+      if (batch == null) {
+        batch = Lists.newArrayList();
+        batches.put(partition, batch);
+      }
+      batch.add(value);
+      if (batch.size() >= batchSize) {
+        preparer.add(ByteBuffer.wrap(MetricsBatchCodec.encode(batch, compress)), partition);
+        batch.clear();
+      }
+    }
+    for (Map.Entry<Integer, List<MetricValues>> entry : batches.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        preparer.add(ByteBuffer.wrap(MetricsBatchCodec.encode(entry.getValue(), compress)), entry.getKey());
+      }
+    }
+  }
+
   private void publishMetric(KafkaPublisher.Preparer preparer, MetricValues value) throws IOException {
     recordWriter.encode(value, encoder);
     // partitioning by the context
@@ -111,7 +178,8 @@ public class KafkaMetricsCollectionService extends AggregatedMetricsCollectionSe
       return publisher;
     }
     try {
-      publisher = kafkaClient.getPublisher(ack, Compression.SNAPPY);
+      // No need to compress the message set again if the messages are compressed already
+      publisher = kafkaClient.getPublisher(ack, batchSize > 1 && compress ? Compression.NONE : Compression.SNAPPY);
     } catch (IllegalStateException e) {
       // can happen if there are no kafka brokers because the kafka server is down.
       publisher = null;
@@ -19,6 +19,7 @@ import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.metrics.process.MetricsRollupService;
 import co.cask.cdap.proto.Id;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
@@ -44,12 +45,15 @@ public final class LocalMetricsCollectionService extends AggregatedMetricsCollec
 
   private final CConfiguration cConf;
   private final MetricStore metricStore;
+  private final MetricsRollupService rollupService;
   private ScheduledExecutorService scheduler;
 
   @Inject
-  public LocalMetricsCollectionService(CConfiguration cConf, MetricStore metricStore) {
+  public LocalMetricsCollectionService(CConfiguration cConf, MetricStore metricStore,
+                                       MetricsRollupService rollupService) {
     this.cConf = cConf;
     this.metricStore = metricStore;
+    this.rollupService = rollupService;
     metricStore.setMetricsContext(this.getContext(METRICS_PROCESSOR_CONTEXT));
   }
 
@@ -70,6 +74,10 @@ public final class LocalMetricsCollectionService extends AggregatedMetricsCollec
 
     // Try right away if there's anything to cleanup, then we'll schedule to do that periodically
     scheduler.schedule(createCleanupTask(retentionSecs), 1, TimeUnit.SECONDS);
+
+    if (rollupService.isEnabled()) {
+      rollupService.startAndWait();
+    }
   }
 
   @Override
@@ -77,6 +85,9 @@ public final class LocalMetricsCollectionService extends AggregatedMetricsCollec
     if (scheduler != null) {
       scheduler.shutdownNow();
     }
+    if (rollupService.isRunning()) {
+      rollupService.stopAndWait();
+    }
     super.shutDown();
   }
 
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.collect;
+
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.common.io.Decoder;
+import co.cask.cdap.common.io.Encoder;
+import co.cask.common.io.ByteBufferInputStream;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a batch of {@link MetricValues} into a single compact message.
+ *
+ * All tag names, tag values and metric names of a batch are written once into a dictionary and referenced by index.
+ * Timestamps are written as the difference to the previous record, and metric values as the difference to the
+ * previous value of the same metric in the batch, so that similar values take few bytes in the variable-length
+ * encoding. The body of the message can optionally be compressed with Snappy.
+ *
+ * A message starts with {@link #MAGIC}, which can never be the start of a single {@link MetricValues} record
+ * encoded with its Avro schema, hence both formats can be consumed from the same topic.
+ */
+public final class MetricsBatchCodec {
+
+  // As the start of an Avro encoded record, these bytes would be a map or array block count of -4992 or a negative
+  // timestamp, neither of which a MetricValues record can have
+  private static final byte[] MAGIC = { (byte) 0xff, 'M' };
+  private static final byte VERSION = 1;
+  private static final byte FLAG_SNAPPY = 0x01;
+  private static final MetricType[] METRIC_TYPES = MetricType.values();
+
+  private MetricsBatchCodec() {
+  }
+
+  /**
+   * Returns whether the given message is a batch encoded by this codec. The position of the buffer is not changed.
+   */
+  public static boolean isBatch(ByteBuffer message) {
+    int pos = message.position();
+    return message.remaining() > MAGIC.length + 1 && message.get(pos) == MAGIC[0] && message.get(pos + 1) == MAGIC[1];
+  }
+
+  /**
+   * Encodes the given records into a single message.
+   *
+   * @param records records to encode
+   * @param compress whether to compress the message body
+   * @return the encoded message
+   */
+  public static byte[] encode(Collection<MetricValues> records, boolean compress) throws IOException {
+    // Build the dictionary of all strings of the batch
+    Map<String, Integer> dictionary = Maps.newLinkedHashMap();
+    for (MetricValues record : records) {
+      for (Map.Entry<String, String> tag : record.getTags().entrySet()) {
+        intern(dictionary, tag.getKey());
+        intern(dictionary, tag.getValue());
+      }
+      for (MetricValue metric : record.getMetrics()) {
+        intern(dictionary, metric.getName());
+      }
+    }
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    Encoder encoder = new BinaryEncoder(body);
+    encoder.writeInt(dictionary.size());
+    for (String value : dictionary.keySet()) {
+      encoder.writeString(value);
+    }
+
+    encoder.writeInt(records.size());
+    // last value of each metric in the batch, by dictionary index of the metric name
+    long[] lastValues = new long[dictionary.size()];
+    long lastTimestamp = 0;
+    for (MetricValues record : records) {
+      encoder.writeLong(record.getTimestamp() - lastTimestamp);
+      lastTimestamp = record.getTimestamp();
+
+      encoder.writeInt(record.getTags().size());
+      for (Map.Entry<String, String> tag : record.getTags().entrySet()) {
+        encoder.writeInt(dictionary.get(tag.getKey()));
+        // index 0 is a null value
+        encoder.writeInt(tag.getValue() == null ? 0 : dictionary.get(tag.getValue()) + 1);
+      }
+
+      encoder.writeInt(record.getMetrics().size());
+      for (MetricValue metric : record.getMetrics()) {
+        int nameIdx = dictionary.get(metric.getName());
+        encoder.writeInt(nameIdx);
+        encoder.writeInt(metric.getType().ordinal());
+        encoder.writeLong(metric.getValue() - lastValues[nameIdx]);
+        lastValues[nameIdx] = metric.getValue();
+      }
+    }
+
+    byte[] bodyBytes = body.toByteArray();
+    ByteArrayOutputStream message = new ByteArrayOutputStream(bodyBytes.length + MAGIC.length + 2);
+    message.write(MAGIC);
+    message.write(VERSION);
+    if (compress) {
+      message.write(FLAG_SNAPPY);
+      message.write(Snappy.compress(bodyBytes));
+    } else {
+      message.write(0);
+      message.write(bodyBytes);
+    }
+    return message.toByteArray();
+  }
+
+  /**
+   * Decodes a message encoded with {@link #encode(Collection, boolean)}. The position of the buffer is not changed.
+   *
+   * @param message the message to decode
+   * @return the records of the message
+   * @throws IOException if the message is not a valid batch
+   */
+  public static List<MetricValues> decode(ByteBuffer message) throws IOException {
+    if (!isBatch(message)) {
+      throw new IOException("Message is not a metrics batch");
+    }
+    ByteBuffer buffer = message.duplicate();
+    buffer.position(buffer.position() + MAGIC.length);
+    byte version = buffer.get();
+    if (version != VERSION) {
+      throw new IOException("Unsupported metrics batch version " + version);
+    }
+    byte flags = buffer.get();
+    if ((flags & FLAG_SNAPPY) != 0) {
+      byte[] compressed = new byte[buffer.remaining()];
+      buffer.get(compressed);
+      buffer = ByteBuffer.wrap(Snappy.uncompress(compressed));
+    }
+
+    Decoder decoder = new BinaryDecoder(new ByteBufferInputStream(buffer));
+    String[] dictionary = new String[readCount(decoder)];
+    for (int i = 0; i < dictionary.length; i++) {
+      dictionary[i] = decoder.readString();
+    }
+
+    int recordCount = readCount(decoder);
+    List<MetricValues> records = Lists.newArrayListWithCapacity(recordCount);
+    long[] lastValues = new long[dictionary.length];
+    long timestamp = 0;
+    for (int i = 0; i < recordCount; i++) {
+      timestamp += decoder.readLong();
+
+      int tagCount = readCount(decoder);
+      Map<String, String> tags = Maps.newHashMapWithExpectedSize(tagCount);
+      for (int j = 0; j < tagCount; j++) {
+        String name = dictionary[readIndex(decoder, dictionary.length, "tag name")];
+        // index 0 is a null value
+        int valueIdx = readIndex(decoder, dictionary.length + 1, "tag value");
+        tags.put(name, valueIdx == 0 ? null : dictionary[valueIdx - 1]);
+      }
+
+      int metricCount = readCount(decoder);
+      List<MetricValue> metrics = Lists.newArrayListWithCapacity(metricCount);
+      for (int j = 0; j < metricCount; j++) {
+        int nameIdx = readIndex(decoder, dictionary.length, "metric name");
+        MetricType type = METRIC_TYPES[readIndex(decoder, METRIC_TYPES.length, "metric type")];
+        long value = lastValues[nameIdx] + decoder.readLong();
+        lastValues[nameIdx] = value;
+        metrics.add(new MetricValue(dictionary[nameIdx], type, value));
+      }
+      records.add(new MetricValues(tags, timestamp, metrics));
+    }
+    return records;
+  }
+
+  private static int readCount(Decoder decoder) throws IOException {
+    int count = decoder.readInt();
+    if (count < 0) {
+      throw new IOException("Invalid count " + count + " in metrics batch");
+    }
+    return count;
+  }
+
+  private static int readIndex(Decoder decoder, int size, String name) throws IOException {
+    int idx = decoder.readInt();
+    if (idx < 0 || idx >= size) {
+      throw new IOException("Invalid " + name + " index " + idx + " in metrics batch");
+    }
+    return idx;
+  }
+
+  private static void intern(Map<String, Integer> dictionary, String value) {
+    if (value != null && !dictionary.containsKey(value)) {
+      dictionary.put(value, dictionary.size());
+    }
+  }
+}
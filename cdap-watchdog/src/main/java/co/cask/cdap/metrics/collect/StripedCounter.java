@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.collect;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be incremented concurrently by many threads. It starts as a single {@link AtomicLong}, and once
+ * concurrent increments collide, spreads them over stripes selected by thread, each on its own cache line.
+ */
+final class StripedCounter {
+
+  // 8 longs per 64 bytes cache line, to avoid false sharing between stripes
+  private static final int PADDING = 8;
+  private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+  private final AtomicLong base = new AtomicLong();
+  private volatile AtomicLongArray stripes;
+
+  void add(long delta) {
+    AtomicLongArray cells = stripes;
+    if (cells == null) {
+      long current = base.get();
+      if (base.compareAndSet(current, current + delta)) {
+        return;
+      }
+      cells = inflate();
+    }
+    cells.addAndGet(getStripe(), delta);
+  }
+
+  /**
+   * Returns the sum of all increments since the last call and resets the counter to zero.
+   * Increments concurrent to this call are either included or counted by the next call.
+   */
+  long sumThenReset() {
+    long sum = base.getAndSet(0);
+    AtomicLongArray cells = stripes;
+    if (cells != null) {
+      for (int i = 0; i < cells.length(); i += PADDING) {
+        // avoid a write for untouched stripes
+        if (cells.get(i) != 0) {
+          sum += cells.getAndSet(i, 0);
+        }
+      }
+    }
+    return sum;
+  }
+
+  private synchronized AtomicLongArray inflate() {
+    if (stripes == null) {
+      stripes = new AtomicLongArray(STRIPES * PADDING);
+    }
+    return stripes;
+  }
+
+  private static int getStripe() {
+    long id = Thread.currentThread().getId();
+    // mix the bits, as thread ids are sequential
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return ((h >>> 16) & (STRIPES - 1)) * PADDING;
+  }
+}
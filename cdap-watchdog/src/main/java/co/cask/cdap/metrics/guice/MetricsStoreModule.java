@@ -20,11 +20,12 @@ import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.metrics.store.DefaultMetricDatasetFactory;
 import co.cask.cdap.metrics.store.DefaultMetricStore;
 import co.cask.cdap.metrics.store.MetricDatasetFactory;
+import co.cask.cdap.metrics.store.MetricsRollup;
 import com.google.inject.PrivateModule;
 import com.google.inject.Scopes;
 
 /**
- * Guice module for providing bindings for {@link MetricStore}.
+ * Guice module for providing bindings for {@link MetricStore} and {@link MetricsRollup}.
  */
 public final class MetricsStoreModule extends PrivateModule {
 
@@ -33,5 +34,7 @@ public final class MetricsStoreModule extends PrivateModule {
     bind(MetricDatasetFactory.class).to(DefaultMetricDatasetFactory.class).in(Scopes.SINGLETON);
     bind(MetricStore.class).to(DefaultMetricStore.class);
     expose(MetricStore.class);
+    bind(MetricsRollup.class).to(DefaultMetricStore.class);
+    expose(MetricsRollup.class);
   }
 }
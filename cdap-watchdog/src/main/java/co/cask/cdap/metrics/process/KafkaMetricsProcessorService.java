@@ -47,6 +47,7 @@ public final class KafkaMetricsProcessorService extends AbstractExecutionThreadS
   private final Set<Integer> partitions;
   private Cancellable unsubscribe;
   private final MetricDatasetFactory metricDatasetFactory;
+  private final MetricsRollupService rollupService;
 
   @Nullable
   private MetricsContext metricsContext;
@@ -59,6 +60,7 @@ public final class KafkaMetricsProcessorService extends AbstractExecutionThreadS
   public KafkaMetricsProcessorService(KafkaClientService kafkaClient,
                                       MetricDatasetFactory metricDatasetFactory,
                                       MessageCallbackFactory callbackFactory,
+                                      MetricsRollupService rollupService,
                                       @Named(Constants.Metrics.KAFKA_TOPIC_PREFIX) String topicPrefix,
                                       @Assisted Set<Integer> partitions) {
     this.kafkaClient = kafkaClient;
@@ -66,6 +68,7 @@ public final class KafkaMetricsProcessorService extends AbstractExecutionThreadS
     this.topicPrefix = topicPrefix;
     this.partitions = partitions;
     this.metricDatasetFactory = metricDatasetFactory;
+    this.rollupService = rollupService;
   }
 
   public void setMetricsContext(MetricsContext metricsContext) {
@@ -85,6 +88,12 @@ public final class KafkaMetricsProcessorService extends AbstractExecutionThreadS
     }
     LOG.info("Metrics Processing Service started for partitions {}.", partitions);
 
+    // only the processor of the first partition rolls up metrics, to have a single rollup in the cluster
+    if (partitions.contains(0) && rollupService.isEnabled()) {
+      rollupService.startAndWait();
+      LOG.info("Metrics Rollup Service started.");
+    }
+
     while (isRunning()) {
       try {
         TimeUnit.SECONDS.sleep(1);
@@ -111,6 +120,9 @@ public final class KafkaMetricsProcessorService extends AbstractExecutionThreadS
     if (unsubscribe != null) {
       unsubscribe.cancel();
     }
+    if (rollupService.isRunning()) {
+      rollupService.stopAndWait();
+    }
     LOG.info("Metrics Processing Service stopped.");
   }
 
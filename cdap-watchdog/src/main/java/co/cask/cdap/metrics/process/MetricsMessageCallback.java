@@ -16,68 +16,114 @@
 package co.cask.cdap.metrics.process;
 
 import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.metrics.Histograms;
 import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.api.metrics.MetricType;
 import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.internal.io.DatumReader;
+import co.cask.cdap.metrics.collect.MetricsBatchCodec;
 import co.cask.common.io.ByteBufferInputStream;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.twill.kafka.client.FetchedMessage;
 import org.apache.twill.kafka.client.KafkaConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
  * A {@link KafkaConsumer.MessageCallback} that decodes message into {@link co.cask.cdap.api.metrics.MetricValues}
  * and stores it in {@link MetricStore}.
+ *
+ * The messages of each partition are decoded by a separate {@link PartitionDecoder} with its own {@link DatumReader},
+ * so that messages of different partitions are decoded in parallel. This only happens if a single call to
+ * {@link #onReceived(Iterator)} carries the messages of several partitions. Twill's Kafka consumer fetches every
+ * partition separately and hands each fetch to the callback on its own, in which case the messages are decoded by
+ * the calling thread. The values of the same metric, type, context and timestamp are aggregated across the messages
+ * of a partition. The records of all partitions are then written to the {@link MetricStore} by the calling thread,
+ * as the store is not thread safe. Messages are only returned from {@link #onReceived(Iterator)} once they are
+ * written to the {@link MetricStore}, so that the offsets persisted afterwards never point beyond data that is not
+ * durable yet.
  */
 public final class MetricsMessageCallback implements KafkaConsumer.MessageCallback {
 
   private static final Logger LOG = LoggerFactory.getLogger(MetricsMessageCallback.class);
 
-  private final DatumReader<MetricValues> recordReader;
+  private final Supplier<DatumReader<MetricValues>> recordReaderSupplier;
   private final Schema recordSchema;
-  private long recordProcessed;
   private final MetricStore metricStore;
   private final Map<String, String> metricsContext;
+  private final ExecutorService executor;
+  private final ConcurrentMap<Integer, PartitionDecoder> decoders;
+  private long recordProcessed;
 
-  public MetricsMessageCallback(DatumReader<MetricValues> recordReader,
+  /**
+   * Creates a callback.
+   *
+   * @param recordReaderSupplier supplies a new reader for each partition, as readers are not thread safe
+   * @param recordSchema schema of the records
+   * @param metricStore store to write the records of all partitions to
+   * @param metricsContext context for the metrics about processing
+   * @param executor executor to decode the messages of different partitions in parallel
+   */
+  public MetricsMessageCallback(Supplier<DatumReader<MetricValues>> recordReaderSupplier,
                                 Schema recordSchema,
                                 MetricStore metricStore,
                                 @Nullable
-                                MetricsContext metricsContext) {
-    this.recordReader = recordReader;
+                                MetricsContext metricsContext,
+                                ExecutorService executor) {
+    this.recordReaderSupplier = recordReaderSupplier;
     this.recordSchema = recordSchema;
     this.metricStore = metricStore;
     this.metricsContext = metricsContext == null ? Collections.<String, String>emptyMap() : metricsContext.getTags();
+    this.executor = executor;
+    this.decoders = Maps.newConcurrentMap();
   }
 
   @Override
   public void onReceived(Iterator<FetchedMessage> messages) {
-    // Decode the metrics records.
-    final ByteBufferInputStream is = new ByteBufferInputStream(null);
-    List<MetricValues> records = Lists.newArrayList();
-
+    // Group the payloads by partition, keeping the order of the messages of each partition
+    Map<Integer, List<ByteBuffer>> payloads = Maps.newLinkedHashMap();
     while (messages.hasNext()) {
       FetchedMessage input = messages.next();
-      try {
-        MetricValues metricValues = recordReader.read(new BinaryDecoder(is.reset(input.getPayload())), recordSchema);
-        records.add(metricValues);
-      } catch (IOException e) {
-        LOG.info("Failed to decode message to MetricValue. Skipped. {}", e.getMessage());
+      int partition = input.getTopicPartition().getPartition();
+      List<ByteBuffer> partitionPayloads = payloads.get(partition);
+      if (partitionPayloads == null) {
+        partitionPayloads = Lists.newArrayList();
+        payloads.put(partition, partitionPayloads);
       }
+      partitionPayloads.add(input.getPayload());
+    }
+
+    List<DecodedPartition> partitions = decode(payloads);
+    List<MetricValues> records = Lists.newArrayList();
+    int count = 0;
+    long lastTimestamp = 0;
+    for (DecodedPartition partition : partitions) {
+      records.addAll(partition.records);
+      count += partition.count;
+      lastTimestamp = Math.max(lastTimestamp, partition.lastTimestamp);
     }
 
     if (records.isEmpty()) {
@@ -86,7 +132,7 @@ public final class MetricsMessageCallback implements KafkaConsumer.MessageCallba
     }
 
     try {
-      addProcessingStats(records);
+      addProcessingStats(records, count, lastTimestamp);
       metricStore.add(records);
     } catch (Exception e) {
       String msg = "Failed to add metrics data to a store";
@@ -95,29 +141,202 @@ public final class MetricsMessageCallback implements KafkaConsumer.MessageCallba
       throw new RuntimeException(msg, e);
     }
 
-    recordProcessed += records.size();
-    if (recordProcessed % 1000 == 0) {
+    recordProcessed += count;
+    if (recordProcessed / 1000 != (recordProcessed - count) / 1000) {
       LOG.info("{} metrics records processed", recordProcessed);
-      LOG.info("Last record time: {}", records.get(records.size() - 1).getTimestamp());
+      LOG.info("Last record time: {}", lastTimestamp);
     }
   }
 
-  private void addProcessingStats(List<MetricValues> records) {
-    if (records.isEmpty()) {
-      return;
+  @Override
+  public void finished() {
+    executor.shutdownNow();
+    // Just log
+    LOG.info("Metrics MessageCallback completed.");
+  }
+
+  /**
+   * Decodes the payloads of each partition in parallel.
+   */
+  private List<DecodedPartition> decode(Map<Integer, List<ByteBuffer>> payloads) {
+    if (payloads.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<DecodedPartition> result = Lists.newArrayListWithCapacity(payloads.size());
+    List<Future<DecodedPartition>> futures = Lists.newArrayListWithCapacity(payloads.size() - 1);
+    try {
+      Iterator<Map.Entry<Integer, List<ByteBuffer>>> iterator = payloads.entrySet().iterator();
+      // the first partition is decoded by the calling thread, the others by the executor
+      Map.Entry<Integer, List<ByteBuffer>> first = iterator.next();
+      while (iterator.hasNext()) {
+        final Map.Entry<Integer, List<ByteBuffer>> entry = iterator.next();
+        futures.add(executor.submit(new Callable<DecodedPartition>() {
+          @Override
+          public DecodedPartition call() throws Exception {
+            return getDecoder(entry.getKey()).decode(entry.getValue());
+          }
+        }));
+      }
+      result.add(getDecoder(first.getKey()).decode(first.getValue()));
+      for (Future<DecodedPartition> future : futures) {
+        result.add(future.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      // no-op for completed partitions, stops the remaining ones on failure
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private PartitionDecoder getDecoder(int partition) {
+    PartitionDecoder decoder = decoders.get(partition);
+    if (decoder == null) {
+      decoder = new PartitionDecoder(recordReaderSupplier.get());
+      PartitionDecoder existing = decoders.putIfAbsent(partition, decoder);
+      if (existing != null) {
+        decoder = existing;
+      }
+    }
+    return decoder;
+  }
+
+  /**
+   * Aggregates the values of the same metric, type, context and timestamp across the given records, summing counters
+   * and histogram buckets and keeping the latest value of gauges, to reduce the number of facts written to the
+   * {@link MetricStore}. Values of the same metric with different types are kept apart, as they are stored apart.
+   */
+  static List<MetricValues> aggregate(List<MetricValues> records) {
+    Map<ImmutablePair<Map<String, String>, Long>, Map<ValueKey, MetricValue>> aggregated = Maps.newLinkedHashMap();
+    for (MetricValues record : records) {
+      ImmutablePair<Map<String, String>, Long> key = ImmutablePair.of(record.getTags(), record.getTimestamp());
+      Map<ValueKey, MetricValue> values = aggregated.get(key);
+      if (values == null) {
+        values = Maps.newLinkedHashMap();
+        aggregated.put(key, values);
+      }
+      for (MetricValue value : record.getMetrics()) {
+        // each bucket of a histogram is aggregated separately
+        int bucket = value.getType() == MetricType.HISTOGRAM ? Histograms.decodeBucket(value.getValue()) : -1;
+        ValueKey valueKey = new ValueKey(value.getName(), value.getType(), bucket);
+        MetricValue current = values.get(valueKey);
+        if (current != null) {
+          if (value.getType() == MetricType.COUNTER) {
+            value = new MetricValue(value.getName(), MetricType.COUNTER, current.getValue() + value.getValue());
+          } else if (value.getType() == MetricType.HISTOGRAM) {
+            long count = Histograms.decodeCount(current.getValue()) + Histograms.decodeCount(value.getValue());
+            value = new MetricValue(value.getName(), MetricType.HISTOGRAM, Histograms.encode(bucket, count));
+          }
+        }
+        values.put(valueKey, value);
+      }
+    }
+
+    List<MetricValues> result = Lists.newArrayListWithCapacity(aggregated.size());
+    for (Map.Entry<ImmutablePair<Map<String, String>, Long>,
+                   Map<ValueKey, MetricValue>> entry : aggregated.entrySet()) {
+      result.add(new MetricValues(entry.getKey().getFirst(), entry.getKey().getSecond(),
+                                  Lists.newArrayList(entry.getValue().values())));
     }
-    int count = records.size();
+    return result;
+  }
+
+  /**
+   * Identifies the values that are aggregated together within the records of the same context and timestamp.
+   */
+  private static final class ValueKey {
+
+    private final String name;
+    private final MetricType type;
+    // the bucket of a histogram value, -1 for the other types
+    private final int bucket;
+
+    ValueKey(String name, MetricType type, int bucket) {
+      this.name = name;
+      this.type = type;
+      this.bucket = bucket;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ValueKey other = (ValueKey) o;
+      return name.equals(other.name) && type == other.type && bucket == other.bucket;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(name, type, bucket);
+    }
+  }
+
+  /**
+   * Decodes and aggregates the messages of a single partition.
+   */
+  private final class PartitionDecoder {
+
+    private final DatumReader<MetricValues> recordReader;
+    private final ByteBufferInputStream is = new ByteBufferInputStream(null);
+
+    PartitionDecoder(DatumReader<MetricValues> recordReader) {
+      this.recordReader = recordReader;
+    }
+
+    synchronized DecodedPartition decode(List<ByteBuffer> payloads) {
+      List<MetricValues> records = Lists.newArrayListWithCapacity(payloads.size());
+      for (ByteBuffer payload : payloads) {
+        try {
+          if (MetricsBatchCodec.isBatch(payload)) {
+            records.addAll(MetricsBatchCodec.decode(payload));
+          } else {
+            records.add(recordReader.read(new BinaryDecoder(is.reset(payload)), recordSchema));
+          }
+        } catch (IOException e) {
+          LOG.info("Failed to decode message to MetricValue. Skipped. {}", e.getMessage());
+        }
+      }
+      if (records.isEmpty()) {
+        return new DecodedPartition(records, 0, 0);
+      }
+      return new DecodedPartition(aggregate(records), records.size(),
+                                  records.get(records.size() - 1).getTimestamp());
+    }
+  }
+
+  /**
+   * The aggregated records of a partition, along with the number and the last timestamp of the decoded records.
+   */
+  private static final class DecodedPartition {
+
+    private final List<MetricValues> records;
+    private final int count;
+    private final long lastTimestamp;
+
+    DecodedPartition(List<MetricValues> records, int count, long lastTimestamp) {
+      this.records = records;
+      this.count = count;
+      this.lastTimestamp = lastTimestamp;
+    }
+  }
+
+  private void addProcessingStats(List<MetricValues> records, int count, long lastTimestamp) {
     long now = System.currentTimeMillis();
-    long delay = now - TimeUnit.SECONDS.toMillis(records.get(records.size() - 1).getTimestamp());
+    long delay = now - TimeUnit.SECONDS.toMillis(lastTimestamp);
     records.add(
       new MetricValues(metricsContext, TimeUnit.MILLISECONDS.toSeconds(now),
                        ImmutableList.of(new MetricValue("metrics.process.count", MetricType.COUNTER, count),
                                         new MetricValue("metrics.process.delay.ms", MetricType.GAUGE, delay))));
   }
-
-  @Override
-  public void finished() {
-    // Just log
-    LOG.info("Metrics MessageCallback completed.");
-  }
 }
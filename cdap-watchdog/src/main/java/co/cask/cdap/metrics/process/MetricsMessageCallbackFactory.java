@@ -20,37 +20,47 @@ import co.cask.cdap.api.data.schema.UnsupportedTypeException;
 import co.cask.cdap.api.metrics.MetricStore;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.internal.io.DatumReader;
 import co.cask.cdap.internal.io.DatumReaderFactory;
 import co.cask.cdap.internal.io.SchemaGenerator;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.reflect.TypeToken;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import org.apache.twill.common.Threads;
 import org.apache.twill.kafka.client.KafkaConsumer;
 
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A {@link MessageCallbackFactory} that creates MessageCallback for processing
  * {@link co.cask.cdap.api.metrics.MetricValues} with offset persists to {@link KafkaConsumerMetaTable}.
  */
 public final class MetricsMessageCallbackFactory implements MessageCallbackFactory {
 
-  private final DatumReader<MetricValues> datumReader;
+  private final DatumReaderFactory readerFactory;
   private final Schema recordSchema;
   private final MetricStore metricStore;
   private final int persistThreshold;
+  private final int processorThreads;
 
   @Inject
-  public MetricsMessageCallbackFactory(SchemaGenerator schemaGenerator, DatumReaderFactory readerFactory,
+  public MetricsMessageCallbackFactory(CConfiguration cConf,
+                                       SchemaGenerator schemaGenerator, DatumReaderFactory readerFactory,
                                        MetricStore metricStore,
                                        @Named(Constants.Metrics.KAFKA_CONSUMER_PERSIST_THRESHOLD)
                                        int persistThreshold) {
     try {
       this.recordSchema = schemaGenerator.generate(MetricValues.class);
-      this.datumReader = readerFactory.create(TypeToken.of(MetricValues.class), recordSchema);
+      this.readerFactory = readerFactory;
       this.metricStore = metricStore;
       this.persistThreshold = persistThreshold;
+      this.processorThreads = cConf.getInt(Constants.Metrics.PROCESSOR_THREADS);
 
     } catch (UnsupportedTypeException e) {
       throw Throwables.propagate(e);
@@ -60,7 +70,22 @@ public final class MetricsMessageCallbackFactory implements MessageCallbackFacto
   @Override
   public KafkaConsumer.MessageCallback create(KafkaConsumerMetaTable metaTable, MetricsContext metricsContext) {
     metricStore.setMetricsContext(metricsContext);
+    // Each partition is decoded with its own reader, as readers are not thread safe
+    Supplier<DatumReader<MetricValues>> readerSupplier = new Supplier<DatumReader<MetricValues>>() {
+      @Override
+      public DatumReader<MetricValues> get() {
+        return readerFactory.create(TypeToken.of(MetricValues.class), recordSchema);
+      }
+    };
+
+    // Idle threads are terminated, so that there are only as many threads as partitions being processed
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(processorThreads, processorThreads, 60, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         Threads.createDaemonThreadFactory("metrics-processor-%d"));
+    executor.allowCoreThreadTimeOut(true);
+
     return new PersistedMessageCallback(
-      new MetricsMessageCallback(datumReader, recordSchema, metricStore, metricsContext), metaTable, persistThreshold);
+      new MetricsMessageCallback(readerSupplier, recordSchema, metricStore, metricsContext, executor),
+      metaTable, persistThreshold);
   }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.metrics.process;
+
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.metrics.store.MetricsRollup;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import org.apache.twill.common.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically rolls up the counters of the closed time buckets from the finest metrics resolution into the
+ * coarser resolutions, if {@link Constants.Metrics#ROLLUP_ENABLED rollup is enabled}.
+ * Rolling up is idempotent, but only one instance is expected to run to avoid redundant work.
+ */
+public class MetricsRollupService extends AbstractScheduledService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsRollupService.class);
+
+  private final MetricsRollup metricsRollup;
+  private final long intervalSeconds;
+  private final long delaySeconds;
+  private ScheduledExecutorService executor;
+
+  @Inject
+  public MetricsRollupService(CConfiguration cConf, MetricsRollup metricsRollup) {
+    this.metricsRollup = metricsRollup;
+    this.intervalSeconds = cConf.getLong(Constants.Metrics.ROLLUP_INTERVAL_SECONDS);
+    this.delaySeconds = cConf.getLong(Constants.Metrics.ROLLUP_DELAY_SECONDS);
+  }
+
+  /**
+   * Returns whether rollup is enabled; the service does nothing otherwise.
+   */
+  public boolean isEnabled() {
+    return metricsRollup.isRollupEnabled();
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  protected void runOneIteration() throws Exception {
+    if (!isEnabled()) {
+      return;
+    }
+    long closedBefore = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - delaySeconds;
+    try {
+      metricsRollup.rollup(closedBefore);
+    } catch (Exception e) {
+      // will be retried with the next iteration, as the watermarks are only advanced on success
+      LOG.warn("Failed to roll up metrics before {}.", closedBefore, e);
+    }
+  }
+
+  @Override
+  protected Scheduler scheduler() {
+    return Scheduler.newFixedDelaySchedule(1, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  protected final ScheduledExecutorService executor() {
+    executor = Executors.newSingleThreadScheduledExecutor(Threads.createDaemonThreadFactory("metrics-rollup"));
+    return executor;
+  }
+}
@@ -111,6 +111,7 @@ public class MetricsHandler extends AbstractHttpHandler {
       .put(Constants.Metrics.Tag.FLOW, "flow")
       .put(Constants.Metrics.Tag.FLOWLET, "flowlet")
       .put(Constants.Metrics.Tag.FLOWLET_QUEUE, "queue")
+      .put(Constants.Metrics.Tag.QUEUE_SHARD, "shard")
 
       .put(Constants.Metrics.Tag.PRODUCER, "producer")
       .put(Constants.Metrics.Tag.CONSUMER, "consumer")
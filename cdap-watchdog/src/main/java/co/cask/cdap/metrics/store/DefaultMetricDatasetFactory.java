@@ -28,6 +28,8 @@ import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.hbase.HBaseTableAdmin;
 import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTableStatistics;
+import co.cask.cdap.data2.dataset2.lib.timeseries.RollupMetaTable;
 import co.cask.cdap.data2.util.hbase.HBaseTableUtil;
 import co.cask.cdap.metrics.process.KafkaConsumerMetaTable;
 import co.cask.cdap.metrics.store.upgrade.DataMigrationException;
@@ -72,7 +74,14 @@ public class DefaultMetricDatasetFactory implements MetricDatasetFactory {
       public EntityTable get() {
         String tableName = cConf.get(Constants.Metrics.ENTITY_TABLE_NAME,
                                      Constants.Metrics.DEFAULT_ENTITY_TABLE_NAME);
-        return new EntityTable(getOrCreateMetricsTable(tableName, DatasetProperties.EMPTY));
+        EntityTable table = new EntityTable(getOrCreateMetricsTable(tableName, DatasetProperties.EMPTY));
+        // loading all mappings at once is much faster than looking them up one by one when processing starts
+        try {
+          LOG.info("Preloaded {} mappings of EntityTable {}.", table.preload(), tableName);
+        } catch (Exception e) {
+          LOG.warn("Failed to preload EntityTable {}, mappings will be loaded on demand.", tableName, e);
+        }
+        return table;
       }
     });
   }
@@ -97,7 +106,14 @@ public class DefaultMetricDatasetFactory implements MetricDatasetFactory {
 
     MetricsTable table = getOrCreateMetricsTable(tableName, props.build());
     LOG.info("FactTable created: {}", tableName);
-    return new FactTable(table, entityTable.get(), resolution, getRollTime(resolution));
+    // statistics are persisted, so that the query planning of all metrics query servers uses the statistics of the
+    // facts written by the metrics processors
+    String statisticsTableName = cConf.get(Constants.Metrics.FACT_STATISTICS_TABLE,
+                                           Constants.Metrics.DEFAULT_FACT_STATISTICS_TABLE);
+    FactTableStatistics statistics =
+      new FactTableStatistics(getOrCreateMetricsTable(statisticsTableName, DatasetProperties.EMPTY),
+                              resolution, FactTableStatistics.DEFAULT_SYNC_INTERVAL_MILLIS);
+    return new FactTable(table, entityTable.get(), resolution, getRollTime(resolution), statistics);
   }
 
   @Override
@@ -114,6 +130,20 @@ public class DefaultMetricDatasetFactory implements MetricDatasetFactory {
     }
   }
 
+  @Override
+  public RollupMetaTable createRollupMeta() {
+    try {
+      String tableName = cConf.get(Constants.Metrics.ROLLUP_META_TABLE,
+                                   Constants.Metrics.DEFAULT_ROLLUP_META_TABLE);
+      MetricsTable table = getOrCreateMetricsTable(tableName, DatasetProperties.EMPTY);
+      LOG.info("RollupMetaTable created: {}", tableName);
+      return new RollupMetaTable(table);
+    } catch (Exception e) {
+      LOG.error("Exception in creating RollupMetaTable.", e);
+      throw Throwables.propagate(e);
+    }
+  }
+
   private MetricsTable getOrCreateMetricsTable(String tableName, DatasetProperties props) {
     MetricsTable table = null;
     // metrics tables are in the system namespace
@@ -16,7 +16,7 @@
 
 package co.cask.cdap.metrics.store;
 
-import co.cask.cdap.api.dataset.lib.cube.Cube;
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
 import co.cask.cdap.api.dataset.lib.cube.CubeDeleteQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeExploreQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeFact;
@@ -25,6 +25,8 @@ import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
 import co.cask.cdap.api.dataset.lib.cube.MeasureType;
 import co.cask.cdap.api.dataset.lib.cube.Measurement;
 import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.api.metrics.Histograms;
 import co.cask.cdap.api.metrics.MetricDataQuery;
 import co.cask.cdap.api.metrics.MetricDeleteQuery;
 import co.cask.cdap.api.metrics.MetricSearchQuery;
@@ -35,42 +37,66 @@ import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.api.metrics.TagValue;
+import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.utils.ImmutablePair;
 import co.cask.cdap.data2.dataset2.lib.cube.Aggregation;
 import co.cask.cdap.data2.dataset2.lib.cube.AggregationAlias;
 import co.cask.cdap.data2.dataset2.lib.cube.DefaultAggregation;
 import co.cask.cdap.data2.dataset2.lib.cube.DefaultCube;
 import co.cask.cdap.data2.dataset2.lib.cube.FactTableSupplier;
+import co.cask.cdap.data2.dataset2.lib.cube.TimeSeriesCache;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
 import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import org.apache.twill.common.Threads;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /**
  * Default implementation of {@link MetricStore}.
+ *
+ * Each bucket of a histogram metric is stored as a counter named {@code <metric>:b<bucket>}, hence histograms are
+ * merged across resolutions like any other counter. Percentiles of a histogram are queried as metric
+ * {@code <metric>:p<percentile>}, e.g. {@code system.queue.dequeue.latency:p99}. Such a query reads all
+ * {@link Histograms#BUCKETS} bucket measures of the histogram, hence it costs about as much as querying that many
+ * counters. To bound that cost, a query can ask for the percentiles of at most
+ * {@link #MAX_PERCENTILE_HISTOGRAMS} histograms.
  */
-public class DefaultMetricStore implements MetricStore {
+public class DefaultMetricStore implements MetricStore, MetricsRollup {
   public static final int TOTALS_RESOLUTION = Integer.MAX_VALUE;
+  public static final int MAX_PERCENTILE_HISTOGRAMS = 4;
   static final Map<String, Aggregation> AGGREGATIONS;
 
   private static final String BY_NAMESPACE = "namespace";
   private static final String BY_APP = "app";
   private static final String BY_FLOW = "flow";
   private static final String BY_FLOWLET_QUEUE = "flow.queue";
+  private static final String BY_FLOWLET_QUEUE_SHARD = "flow.queue.shard";
   private static final String BY_MAPREDUCE = "mapreduce";
   private static final String BY_SERVICE = "service";
   private static final String BY_WORKER = "worker";
@@ -79,13 +105,20 @@ public class DefaultMetricStore implements MetricStore {
   private static final String BY_STREAM = "stream";
   private static final String BY_DATASET = "dataset";
   private static final String BY_COMPONENT = "component";
+  private static final String HISTOGRAM_BUCKET_SEPARATOR = ":b";
+  private static final Pattern HISTOGRAM_BUCKET_METRIC = Pattern.compile("(.+):b(\\d+)");
+  private static final Pattern PERCENTILE_METRIC = Pattern.compile("(.+):p(\\d+(?:\\.\\d+)?)");
   private static final Map<String, AggregationAlias> AGGREGATIONS_ALIAS_DIMENSIONS =
     ImmutableMap.of(BY_WORKFLOW,
                     new AggregationAlias(ImmutableMap.of(Constants.Metrics.Tag.RUN_ID,
                                                          Constants.Metrics.Tag.WORKFLOW_RUN_ID)));
 
+  // shared by all instances, created on first use
+  private static ExecutorService sharedQueryExecutor;
+
   private final int resolutions[];
-  private final Supplier<Cube> cube;
+  private final Supplier<DefaultCube> cube;
+  private final boolean rollupEnabled;
   private MetricsContext metricsContext;
 
 
@@ -128,6 +161,14 @@ public class DefaultMetricStore implements MetricStore {
       ImmutableList.of(Constants.Metrics.Tag.NAMESPACE, Constants.Metrics.Tag.APP,
                        Constants.Metrics.Tag.FLOW, Constants.Metrics.Tag.CONSUMER,
                        Constants.Metrics.Tag.PRODUCER, Constants.Metrics.Tag.FLOWLET_QUEUE)));
+    // queue shards, i.e. the distributor buckets of the HBase queue table
+    aggs.put(BY_FLOWLET_QUEUE_SHARD, new DefaultAggregation(
+      ImmutableList.of(Constants.Metrics.Tag.NAMESPACE, Constants.Metrics.Tag.APP,
+                       Constants.Metrics.Tag.FLOW, Constants.Metrics.Tag.PRODUCER,
+                       Constants.Metrics.Tag.FLOWLET_QUEUE, Constants.Metrics.Tag.QUEUE_SHARD),
+      ImmutableList.of(Constants.Metrics.Tag.NAMESPACE, Constants.Metrics.Tag.APP,
+                       Constants.Metrics.Tag.FLOW, Constants.Metrics.Tag.PRODUCER,
+                       Constants.Metrics.Tag.FLOWLET_QUEUE, Constants.Metrics.Tag.QUEUE_SHARD)));
     // mapreduce
     aggs.put(BY_MAPREDUCE, new DefaultAggregation(
       ImmutableList.of(Constants.Metrics.Tag.NAMESPACE, Constants.Metrics.Tag.APP,
@@ -198,14 +239,23 @@ public class DefaultMetricStore implements MetricStore {
   }
 
   @Inject
-  public DefaultMetricStore(final MetricDatasetFactory dsFactory) {
+  public DefaultMetricStore(final MetricDatasetFactory dsFactory, CConfiguration cConf) {
     // 1 sec, 1 min, 1 hour and "all time totals"
-    this(dsFactory, new int[] {1, 60, 3600, TOTALS_RESOLUTION});
+    this(dsFactory, new int[] {1, 60, 3600, TOTALS_RESOLUTION},
+         getQueryExecutor(cConf), cConf.getInt(Constants.Metrics.QUERY_SCAN_SPLITS),
+         createQueryCache(cConf), cConf.getBoolean(Constants.Metrics.ROLLUP_ENABLED, false));
   }
 
   // NOTE: should never be used apart from data migration during cdap upgrade
   public DefaultMetricStore(final MetricDatasetFactory dsFactory, final int resolutions[]) {
+    this(dsFactory, resolutions, null, 1, null, false);
+  }
+
+  private DefaultMetricStore(final MetricDatasetFactory dsFactory, final int resolutions[],
+                             @Nullable final ExecutorService queryExecutor, final int querySplits,
+                             @Nullable final TimeSeriesCache queryCache, final boolean rollupEnabled) {
     this.resolutions = resolutions;
+    this.rollupEnabled = rollupEnabled;
     final FactTableSupplier factTableSupplier = new FactTableSupplier() {
       @Override
       public FactTable get(int resolution, int ignoredRollTime) {
@@ -213,16 +263,77 @@ public class DefaultMetricStore implements MetricStore {
         return dsFactory.getOrCreateFactTable(resolution);
       }
     };
-    this.cube = Suppliers.memoize(new Supplier<Cube>() {
+    this.cube = Suppliers.memoize(new Supplier<DefaultCube>() {
       @Override
-      public Cube get() {
+      public DefaultCube get() {
         DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS, AGGREGATIONS_ALIAS_DIMENSIONS);
         cube.setMetricsCollector(metricsContext);
+        if (queryExecutor != null) {
+          cube.setQueryExecutor(queryExecutor, querySplits);
+        }
+        if (queryCache != null) {
+          cube.setQueryCache(queryCache);
+        }
+        if (rollupEnabled) {
+          cube.enableRollup(dsFactory.createRollupMeta());
+        }
         return cube;
       }
     });
   }
 
+  /**
+   * Returns the executor for scanning parts of the time range of queries in parallel, or {@code null}
+   * if queries should not be split. The executor is shared by all metric store instances in the process, as the
+   * metric store is not bound as a singleton and has no shutdown hook.
+   */
+  @Nullable
+  private static ExecutorService getQueryExecutor(CConfiguration cConf) {
+    int threads = cConf.getInt(Constants.Metrics.QUERY_SCAN_THREADS);
+    if (threads <= 0 || cConf.getInt(Constants.Metrics.QUERY_SCAN_SPLITS) <= 1) {
+      return null;
+    }
+    synchronized (DefaultMetricStore.class) {
+      if (sharedQueryExecutor == null) {
+        // Idle threads are terminated, hence the daemon threads do not linger once queries stop.
+        // The caller thread scans one part of each query, hence queries still progress when all threads are busy.
+        ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                 Threads.createDaemonThreadFactory("metrics-query-scan-%d"));
+        executor.allowCoreThreadTimeOut(true);
+        sharedQueryExecutor = executor;
+      }
+      return sharedQueryExecutor;
+    }
+  }
+
+  /**
+   * Creates the cache for the time series of recent queries, or returns {@code null} if queries should not be cached.
+   */
+  @Nullable
+  private static TimeSeriesCache createQueryCache(CConfiguration cConf) {
+    long sizeMb = cConf.getLong(Constants.Metrics.QUERY_CACHE_SIZE_MB, 0);
+    if (sizeMb <= 0) {
+      return null;
+    }
+    return new TimeSeriesCache(sizeMb * 1024 * 1024, cConf.getInt(Constants.Metrics.QUERY_CACHE_WINDOW_SECONDS),
+                               cConf.getInt(Constants.Metrics.QUERY_CACHE_DELAY_SECONDS));
+  }
+
+  @Override
+  public boolean isRollupEnabled() {
+    return rollupEnabled;
+  }
+
+  /**
+   * @see DefaultCube#rollup(long)
+   */
+  @Override
+  public void rollup(long closedBefore) {
+    Preconditions.checkState(rollupEnabled, "Rollup is not enabled");
+    cube.get().rollup(closedBefore);
+  }
+
   @Override
   public void setMetricsContext(MetricsContext metricsContext) {
     this.metricsContext = metricsContext;
@@ -242,6 +353,12 @@ public class DefaultMetricStore implements MetricStore {
       // todo improve this logic?
       for (MetricValue metric : metricValue.getMetrics()) {
         String measureName = (scope == null ? "system." : scope + ".") + metric.getName();
+        if (metric.getType() == MetricType.HISTOGRAM) {
+          int bucket = Histograms.decodeBucket(metric.getValue());
+          metrics.add(new Measurement(measureName + HISTOGRAM_BUCKET_SEPARATOR + bucket, MeasureType.COUNTER,
+                                      Histograms.decodeCount(metric.getValue())));
+          continue;
+        }
         MeasureType type = metric.getType() == MetricType.COUNTER ? MeasureType.COUNTER : MeasureType.GAUGE;
         metrics.add(new Measurement(measureName, type, metric.getValue()));
       }
@@ -256,20 +373,76 @@ public class DefaultMetricStore implements MetricStore {
 
   @Override
   public Collection<MetricTimeSeries> query(MetricDataQuery query) {
-    Collection<TimeSeries> cubeResult = cube.get().query(buildCubeQuery(query));
+    // Percentile metrics are queried as the buckets of their histograms
+    Map<String, AggregationFunction> measurements = Maps.newHashMap();
+    Multimap<String, String> percentileMetrics = LinkedHashMultimap.create();
+    for (Map.Entry<String, AggregationFunction> metric : query.getMetrics().entrySet()) {
+      Matcher matcher = PERCENTILE_METRIC.matcher(metric.getKey());
+      if (!matcher.matches()) {
+        measurements.put(metric.getKey(), metric.getValue());
+        continue;
+      }
+      String histogram = matcher.group(1);
+      percentileMetrics.put(histogram, metric.getKey());
+      if (percentileMetrics.keySet().size() > MAX_PERCENTILE_HISTOGRAMS) {
+        throw new IllegalArgumentException("Percentiles can be queried for at most " + MAX_PERCENTILE_HISTOGRAMS +
+                                             " histograms at once");
+      }
+      for (int bucket = 0; bucket < Histograms.BUCKETS; bucket++) {
+        measurements.put(histogram + HISTOGRAM_BUCKET_SEPARATOR + bucket, AggregationFunction.SUM);
+      }
+    }
+
+    Collection<TimeSeries> cubeResult = cube.get().query(buildCubeQuery(query, measurements));
     List<MetricTimeSeries> result = Lists.newArrayList();
+    // bucket counts by histogram name and tags, then by timestamp
+    Map<ImmutablePair<String, Map<String, String>>, NavigableMap<Long, long[]>> histograms = Maps.newHashMap();
     for (TimeSeries timeSeries : cubeResult) {
-      result.add(new MetricTimeSeries(timeSeries.getMeasureName(),
-                                      timeSeries.getDimensionValues(),
-                                      timeSeries.getTimeValues()));
+      Matcher matcher = HISTOGRAM_BUCKET_METRIC.matcher(timeSeries.getMeasureName());
+      if (percentileMetrics.isEmpty() || !matcher.matches() || !percentileMetrics.containsKey(matcher.group(1))) {
+        result.add(new MetricTimeSeries(timeSeries.getMeasureName(),
+                                        timeSeries.getDimensionValues(),
+                                        timeSeries.getTimeValues()));
+        continue;
+      }
+      ImmutablePair<String, Map<String, String>> key = ImmutablePair.of(matcher.group(1),
+                                                                        timeSeries.getDimensionValues());
+      NavigableMap<Long, long[]> counts = histograms.get(key);
+      if (counts == null) {
+        counts = Maps.newTreeMap();
+        histograms.put(key, counts);
+      }
+      int bucket = Integer.parseInt(matcher.group(2));
+      for (TimeValue timeValue : timeSeries.getTimeValues()) {
+        long[] bucketCounts = counts.get(timeValue.getTimestamp());
+        if (bucketCounts == null) {
+          bucketCounts = new long[Histograms.BUCKETS];
+          counts.put(timeValue.getTimestamp(), bucketCounts);
+        }
+        bucketCounts[bucket] += timeValue.getValue();
+      }
+    }
+
+    for (Map.Entry<ImmutablePair<String, Map<String, String>>, NavigableMap<Long, long[]>> histogram
+      : histograms.entrySet()) {
+      for (String percentileMetric : percentileMetrics.get(histogram.getKey().getFirst())) {
+        Matcher matcher = PERCENTILE_METRIC.matcher(percentileMetric);
+        Preconditions.checkState(matcher.matches());
+        double percentile = Double.parseDouble(matcher.group(2));
+        List<TimeValue> timeValues = Lists.newArrayListWithCapacity(histogram.getValue().size());
+        for (Map.Entry<Long, long[]> counts : histogram.getValue().entrySet()) {
+          timeValues.add(new TimeValue(counts.getKey(), Histograms.getPercentile(counts.getValue(), percentile)));
+        }
+        result.add(new MetricTimeSeries(percentileMetric, histogram.getKey().getSecond(), timeValues));
+      }
     }
     return result;
   }
 
-  private CubeQuery buildCubeQuery(MetricDataQuery query) {
+  private CubeQuery buildCubeQuery(MetricDataQuery query, Map<String, AggregationFunction> measurements) {
     String aggregation = getAggregation(query);
     return new CubeQuery(aggregation, query.getStartTs(), query.getEndTs(),
-                         query.getResolution(), query.getLimit(), query.getMetrics(),
+                         query.getResolution(), query.getLimit(), measurements,
                          query.getSliceByTags(), query.getGroupByTags(), query.getInterpolator());
   }
 
@@ -279,6 +452,9 @@ public class DefaultMetricStore implements MetricStore {
     // this method). In some specific cases we need to help resolve the aggregation though.
     Set<String> tagNames = ImmutableSet.<String>builder()
       .addAll(query.getSliceByTags().keySet()).addAll(query.getGroupByTags()).build();
+    if (tagNames.contains(Constants.Metrics.Tag.QUEUE_SHARD)) {
+      return BY_FLOWLET_QUEUE_SHARD;
+    }
     if (tagNames.contains(Constants.Metrics.Tag.FLOW)) {
       // NOTE: BY_FLOWLET_QUEUE agg has only producer and consumer metrics
       if (tagNames.contains(Constants.Metrics.Tag.PRODUCER) || tagNames.contains(Constants.Metrics.Tag.CONSUMER)) {
@@ -340,7 +516,13 @@ public class DefaultMetricStore implements MetricStore {
 
   @Override
   public Collection<String> findMetricNames(MetricSearchQuery query) throws Exception {
-    return cube.get().findMeasureNames(buildCubeSearchQuery(query));
+    // Histograms are listed by their name rather than by their buckets
+    Set<String> result = Sets.newTreeSet();
+    for (String measureName : cube.get().findMeasureNames(buildCubeSearchQuery(query))) {
+      Matcher matcher = HISTOGRAM_BUCKET_METRIC.matcher(measureName);
+      result.add(matcher.matches() ? matcher.group(1) : measureName);
+    }
+    return result;
   }
 
   private List<DimensionValue> toTagValues(List<co.cask.cdap.api.metrics.TagValue> input) {
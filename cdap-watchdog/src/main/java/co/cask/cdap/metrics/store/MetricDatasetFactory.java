@@ -17,6 +17,7 @@
 package co.cask.cdap.metrics.store;
 
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.RollupMetaTable;
 import co.cask.cdap.metrics.process.KafkaConsumerMetaTable;
 
 /**
@@ -34,4 +35,9 @@ public interface MetricDatasetFactory {
    * @return A new instance of {@link KafkaConsumerMetaTable}.
    */
   KafkaConsumerMetaTable createKafkaConsumerMeta();
+
+  /**
+   * @return A new instance of {@link RollupMetaTable}.
+   */
+  RollupMetaTable createRollupMeta();
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.store;
+
+/**
+ * Rolls up the counters of the finest metrics resolution into the coarser resolutions.
+ */
+public interface MetricsRollup {
+
+  /**
+   * Returns whether counters are rolled up from the finest resolution into the coarser resolutions
+   * with {@link #rollup(long)}, rather than written to all resolutions.
+   */
+  boolean isRollupEnabled();
+
+  /**
+   * Rolls up the counters of all closed time buckets into the coarser resolutions.
+   *
+   * @param closedBefore timestamp in seconds before which no more metrics are expected to be added
+   * @throws IllegalStateException if rollup is not enabled
+   */
+  void rollup(long closedBefore);
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.appender.kafka;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.common.logging.logback.TestLoggingContext;
+import co.cask.cdap.logging.LoggingConfiguration;
+import co.cask.cdap.logging.appender.LogMessage;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the {@link KafkaLogAppender.OverflowPolicy} of {@link KafkaLogAppender} with a full buffer.
+ */
+public class KafkaLogAppenderTest {
+
+  private static final LoggingContext LOGGING_CONTEXT = new TestLoggingContext("ns", "app", "run", "instance");
+  // the buffer is three quarters full with 6 messages
+  private static final int BUFFER_SIZE = 8;
+
+  @Test
+  public void testBlock() throws Exception {
+    BlockingProducer producer = new BlockingProducer(createCConf(KafkaLogAppender.OverflowPolicy.BLOCK));
+    KafkaLogAppender appender = startBlocked(producer, KafkaLogAppender.OverflowPolicy.BLOCK);
+    // the publisher thread logs once it is released, while the buffer is still full
+    producer.setAppender(appender);
+
+    for (int i = 0; i < BUFFER_SIZE; i++) {
+      appender.doAppend(createMessage(Level.DEBUG));
+    }
+    // even DEBUG messages wait for space
+    Thread blocked = appendInThread(appender, Level.DEBUG);
+    assertBlocked(blocked);
+
+    producer.release();
+    assertUnblocked(blocked);
+    appender.stop();
+    // the messages logged by the publisher thread are dropped instead of waiting for the publisher thread itself
+    Assert.assertEquals(1 + BUFFER_SIZE + 1, producer.getPublished());
+  }
+
+  @Test
+  public void testDropDebug() throws Exception {
+    BlockingProducer producer = new BlockingProducer(createCConf(KafkaLogAppender.OverflowPolicy.DROP_DEBUG));
+    KafkaLogAppender appender = startBlocked(producer, KafkaLogAppender.OverflowPolicy.DROP_DEBUG);
+
+    for (int i = 0; i < 6; i++) {
+      appender.doAppend(createMessage(Level.INFO));
+    }
+    // DEBUG messages are dropped once the buffer is three quarters full, INFO messages are still added
+    for (int i = 0; i < 3; i++) {
+      appender.doAppend(createMessage(Level.DEBUG));
+    }
+    appender.doAppend(createMessage(Level.INFO));
+    appender.doAppend(createMessage(Level.INFO));
+    // INFO messages wait for space once the buffer is full
+    Thread blocked = appendInThread(appender, Level.INFO);
+    assertBlocked(blocked);
+
+    producer.release();
+    assertUnblocked(blocked);
+    appender.stop();
+    Assert.assertEquals(1 + 6 + 2 + 1, producer.getPublished());
+  }
+
+  @Test
+  public void testSample() throws Exception {
+    BlockingProducer producer = new BlockingProducer(createCConf(KafkaLogAppender.OverflowPolicy.SAMPLE));
+    KafkaLogAppender appender = startBlocked(producer, KafkaLogAppender.OverflowPolicy.SAMPLE);
+
+    for (int i = 0; i < 6; i++) {
+      appender.doAppend(createMessage(Level.INFO));
+    }
+    // one in two INFO messages is added once the buffer is three quarters full
+    for (int i = 0; i < 4; i++) {
+      appender.doAppend(createMessage(Level.INFO));
+    }
+    // none once the buffer is full, without waiting
+    appender.doAppend(createMessage(Level.INFO));
+    appender.doAppend(createMessage(Level.INFO));
+    // WARN messages wait for space
+    Thread blocked = appendInThread(appender, Level.WARN);
+    assertBlocked(blocked);
+
+    producer.release();
+    assertUnblocked(blocked);
+    appender.stop();
+    Assert.assertEquals(1 + 6 + 2 + 1, producer.getPublished());
+  }
+
+  /**
+   * Starts an appender and appends a message, which blocks the publisher thread in the producer until the producer
+   * is released. Messages appended afterwards stay in the buffer.
+   */
+  private KafkaLogAppender startBlocked(BlockingProducer producer,
+                                        KafkaLogAppender.OverflowPolicy policy) throws InterruptedException {
+    KafkaLogAppender appender = new KafkaLogAppender(createCConf(policy), producer);
+    appender.start();
+    appender.doAppend(createMessage(Level.INFO));
+    Assert.assertTrue(producer.awaitPublishing(10, TimeUnit.SECONDS));
+    return appender;
+  }
+
+  private Thread appendInThread(final KafkaLogAppender appender, final Level level) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        appender.doAppend(createMessage(level));
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private void assertBlocked(Thread thread) throws InterruptedException {
+    thread.join(200);
+    Assert.assertTrue(thread.isAlive());
+  }
+
+  private void assertUnblocked(Thread thread) throws InterruptedException {
+    thread.join(10000);
+    Assert.assertFalse(thread.isAlive());
+  }
+
+  private CConfiguration createCConf(KafkaLogAppender.OverflowPolicy policy) {
+    CConfiguration cConf = CConfiguration.create();
+    // the producer never connects, as publishing is intercepted
+    cConf.set(LoggingConfiguration.KAFKA_SEED_BROKERS, "localhost:9092");
+    cConf.setInt(LoggingConfiguration.LOG_PUBLISH_BUFFER_SIZE, BUFFER_SIZE);
+    cConf.set(LoggingConfiguration.LOG_PUBLISH_OVERFLOW_POLICY, policy.name());
+    cConf.setInt(LoggingConfiguration.LOG_PUBLISH_OVERFLOW_SAMPLE_RATE, 2);
+    return cConf;
+  }
+
+  private static LogMessage createMessage(Level level) {
+    LoggingEvent event = new LoggingEvent();
+    event.setLevel(level);
+    event.setLoggerName(KafkaLogAppenderTest.class.getName());
+    event.setThreadName(Thread.currentThread().getName());
+    event.setMessage("message");
+    event.setTimeStamp(System.currentTimeMillis());
+    event.setMDCPropertyMap(ImmutableMap.<String, String>of());
+    event.setCallerData(new StackTraceElement[0]);
+    return new LogMessage(event, LOGGING_CONTEXT);
+  }
+
+  /**
+   * A {@link SimpleKafkaProducer} that counts the messages published, and that blocks until it is released.
+   */
+  private static final class BlockingProducer extends SimpleKafkaProducer {
+
+    private final CountDownLatch publishing = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final AtomicInteger published = new AtomicInteger();
+    private volatile KafkaLogAppender appender;
+
+    BlockingProducer(CConfiguration cConf) {
+      super(cConf);
+    }
+
+    @Override
+    public void publish(Multimap<String, byte[]> messages) {
+      publishing.countDown();
+      Uninterruptibles.awaitUninterruptibly(released);
+      if (appender != null) {
+        // log from the publisher thread, as the Kafka client may do
+        appender.doAppend(createMessage(Level.WARN));
+      }
+      published.addAndGet(messages.size());
+    }
+
+    void setAppender(KafkaLogAppender appender) {
+      this.appender = appender;
+    }
+
+    boolean awaitPublishing(long timeout, TimeUnit unit) throws InterruptedException {
+      return publishing.await(timeout, unit);
+    }
+
+    void release() {
+      released.countDown();
+    }
+
+    int getPublished() {
+      return published.get();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.logging.appender.kafka;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test for {@link RingBuffer}.
+ */
+public class RingBufferTest {
+
+  @Test
+  public void testCapacity() {
+    Assert.assertEquals(1, new RingBuffer<Integer>(1).capacity());
+    Assert.assertEquals(8, new RingBuffer<Integer>(5).capacity());
+    Assert.assertEquals(8, new RingBuffer<Integer>(8).capacity());
+
+    RingBuffer<Integer> buffer = new RingBuffer<>(4);
+    Assert.assertNull(buffer.poll());
+    for (int i = 0; i < 4; i++) {
+      Assert.assertTrue(buffer.offer(i));
+    }
+    Assert.assertFalse(buffer.offer(4));
+    Assert.assertEquals(4, buffer.size());
+
+    // elements are returned in order, and the slots are reused
+    Assert.assertEquals(0, (int) buffer.poll());
+    Assert.assertTrue(buffer.offer(4));
+    for (int i = 1; i <= 4; i++) {
+      Assert.assertEquals(i, (int) buffer.poll());
+    }
+    Assert.assertNull(buffer.poll());
+    Assert.assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    final int producers = 4;
+    final int count = 100000;
+    final RingBuffer<int[]> buffer = new RingBuffer<>(64);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < producers; i++) {
+      final int producer = i;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < count; j++) {
+            int[] element = new int[] { producer, j };
+            while (!buffer.offer(element)) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+
+    startLatch.countDown();
+    // the elements of each producer are consumed in the order they were added
+    int[] next = new int[producers];
+    int consumed = 0;
+    while (consumed < producers * count) {
+      int[] element = buffer.poll();
+      if (element == null) {
+        Thread.yield();
+        continue;
+      }
+      Assert.assertEquals(next[element[0]]++, element[1]);
+      consumed++;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertNull(buffer.poll());
+  }
+}
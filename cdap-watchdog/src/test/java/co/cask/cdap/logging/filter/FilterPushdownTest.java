@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.filter;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for {@link FilterPushdown}.
+ */
+public class FilterPushdownTest {
+
+  private static final Filter OTHER_FILTER = new Filter() {
+    @Override
+    public boolean match(ILoggingEvent event) {
+      return event.getFormattedMessage() != null;
+    }
+  };
+
+  @Test
+  public void testPushdownFilter() {
+    Filter level = new LogLevelExpression("WARN");
+    Filter mdc = new MdcExpression(".namespaceId", "default");
+
+    Assert.assertSame(level, FilterPushdown.getPushdownFilter(level));
+    Assert.assertSame(mdc, FilterPushdown.getPushdownFilter(mdc));
+    Assert.assertSame(Filter.EMPTY_FILTER, FilterPushdown.getPushdownFilter(OTHER_FILTER));
+    Assert.assertSame(Filter.EMPTY_FILTER, FilterPushdown.getPushdownFilter(Filter.EMPTY_FILTER));
+
+    // Parts of an and filter that cannot be pushed down are dropped
+    Assert.assertSame(level, FilterPushdown.getPushdownFilter(new AndFilter(ImmutableList.of(level, OTHER_FILTER))));
+    Filter pushdown = FilterPushdown.getPushdownFilter(new AndFilter(ImmutableList.of(level, mdc, OTHER_FILTER)));
+    Assert.assertTrue(pushdown instanceof AndFilter);
+    Assert.assertEquals(ImmutableList.of(level, mdc), ((AndFilter) pushdown).getExpressions());
+
+    // An or filter can only be pushed down if all its alternatives can
+    Assert.assertSame(Filter.EMPTY_FILTER,
+                      FilterPushdown.getPushdownFilter(new OrFilter(ImmutableList.of(level, OTHER_FILTER))));
+    pushdown = FilterPushdown.getPushdownFilter(new OrFilter(ImmutableList.of(level, mdc)));
+    Assert.assertTrue(pushdown instanceof OrFilter);
+    Assert.assertEquals(ImmutableList.of(level, mdc), ((OrFilter) pushdown).getExpressions());
+  }
+
+  @Test
+  public void testMayMatch() {
+    Filter warn = new LogLevelExpression("WARN");
+    Filter error = new LogLevelExpression("ERROR");
+    Filter mdc = new MdcExpression(".namespaceId", "default");
+
+    Assert.assertFalse(FilterPushdown.mayMatch(warn, Level.INFO_INT));
+    Assert.assertTrue(FilterPushdown.mayMatch(warn, Level.WARN_INT));
+    Assert.assertTrue(FilterPushdown.mayMatch(warn, Level.ERROR_INT));
+    Assert.assertTrue(FilterPushdown.mayMatch(mdc, Level.DEBUG_INT));
+    Assert.assertTrue(FilterPushdown.mayMatch(OTHER_FILTER, Level.DEBUG_INT));
+
+    Assert.assertFalse(FilterPushdown.mayMatch(new AndFilter(ImmutableList.of(mdc, warn)), Level.INFO_INT));
+    Assert.assertTrue(FilterPushdown.mayMatch(new AndFilter(ImmutableList.of(mdc, warn)), Level.WARN_INT));
+    Assert.assertFalse(FilterPushdown.mayMatch(new OrFilter(ImmutableList.of(warn, error)), Level.INFO_INT));
+    Assert.assertTrue(FilterPushdown.mayMatch(new OrFilter(ImmutableList.of(warn, mdc)), Level.INFO_INT));
+  }
+}
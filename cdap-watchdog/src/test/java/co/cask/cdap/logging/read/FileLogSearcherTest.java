@@ -0,0 +1,296 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.read;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.common.guice.ConfigModule;
+import co.cask.cdap.common.guice.LocationRuntimeModule;
+import co.cask.cdap.common.logging.ApplicationLoggingContext;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.common.namespace.NamespaceQueryAdmin;
+import co.cask.cdap.common.namespace.NamespacedLocationFactory;
+import co.cask.cdap.common.namespace.NamespacedLocationFactoryTestClient;
+import co.cask.cdap.common.namespace.SimpleNamespaceQueryAdmin;
+import co.cask.cdap.data.runtime.DataSetsModules;
+import co.cask.cdap.data.runtime.SystemDatasetRuntimeModule;
+import co.cask.cdap.data.runtime.TransactionExecutorModule;
+import co.cask.cdap.data2.security.Impersonator;
+import co.cask.cdap.data2.security.UGIProvider;
+import co.cask.cdap.data2.security.UnsupportedUGIProvider;
+import co.cask.cdap.logging.LoggingConfiguration;
+import co.cask.cdap.logging.context.FlowletLoggingContext;
+import co.cask.cdap.logging.context.UserServiceLoggingContext;
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.logging.serialize.LogSchema;
+import co.cask.cdap.logging.write.AvroFileWriter;
+import co.cask.cdap.logging.write.FileMetaDataManager;
+import co.cask.cdap.logging.write.LogTermIndex;
+import co.cask.cdap.logging.write.LogWriteEvent;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.security.auth.context.AuthenticationContextModules;
+import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
+import co.cask.cdap.security.authorization.AuthorizationTestModule;
+import co.cask.tephra.TransactionManager;
+import co.cask.tephra.runtime.TransactionModules;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import org.apache.avro.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.twill.filesystem.Location;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for searching log files with {@link FileLogSearcher} and {@link AvroFileReader}.
+ */
+public class FileLogSearcherTest {
+
+  @ClassRule
+  public static final TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+  private static final String NAMESPACE = "nssearch";
+
+  private static Injector injector;
+  private static TransactionManager txManager;
+  private static String logBaseDir;
+  private static Impersonator impersonator;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    Configuration hConf = HBaseConfiguration.create();
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.CFG_LOCAL_DATA_DIR, TEMP_FOLDER.newFolder().getAbsolutePath());
+    cConf.set(Constants.CFG_HDFS_NAMESPACE, cConf.get(Constants.CFG_LOCAL_DATA_DIR));
+    logBaseDir = cConf.get(LoggingConfiguration.LOG_BASE_DIR);
+    injector = Guice.createInjector(
+      new ConfigModule(cConf, hConf),
+      Modules.override(new LocationRuntimeModule().getDistributedModules()).with(
+        new AbstractModule() {
+          @Override
+          protected void configure() {
+            // Allows to use the namespace without creating its meta, as NonCustomLocationUnitTestModule does
+            bind(NamespacedLocationFactory.class).to(NamespacedLocationFactoryTestClient.class);
+          }
+        }
+      ),
+      new TransactionModules().getInMemoryModules(),
+      new TransactionExecutorModule(),
+      new DataSetsModules().getInMemoryModules(),
+      new SystemDatasetRuntimeModule().getInMemoryModules(),
+      new AuthorizationTestModule(),
+      new AuthorizationEnforcementModule().getInMemoryModules(),
+      new AuthenticationContextModules().getNoOpModule(),
+      new AbstractModule() {
+        @Override
+        protected void configure() {
+          bind(UGIProvider.class).to(UnsupportedUGIProvider.class);
+          bind(NamespaceQueryAdmin.class).to(SimpleNamespaceQueryAdmin.class);
+        }
+      }
+    );
+
+    txManager = injector.getInstance(TransactionManager.class);
+    txManager.startAndWait();
+    impersonator = injector.getInstance(Impersonator.class);
+  }
+
+  @AfterClass
+  public static void finish() {
+    txManager.stopAndWait();
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    FileMetaDataManager fileMetaDataManager = injector.getInstance(FileMetaDataManager.class);
+    NamespacedLocationFactory namespacedLocationFactory = injector.getInstance(NamespacedLocationFactory.class);
+    Schema schema = new LogSchema().getAvroSchema();
+    // Every append to the flowlet file ends a segment of its index
+    AvroFileWriter indexedWriter = new AvroFileWriter(fileMetaDataManager, namespacedLocationFactory, logBaseDir,
+                                                      schema, 1024 * 1024, 1, 3600000, impersonator);
+    // The service file is not indexed until it spans the sync interval or gets closed
+    AvroFileWriter unindexedWriter = new AvroFileWriter(fileMetaDataManager, namespacedLocationFactory, logBaseDir,
+                                                        schema, 1024 * 1024, 1024 * 1024, 3600000, impersonator);
+
+    LoggingContext flowletContext = new FlowletLoggingContext(NAMESPACE, "app1", "flow1", "flowlet1", "run1", "0");
+    LoggingContext serviceContext = new UserServiceLoggingContext(NAMESPACE, "app2", "service1", "handler1",
+                                                                  "run2", "0");
+    long now = System.currentTimeMillis();
+    try {
+      indexedWriter.append(createEvents(schema, flowletContext, now, "Starting flowlet"));
+      indexedWriter.append(createEvents(schema, flowletContext, now + 1, "Connection refused by broker",
+                                        "Retrying the connection"));
+      indexedWriter.append(createEvents(schema, flowletContext, now + 2, "Processed a batch"));
+      indexedWriter.append(createEvents(schema, flowletContext, now + 3, "Connection refused again"));
+      unindexedWriter.append(createEvents(schema, serviceContext, now + 4, "Connection refused by server"));
+      unindexedWriter.append(createEvents(schema, serviceContext, now + 5, "Handled request"));
+
+      Location flowletFile = fileMetaDataManager.listFiles(flowletContext).firstEntry().getValue();
+      List<LogTermIndex.Entry> flowletIndex = LogTermIndex.read(flowletFile, flowletFile.length());
+      Assert.assertNotNull(flowletIndex);
+      Assert.assertEquals(4, flowletIndex.size());
+      Location serviceFile = fileMetaDataManager.listFiles(serviceContext).firstEntry().getValue();
+      Assert.assertEquals(ImmutableList.of(), LogTermIndex.read(serviceFile, serviceFile.length()));
+
+      // Only the segment that the index points to is read
+      AvroFileReader avroFileReader = new AvroFileReader(schema);
+      CollectingCallback callback = new CollectingCallback();
+      avroFileReader.readRanges(flowletFile, ImmutableSortedMap.of(flowletIndex.get(1).getStart(),
+                                                                   flowletIndex.get(1).getEnd()),
+                                Filter.EMPTY_FILTER, now, now + 10, 10, callback, new NamespaceId(NAMESPACE),
+                                impersonator);
+      Assert.assertEquals(ImmutableList.of("Connection refused by broker", "Retrying the connection"),
+                          callback.getMessages());
+
+      // Overwrite the segments without the terms with garbage, reading them fails from now on
+      corrupt(flowletFile, flowletIndex.get(0));
+      corrupt(flowletFile, flowletIndex.get(2));
+
+      FileLogSearcher searcher = injector.getInstance(FileLogSearcher.class);
+      callback = new CollectingCallback();
+      searcher.search(new NamespaceId(NAMESPACE), "REFUSED connection", now, now + 10, 10, Filter.EMPTY_FILTER,
+                      callback);
+      // The last event comes from the part of the service file that is not indexed yet
+      Assert.assertEquals(ImmutableList.of("Connection refused by broker", "Connection refused again",
+                                           "Connection refused by server"), callback.getMessages());
+      Assert.assertEquals(ImmutableList.of("run1", "run1", "run2"), callback.getRunIds());
+
+      // max is honored
+      callback = new CollectingCallback();
+      searcher.search(new NamespaceId(NAMESPACE), "connection", now, now + 10, 2, Filter.EMPTY_FILTER, callback);
+      Assert.assertEquals(ImmutableList.of("Connection refused by broker", "Retrying the connection"),
+                          callback.getMessages());
+
+      // time range
+      callback = new CollectingCallback();
+      searcher.search(new NamespaceId(NAMESPACE), "refused", now + 2, now + 10, 10, Filter.EMPTY_FILTER, callback);
+      Assert.assertEquals(ImmutableList.of("Connection refused again", "Connection refused by server"),
+                          callback.getMessages());
+
+      // A term of a corrupted segment, which proves that the search above skipped it
+      try {
+        searcher.search(new NamespaceId(NAMESPACE), "starting", now, now + 10, 10, Filter.EMPTY_FILTER,
+                        new CollectingCallback());
+        Assert.fail("Expected the corrupted segment to be read");
+      } catch (RuntimeException e) {
+        // expected
+      }
+
+      // A query without terms
+      try {
+        searcher.search(new NamespaceId(NAMESPACE), "- ?", now, now + 10, 10, Filter.EMPTY_FILTER,
+                        new CollectingCallback());
+        Assert.fail("Expected the query to be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    } finally {
+      indexedWriter.close();
+      unindexedWriter.close();
+    }
+  }
+
+  private List<LogWriteEvent> createEvents(Schema schema, LoggingContext loggingContext, long timestamp,
+                                           String... messages) {
+    Map<String, String> tags = new HashMap<>();
+    for (Map.Entry<String, LoggingContext.SystemTag> entry : loggingContext.getSystemTagsMap().entrySet()) {
+      tags.put(entry.getKey(), entry.getValue().getValue());
+    }
+    List<LogWriteEvent> events = new ArrayList<>();
+    for (String message : messages) {
+      LoggingEvent event = new LoggingEvent();
+      event.setLevel(Level.INFO);
+      event.setLoggerName(FileLogSearcherTest.class.getName());
+      event.setThreadName(Thread.currentThread().getName());
+      event.setMessage(message);
+      event.setTimeStamp(timestamp);
+      event.setMDCPropertyMap(tags);
+      event.setCallerData(new StackTraceElement[0]);
+      events.add(new LogWriteEvent(co.cask.cdap.logging.serialize.LoggingEvent.encode(schema, event, loggingContext),
+                                   event, loggingContext));
+    }
+    return events;
+  }
+
+  private void corrupt(Location file, LogTermIndex.Entry segment) throws Exception {
+    byte[] garbage = new byte[(int) (segment.getEnd() - segment.getStart())];
+    Arrays.fill(garbage, (byte) 0xff);
+    try (RandomAccessFile output = new RandomAccessFile(new File(file.toURI()), "rw")) {
+      output.seek(segment.getStart());
+      output.write(garbage);
+    }
+  }
+
+  /**
+   * A {@link Callback} that collects the messages and run ids of the log events.
+   */
+  private static final class CollectingCallback implements Callback {
+    private final List<String> messages = new ArrayList<>();
+    private final List<String> runIds = new ArrayList<>();
+
+    @Override
+    public void init() {
+      // no-op
+    }
+
+    @Override
+    public void handle(LogEvent event) {
+      ILoggingEvent loggingEvent = event.getLoggingEvent();
+      messages.add(loggingEvent.getFormattedMessage());
+      runIds.add(loggingEvent.getMDCPropertyMap().get(ApplicationLoggingContext.TAG_RUN_ID));
+    }
+
+    @Override
+    public int getCount() {
+      return messages.size();
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+
+    List<String> getMessages() {
+      return messages;
+    }
+
+    List<String> getRunIds() {
+      return runIds;
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.read;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.common.logging.ServiceLoggingContext;
+import co.cask.cdap.common.utils.Tasks;
+import co.cask.cdap.logging.KafkaTestBase;
+import co.cask.cdap.logging.appender.LogMessage;
+import co.cask.cdap.logging.appender.kafka.KafkaLogAppender;
+import co.cask.cdap.logging.context.FlowletLoggingContext;
+import co.cask.cdap.logging.filter.Filter;
+import co.cask.cdap.test.SlowTests;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Injector;
+import org.apache.twill.common.Cancellable;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link KafkaLogTailer}.
+ */
+@Category(SlowTests.class)
+public class KafkaLogTailerTest extends KafkaTestBase {
+
+  private static final String WARMUP_MESSAGE = "warmup";
+  private static final LoggingContext FLOWLET_CONTEXT =
+    new FlowletLoggingContext("NS_1", "APP_1", "FLOW_1", "FLOWLET_1", "RUN1", "INSTANCE1");
+  private static final LoggingContext SERVICE_CONTEXT = new ServiceLoggingContext("system", "services", "metrics");
+
+  private static KafkaLogAppender appender;
+  private static KafkaLogTailer logTailer;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    Injector injector = KAFKA_TESTER.getInjector();
+    appender = injector.getInstance(KafkaLogAppender.class);
+    appender.start();
+    logTailer = injector.getInstance(KafkaLogTailer.class);
+  }
+
+  @AfterClass
+  public static void finish() throws Exception {
+    appender.stop();
+  }
+
+  @Test
+  public void testTail() throws Exception {
+    TestCallback flowletCallback = new TestCallback(false);
+    TestCallback serviceCallback = new TestCallback(false);
+    Cancellable flowletCancellable = logTailer.tail(FLOWLET_CONTEXT, Filter.EMPTY_FILTER, flowletCallback);
+    Cancellable serviceCancellable = logTailer.tail(SERVICE_CONTEXT, Filter.EMPTY_FILTER, serviceCallback);
+    try {
+      Assert.assertTrue(flowletCallback.isInitialized());
+      waitForTailing(FLOWLET_CONTEXT, flowletCallback);
+      waitForTailing(SERVICE_CONTEXT, serviceCallback);
+
+      List<String> flowletMessages = publish(FLOWLET_CONTEXT, "flowlet", 10);
+      List<String> serviceMessages = publish(SERVICE_CONTEXT, "service", 5);
+
+      // each subscriber only gets the events of its logging context, in the order they were published
+      waitForMessages(flowletCallback, flowletMessages.size());
+      waitForMessages(serviceCallback, serviceMessages.size());
+      Assert.assertEquals(flowletMessages, flowletCallback.getMessages());
+      Assert.assertEquals(serviceMessages, serviceCallback.getMessages());
+      Assert.assertTrue(flowletCallback.getFlushes() > 0);
+    } finally {
+      serviceCancellable.cancel();
+    }
+    Assert.assertTrue(serviceCallback.isClosed());
+
+    // events published after cancelling are not passed to the callback anymore
+    flowletCancellable.cancel();
+    Assert.assertTrue(flowletCallback.isClosed());
+    int flowletCount = flowletCallback.getMessages().size();
+
+    TestCallback otherCallback = new TestCallback(false);
+    Cancellable otherCancellable = logTailer.tail(FLOWLET_CONTEXT, Filter.EMPTY_FILTER, otherCallback);
+    try {
+      waitForTailing(FLOWLET_CONTEXT, otherCallback);
+      List<String> messages = publish(FLOWLET_CONTEXT, "cancelled", 5);
+      waitForMessages(otherCallback, messages.size());
+      Assert.assertEquals(messages, otherCallback.getMessages());
+    } finally {
+      otherCancellable.cancel();
+    }
+    Assert.assertEquals(flowletCount, flowletCallback.getMessages().size());
+  }
+
+  @Test
+  public void testFailingCallback() throws Exception {
+    final TestCallback failingCallback = new TestCallback(true);
+    Cancellable cancellable = logTailer.tail(FLOWLET_CONTEXT, Filter.EMPTY_FILTER, failingCallback);
+    try {
+      // the subscription ends once the callback fails, e.g. because the client went away
+      Tasks.waitFor(true, new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          publish(FLOWLET_CONTEXT, WARMUP_MESSAGE);
+          return failingCallback.isClosed();
+        }
+      }, 30, TimeUnit.SECONDS, 500, TimeUnit.MILLISECONDS);
+    } finally {
+      cancellable.cancel();
+    }
+    Assert.assertTrue(failingCallback.getMessages().isEmpty());
+  }
+
+  /**
+   * Waits until the tailer passes events to the callback. Events published before the tailer found the latest
+   * offset of the partition are not passed.
+   */
+  private static void waitForTailing(final LoggingContext loggingContext,
+                                     final TestCallback callback) throws Exception {
+    Tasks.waitFor(true, new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        publish(loggingContext, WARMUP_MESSAGE);
+        return callback.getCount() > 0;
+      }
+    }, 30, TimeUnit.SECONDS, 500, TimeUnit.MILLISECONDS);
+  }
+
+  private static void waitForMessages(final TestCallback callback, int count) throws Exception {
+    Tasks.waitFor(count, new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return callback.getMessages().size();
+      }
+    }, 30, TimeUnit.SECONDS);
+  }
+
+  private static List<String> publish(LoggingContext loggingContext, String prefix, int count) {
+    List<String> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String message = prefix + " message " + i;
+      publish(loggingContext, message);
+      messages.add(message);
+    }
+    return ImmutableList.copyOf(messages);
+  }
+
+  private static void publish(LoggingContext loggingContext, String message) {
+    LoggingEvent event = new LoggingEvent();
+    event.setLevel(Level.INFO);
+    event.setLoggerName(KafkaLogTailerTest.class.getName());
+    event.setThreadName(Thread.currentThread().getName());
+    event.setMessage(message);
+    event.setTimeStamp(System.currentTimeMillis());
+    event.setMDCPropertyMap(ImmutableMap.<String, String>of());
+    event.setCallerData(new StackTraceElement[0]);
+    appender.doAppend(new LogMessage(event, loggingContext));
+  }
+
+  /**
+   * A {@link Callback} that collects the messages of the events passed to it, except for warmup messages.
+   */
+  private static final class TestCallback implements Callback, Flushable {
+    private final boolean fail;
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger flushes = new AtomicInteger();
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+    private volatile boolean initialized;
+    private volatile boolean closed;
+
+    TestCallback(boolean fail) {
+      this.fail = fail;
+    }
+
+    @Override
+    public void init() {
+      initialized = true;
+    }
+
+    @Override
+    public void handle(LogEvent event) {
+      if (fail) {
+        throw new IllegalStateException("Failed to send log event");
+      }
+      count.incrementAndGet();
+      String message = event.getLoggingEvent().getFormattedMessage();
+      if (!WARMUP_MESSAGE.equals(message)) {
+        messages.add(message);
+      }
+    }
+
+    @Override
+    public int getCount() {
+      return count.get();
+    }
+
+    @Override
+    public void flush() {
+      flushes.incrementAndGet();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    List<String> getMessages() {
+      return messages;
+    }
+
+    int getFlushes() {
+      return flushes.get();
+    }
+
+    boolean isInitialized() {
+      return initialized;
+    }
+
+    boolean isClosed() {
+      return closed;
+    }
+  }
+}
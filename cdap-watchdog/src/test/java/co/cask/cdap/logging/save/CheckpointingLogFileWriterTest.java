@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.save;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.logging.context.FlowletLoggingContext;
+import co.cask.cdap.logging.kafka.KafkaLogEvent;
+import co.cask.cdap.logging.write.AvroFileWriter;
+import co.cask.cdap.logging.write.LogWriteEvent;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link CheckpointingLogFileWriter}.
+ */
+public class CheckpointingLogFileWriterTest {
+
+  private static final LoggingContext CONTEXT_1 = createLoggingContext("APP_1");
+  private static final LoggingContext CONTEXT_2 = createLoggingContext("APP_2");
+
+  @Test
+  public void testCheckpointCoalescing() throws Exception {
+    TestAvroFileWriter avroFileWriter = new TestAvroFileWriter();
+    TestCheckpointManager checkpointManager = new TestCheckpointManager();
+    CheckpointingLogFileWriter writer = new CheckpointingLogFileWriter(avroFileWriter, checkpointManager);
+
+    writer.append(createEvents(CONTEXT_1, 0, 2, 5));
+    writer.append(createEvents(CONTEXT_2, 0, 3, 4));
+    writer.append(createEvents(CONTEXT_1, 1, 10, 11));
+    writer.append(createEvents(CONTEXT_2, 1, 7));
+
+    // appends do not checkpoint
+    Assert.assertTrue(checkpointManager.getSaved().isEmpty());
+    Assert.assertNull(writer.getSavedCheckpoint(0));
+
+    // a single checkpoint covers all appends, with the highest offset of each partition
+    writer.flush();
+    Assert.assertEquals(1, avroFileWriter.getFlushes());
+    Assert.assertEquals(1, checkpointManager.getSaved().size());
+    Map<Integer, Checkpoint> checkpoints = checkpointManager.getSaved().get(0);
+    Assert.assertEquals(2, checkpoints.size());
+    assertCheckpoint(5, checkpoints.get(0));
+    assertCheckpoint(11, checkpoints.get(1));
+    assertCheckpoint(5, writer.getSavedCheckpoint(0));
+    assertCheckpoint(11, writer.getSavedCheckpoint(1));
+
+    writer.append(createEvents(CONTEXT_2, 0, 6));
+    writer.close();
+    Assert.assertTrue(avroFileWriter.isClosed());
+    Assert.assertEquals(2, checkpointManager.getSaved().size());
+    assertCheckpoint(6, writer.getSavedCheckpoint(0));
+    assertCheckpoint(11, writer.getSavedCheckpoint(1));
+  }
+
+  @Test
+  public void testFailedAppend() throws Exception {
+    TestAvroFileWriter avroFileWriter = new TestAvroFileWriter();
+    TestCheckpointManager checkpointManager = new TestCheckpointManager();
+    CheckpointingLogFileWriter writer = new CheckpointingLogFileWriter(avroFileWriter, checkpointManager);
+
+    writer.append(createEvents(CONTEXT_1, 0, 2, 4));
+    avroFileWriter.setFailingContext(CONTEXT_2);
+    try {
+      writer.append(createEvents(CONTEXT_2, 0, 3, 5));
+      Assert.fail("Expected append to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    writer.append(createEvents(CONTEXT_1, 0, 6, 8));
+
+    // the checkpoint must not cover the events that failed to append
+    writer.flush();
+    Checkpoint checkpoint = writer.getSavedCheckpoint(0);
+    assertCheckpoint(2, checkpoint);
+    Assert.assertTrue(checkpoint.getMaxEventTime() < getEventTime(3));
+
+    // once the failed events are appended, the checkpoint moves to the highest offset
+    avroFileWriter.setFailingContext(null);
+    writer.append(createEvents(CONTEXT_2, 0, 3, 5));
+    writer.flush();
+    checkpoint = writer.getSavedCheckpoint(0);
+    assertCheckpoint(8, checkpoint);
+    Assert.assertEquals(getEventTime(8), checkpoint.getMaxEventTime());
+  }
+
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    TestAvroFileWriter avroFileWriter = new TestAvroFileWriter();
+    TestCheckpointManager checkpointManager = new TestCheckpointManager();
+    final CheckpointingLogFileWriter writer = new CheckpointingLogFileWriter(avroFileWriter, checkpointManager);
+
+    final int contexts = 4;
+    final int appends = 100;
+    ExecutorService executor = Executors.newFixedThreadPool(contexts);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < contexts; i++) {
+        final LoggingContext loggingContext = createLoggingContext("APP_" + i);
+        final int context = i;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < appends; j++) {
+              writer.append(createEvents(loggingContext, 0, j * contexts + context + 1));
+            }
+            return null;
+          }
+        }));
+      }
+
+      // flush while appending
+      for (Future<?> future : futures) {
+        while (!future.isDone()) {
+          writer.flush();
+        }
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    writer.flush();
+
+    Assert.assertEquals(contexts * appends, avroFileWriter.getAppends());
+    Assert.assertFalse("Events were appended during a flush", avroFileWriter.isAppendDuringFlush());
+    assertCheckpoint(contexts * appends, writer.getSavedCheckpoint(0));
+
+    // checkpoints never go backwards
+    long lastOffset = -1;
+    for (Map<Integer, Checkpoint> checkpoints : checkpointManager.getSaved()) {
+      Checkpoint checkpoint = checkpoints.get(0);
+      if (checkpoint != null) {
+        Assert.assertTrue(checkpoint.getNextOffset() >= lastOffset);
+        lastOffset = checkpoint.getNextOffset();
+      }
+    }
+  }
+
+  private static void assertCheckpoint(long expectedNextOffset, Checkpoint checkpoint) {
+    Assert.assertNotNull(checkpoint);
+    Assert.assertEquals(expectedNextOffset, checkpoint.getNextOffset());
+  }
+
+  private static LoggingContext createLoggingContext(String appId) {
+    return new FlowletLoggingContext("NS_1", appId, "FLOW_1", "", "RUN1", "INSTANCE");
+  }
+
+  private static long getEventTime(long nextOffset) {
+    return 1000000L + nextOffset * 10;
+  }
+
+  private static List<KafkaLogEvent> createEvents(LoggingContext loggingContext, int partition, long... nextOffsets) {
+    List<KafkaLogEvent> events = new ArrayList<>();
+    for (long nextOffset : nextOffsets) {
+      LoggingEvent event = new LoggingEvent();
+      event.setMessage("message " + nextOffset);
+      event.setTimeStamp(getEventTime(nextOffset));
+      events.add(new KafkaLogEvent(null, event, loggingContext, partition, nextOffset));
+    }
+    return events;
+  }
+
+  /**
+   * An {@link AvroFileWriter} that only counts the events appended, and that can fail the appends of a context.
+   */
+  private static final class TestAvroFileWriter extends AvroFileWriter {
+    private final AtomicInteger appends = new AtomicInteger();
+    private final AtomicInteger appending = new AtomicInteger();
+    private final AtomicInteger flushes = new AtomicInteger();
+    private final AtomicBoolean appendDuringFlush = new AtomicBoolean();
+    private volatile LoggingContext failingContext;
+    private volatile boolean closed;
+
+    TestAvroFileWriter() {
+      super(null, null, null, null, 0, 0, 0, null);
+    }
+
+    @Override
+    public void append(List<? extends LogWriteEvent> events) throws Exception {
+      appending.incrementAndGet();
+      try {
+        if (events.get(0).getLoggingContext() == failingContext) {
+          throw new IOException("Failed to append events of " + failingContext.getLogPartition());
+        }
+        appends.addAndGet(events.size());
+      } finally {
+        appending.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (appending.get() != 0) {
+        appendDuringFlush.set(true);
+      }
+      flushes.incrementAndGet();
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+    }
+
+    void setFailingContext(LoggingContext failingContext) {
+      this.failingContext = failingContext;
+    }
+
+    int getAppends() {
+      return appends.get();
+    }
+
+    int getFlushes() {
+      return flushes.get();
+    }
+
+    boolean isAppendDuringFlush() {
+      return appendDuringFlush.get();
+    }
+
+    boolean isClosed() {
+      return closed;
+    }
+  }
+
+  /**
+   * A {@link CheckpointManager} that records the checkpoints saved.
+   */
+  private static final class TestCheckpointManager extends CheckpointManager {
+    private final List<Map<Integer, Checkpoint>> saved = Collections.synchronizedList(
+      new ArrayList<Map<Integer, Checkpoint>>());
+
+    TestCheckpointManager() {
+      super(null, null, "test", 0);
+    }
+
+    @Override
+    public void saveCheckpoint(Map<Integer, Checkpoint> checkpoints) throws Exception {
+      saved.add(ImmutableMap.copyOf(checkpoints));
+    }
+
+    List<Map<Integer, Checkpoint>> getSaved() {
+      return saved;
+    }
+  }
+}
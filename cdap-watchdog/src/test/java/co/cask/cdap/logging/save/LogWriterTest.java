@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.save;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.common.logging.LoggingContext;
+import co.cask.cdap.common.utils.Tasks;
+import co.cask.cdap.logging.context.FlowletLoggingContext;
+import co.cask.cdap.logging.kafka.KafkaLogEvent;
+import co.cask.cdap.logging.write.LogFileWriter;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.RowSortedTable;
+import com.google.common.collect.TreeBasedTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link LogWriter}.
+ */
+public class LogWriterTest {
+
+  private static final long EVENT_BUCKET_INTERVAL_MS = 100;
+  private static final long MAX_BUCKETS = 2;
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    int contexts = 4;
+    // every append waits for the appends of all other contexts, which only succeeds if they run concurrently
+    TestLogFileWriter logFileWriter = new TestLogFileWriter(new CyclicBarrier(contexts));
+    RowSortedTable<Long, String, Map.Entry<Long, List<KafkaLogEvent>>> messageTable = TreeBasedTable.create();
+    for (int i = 0; i < contexts; i++) {
+      LoggingContext loggingContext = createLoggingContext("APP_" + i);
+      // events are not in time order
+      addEvents(messageTable, loggingContext, createEvent(loggingContext, i * 10 + 1, 300),
+                createEvent(loggingContext, i * 10 + 2, 100), createEvent(loggingContext, i * 10 + 3, 200));
+    }
+
+    runLogWriter(logFileWriter, messageTable, contexts, contexts * 3);
+
+    Assert.assertEquals(contexts, logFileWriter.getThreads().size());
+    for (int i = 0; i < contexts; i++) {
+      String context = createLoggingContext("APP_" + i).getLogPartition();
+      Assert.assertEquals(1, logFileWriter.getAttempts().count(context));
+      // events of each context are written in time order
+      Assert.assertEquals(ImmutableList.of(i * 10 + 2L, i * 10 + 3L, i * 10 + 1L),
+                          logFileWriter.getAppended().get(context));
+    }
+  }
+
+  @Test
+  public void testRetry() throws Exception {
+    TestLogFileWriter logFileWriter = new TestLogFileWriter(null);
+    LoggingContext loggingContext1 = createLoggingContext("APP_1");
+    LoggingContext loggingContext2 = createLoggingContext("APP_2");
+    logFileWriter.getFailures().add(loggingContext1.getLogPartition());
+
+    RowSortedTable<Long, String, Map.Entry<Long, List<KafkaLogEvent>>> messageTable = TreeBasedTable.create();
+    addEvents(messageTable, loggingContext1,
+              createEvent(loggingContext1, 1, 100), createEvent(loggingContext1, 3, 200));
+    addEvents(messageTable, loggingContext2,
+              createEvent(loggingContext2, 2, 100), createEvent(loggingContext2, 4, 200));
+
+    runLogWriter(logFileWriter, messageTable, 2, 4);
+
+    // only the context that failed is written again
+    Assert.assertEquals(2, logFileWriter.getAttempts().count(loggingContext1.getLogPartition()));
+    Assert.assertEquals(1, logFileWriter.getAttempts().count(loggingContext2.getLogPartition()));
+    Assert.assertEquals(ImmutableList.of(1L, 3L), logFileWriter.getAppended().get(loggingContext1.getLogPartition()));
+    Assert.assertEquals(ImmutableList.of(2L, 4L), logFileWriter.getAppended().get(loggingContext2.getLogPartition()));
+  }
+
+  /**
+   * Runs a {@link LogWriter} until the given number of events got written.
+   */
+  private void runLogWriter(final TestLogFileWriter logFileWriter,
+                            RowSortedTable<Long, String, Map.Entry<Long, List<KafkaLogEvent>>> messageTable,
+                            int writerThreads, int events) throws Exception {
+    CountDownLatch stopLatch = new CountDownLatch(1);
+    ExecutorService writerExecutor = Executors.newFixedThreadPool(writerThreads);
+    Thread thread = new Thread(new LogWriter(logFileWriter, messageTable, EVENT_BUCKET_INTERVAL_MS, MAX_BUCKETS,
+                                             stopLatch, writerExecutor));
+    thread.start();
+    try {
+      Tasks.waitFor(events, new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return logFileWriter.getAppended().size();
+        }
+      }, 30, TimeUnit.SECONDS);
+    } finally {
+      stopLatch.countDown();
+      thread.join();
+      writerExecutor.shutdownNow();
+    }
+    Assert.assertTrue(messageTable.isEmpty());
+  }
+
+  private static LoggingContext createLoggingContext(String appId) {
+    return new FlowletLoggingContext("NS_1", appId, "FLOW_1", "", "RUN1", "INSTANCE");
+  }
+
+  private static KafkaLogEvent createEvent(LoggingContext loggingContext, long nextOffset, long timestamp) {
+    LoggingEvent event = new LoggingEvent();
+    event.setMessage("message " + nextOffset);
+    event.setTimeStamp(timestamp);
+    return new KafkaLogEvent(null, event, loggingContext, 0, nextOffset);
+  }
+
+  private static void addEvents(RowSortedTable<Long, String, Map.Entry<Long, List<KafkaLogEvent>>> messageTable,
+                                LoggingContext loggingContext, KafkaLogEvent... events) {
+    // events that arrived in the first bucket are old enough to be written right away
+    List<KafkaLogEvent> list = new ArrayList<>(ImmutableList.copyOf(events));
+    messageTable.put(0L, loggingContext.getLogPartition(),
+                     new AbstractMap.SimpleEntry<Long, List<KafkaLogEvent>>(0L, list));
+  }
+
+  /**
+   * A {@link LogFileWriter} that records the events appended for each logging context.
+   */
+  private static final class TestLogFileWriter implements LogFileWriter<KafkaLogEvent> {
+    private final CyclicBarrier barrier;
+    private final Multiset<String> failures = ConcurrentHashMultiset.create();
+    private final Multiset<String> attempts = ConcurrentHashMultiset.create();
+    private final ListMultimap<String, Long> appended =
+      Multimaps.synchronizedListMultimap(ArrayListMultimap.<String, Long>create());
+    private final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+    TestLogFileWriter(@Nullable CyclicBarrier barrier) {
+      this.barrier = barrier;
+    }
+
+    @Override
+    public void append(List<KafkaLogEvent> events) throws Exception {
+      String context = events.get(0).getLoggingContext().getLogPartition();
+      attempts.add(context);
+      threads.add(Thread.currentThread().getName());
+      if (barrier != null) {
+        barrier.await(10, TimeUnit.SECONDS);
+      }
+      if (failures.remove(context)) {
+        throw new IOException("Failed to append events of " + context);
+      }
+      for (KafkaLogEvent event : events) {
+        appended.put(context, event.getNextOffset());
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // no-op
+    }
+
+    @Override
+    public void close() throws IOException {
+      // no-op
+    }
+
+    Multiset<String> getFailures() {
+      return failures;
+    }
+
+    Multiset<String> getAttempts() {
+      return attempts;
+    }
+
+    ListMultimap<String, Long> getAppended() {
+      return appended;
+    }
+
+    Set<String> getThreads() {
+      return threads;
+    }
+  }
+}
@@ -27,6 +27,7 @@ import co.cask.cdap.logging.appender.kafka.LoggingEventSerializer;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import kafka.utils.VerifiableProperties;
+import org.apache.avro.generic.GenericRecord;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -140,6 +141,110 @@ public class LoggingEventSerializerTest {
     assertLoggingEventEquals(iLoggingEvent, actualEvent);
   }
 
+  @Test
+  public void testCompactSerialization() throws Exception {
+    LoggingEventSerializer serializer = new LoggingEventSerializer(LoggingEventSerializer.VERSION_2, true);
+    ch.qos.logback.classic.spi.LoggingEvent iLoggingEvent = createLoggingEvent();
+
+    // Serialize
+    LoggingEvent event = new LoggingEvent(iLoggingEvent);
+    byte [] serializedBytes = serializer.toBytes(event, LoggingContextAccessor.getLoggingContext());
+    Assert.assertEquals(LoggingEventSerializer.VERSION_2, serializedBytes[0]);
+
+    // Repeated strings and frames are only written once
+    byte [] v1Bytes = new LoggingEventSerializer().toBytes(event, LoggingContextAccessor.getLoggingContext());
+    Assert.assertTrue(serializedBytes.length < v1Bytes.length);
+
+    // De-serialize, both as event and as record of the log schema
+    ILoggingEvent actualEvent = serializer.fromBytes(ByteBuffer.wrap(serializedBytes));
+    assertLoggingEventEquals(iLoggingEvent, actualEvent);
+    GenericRecord record = serializer.toGenericRecord(ByteBuffer.wrap(serializedBytes));
+    assertLoggingEventEquals(iLoggingEvent, serializer.fromGenericRecord(record));
+  }
+
+  @Test
+  public void testCompactNullSerialization() throws Exception {
+    LoggingEventSerializer serializer = new LoggingEventSerializer(LoggingEventSerializer.VERSION_2, true);
+    ch.qos.logback.classic.spi.LoggingEvent iLoggingEvent = new ch.qos.logback.classic.spi.LoggingEvent();
+    iLoggingEvent.setThreadName(null);
+    iLoggingEvent.setLevel(null);
+    iLoggingEvent.setMessage(null);
+    iLoggingEvent.setArgumentArray(null);
+    iLoggingEvent.setLoggerName(null);
+    iLoggingEvent.setLoggerContextRemoteView(null);
+    iLoggingEvent.setThrowableProxy(null);
+    iLoggingEvent.setCallerData(null);
+    iLoggingEvent.setMarker(null);
+    iLoggingEvent.setMDCPropertyMap(null);
+    iLoggingEvent.setTimeStamp(10000000L);
+
+    // Serialize
+    LoggingEvent event = new LoggingEvent(iLoggingEvent);
+    byte [] serializedBytes = serializer.toBytes(event, LoggingContextAccessor.getLoggingContext());
+
+    // De-serialize
+    ILoggingEvent actualEvent = serializer.fromBytes(ByteBuffer.wrap(serializedBytes));
+
+    iLoggingEvent.setLevel(Level.ERROR);
+    assertLoggingEventEquals(iLoggingEvent, actualEvent);
+  }
+
+  @Test
+  public void testCompactWithoutCallerData() throws Exception {
+    LoggingEventSerializer serializer = new LoggingEventSerializer(LoggingEventSerializer.VERSION_2, false);
+    ch.qos.logback.classic.spi.LoggingEvent iLoggingEvent = createLoggingEvent();
+
+    LoggingEvent event = new LoggingEvent(iLoggingEvent);
+    byte [] serializedBytes = serializer.toBytes(event, LoggingContextAccessor.getLoggingContext());
+    ILoggingEvent actualEvent = serializer.fromBytes(ByteBuffer.wrap(serializedBytes));
+
+    Assert.assertFalse(actualEvent.hasCallerData());
+    Assert.assertNull(actualEvent.getCallerData());
+    iLoggingEvent.setCallerData(null);
+    assertLoggingEventEquals(iLoggingEvent, actualEvent);
+  }
+
+  @Test
+  public void testReadBothVersions() throws Exception {
+    LoggingEventSerializer v1Serializer = new LoggingEventSerializer();
+    LoggingEventSerializer v2Serializer = new LoggingEventSerializer(LoggingEventSerializer.VERSION_2, true);
+    ch.qos.logback.classic.spi.LoggingEvent iLoggingEvent = createLoggingEvent();
+    LoggingEvent event = new LoggingEvent(iLoggingEvent);
+
+    byte [] v1Bytes = v1Serializer.toBytes(event, LoggingContextAccessor.getLoggingContext());
+    byte [] v2Bytes = v2Serializer.toBytes(event, LoggingContextAccessor.getLoggingContext());
+    assertLoggingEventEquals(iLoggingEvent, v2Serializer.fromBytes(ByteBuffer.wrap(v1Bytes)));
+    assertLoggingEventEquals(iLoggingEvent, v1Serializer.fromBytes(ByteBuffer.wrap(v2Bytes)));
+  }
+
+  private ch.qos.logback.classic.spi.LoggingEvent createLoggingEvent() {
+    ch.qos.logback.classic.spi.LoggingEvent iLoggingEvent = new ch.qos.logback.classic.spi.LoggingEvent();
+    iLoggingEvent.setThreadName("threadName1");
+    iLoggingEvent.setLevel(Level.WARN);
+    iLoggingEvent.setMessage("Log message1");
+    iLoggingEvent.setArgumentArray(new Object[]{null, "arg2", "Log message1", null});
+    iLoggingEvent.setLoggerName("loggerName1");
+    iLoggingEvent.setLoggerContextRemoteView(new LoggerContextVO("logger_context1",
+                                                                 ImmutableMap.of("p1", "ctx-val1"), 12345634234L));
+
+    Exception e1 = new Exception("Test Exception1");
+    Exception e2 = new Exception("Test Exception2", e1);
+    iLoggingEvent.setThrowableProxy(new ThrowableProxy(e2));
+    iLoggingEvent.prepareForDeferredProcessing();
+
+    StackTraceElement frame = new StackTraceElement("com.Class1", "methodName1", "fileName1", 10);
+    iLoggingEvent.setCallerData(new StackTraceElement[]{
+      frame,
+      null,
+      new StackTraceElement("com.Class1", "methodName2", "fileName1", 20),
+      frame
+    });
+
+    iLoggingEvent.getMDCPropertyMap().put("mdc1", "threadName1");
+    iLoggingEvent.setTimeStamp(1234567890L);
+    return iLoggingEvent;
+  }
+
   public static void assertLoggingEventEquals(ILoggingEvent expected, ILoggingEvent actual) {
     expected.getMDCPropertyMap().putAll(
       ImmutableMap.of(".namespaceId", "TEST_ACCT_ID1", ".applicationId", "TEST_APP_ID1", ".runId", "RUN1",
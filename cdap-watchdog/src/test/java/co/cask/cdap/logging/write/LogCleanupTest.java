@@ -16,6 +16,10 @@
 
 package co.cask.cdap.logging.write;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
 import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.guice.ConfigModule;
@@ -35,6 +39,7 @@ import co.cask.cdap.data2.security.UGIProvider;
 import co.cask.cdap.data2.security.UnsupportedUGIProvider;
 import co.cask.cdap.logging.LoggingConfiguration;
 import co.cask.cdap.logging.context.FlowletLoggingContext;
+import co.cask.cdap.logging.serialize.LogSchema;
 import co.cask.cdap.proto.Id;
 import co.cask.cdap.security.auth.context.AuthenticationContextModules;
 import co.cask.cdap.security.authorization.AuthorizationEnforcementModule;
@@ -43,6 +48,7 @@ import co.cask.tephra.TransactionManager;
 import co.cask.tephra.runtime.TransactionModules;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -51,6 +57,10 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.util.Modules;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.twill.filesystem.Location;
@@ -66,12 +76,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test LogCleanup class.
@@ -229,6 +242,178 @@ public class LogCleanupTest {
     Assert.assertEquals(ImmutableSet.of(), metadataForDeletedFiles);
   }
 
+  @Test
+  public void testQuota() throws Exception {
+    FileMetaDataManager fileMetaDataManager = injector.getInstance(FileMetaDataManager.class);
+    NamespacedLocationFactory namespacedLocationFactory = injector.getInstance(NamespacedLocationFactory.class);
+    long now = System.currentTimeMillis();
+
+    // Two partitions of a namespace with a quota of 300 bytes
+    LoggingContext context1 = new FlowletLoggingContext("nsquota", "app", "flw1", "flwt", "run", "instance");
+    LoggingContext context2 = new FlowletLoggingContext("nsquota", "app", "flw2", "flwt", "run", "instance");
+    Location nsDir = namespacedLocationFactory.get(Id.Namespace.from("nsquota")).append(logBaseDir).append("app");
+    Location file11 = writeFile(fileMetaDataManager, context1, 1, nsDir.append("flw1/1.avro"), now - 50000, 100);
+    Location file12 = writeFile(fileMetaDataManager, context1, 2, nsDir.append("flw1/2.avro"), now - 30000, 100);
+    Location file13 = writeFile(fileMetaDataManager, context1, 3, nsDir.append("flw1/3.avro"), now - 10000, 100);
+    Location file21 = writeFile(fileMetaDataManager, context2, 1, nsDir.append("flw2/1.avro"), now - 40000, 100);
+    Location file22 = writeFile(fileMetaDataManager, context2, 2, nsDir.append("flw2/2.avro"), now - 20000, 100);
+
+    // A partition with a quota of 250 bytes
+    LoggingContext context3 = new FlowletLoggingContext("partquota", "app", "flw3", "flwt", "run", "instance");
+    Location partDir = namespacedLocationFactory.get(Id.Namespace.from("partquota")).append(logBaseDir).append("app");
+    List<Location> partFiles = new ArrayList<>();
+    for (int i = 1; i <= 4; i++) {
+      // Newer start times have older files, as a partition quota deletes by start time
+      partFiles.add(writeFile(fileMetaDataManager, context3, i, partDir.append("flw3/" + i + ".avro"),
+                              now - 10000 * i, 100));
+    }
+
+    CConfiguration cConf = CConfiguration.create();
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES + ".nsquota", 300);
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES + ".partquota.app.flw3", 250);
+    LogCleanup logCleanup = new LogCleanup(fileMetaDataManager, rootLocationFactory, LogRetentionPolicy.create(cConf),
+                                           impersonator, 4, new NoopMetricsContext(), null);
+    logCleanup.run();
+
+    // The least recently modified files of the namespace are deleted, across partitions
+    Assert.assertFalse(file11.exists());
+    Assert.assertFalse(file21.exists());
+    Assert.assertTrue(file12.exists());
+    Assert.assertTrue(file13.exists());
+    Assert.assertTrue(file22.exists());
+    Assert.assertEquals(ImmutableList.of(file12, file13),
+                        ImmutableList.copyOf(fileMetaDataManager.listFiles(context1).values()));
+    Assert.assertEquals(ImmutableList.of(file22),
+                        ImmutableList.copyOf(fileMetaDataManager.listFiles(context2).values()));
+
+    // The files with the lowest start times of the partition are deleted
+    Assert.assertFalse(partFiles.get(0).exists());
+    Assert.assertFalse(partFiles.get(1).exists());
+    Assert.assertTrue(partFiles.get(2).exists());
+    Assert.assertTrue(partFiles.get(3).exists());
+    Assert.assertEquals(partFiles.subList(2, 4),
+                        ImmutableList.copyOf(fileMetaDataManager.listFiles(context3).values()));
+
+    // The newest file of a partition is never deleted for a quota
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES + ".nsquota", 0);
+    new LogCleanup(fileMetaDataManager, rootLocationFactory, LogRetentionPolicy.create(cConf),
+                   impersonator, 4, new NoopMetricsContext(), null).run();
+    Assert.assertFalse(file12.exists());
+    Assert.assertTrue(file13.exists());
+    Assert.assertTrue(file22.exists());
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    FileMetaDataManager fileMetaDataManager = injector.getInstance(FileMetaDataManager.class);
+    NamespacedLocationFactory namespacedLocationFactory = injector.getInstance(NamespacedLocationFactory.class);
+    Schema schema = new LogSchema().getAvroSchema();
+    AvroFileWriter avroFileWriter = new AvroFileWriter(fileMetaDataManager, namespacedLocationFactory, logBaseDir,
+                                                       schema, 1024 * 1024, 1024, 1000, impersonator);
+    long inactiveIntervalMs = TimeUnit.MINUTES.toMillis(10);
+    long inactiveTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+
+    LoggingContext context = new FlowletLoggingContext("nsmerge", "app", "flw", "flwt", "run", "instance");
+    Location dir = namespacedLocationFactory.get(Id.Namespace.from("nsmerge")).append(logBaseDir)
+      .append("app").append("flw");
+    // Four inactive files and the newest file of the partition, which is never merged
+    List<Location> files = new ArrayList<>();
+    List<String> messages = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      List<String> fileMessages = new ArrayList<>();
+      for (int j = 0; j < 10; j++) {
+        fileMessages.add("message " + i + "-" + j);
+      }
+      Location location = dir.append(i + ".avro");
+      writeAvroFile(avroFileWriter, schema, context, location, inactiveTime, fileMessages);
+      fileMetaDataManager.writeMetaData(context, i * 100, location);
+      Assert.assertTrue(new File(location.toURI()).setLastModified(inactiveTime));
+      files.add(location);
+      if (i < 4) {
+        messages.addAll(fileMessages);
+      }
+    }
+    // A merged file left behind without meta data by an interrupted merge
+    Location orphan = createFile(dir.append("0-" + inactiveTime + ".avro"), inactiveTime);
+
+    LogFileMerger logFileMerger = new LogFileMerger(avroFileWriter, fileMetaDataManager, 1024 * 1024,
+                                                    10 * 1024 * 1024, inactiveIntervalMs);
+    LogCleanup logCleanup = new LogCleanup(fileMetaDataManager, rootLocationFactory, new LogRetentionPolicy(
+      TimeUnit.DAYS.toMillis(1)), impersonator, 4, new NoopMetricsContext(), logFileMerger);
+    logCleanup.run();
+
+    Assert.assertFalse(orphan.exists());
+    for (Location location : files.subList(0, 4)) {
+      Assert.assertFalse("Location " + location + " is not deleted!", location.exists());
+      Assert.assertFalse(LogFileIndex.getIndexLocation(location).exists());
+    }
+    Assert.assertTrue(files.get(4).exists());
+
+    // The merged file replaces the merged files in the meta data and keeps the start time of the first file
+    NavigableMap<Long, Location> remaining = fileMetaDataManager.listFiles(context);
+    Assert.assertEquals(ImmutableList.of(0L, 400L), ImmutableList.copyOf(remaining.keySet()));
+    Location merged = remaining.get(0L);
+    Assert.assertEquals(files.get(4), remaining.get(400L));
+    Assert.assertTrue(LogFileIndex.getIndexLocation(merged).exists());
+    Assert.assertEquals(messages, readMessages(merged));
+
+    // Nothing is left to merge
+    logCleanup.run();
+    Assert.assertEquals(remaining, fileMetaDataManager.listFiles(context));
+    Assert.assertTrue(merged.exists());
+  }
+
+  @Test
+  public void testMergedFileRetention() throws Exception {
+    FileMetaDataManager fileMetaDataManager = injector.getInstance(FileMetaDataManager.class);
+    NamespacedLocationFactory namespacedLocationFactory = injector.getInstance(NamespacedLocationFactory.class);
+    Schema schema = new LogSchema().getAvroSchema();
+    AvroFileWriter avroFileWriter = new AvroFileWriter(fileMetaDataManager, namespacedLocationFactory, logBaseDir,
+                                                       schema, 1024 * 1024, 1024, 1000, impersonator);
+    LogFileMerger logFileMerger = new LogFileMerger(avroFileWriter, fileMetaDataManager, 1024 * 1024,
+                                                    10 * 1024 * 1024, TimeUnit.MINUTES.toMillis(10));
+    long now = System.currentTimeMillis();
+    long eventTime = now - TimeUnit.HOURS.toMillis(2);
+
+    LoggingContext context = new FlowletLoggingContext("nsmergeret", "app", "flw", "flwt", "run", "instance");
+    Location dir = namespacedLocationFactory.get(Id.Namespace.from("nsmergeret")).append(logBaseDir)
+      .append("app").append("flw");
+    // Two old files and the newest file of the partition
+    List<Location> files = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      files.add(writeLogFile(fileMetaDataManager, avroFileWriter, schema, context, dir.append(i + ".avro"),
+                             eventTime + i));
+    }
+    Location newest = writeLogFile(fileMetaDataManager, avroFileWriter, schema, context, dir.append("newest.avro"),
+                                   now);
+
+    LogRetentionPolicy retentionPolicy = new LogRetentionPolicy(TimeUnit.HOURS.toMillis(3));
+    new LogCleanup(fileMetaDataManager, rootLocationFactory, retentionPolicy, impersonator, 4,
+                   new NoopMetricsContext(), logFileMerger).run();
+    NavigableMap<Long, Location> remaining = fileMetaDataManager.listFiles(context);
+    Assert.assertEquals(ImmutableList.of(eventTime, now), ImmutableList.copyOf(remaining.keySet()));
+    Location merged = remaining.get(eventTime);
+    Assert.assertTrue(LogFileMerger.isMergedFile(merged));
+    Assert.assertFalse(files.get(0).exists());
+    Assert.assertFalse(files.get(1).exists());
+
+    // The merged file is not merged again with the following small file
+    Location file = writeLogFile(fileMetaDataManager, avroFileWriter, schema, context, dir.append("2.avro"),
+                                 eventTime + 2);
+    new LogCleanup(fileMetaDataManager, rootLocationFactory, retentionPolicy, impersonator, 4,
+                   new NoopMetricsContext(), logFileMerger).run();
+    Assert.assertEquals(ImmutableList.of(merged, file, newest),
+                        ImmutableList.copyOf(fileMetaDataManager.listFiles(context).values()));
+
+    // The merged file expires with its newest event, although it was just modified
+    new LogCleanup(fileMetaDataManager, rootLocationFactory, new LogRetentionPolicy(TimeUnit.HOURS.toMillis(1)),
+                   impersonator, 4, new NoopMetricsContext(), logFileMerger).run();
+    Assert.assertFalse(merged.exists());
+    Assert.assertFalse(file.exists());
+    Assert.assertEquals(ImmutableList.of(newest),
+                        ImmutableList.copyOf(fileMetaDataManager.listFiles(context).values()));
+  }
+
   @Test
   public void testDeleteEmptyDir1() throws Exception {
     // Create base dir
@@ -349,6 +534,65 @@ public class LogCleanupTest {
     return path;
   }
 
+  private Location writeFile(FileMetaDataManager fileMetaDataManager, LoggingContext context, long startTime,
+                             Location path, long modTime, int length) throws Exception {
+    Location parent = Locations.getParent(path);
+    Assert.assertNotNull(parent);
+    parent.mkdirs();
+
+    try (OutputStream os = path.getOutputStream()) {
+      os.write(new byte[length]);
+    }
+    Assert.assertTrue(new File(path.toURI()).setLastModified(modTime));
+    fileMetaDataManager.writeMetaData(context, startTime, path);
+    return path;
+  }
+
+  private Location writeLogFile(FileMetaDataManager fileMetaDataManager, AvroFileWriter avroFileWriter, Schema schema,
+                                LoggingContext context, Location location, long timestamp) throws Exception {
+    writeAvroFile(avroFileWriter, schema, context, location, timestamp, ImmutableList.of("message " + timestamp));
+    fileMetaDataManager.writeMetaData(context, timestamp, location);
+    Assert.assertTrue(new File(location.toURI()).setLastModified(timestamp));
+    return location;
+  }
+
+  private void writeAvroFile(AvroFileWriter avroFileWriter, Schema schema, LoggingContext context,
+                             Location location, long timestamp, List<String> messages) throws Exception {
+    Location parent = Locations.getParent(location);
+    Assert.assertNotNull(parent);
+    parent.mkdirs();
+
+    AvroFileWriter.AvroFile avroFile = avroFileWriter.openFile(location);
+    try {
+      for (String message : messages) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.INFO);
+        event.setLoggerName(LogCleanupTest.class.getName());
+        event.setThreadName(Thread.currentThread().getName());
+        event.setMessage(message);
+        event.setTimeStamp(timestamp);
+        event.setMDCPropertyMap(ImmutableMap.<String, String>of());
+        event.setCallerData(new StackTraceElement[0]);
+        avroFile.append(co.cask.cdap.logging.serialize.LoggingEvent.encode(schema, event, context), event);
+      }
+      avroFile.flush();
+    } finally {
+      avroFile.close();
+    }
+  }
+
+  private List<String> readMessages(Location location) throws Exception {
+    List<String> messages = new ArrayList<>();
+    try (DataFileStream<GenericRecord> dataFileStream =
+           new DataFileStream<>(location.getInputStream(), new GenericDatumReader<GenericRecord>())) {
+      for (GenericRecord record : dataFileStream) {
+        ILoggingEvent event = co.cask.cdap.logging.serialize.LoggingEvent.decode(record);
+        messages.add(event.getMessage());
+      }
+    }
+    return messages;
+  }
+
   private Location createDir(Location path) throws Exception {
     path.mkdirs();
     return path;
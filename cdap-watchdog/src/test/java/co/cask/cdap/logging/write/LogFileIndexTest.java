@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.write;
+
+import ch.qos.logback.classic.Level;
+import org.apache.twill.filesystem.LocalLocationFactory;
+import org.apache.twill.filesystem.Location;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.util.List;
+
+/**
+ * Test for {@link LogFileIndex}.
+ */
+public class LogFileIndexTest {
+
+  @ClassRule
+  public static final TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+  @Test
+  public void testReadWrite() throws Exception {
+    Location logFile = new LocalLocationFactory(TEMP_FOLDER.newFolder()).create("1000.avro");
+
+    // No index
+    Assert.assertTrue(LogFileIndex.read(logFile, 1000).isEmpty());
+
+    try (DataOutputStream output = new DataOutputStream(LogFileIndex.getIndexLocation(logFile).getOutputStream())) {
+      LogFileIndex.write(output, new LogFileIndex.Segment(10, 100, 1000, 1200, Level.INFO_INT));
+      LogFileIndex.write(output, new LogFileIndex.Segment(100, 250, 1150, 1300, Level.ERROR_INT));
+      LogFileIndex.write(output, new LogFileIndex.Segment(250, 400, 1300, 1500, Level.DEBUG_INT));
+      // A partially written entry
+      output.writeLong(400);
+    }
+    Assert.assertEquals("1000.avro" + LogFileIndex.SUFFIX, LogFileIndex.getIndexLocation(logFile).getName());
+
+    List<LogFileIndex.Segment> segments = LogFileIndex.read(logFile, 1000);
+    Assert.assertEquals(3, segments.size());
+    Assert.assertEquals(100, segments.get(1).getStart());
+    Assert.assertEquals(250, segments.get(1).getEnd());
+    Assert.assertEquals(1150, segments.get(1).getMinTimestamp());
+    Assert.assertEquals(1300, segments.get(1).getMaxTimestamp());
+    Assert.assertEquals(Level.ERROR_INT, segments.get(1).getMaxLevel());
+
+    // Segments beyond the length of the log file are ignored
+    segments = LogFileIndex.read(logFile, 300);
+    Assert.assertEquals(2, segments.size());
+    Assert.assertEquals(250, segments.get(1).getEnd());
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.write;
+
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.logging.LoggingConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link LogRetentionPolicy}.
+ */
+public class LogRetentionPolicyTest {
+
+  @Test
+  public void testOverrides() {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_DURATION_DAYS, 7);
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_DURATION_DAYS + ".ns1", 3);
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_DURATION_DAYS + ".ns1.app1.flow1", 1);
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES, 1000);
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES + ".ns2", 5000);
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_QUOTA_BYTES + ".ns1.app1.flow1", 100);
+
+    LogRetentionPolicy policy = LogRetentionPolicy.create(cConf);
+
+    Assert.assertEquals(TimeUnit.DAYS.toMillis(1), policy.getRetentionMs("ns1:app1:flow1"));
+    Assert.assertEquals(TimeUnit.DAYS.toMillis(3), policy.getRetentionMs("ns1:app1:flow2"));
+    Assert.assertEquals(TimeUnit.DAYS.toMillis(7), policy.getRetentionMs("ns2:app1:flow1"));
+
+    Assert.assertEquals(100, policy.getQuotaBytes("ns1:app1:flow1"));
+    Assert.assertTrue(policy.getQuotaBytes("ns1:app1:flow2") < 0);
+
+    Assert.assertEquals(1000, policy.getNamespaceQuotaBytes("ns1"));
+    Assert.assertEquals(5000, policy.getNamespaceQuotaBytes("ns2"));
+  }
+
+  @Test
+  public void testDefaults() {
+    LogRetentionPolicy policy = new LogRetentionPolicy(1000);
+    Assert.assertEquals(1000, policy.getRetentionMs("ns1:app1:flow1"));
+    Assert.assertTrue(policy.getQuotaBytes("ns1:app1:flow1") < 0);
+    Assert.assertTrue(policy.getNamespaceQuotaBytes("ns1") < 0);
+    Assert.assertEquals("ns1", LogRetentionPolicy.getNamespace("ns1:app1:flow1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRetention() {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.setLong(LoggingConfiguration.LOG_RETENTION_DURATION_DAYS + ".ns1", 0);
+    LogRetentionPolicy.create(cConf);
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.cdap.logging.write;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import co.cask.cdap.common.logging.ApplicationLoggingContext;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.twill.filesystem.LocalLocationFactory;
+import org.apache.twill.filesystem.Location;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Test for {@link LogTermIndex}.
+ */
+public class LogTermIndexTest {
+
+  @ClassRule
+  public static final TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+  @Test
+  public void testTerms() {
+    Assert.assertEquals(ImmutableSet.of("java", "io", "ioexception", "disk", "full"),
+                        LogTermIndex.getTerms("java.io.IOException: Disk  full!"));
+    // Single characters are not terms
+    Assert.assertEquals(ImmutableSet.of("retry", "of"), LogTermIndex.getTerms("Retry 1 of 3"));
+    Assert.assertTrue(LogTermIndex.getTerms("- ? !").isEmpty());
+
+    LoggingEvent event = createEvent("Failed to write partition", "run1", new IOException("Disk full"));
+    Assert.assertEquals(ImmutableSet.of("failed", "to", "write", "partition", "java", "io", "ioexception",
+                                        "disk", "full"),
+                        LogTermIndex.getEventTerms(event));
+  }
+
+  @Test
+  public void testReadWrite() throws Exception {
+    Location logFile = new LocalLocationFactory(TEMP_FOLDER.newFolder()).create("1000.avro");
+
+    // No index
+    Assert.assertNull(LogTermIndex.read(logFile, 1000));
+
+    LogTermIndex.Builder builder = new LogTermIndex.Builder();
+    try (DataOutputStream output = new DataOutputStream(LogTermIndex.getIndexLocation(logFile).getOutputStream())) {
+      builder.add(createEvent("Starting flowlet", "run1", null));
+      builder.add(createEvent("Failed to process", "run1", new IllegalStateException("Queue is closed")));
+      LogTermIndex.write(output, builder.build(10, 100, 1000, 1200));
+
+      builder.add(createEvent("Starting flowlet", "run2", null));
+      LogTermIndex.write(output, builder.build(100, 250, 1300, 1500));
+
+      builder.add(createEvent("Stopping flowlet", "run2", null));
+      LogTermIndex.write(output, builder.build(250, 400, 1600, 1700));
+      // A partially written entry
+      output.writeInt(100);
+      output.writeLong(400);
+    }
+    Assert.assertEquals("1000.avro" + LogTermIndex.SUFFIX, LogTermIndex.getIndexLocation(logFile).getName());
+
+    List<LogTermIndex.Entry> entries = LogTermIndex.read(logFile, 1000);
+    Assert.assertEquals(3, entries.size());
+    Assert.assertEquals(10, entries.get(0).getStart());
+    Assert.assertEquals(100, entries.get(0).getEnd());
+    Assert.assertEquals(1000, entries.get(0).getMinTimestamp());
+    Assert.assertEquals(1200, entries.get(0).getMaxTimestamp());
+    Assert.assertEquals(ImmutableSet.of("run1"), entries.get(0).getRunIds());
+    Assert.assertEquals(ImmutableSet.of("run2"), entries.get(1).getRunIds());
+
+    int[] hashes = LogTermIndex.hashAll(LogTermIndex.getTerms("IllegalStateException: queue closed"));
+    Assert.assertTrue(entries.get(0).mayContainAll(hashes));
+    Assert.assertFalse(entries.get(1).mayContainAll(hashes));
+    Assert.assertFalse(entries.get(2).mayContainAll(hashes));
+
+    hashes = LogTermIndex.hashAll(LogTermIndex.getTerms("starting"));
+    Assert.assertTrue(entries.get(0).mayContainAll(hashes));
+    Assert.assertTrue(entries.get(1).mayContainAll(hashes));
+    Assert.assertFalse(entries.get(2).mayContainAll(hashes));
+
+    // Entries beyond the length of the log file are ignored
+    entries = LogTermIndex.read(logFile, 300);
+    Assert.assertEquals(2, entries.size());
+  }
+
+  @Test
+  public void testBuilderGrowth() {
+    LogTermIndex.Builder builder = new LogTermIndex.Builder();
+    for (int i = 0; i < 1000; i++) {
+      builder.add(createEvent("term" + i + " common", null, null));
+    }
+    LogTermIndex.Entry entry = builder.build(0, 100, 0, 100);
+    Assert.assertTrue(entry.getRunIds().isEmpty());
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertTrue(entry.mayContainAll(LogTermIndex.hashAll(ImmutableSet.of("term" + i, "common"))));
+    }
+  }
+
+  private LoggingEvent createEvent(String message, String runId, Throwable throwable) {
+    LoggingEvent event = new LoggingEvent();
+    event.setLevel(Level.INFO);
+    event.setMessage(message);
+    event.setTimeStamp(1000L);
+    event.setMDCPropertyMap(runId == null ? ImmutableMap.<String, String>of()
+                              : ImmutableMap.of(ApplicationLoggingContext.TAG_RUN_ID, runId));
+    if (throwable != null) {
+      event.setThrowableProxy(new ThrowableProxy(throwable));
+    }
+    return event;
+  }
+}
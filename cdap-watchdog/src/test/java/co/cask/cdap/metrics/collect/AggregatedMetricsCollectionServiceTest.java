@@ -15,6 +15,7 @@
  */
 package co.cask.cdap.metrics.collect;
 
+import co.cask.cdap.api.metrics.MetricCounter;
 import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsContext;
@@ -31,6 +32,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -155,6 +157,53 @@ public class AggregatedMetricsCollectionServiceTest {
     }
   }
 
+  @Test
+  public void testCounterHandle() throws Exception {
+    final BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+    AggregatedMetricsCollectionService service = new AggregatedMetricsCollectionService() {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        Iterators.addAll(published, metrics);
+      }
+    };
+
+    MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+    // the same context is returned for the same tags
+    Assert.assertSame(context, service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE)));
+
+    // increment a counter handle concurrently, as well as the same metric by name
+    final MetricCounter counter = context.getCounter(METRIC);
+    int threads = 8;
+    final int increments = 10000;
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < increments; j++) {
+            counter.increment(1);
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    context.increment(METRIC, 5);
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    service.runOneIteration();
+    MetricValues record = published.poll();
+    Assert.assertNotNull(record);
+    Assert.assertEquals(threads * increments + 5L, getMetricValue(record.getMetrics(), METRIC));
+    Assert.assertNull(published.poll());
+
+    // the handle stays valid after publishing
+    counter.increment(3);
+    service.runOneIteration();
+    record = published.poll();
+    Assert.assertNotNull(record);
+    Assert.assertEquals(3L, getMetricValue(record.getMetrics(), METRIC));
+  }
+
   private void verifyCounterMetricsValue(MetricValues metricValues) {
     Assert.assertNotNull(metricValues);
     Map<String, String> tags = metricValues.getTags();
@@ -30,6 +30,7 @@ import co.cask.cdap.test.SlowTests;
 import co.cask.common.io.ByteBufferInputStream;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Table;
@@ -56,10 +57,12 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -119,6 +122,47 @@ public class KafkaMetricsCollectionServiceTest {
     assertMetricsFromKafka(kafkaClient, schema, metricValueType, expected);
   }
 
+  @Test
+  public void testKafkaPublishBatch() throws UnsupportedTypeException, InterruptedException, IOException {
+    Properties kafkaConfig = generateKafkaConfig(tmpFolder1);
+    kafkaServer = new EmbeddedKafkaServer(kafkaConfig);
+    kafkaServer.startAndWait();
+
+    ZKClientService zkClient = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+    zkClient.startAndWait();
+
+    KafkaClientService kafkaClient = new ZKKafkaClientService(zkClient);
+    kafkaClient.startAndWait();
+
+    final TypeToken<MetricValues> metricValueType = TypeToken.of(MetricValues.class);
+    final Schema schema = new ReflectionSchemaGenerator().generate(metricValueType.getType());
+    DatumWriter<MetricValues> metricRecordDatumWriter = new ASMDatumWriterFactory(new ASMFieldAccessorFactory())
+      .create(metricValueType, schema);
+
+    // batches of at most two records, so that the records of the three contexts need more than one message
+    MetricsCollectionService collectionService = new KafkaMetricsCollectionService(kafkaClient, "metrics",
+                                                                                   KafkaPublisher.Ack.FIRE_AND_FORGET,
+                                                                                   metricRecordDatumWriter, 1, 2, true);
+    collectionService.startAndWait();
+
+    for (int i = 1; i <= 3; i++) {
+      collectionService.getContext(ImmutableMap.of("tag", "" + i)).increment("processed", i);
+    }
+
+    // Sleep to make sure metrics get published
+    TimeUnit.SECONDS.sleep(2);
+
+    collectionService.stopAndWait();
+
+    // <Context, metricName, value>
+    Table<String, String, Long> expected = HashBasedTable.create();
+    expected.put("tag.1", "processed", 1L);
+    expected.put("tag.2", "processed", 2L);
+    expected.put("tag.3", "processed", 3L);
+
+    Assert.assertTrue(assertMetricsFromKafka(kafkaClient, schema, metricValueType, expected) > 0);
+  }
+
   @Test
   public void testRecoverFromStoppedKafkaServerAtStartUp() throws InterruptedException, UnsupportedTypeException,
     IOException {
@@ -161,13 +205,17 @@ public class KafkaMetricsCollectionServiceTest {
     assertMetricsFromKafka(kafkaClient, schema, metricRecordType, expected);
   }
 
-  private void assertMetricsFromKafka(KafkaClientService kafkaClient, final Schema schema,
-                                      final TypeToken<MetricValues> metricRecordType,
-                                      Table<String, String, Long> expected) throws InterruptedException {
+  /**
+   * Verifies the metrics published to Kafka and returns the number of batched messages among them.
+   */
+  private int assertMetricsFromKafka(KafkaClientService kafkaClient, final Schema schema,
+                                     final TypeToken<MetricValues> metricRecordType,
+                                     Table<String, String, Long> expected) throws InterruptedException {
 
     // Consume from kafka
     final Map<String, MetricValues> metrics = Maps.newHashMap();
     final Semaphore semaphore = new Semaphore(0);
+    final AtomicInteger batches = new AtomicInteger();
     kafkaClient.getConsumer().prepare().addFromBeginning("metrics", 0)
                                        .consume(new KafkaConsumer.MessageCallback() {
 
@@ -178,20 +226,28 @@ public class KafkaMetricsCollectionServiceTest {
         try {
           while (messages.hasNext()) {
             ByteBuffer payload = messages.next().getPayload();
-            MetricValues metricsRecord = reader.read(new BinaryDecoder(new ByteBufferInputStream(payload)), schema);
-            StringBuilder flattenContext = new StringBuilder();
-            // for verifying expected results, sorting tags
-            Map<String, String> tags = Maps.newTreeMap();
-            tags.putAll(metricsRecord.getTags());
-            for (Map.Entry<String, String> tag : tags.entrySet()) {
-              flattenContext.append(tag.getKey()).append(".").append(tag.getValue()).append(".");
+            List<MetricValues> records;
+            if (MetricsBatchCodec.isBatch(payload)) {
+              records = MetricsBatchCodec.decode(payload);
+              batches.incrementAndGet();
+            } else {
+              records = ImmutableList.of(reader.read(new BinaryDecoder(new ByteBufferInputStream(payload)), schema));
             }
-            // removing trailing "."
-            if (flattenContext.length() > 0) {
-              flattenContext.deleteCharAt(flattenContext.length() - 1);
+            for (MetricValues metricsRecord : records) {
+              StringBuilder flattenContext = new StringBuilder();
+              // for verifying expected results, sorting tags
+              Map<String, String> tags = Maps.newTreeMap();
+              tags.putAll(metricsRecord.getTags());
+              for (Map.Entry<String, String> tag : tags.entrySet()) {
+                flattenContext.append(tag.getKey()).append(".").append(tag.getValue()).append(".");
+              }
+              // removing trailing "."
+              if (flattenContext.length() > 0) {
+                flattenContext.deleteCharAt(flattenContext.length() - 1);
+              }
+              metrics.put(flattenContext.toString(), metricsRecord);
+              semaphore.release();
             }
-            metrics.put(flattenContext.toString(), metricsRecord);
-            semaphore.release();
           }
         } catch (Exception e) {
           LOG.error("Error in consume", e);
@@ -229,6 +285,7 @@ public class KafkaMetricsCollectionServiceTest {
 
     // Finished on the callback should get called.
     Assert.assertTrue(semaphore.tryAcquire(1, 5, TimeUnit.SECONDS));
+    return batches.get();
   }
 
   @Before
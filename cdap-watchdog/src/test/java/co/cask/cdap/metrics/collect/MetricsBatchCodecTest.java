@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.collect;
+
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.common.io.Encoder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for {@link MetricsBatchCodec}.
+ */
+public class MetricsBatchCodecTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Map<String, String> tagsWithNull = new HashMap<>();
+    tagsWithNull.put("ns", "default");
+    tagsWithNull.put("run", null);
+
+    List<MetricValues> records = ImmutableList.of(
+      new MetricValues(ImmutableMap.of("ns", "default", "app", "purchase"), 1000L,
+                       ImmutableList.of(new MetricValue("processed", MetricType.COUNTER, 10L),
+                                        new MetricValue("buffer", MetricType.GAUGE, -5L))),
+      new MetricValues(ImmutableMap.of("ns", "default", "app", "purchase"), 1001L,
+                       ImmutableList.of(new MetricValue("processed", MetricType.COUNTER, 7L),
+                                        new MetricValue("buffer", MetricType.GAUGE, Long.MAX_VALUE))),
+      new MetricValues(tagsWithNull, 999L, ImmutableList.of(new MetricValue("processed", MetricType.COUNTER, 1L))),
+      new MetricValues(Collections.<String, String>emptyMap(), 1002L, ImmutableList.<MetricValue>of())
+    );
+
+    verify(records, MetricsBatchCodec.encode(records, false));
+    verify(records, MetricsBatchCodec.encode(records, true));
+  }
+
+  @Test
+  public void testSize() throws Exception {
+    // Records of the same context and metrics should take few bytes each, instead of repeating all strings
+    List<MetricValues> records = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      records.add(new MetricValues(ImmutableMap.of("namespace", "default", "app", "PurchaseHistory",
+                                                   "flow", "PurchaseFlow", "flowlet", "collector"),
+                                   "system.process.events.processed", 1451606400L + i, 100 + i, MetricType.COUNTER));
+    }
+    byte[] encoded = MetricsBatchCodec.encode(records, false);
+    Assert.assertTrue("Encoded size " + encoded.length, encoded.length < 100 * 20);
+    verify(records, encoded);
+  }
+
+  @Test
+  public void testIsBatch() throws Exception {
+    Assert.assertFalse(MetricsBatchCodec.isBatch(ByteBuffer.wrap(new byte[] { 2, 0, 0 })));
+    Assert.assertFalse(MetricsBatchCodec.isBatch(ByteBuffer.wrap(new byte[0])));
+
+    byte[] encoded = MetricsBatchCodec.encode(ImmutableList.<MetricValues>of(), false);
+    ByteBuffer buffer = ByteBuffer.wrap(encoded);
+    Assert.assertTrue(MetricsBatchCodec.isBatch(buffer));
+    Assert.assertTrue(MetricsBatchCodec.decode(buffer).isEmpty());
+    // position is not changed
+    Assert.assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void testInvalidIndexes() throws Exception {
+    // a valid message with a single record, "tag" -> "value" with metric "metric" of type COUNTER
+    Assert.assertEquals(1, MetricsBatchCodec.decode(createMessage(1, 0, 2, 2, MetricType.COUNTER.ordinal())).size());
+
+    // each corrupted count or index must fail the decoding with IOException
+    assertInvalid(createMessage(-1, 0, 2, 2, 0));
+    assertInvalid(createMessage(1, -1, 2, 2, 0));
+    assertInvalid(createMessage(1, 3, 2, 2, 0));
+    assertInvalid(createMessage(1, 0, 4, 2, 0));
+    assertInvalid(createMessage(1, 0, 2, 3, 0));
+    assertInvalid(createMessage(1, 0, 2, -1, 0));
+    assertInvalid(createMessage(1, 0, 2, 2, MetricType.values().length));
+  }
+
+  private void assertInvalid(ByteBuffer message) {
+    try {
+      MetricsBatchCodec.decode(message);
+      Assert.fail("Expected IOException for corrupted message");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Creates a message of a single record with a single tag and metric, referring to a dictionary of
+   * {@code "tag", "value", "metric"} with the given counts and indexes.
+   */
+  private ByteBuffer createMessage(int recordCount, int tagNameIdx, int tagValueIdx,
+                                   int metricNameIdx, int metricType) throws IOException {
+    // reuse the header of a valid uncompressed message
+    byte[] header = MetricsBatchCodec.encode(ImmutableList.<MetricValues>of(), false);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(header, 0, 4);
+
+    Encoder encoder = new BinaryEncoder(os);
+    encoder.writeInt(3);
+    encoder.writeString("tag");
+    encoder.writeString("value");
+    encoder.writeString("metric");
+    encoder.writeInt(recordCount);
+    if (recordCount > 0) {
+      encoder.writeLong(1000L);
+      encoder.writeInt(1);
+      encoder.writeInt(tagNameIdx);
+      encoder.writeInt(tagValueIdx);
+      encoder.writeInt(1);
+      encoder.writeInt(metricNameIdx);
+      encoder.writeInt(metricType);
+      encoder.writeLong(10L);
+    }
+    return ByteBuffer.wrap(os.toByteArray());
+  }
+
+  private void verify(List<MetricValues> expected, byte[] encoded) throws Exception {
+    List<MetricValues> decoded = MetricsBatchCodec.decode(ByteBuffer.wrap(encoded));
+    Assert.assertEquals(expected.size(), decoded.size());
+    for (int i = 0; i < expected.size(); i++) {
+      MetricValues expectedRecord = expected.get(i);
+      MetricValues decodedRecord = decoded.get(i);
+      Assert.assertEquals(expectedRecord.getTags(), decodedRecord.getTags());
+      Assert.assertEquals(expectedRecord.getTimestamp(), decodedRecord.getTimestamp());
+      List<MetricValue> expectedMetrics = ImmutableList.copyOf(expectedRecord.getMetrics());
+      List<MetricValue> decodedMetrics = ImmutableList.copyOf(decodedRecord.getMetrics());
+      Assert.assertEquals(expectedMetrics.size(), decodedMetrics.size());
+      for (int j = 0; j < expectedMetrics.size(); j++) {
+        Assert.assertEquals(expectedMetrics.get(j).getName(), decodedMetrics.get(j).getName());
+        Assert.assertEquals(expectedMetrics.get(j).getType(), decodedMetrics.get(j).getType());
+        Assert.assertEquals(expectedMetrics.get(j).getValue(), decodedMetrics.get(j).getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.process;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.metrics.Histograms;
+import co.cask.cdap.api.metrics.MetricDataQuery;
+import co.cask.cdap.api.metrics.MetricDeleteQuery;
+import co.cask.cdap.api.metrics.MetricSearchQuery;
+import co.cask.cdap.api.metrics.MetricStore;
+import co.cask.cdap.api.metrics.MetricTimeSeries;
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.TagValue;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.internal.io.ASMDatumWriterFactory;
+import co.cask.cdap.internal.io.ASMFieldAccessorFactory;
+import co.cask.cdap.internal.io.DatumReader;
+import co.cask.cdap.internal.io.DatumWriter;
+import co.cask.cdap.internal.io.ReflectionDatumReaderFactory;
+import co.cask.cdap.internal.io.ReflectionSchemaGenerator;
+import co.cask.cdap.metrics.collect.MetricsBatchCodec;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+import org.apache.twill.kafka.client.FetchedMessage;
+import org.apache.twill.kafka.client.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test for {@link MetricsMessageCallback}.
+ */
+public class MetricsMessageCallbackTest {
+
+  @Test
+  public void testAggregate() {
+    Map<String, String> tags1 = ImmutableMap.of("ns", "ns1", "app", "app1");
+    Map<String, String> tags2 = ImmutableMap.of("ns", "ns1", "app", "app2");
+
+    List<MetricValues> records = ImmutableList.of(
+      new MetricValues(tags1, "reads", 10, 1, MetricType.COUNTER),
+      new MetricValues(tags1, 10, ImmutableList.of(new MetricValue("reads", MetricType.COUNTER, 2),
+                                                   new MetricValue("queue", MetricType.GAUGE, 5))),
+      new MetricValues(tags1, "queue", 10, 3, MetricType.GAUGE),
+      // same tags in a different map instance
+      new MetricValues(Maps.newHashMap(tags1), "reads", 10, 4, MetricType.COUNTER),
+      // different timestamp
+      new MetricValues(tags1, "reads", 11, 8, MetricType.COUNTER),
+      // different tags
+      new MetricValues(tags2, "reads", 10, 16, MetricType.COUNTER)
+    );
+
+    List<MetricValues> aggregated = MetricsMessageCallback.aggregate(records);
+    Assert.assertEquals(3, aggregated.size());
+
+    verify(aggregated.get(0), tags1, 10, ImmutableMap.of("reads", 7L, "queue", 3L));
+    verify(aggregated.get(1), tags1, 11, ImmutableMap.of("reads", 8L));
+    verify(aggregated.get(2), tags2, 10, ImmutableMap.of("reads", 16L));
+  }
+
+  @Test
+  public void testAggregateHistogram() {
+    Map<String, String> tags = ImmutableMap.of("ns", "ns1");
+
+    List<MetricValues> records = ImmutableList.of(
+      new MetricValues(tags, 10, ImmutableList.of(
+        new MetricValue("latency", MetricType.HISTOGRAM, Histograms.encode(3, 2)),
+        new MetricValue("latency", MetricType.HISTOGRAM, Histograms.encode(17, 1)))),
+      new MetricValues(tags, "latency", 10, Histograms.encode(17, 4), MetricType.HISTOGRAM)
+    );
+
+    List<MetricValues> aggregated = MetricsMessageCallback.aggregate(records);
+    Assert.assertEquals(1, aggregated.size());
+
+    // buckets are aggregated separately
+    Map<Integer, Long> counts = Maps.newHashMap();
+    for (MetricValue value : aggregated.get(0).getMetrics()) {
+      Assert.assertEquals("latency", value.getName());
+      Assert.assertEquals(MetricType.HISTOGRAM, value.getType());
+      counts.put(Histograms.decodeBucket(value.getValue()), Histograms.decodeCount(value.getValue()));
+    }
+    Assert.assertEquals(ImmutableMap.of(3, 2L, 17, 5L), counts);
+  }
+
+  @Test
+  public void testAggregateDifferentTypes() {
+    Map<String, String> tags = ImmutableMap.of("ns", "ns1");
+
+    // a counter and a gauge of the same name, context and timestamp
+    List<MetricValues> records = ImmutableList.of(
+      new MetricValues(tags, "size", 10, 1, MetricType.COUNTER),
+      new MetricValues(tags, "size", 10, 5, MetricType.GAUGE),
+      new MetricValues(tags, "size", 10, 2, MetricType.COUNTER),
+      new MetricValues(tags, "size", 10, 3, MetricType.GAUGE)
+    );
+
+    List<MetricValues> aggregated = MetricsMessageCallback.aggregate(records);
+    Assert.assertEquals(1, aggregated.size());
+
+    // neither replaces the other, each is aggregated by its own type
+    Map<MetricType, Long> values = Maps.newHashMap();
+    for (MetricValue value : aggregated.get(0).getMetrics()) {
+      Assert.assertEquals("size", value.getName());
+      values.put(value.getType(), value.getValue());
+    }
+    Assert.assertEquals(ImmutableMap.of(MetricType.COUNTER, 3L, MetricType.GAUGE, 3L), values);
+  }
+
+  @Test
+  public void testPartitionsInParallel() throws Exception {
+    final TypeToken<MetricValues> recordType = TypeToken.of(MetricValues.class);
+    final Schema schema = new ReflectionSchemaGenerator().generate(recordType.getType());
+    DatumWriter<MetricValues> writer = new ASMDatumWriterFactory(new ASMFieldAccessorFactory()).create(recordType,
+                                                                                                         schema);
+    Supplier<DatumReader<MetricValues>> readerSupplier = new Supplier<DatumReader<MetricValues>>() {
+      @Override
+      public DatumReader<MetricValues> get() {
+        return new ReflectionDatumReaderFactory().create(recordType, schema);
+      }
+    };
+
+    // messages of several partitions, both single records and batches, with the tags of a partition each
+    int partitions = 4;
+    int messages = 100;
+    List<FetchedMessage> fetched = Lists.newArrayList();
+    for (int i = 0; i < messages; i++) {
+      for (int partition = 0; partition < partitions; partition++) {
+        Map<String, String> tags = ImmutableMap.of("app", "app" + partition);
+        MetricValues record = new MetricValues(tags, "reads", 10 + i % 3, partition + 1, MetricType.COUNTER);
+        ByteBuffer payload;
+        if (i % 2 == 0) {
+          ByteArrayOutputStream os = new ByteArrayOutputStream();
+          writer.encode(record, new BinaryEncoder(os));
+          payload = ByteBuffer.wrap(os.toByteArray());
+        } else {
+          payload = ByteBuffer.wrap(MetricsBatchCodec.encode(ImmutableList.of(record, record), false));
+        }
+        fetched.add(new TestMessage(new TopicPartition("metrics", partition), payload, i + 1));
+      }
+    }
+
+    TotalsMetricStore metricStore = new TotalsMetricStore();
+    ExecutorService executor = Executors.newFixedThreadPool(partitions);
+    MetricsMessageCallback callback = new MetricsMessageCallback(readerSupplier, schema, metricStore, null, executor);
+    // in several fetches, to reuse the readers of the partitions
+    callback.onReceived(fetched.subList(0, fetched.size() / 2).iterator());
+    callback.onReceived(fetched.subList(fetched.size() / 2, fetched.size()).iterator());
+    callback.finished();
+
+    // half of the messages are batches of two records
+    for (int partition = 0; partition < partitions; partition++) {
+      Assert.assertEquals((long) (partition + 1) * messages * 3 / 2,
+                          metricStore.getTotal(ImmutableMap.of("app", "app" + partition), "reads"));
+    }
+    Assert.assertEquals((long) partitions * messages * 3 / 2,
+                        metricStore.getTotal(ImmutableMap.<String, String>of(), "metrics.process.count"));
+  }
+
+  private void verify(MetricValues record, Map<String, String> tags, long timestamp, Map<String, Long> expected) {
+    Assert.assertEquals(tags, record.getTags());
+    Assert.assertEquals(timestamp, record.getTimestamp());
+    Map<String, Long> values = Maps.newHashMap();
+    for (MetricValue value : record.getMetrics()) {
+      values.put(value.getName(), value.getValue());
+    }
+    Assert.assertEquals(expected, values);
+  }
+
+  /**
+   * A {@link FetchedMessage} of a given partition.
+   */
+  private static final class TestMessage implements FetchedMessage {
+
+    private final TopicPartition topicPartition;
+    private final ByteBuffer payload;
+    private final long nextOffset;
+
+    TestMessage(TopicPartition topicPartition, ByteBuffer payload, long nextOffset) {
+      this.topicPartition = topicPartition;
+      this.payload = payload;
+      this.nextOffset = nextOffset;
+    }
+
+    @Override
+    public TopicPartition getTopicPartition() {
+      return topicPartition;
+    }
+
+    @Override
+    public ByteBuffer getPayload() {
+      return payload;
+    }
+
+    @Override
+    public long getNextOffset() {
+      return nextOffset;
+    }
+  }
+
+  /**
+   * A {@link MetricStore} that keeps the totals of counters by tags and name, and fails on concurrent writes.
+   */
+  private static final class TotalsMetricStore implements MetricStore {
+
+    private final Map<Map<String, String>, Map<String, Long>> totals = Maps.newHashMap();
+    private boolean writing;
+
+    long getTotal(Map<String, String> tags, String name) {
+      Map<String, Long> values = totals.get(tags);
+      Long total = values == null ? null : values.get(name);
+      return total == null ? 0L : total;
+    }
+
+    @Override
+    public void setMetricsContext(MetricsContext metricsContext) {
+      // no-op
+    }
+
+    @Override
+    public void add(MetricValues metricValues) throws Exception {
+      add(ImmutableList.of(metricValues));
+    }
+
+    @Override
+    public void add(Collection<? extends MetricValues> metricValues) throws Exception {
+      synchronized (this) {
+        Assert.assertFalse("Concurrent writes to the metric store", writing);
+        writing = true;
+      }
+      try {
+        for (MetricValues record : metricValues) {
+          Map<String, Long> values = totals.get(record.getTags());
+          if (values == null) {
+            values = Maps.newHashMap();
+            totals.put(record.getTags(), values);
+          }
+          for (MetricValue value : record.getMetrics()) {
+            if (value.getType() == MetricType.COUNTER) {
+              Long total = values.get(value.getName());
+              values.put(value.getName(), (total == null ? 0L : total) + value.getValue());
+            }
+          }
+        }
+      } finally {
+        synchronized (this) {
+          writing = false;
+        }
+      }
+    }
+
+    @Override
+    public Collection<MetricTimeSeries> query(MetricDataQuery query) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteBefore(long timestamp) throws Exception {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(MetricDeleteQuery query) throws Exception {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteAll() throws Exception {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<TagValue> findNextAvailableTags(MetricSearchQuery query) throws Exception {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<String> findMetricNames(MetricSearchQuery query) throws Exception {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2016 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.store;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.api.metrics.Histograms;
+import co.cask.cdap.api.metrics.MetricDataQuery;
+import co.cask.cdap.api.metrics.MetricSearchQuery;
+import co.cask.cdap.api.metrics.MetricTimeSeries;
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.api.metrics.TagValue;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
+import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.RollupMetaTable;
+import co.cask.cdap.metrics.process.KafkaConsumerMetaTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link DefaultMetricStore}.
+ */
+public class DefaultMetricStoreTest {
+
+  private static final Map<String, String> TAGS = ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, "ns1");
+
+  @Test
+  public void testPercentiles() throws Exception {
+    DefaultMetricStore metricStore = new DefaultMetricStore(new InMemoryMetricDatasetFactory("percentiles"),
+                                                            CConfiguration.create());
+
+    // values 1 to 100 in the first minute, recorded by two emitters and at different seconds
+    long[] counts = new long[Histograms.BUCKETS];
+    for (int value = 1; value <= 100; value++) {
+      counts[Histograms.getBucket(value)]++;
+    }
+    metricStore.add(ImmutableList.of(getHistogram(10, 1, 50), getHistogram(10, 51, 80), getHistogram(20, 81, 100)));
+    // ten times 1000 in the second minute
+    metricStore.add(getHistogram(70, 1000, 1000, 10));
+
+    Map<String, Long> expected = ImmutableMap.of("system.latency:p50", 55L, "system.latency:p99", 111L,
+                                                 "system.latency:p100", 111L);
+    for (Map.Entry<String, Long> entry : expected.entrySet()) {
+      double percentile = Double.parseDouble(entry.getKey().substring(entry.getKey().indexOf(":p") + 2));
+      Assert.assertEquals(entry.getValue().longValue(), Histograms.getPercentile(counts, percentile));
+    }
+
+    Map<String, AggregationFunction> metrics = Maps.newHashMap();
+    for (String metric : expected.keySet()) {
+      metrics.put(metric, AggregationFunction.SUM);
+    }
+    Collection<MetricTimeSeries> result =
+      metricStore.query(new MetricDataQuery(0, 119, 60, metrics, TAGS, ImmutableList.<String>of()));
+
+    // one time series per percentile, the bucket measures are not returned
+    Assert.assertEquals(expected.size(), result.size());
+    for (MetricTimeSeries timeSeries : result) {
+      Assert.assertTrue(timeSeries.getMetricName(), expected.containsKey(timeSeries.getMetricName()));
+      Assert.assertEquals(ImmutableList.of(new TimeValue(0, expected.get(timeSeries.getMetricName())),
+                                           new TimeValue(60, 1023)),
+                          timeSeries.getTimeValues());
+    }
+
+    // histograms are listed by name
+    List<TagValue> tagValues = ImmutableList.of(new TagValue(Constants.Metrics.Tag.NAMESPACE, "ns1"));
+    Collection<String> names = metricStore.findMetricNames(new MetricSearchQuery(0, Integer.MAX_VALUE, -1, tagValues));
+    Assert.assertEquals(ImmutableList.of("system.latency"), ImmutableList.copyOf(names));
+  }
+
+  @Test
+  public void testPercentileHistogramsLimit() throws Exception {
+    DefaultMetricStore metricStore = new DefaultMetricStore(new InMemoryMetricDatasetFactory("limit"),
+                                                            CConfiguration.create());
+    Map<String, AggregationFunction> metrics = Maps.newHashMap();
+    for (int i = 0; i <= DefaultMetricStore.MAX_PERCENTILE_HISTOGRAMS; i++) {
+      metrics.put("system.latency" + i + ":p99", AggregationFunction.SUM);
+    }
+    try {
+      metricStore.query(new MetricDataQuery(0, 119, 60, metrics, TAGS, ImmutableList.<String>of()));
+      Assert.fail("Expected failure on too many histograms");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Returns the histogram metric of the values in the given range, counting each value the given number of times.
+   */
+  private MetricValues getHistogram(long timestamp, int from, int to, int times) {
+    long[] counts = new long[Histograms.BUCKETS];
+    for (int value = from; value <= to; value++) {
+      counts[Histograms.getBucket(value)] += times;
+    }
+    List<MetricValue> values = Lists.newArrayList();
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      if (counts[bucket] > 0) {
+        values.add(new MetricValue("latency", MetricType.HISTOGRAM, Histograms.encode(bucket, counts[bucket])));
+      }
+    }
+    return new MetricValues(TAGS, timestamp, values);
+  }
+
+  private MetricValues getHistogram(long timestamp, int from, int to) {
+    return getHistogram(timestamp, from, to, 1);
+  }
+
+  /**
+   * A {@link MetricDatasetFactory} of in-memory tables.
+   */
+  private static final class InMemoryMetricDatasetFactory implements MetricDatasetFactory {
+
+    private final String prefix;
+
+    InMemoryMetricDatasetFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public FactTable getOrCreateFactTable(int resolution) {
+      String entityTableName = prefix + "-entity";
+      InMemoryTableService.create(entityTableName);
+      String dataTableName = prefix + "-data-" + resolution;
+      InMemoryTableService.create(dataTableName);
+      return new FactTable(new InMemoryMetricsTable(dataTableName),
+                           new EntityTable(new InMemoryMetricsTable(entityTableName)), resolution, 3600);
+    }
+
+    @Override
+    public KafkaConsumerMetaTable createKafkaConsumerMeta() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RollupMetaTable createRollupMeta() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}